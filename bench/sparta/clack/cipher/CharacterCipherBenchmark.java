@@ -0,0 +1,87 @@
+package sparta.clack.cipher;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the static helpers every cipher is built from: {@link CharacterCipher#clean(String)},
+ * {@link CharacterCipher#shift(String, int)} and {@link CharacterCipher#group(String, int)}, on inputs from a chat
+ * line to a 1 MB payload.
+ * <p>
+ * {@code clean} is given upper-case words with spaces and punctuation; {@code shift} and {@code group} are given the
+ * cleaned letters. {@code substituteWords} and {@code substituteBytes} compare shifting eight letters at a time with
+ * shifting one at a time, for a five-letter Vigenère key. Run with the GC profiler to see the allocation rate beside
+ * the time, e.g. {@code java -cp 'out/bench:lib/*' org.openjdk.jmh.Main CharacterCipherBenchmark -prof gc} once built
+ * as described in {@code bench/README.md}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharacterCipherBenchmark {
+    private static final String PUNCTUATION = " ,.!?'";
+    private static final int[] SCHEDULE = {11, 4, 12, 14, 13};  // LEMON
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int length;
+
+    private String text;
+    private String letters;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        text = text(length);
+        letters = CharacterCipher.clean(text);
+    }
+
+    @Benchmark
+    public String clean() {
+        return CharacterCipher.clean(text);
+    }
+
+    @Benchmark
+    public String shift() {
+        return CharacterCipher.shift(letters, 3);
+    }
+
+    @Benchmark
+    public String substituteWords() {
+        return CharacterCipher.substitute(letters, SCHEDULE, true);
+    }
+
+    @Benchmark
+    public String substituteBytes() {
+        return CharacterCipher.substitute(letters, SCHEDULE, false);
+    }
+
+    @Benchmark
+    public String group() {
+        return CharacterCipher.group(letters, 5);
+    }
+
+    /**
+     * Generates the same chat-like text for every run: upper-case words of one to eight letters, separated by a space
+     * or punctuation.
+     *
+     * @param length the number of characters.
+     * @return the text.
+     */
+    static String text(int length) {
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int word = random.nextInt(1, 9);
+            for (int i = 0; i < word && text.length() < length; i++) {
+                text.append(CharacterCipher.ALPHABET.charAt(random.nextInt(CharacterCipher.ALPHABET.length())));
+            }
+            if (text.length() < length) {
+                text.append(PUNCTUATION.charAt(random.nextInt(PUNCTUATION.length())));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package sparta.clack.cipher;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each cipher's {@code prep}, {@code encrypt} and {@code decrypt}, on inputs from a chat line to a 1 MB
+ * payload.
+ * <p>
+ * The cleartext is upper-case words with spaces and punctuation, the same for every cipher, so that every cipher's
+ * {@code prep} keeps all of its letters; {@code encrypt} is given the cipher's own preparation of it, and
+ * {@code decrypt} the resulting ciphertext. The ciphers allocate on every call, so run with the GC profiler to see
+ * the allocation rate beside the time, e.g. {@code java -cp 'out/bench:lib/*' org.openjdk.jmh.Main CipherBenchmark
+ * -prof gc} once built as described in {@code bench/README.md}.
+ * <p>
+ * {@code encryptParallel} and {@code decryptParallel} split texts of two segments or more across the ciphers'
+ * own fork/join pool, as {@code encipher} and {@code decipher} do; compare them with {@code encrypt} and
+ * {@code decrypt} at 1 MB, on a machine with several cores.
+ * <p>
+ * {@code encryptBuffer} streams the cleartext's bytes through the cipher's {@code encryptor()} into a buffer made
+ * once, without allocating. For AES_GCM, whose strings are Base64 frames, it seals the bytes in frames of 4 KB; see
+ * {@link AesGcmCipherBenchmark} for one frame per message.
+ * <p>
+ * AES_GCM is no {@link CharacterCipher}: it has no {@code prep}, which measures the cleartext as it is, and its
+ * {@code encrypt} and {@code decrypt}, serial or parallel, are its {@code encipher} and {@code decipher}, which seal
+ * and open each message whole in buffers the thread keeps.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+    @Param({"CAESAR", "VIGNERE", "PLAYFAIR", "AES_GCM"})
+    public CipherEnum cipherName;
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int length;
+
+    private MessageCipher cipher;
+    private CharacterCipher letters; // The cipher, unless it is AES_GCM.
+    private String cleartext;
+    private String preptext;
+    private String ciphertext;
+    private byte[] clearBytes;
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cipher = switch (cipherName) {
+            case CAESAR -> new CaesarCipher(3);
+            case VIGNERE -> new VignereCipher("LEMON");
+            case PLAYFAIR -> new PlayfairCipher("MONARCHY");
+            case AES_GCM -> new AesGcmCipher(AesGcmCipherBenchmark.KEY);
+        };
+        letters = cipher instanceof CharacterCipher characterCipher ? characterCipher : null;
+        cleartext = CharacterCipherBenchmark.text(length);
+        preptext = prep();
+        ciphertext = encrypt();
+        clearBytes = cleartext.getBytes(StandardCharsets.US_ASCII);
+        // Room for Playfair's padding to double the text, or AES_GCM's ID and frames, and a whole frame more.
+        buffer = ByteBuffer.allocate(2 * length + 2 * (AesGcmCipher.CHUNK + AesGcmCipher.OVERHEAD));
+    }
+
+    @Benchmark
+    public String prep() {
+        return letters == null ? cleartext : letters.prep(cleartext);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return letters == null ? cipher.encipher(preptext) : letters.encrypt(preptext);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return letters == null ? cipher.decipher(ciphertext) : letters.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    public ByteBuffer encryptBuffer() {
+        CipherTransform encryptor = cipher.encryptor();
+        buffer.clear();
+        encryptor.update(ByteBuffer.wrap(clearBytes), buffer);
+        encryptor.finish(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public String encryptParallel() {
+        return letters == null ? cipher.encipher(preptext) : letters.encryptParallel(preptext);
+    }
+
+    @Benchmark
+    public String decryptParallel() {
+        return letters == null ? cipher.decipher(ciphertext) : letters.decryptParallel(ciphertext);
+    }
+}
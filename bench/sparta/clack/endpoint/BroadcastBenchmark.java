@@ -0,0 +1,219 @@
+package sparta.clack.endpoint;
+
+import org.openjdk.jmh.annotations.*;
+import sparta.clack.message.LoginMessage;
+import sparta.clack.message.Message;
+import sparta.clack.message.TextMessage;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures broadcast throughput with and without write coalescing, and the latency of each message from send to
+ * receipt.
+ * <p>
+ * A server runs in the benchmark's JVM with a room of {@code clients} logged-in clients on loopback. Each operation
+ * is one client sending a burst of TEXT messages and waiting until every client has received all of them. The
+ * score is bursts per second; per-message latency percentiles, and the room's {@link FlushStats}, are printed at
+ * the end of each trial. {@code maxBatch = 1} writes every frame with its own system call, as the server did before
+ * coalescing. A non-zero {@code flushDelayMicros} makes blocking writers linger for more frames, e.g.
+ * {@code -p flushDelayMicros=1000}. The server's {@link TrafficLog} records every message, as it does by default;
+ * {@code -p trafficLevel=OFF} measures without it.
+ * <p>
+ * Build as described in {@code bench/README.md} and run with the JMH runner, e.g.
+ * {@code java -cp 'out/bench:lib/*' org.openjdk.jmh.Main BroadcastBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final int BURST = 100;
+    private static final int LATENCY_BUCKETS = 100_000; // One per microsecond, the last taking everything slower.
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    @Param({"1", "64"})
+    public int maxBatch;
+
+    @Param({"0"})
+    public long flushDelayMicros;
+
+    @Param({"16"})
+    public int clients;
+
+    @Param({"ALL"})
+    public TrafficLog.Level trafficLevel;
+
+    private ChatRoom room;
+    private PrintStream console;
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<Thread> readers = new ArrayList<>();
+    private final List<long[]> latencies = new ArrayList<>();
+    private final AtomicLong received = new AtomicLong();
+    private OutputStream sender;
+    private long expected = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // The servers print every connection that ends; keep that out of the measurement.
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        room = new ChatRoom(ChatRoom.DEFAULT_QUEUE_CAPACITY, SlowConsumerPolicy.BLOCK,
+                ChatRoom.DEFAULT_BLOCK_TIMEOUT_MILLIS, maxBatch, flushDelayMicros);
+        int port = freePort();
+        Thread server = switch (engine) {
+            case "blocking" -> {
+                Server blocking = new Server(port, "server", room);
+                blocking.getTrafficLog().setLevel(trafficLevel);
+                yield new Thread(() -> run(blocking::start));
+            }
+            case "nio" -> {
+                NioServer nio = new NioServer(port, "server", room);
+                nio.getTrafficLog().setLevel(trafficLevel);
+                yield new Thread(() -> run(nio::start));
+            }
+            default -> throw new IllegalArgumentException(engine);
+        };
+        server.setDaemon(true);
+        server.start();
+
+        for (int i = 0; i < clients; i++) {
+            Socket socket = connect(port);
+            sockets.add(socket);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String name = "user" + i;
+            Frames.read(in);
+            Frames.write(out, new LoginMessage(name, new StringBuilder(name).reverse().toString()));
+            out.flush();
+            Frames.read(in);
+            if (i == 0) {
+                sender = out;
+            }
+            long[] histogram = new long[LATENCY_BUCKETS];
+            latencies.add(histogram);
+            Thread reader = new Thread(() -> receive(in, histogram));
+            reader.setDaemon(true);
+            reader.start();
+            readers.add(reader);
+        }
+    }
+
+    @Benchmark
+    public void broadcastBurst() throws IOException {
+        for (int i = 0; i < BURST; i++) {
+            Frames.write(sender, new TextMessage("user0", Long.toString(System.nanoTime())));
+        }
+        sender.flush();
+        expected += (long) BURST * clients;
+        while (received.get() < expected) {
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        long[] total = new long[LATENCY_BUCKETS];
+        long count = 0;
+        for (long[] histogram : latencies) {
+            for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                total[i] += histogram[i];
+                count += histogram[i];
+            }
+        }
+        console.println(engine + " maxBatch=" + maxBatch + " flushDelayMicros=" + flushDelayMicros
+                + " trafficLevel=" + trafficLevel + ": latency p50 " + percentile(total, count, 0.50)
+                + " us, p99 " + percentile(total, count, 0.99) + " us, p99.9 " + percentile(total, count, 0.999)
+                + " us; writes: " + room.getFlushStats());
+        System.setOut(console);
+    }
+
+    /**
+     * Reads broadcasts until the socket closes, recording each one's latency. Runs on the client's reader thread.
+     */
+    private void receive(DataInputStream in, long[] histogram) {
+        try {
+            while (true) {
+                Message msg = Frames.read(in);
+                if (msg instanceof TextMessage text) {
+                    long micros = (System.nanoTime() - Long.parseLong(text.getText())) / 1_000;
+                    histogram[(int) Math.min(Math.max(micros, 0), LATENCY_BUCKETS - 1)]++;
+                    received.incrementAndGet();
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Closed at tear-down.
+        }
+    }
+
+    /**
+     * Runs a server until the benchmark's JVM exits.
+     */
+    private void run(Startable server) {
+        try {
+            server.start();
+        } catch (IOException e) {
+            e.printStackTrace(console);
+        }
+    }
+
+    private interface Startable {
+        void start() throws IOException;
+    }
+
+    private static long percentile(long[] histogram, long count, double fraction) {
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    private static int freePort() throws IOException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int port = ThreadLocalRandom.current().nextInt(20_000, 40_000);
+            try (ServerSocket probe = new ServerSocket(port)) {
+                return probe.getLocalPort();
+            } catch (IOException e) {
+                // In use; try another.
+            }
+        }
+        throw new IOException("No free port found.");
+    }
+
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket("localhost", port);
+            } catch (ConnectException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.message.*;
+import sparta.clack.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A load generator: starts a server in this JVM, drives simulated clients against it over loopback, each sending a
+ * mix of messages at a fixed rate, and reports throughput and latency, both for reading and as JSON.
+ * <p>
+ * The load is open-loop. Each client sends on a fixed schedule whether or not its earlier messages have been
+ * answered, and latency is measured from when a message was due to be sent, not from when it was. A server that
+ * stalls is therefore charged for every message that should have been sent during the stall, rather than slowing
+ * the clients down and hiding the stall (coordinated omission). The uncorrected latency, measured from the actual
+ * send, is reported beside it; a large gap between the two means the clients could not keep to the schedule.
+ * <p>
+ * A request is complete when its reply arrives, matched by request ID (see {@link AsyncClient#request(Message)}); a
+ * TEXT message is complete when its broadcast reaches its own sender. Connection setup is timed from connecting to
+ * the login being accepted, for every login, including those of clients that log out and back in during the run.
+ * <p>
+ * FILE messages are saved by the server like any other, under tempfiles/ in the working directory.
+ * <p>
+ * Build as described in {@code bench/README.md} and run with e.g.
+ * {@code java -cp 'out/bench:lib/*' sparta.clack.endpoint.LoadGenerator --engine=nio --clients=64 --rate=5000}.
+ */
+public final class LoadGenerator {
+    private static final String USAGE = """
+            Usage: java sparta.clack.endpoint.LoadGenerator [--option=value ...]
+              --engine=blocking|nio|multi-reactor  the server engine (blocking)
+              --clients=N                          the number of simulated clients (16)
+              --rate=R                             messages per second, all clients together (1000)
+              --warmup=S                           seconds to run before measuring (5)
+              --duration=S                         seconds to measure (30)
+              --mix=TYPE:W,...                     relative weights of TEXT, HELP, LISTUSERS and FILE
+                                                   (TEXT:80,HELP:5,LISTUSERS:10,FILE:5)
+              --session=N                          messages per login before logging out and back in; 0 never (0)
+              --file-size=B                        the size of each FILE message in bytes (4096)
+              --json=PATH                          write the results to a file as well as to the console""";
+
+    private static final MsgType[] MIXABLE = {MsgType.TEXT, MsgType.HELP, MsgType.LISTUSERS, MsgType.FILE};
+    private static final long DRAIN_TIMEOUT_MILLIS = 10_000;
+
+    private final ServerEngine engine;
+    private final int clients;
+    private final double rate;
+    private final double warmupSeconds;
+    private final double durationSeconds;
+    private final EnumMap<MsgType, Integer> mix;
+    private final int sessionLength;
+    private final int fileSize;
+
+    private final LatencyHistogram setup = new LatencyHistogram();
+    private final EnumMap<MsgType, LatencyHistogram> corrected = new EnumMap<>(MsgType.class);
+    private final EnumMap<MsgType, LatencyHistogram> uncorrected = new EnumMap<>(MsgType.class);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private long measureStart;
+    private long measureEnd;
+
+    /**
+     * Creates a load generator. Nothing runs until {@link #run(PrintStream)} is called.
+     *
+     * @param engine          the server engine to run.
+     * @param clients         the number of simulated clients.
+     * @param rate            messages per second, all clients together.
+     * @param warmupSeconds   how long to run before measuring.
+     * @param durationSeconds how long to measure.
+     * @param mix             the relative weight of each message type sent.
+     * @param sessionLength   messages per login before a client logs out and back in, or 0 to stay logged in.
+     * @param fileSize        the size of each FILE message in bytes.
+     * @throws IllegalArgumentException if a count, rate or time is out of range, or the mix is empty.
+     */
+    public LoadGenerator(ServerEngine engine, int clients, double rate, double warmupSeconds, double durationSeconds,
+                         Map<MsgType, Integer> mix, int sessionLength, int fileSize) throws IllegalArgumentException {
+        if (clients < 1 || !(rate > 0) || !(warmupSeconds >= 0) || !(durationSeconds > 0) || sessionLength < 0
+                || fileSize < 0) {
+            throw new IllegalArgumentException("clients, rate and duration must be positive, the rest not negative.");
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("mix must give some message type a positive weight.");
+        }
+        this.engine = engine;
+        this.clients = clients;
+        this.rate = rate;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.mix = new EnumMap<>(mix);
+        this.sessionLength = sessionLength;
+        this.fileSize = fileSize;
+        for (MsgType type : MIXABLE) {
+            corrected.put(type, new LatencyHistogram());
+            uncorrected.put(type, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Parses the options, runs the load and prints the results.
+     *
+     * @param args options of the form {@code --name=value}; see USAGE.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                System.err.println(USAGE);
+                return;
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        LoadGenerator generator;
+        try {
+            generator = new LoadGenerator(
+                    ServerEngine.fromName(options.getOrDefault("engine", "blocking")),
+                    Integer.parseInt(options.getOrDefault("clients", "16")),
+                    Double.parseDouble(options.getOrDefault("rate", "1000")),
+                    Double.parseDouble(options.getOrDefault("warmup", "5")),
+                    Double.parseDouble(options.getOrDefault("duration", "30")),
+                    parseMix(options.getOrDefault("mix", "TEXT:80,HELP:5,LISTUSERS:10,FILE:5")),
+                    Integer.parseInt(options.getOrDefault("session", "0")),
+                    Integer.parseInt(options.getOrDefault("file-size", "4096")));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return;
+        }
+        try {
+            String json = generator.run(System.out);
+            System.out.println(json);
+            if (options.containsKey("json")) {
+                Files.writeString(Path.of(options.get("json")), json + System.lineSeparator());
+            }
+        } catch (IOException e) {
+            System.err.println("Load test failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts the server, runs every client for the warm-up and the measured time, waits for the last replies, and
+     * prints a summary. The server's own console output is suppressed while the clients run.
+     *
+     * @param console where to print the summary.
+     * @return the results as a JSON object.
+     * @throws IOException          if the server cannot be started, or a client cannot connect.
+     * @throws InterruptedException if interrupted while waiting for the clients.
+     */
+    public String run(PrintStream console) throws IOException, InterruptedException {
+        Path file = Files.createTempFile("clack-load", ".bin");
+        Files.write(file, new byte[fileSize]);
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            int port = freePort();
+            Supplier<String> serverMetrics = startServer(port);
+            awaitServer(port);
+            long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            measureStart = start + (long) (warmupSeconds * 1e9);
+            measureEnd = measureStart + (long) (durationSeconds * 1e9);
+            List<Thread> threads = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                SimulatedClient client = new SimulatedClient(i, port, start, file);
+                threads.add(Thread.ofVirtual().name("clack-load-" + i).start(client));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            console.println(summary());
+            console.print(serverMetrics.get());
+            return json();
+        } finally {
+            System.setOut(out);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * One simulated client: logs in, sends its share of the load on schedule, and logs out at the end (and, if
+     * sessions are limited, after every so many messages).
+     */
+    private final class SimulatedClient implements Runnable {
+        private final String username;
+        private final int port;
+        private final long interval;
+        private final Path file;
+        private final SplittableRandom random;
+        private final Queue<long[]> texts = new ConcurrentLinkedQueue<>(); // {due, sent} of each TEXT in flight.
+        private final List<CompletableFuture<?>> inFlight = new ArrayList<>();
+        private long due;
+
+        SimulatedClient(int index, int port, long start, Path file) {
+            this.username = "load" + index;
+            this.port = port;
+            this.interval = (long) (clients / rate * 1e9);
+            this.file = file;
+            this.random = new SplittableRandom(index);
+            this.due = start + interval * index / clients; // Spread the clients' sends evenly.
+        }
+
+        @Override
+        public void run() {
+            try {
+                AsyncClient connection = login();
+                FileMessage fileMessage = new FileMessage(username, file.toString(), username + ".bin");
+                int sessionSent = 0;
+                for (; due < measureEnd; due += interval) {
+                    long delay = due - System.nanoTime();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(delay);
+                    }
+                    if (sessionLength > 0 && sessionSent == sessionLength) {
+                        logout(connection);
+                        connection = login();
+                        sessionSent = 0;
+                    }
+                    send(connection, pick(), fileMessage);
+                    sessionSent++;
+                }
+                logout(connection);
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                System.err.println(username + " failed: " + e.getMessage());
+                failed.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Connects and logs in, and records how long it took.
+         */
+        private AsyncClient login() throws IOException, InterruptedException, ExecutionException,
+                TimeoutException {
+            CompletableFuture<Void> greeted = new CompletableFuture<>();
+            long start = System.nanoTime();
+            AsyncClient connection = new AsyncClient("localhost", port, msg -> receive(msg, greeted));
+            greeted.get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            String password = new StringBuilder(username).reverse().toString();
+            connection.request(new LoginMessage(username, password)).get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            setup.record(System.nanoTime() - start);
+            return connection;
+        }
+
+        /**
+         * Notes the greeting, and completes this client's own TEXT messages as their broadcasts come back, in the
+         * order they were sent.
+         */
+        private void receive(Message msg, CompletableFuture<Void> greeted) {
+            greeted.complete(null);
+            if (msg.getMsgType() == MsgType.TEXT && username.equals(msg.getUsername())) {
+                long[] text = texts.poll();
+                if (text != null) {
+                    complete(MsgType.TEXT, text[0], text[1]);
+                }
+            }
+        }
+
+        /**
+         * Sends one message, due at {@link #due}, and arranges for its latency to be recorded.
+         */
+        private void send(AsyncClient connection, MsgType type, FileMessage fileMessage) {
+            long scheduled = due;
+            long now = System.nanoTime();
+            if (scheduled >= measureStart) {
+                sent.increment();
+            }
+            if (type == MsgType.TEXT) {
+                texts.add(new long[]{scheduled, now});
+                connection.send(new TextMessage(username, "load test " + scheduled));
+                return;
+            }
+            Message msg = switch (type) {
+                case HELP -> new HelpMessage(username);
+                case LISTUSERS -> new ListUsersMessage(username);
+                default -> fileMessage;
+            };
+            inFlight.removeIf(CompletableFuture::isDone);
+            inFlight.add(connection.request(msg).handle((reply, e) -> {
+                if (e != null) {
+                    failed.increment();
+                } else {
+                    complete(type, scheduled, now);
+                }
+                return null;
+            }));
+        }
+
+        /**
+         * Waits for every message in flight to be answered, then logs out and waits for the server to close.
+         */
+        private void logout(AsyncClient connection) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0]))
+                    .get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            inFlight.clear();
+            while (!texts.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            failed.add(texts.size());
+            texts.clear();
+            connection.request(new LogoutMessage(username)).get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            connection.close();
+        }
+
+        /**
+         * Picks the next message type according to the mix.
+         */
+        private MsgType pick() {
+            int total = 0;
+            for (int weight : mix.values()) {
+                total += weight;
+            }
+            int choice = random.nextInt(total);
+            for (Map.Entry<MsgType, Integer> entry : mix.entrySet()) {
+                choice -= entry.getValue();
+                if (choice < 0) {
+                    return entry.getKey();
+                }
+            }
+            throw new IllegalStateException("Empty mix.");
+        }
+    }
+
+    /**
+     * Records a completed message, if it was due within the measured time.
+     *
+     * @param type      the message's type.
+     * @param scheduled when it was due to be sent.
+     * @param sentAt    when it was actually sent.
+     */
+    private void complete(MsgType type, long scheduled, long sentAt) {
+        if (scheduled < measureStart || scheduled >= measureEnd) {
+            return;
+        }
+        long now = System.nanoTime();
+        corrected.get(type).record(now - scheduled);
+        uncorrected.get(type).record(now - sentAt);
+        completed.increment();
+    }
+
+    /**
+     * Formats the results for reading.
+     *
+     * @return one line for the totals and connection setup, then one per message type sent.
+     */
+    private String summary() {
+        StringBuilder lines = new StringBuilder(String.format(
+                "%s, %d clients, target %.0f msg/s: %d sent, %d completed (%.0f msg/s), %d failed%n",
+                engine.name().toLowerCase(), clients, rate, sent.sum(), completed.sum(),
+                completed.sum() / durationSeconds, failed.sum()));
+        lines.append("setup: ").append(setup).append(System.lineSeparator());
+        LatencyHistogram all = merge(corrected);
+        lines.append("all: ").append(all).append(System.lineSeparator());
+        for (MsgType type : MIXABLE) {
+            if (corrected.get(type).getCount() != 0) {
+                double uncorrectedP99 = uncorrected.get(type).getP99Micros();
+                lines.append(type).append(": ").append(corrected.get(type))
+                        .append(String.format(" (uncorrected p99=%.1f us)", uncorrectedP99))
+                        .append(System.lineSeparator());
+            }
+        }
+        return lines.toString().stripTrailing();
+    }
+
+    /**
+     * Formats the results as one JSON object, with latencies in microseconds.
+     *
+     * @return the JSON text.
+     */
+    private String json() {
+        StringBuilder json = new StringBuilder("{")
+                .append("\"engine\":\"").append(engine.name().toLowerCase()).append("\",")
+                .append("\"clients\":").append(clients).append(',')
+                .append("\"targetRate\":").append(rate).append(',')
+                .append("\"durationSeconds\":").append(durationSeconds).append(',')
+                .append("\"sent\":").append(sent.sum()).append(',')
+                .append("\"completed\":").append(completed.sum()).append(',')
+                .append("\"failed\":").append(failed.sum()).append(',')
+                .append("\"throughput\":").append(completed.sum() / durationSeconds).append(',')
+                .append("\"setup\":");
+        appendHistogram(json, setup);
+        json.append(",\"latency\":");
+        appendHistogram(json, merge(corrected));
+        json.append(",\"uncorrectedLatency\":");
+        appendHistogram(json, merge(uncorrected));
+        json.append(",\"types\":{");
+        String separator = "";
+        for (MsgType type : MIXABLE) {
+            if (corrected.get(type).getCount() != 0) {
+                json.append(separator).append('"').append(type).append("\":{\"latency\":");
+                appendHistogram(json, corrected.get(type));
+                json.append(",\"uncorrectedLatency\":");
+                appendHistogram(json, uncorrected.get(type));
+                json.append('}');
+                separator = ",";
+            }
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void appendHistogram(StringBuilder json, LatencyHistogram histogram) {
+        json.append("{\"count\":").append(histogram.getCount())
+                .append(",\"mean\":").append(histogram.getMeanMicros())
+                .append(",\"p50\":").append(histogram.getP50Micros())
+                .append(",\"p99\":").append(histogram.getP99Micros())
+                .append(",\"p999\":").append(histogram.getP999Micros())
+                .append(",\"max\":").append(histogram.getMaxMicros()).append('}');
+    }
+
+    /**
+     * Combines the histograms of every message type into one.
+     */
+    private static LatencyHistogram merge(Map<MsgType, LatencyHistogram> histograms) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms.values()) {
+            merged.add(histogram);
+        }
+        return merged;
+    }
+
+    /**
+     * Parses a mix such as {@code TEXT:80,HELP:20}.
+     */
+    private static Map<MsgType, Integer> parseMix(String mix) throws IllegalArgumentException {
+        Map<MsgType, Integer> weights = new EnumMap<>(MsgType.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            MsgType type = parts.length == 2 ? MsgType.valueOf(parts[0].trim().toUpperCase()) : null;
+            if (!Arrays.asList(MIXABLE).contains(type)) {
+                throw new IllegalArgumentException("Cannot mix in '" + entry + "'.");
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weights cannot be negative.");
+            }
+            weights.put(type, weight);
+        }
+        return weights;
+    }
+
+    /**
+     * Starts a server of the chosen engine on a daemon thread.
+     *
+     * @return a summary of the server's metrics, on demand.
+     */
+    private Supplier<String> startServer(int port) {
+        Thread thread;
+        Supplier<String> metrics;
+        switch (engine) {
+            case BLOCKING -> {
+                Server server = new Server(port);
+                thread = new Thread(() -> serve(server::start));
+                metrics = server.getMetrics()::snapshot;
+            }
+            case NIO -> {
+                NioServer server = new NioServer(port);
+                thread = new Thread(() -> serve(server::start));
+                metrics = server.getMetrics()::snapshot;
+            }
+            default -> {
+                MultiReactorServer server = new MultiReactorServer(port);
+                thread = new Thread(() -> serve(server::start));
+                metrics = server.getMetrics()::snapshot;
+            }
+        }
+        thread.setDaemon(true);
+        thread.start();
+        return metrics;
+    }
+
+    /**
+     * Runs a server until the JVM exits.
+     */
+    private static void serve(Startable server) {
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Server failed: " + e.getMessage());
+        }
+    }
+
+    private interface Startable {
+        void start() throws IOException;
+    }
+
+    /**
+     * Waits until the server accepts connections, then logs in and out once, so that its start-up is not counted
+     * as connection setup.
+     */
+    private static void awaitServer(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try (AsyncClient probe = new AsyncClient("localhost", port, msg -> { })) {
+                probe.request(new LoginMessage("probe", "eborp")).get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                probe.request(new LogoutMessage("probe")).get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                probe.closed().get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (ConnectException e) {
+                if (attempt == 500) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IOException("Server did not answer: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int port = ThreadLocalRandom.current().nextInt(20_000, 40_000);
+            try (ServerSocket probe = new ServerSocket(port)) {
+                return probe.getLocalPort();
+            } catch (IOException e) {
+                // In use; try another.
+            }
+        }
+        throw new IOException("No free port found.");
+    }
+}
@@ -0,0 +1,229 @@
+package sparta.clack.endpoint;
+
+import org.openjdk.jmh.annotations.*;
+import sparta.clack.cipher.AesGcmCipher;
+import sparta.clack.cipher.CharacterCipher;
+import sparta.clack.cipher.CipherEnum;
+import sparta.clack.cipher.KeyExchange;
+import sparta.clack.cipher.MessageCipher;
+import sparta.clack.message.LoginMessage;
+import sparta.clack.message.Message;
+import sparta.clack.message.OptionEnum;
+import sparta.clack.message.OptionMessage;
+import sparta.clack.message.TextMessage;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the throughput of TEXT messages through a room whose members have enabled a cipher, against a room whose
+ * members have not.
+ * <p>
+ * A server runs in the benchmark's JVM with a room of {@code clients} logged-in clients on loopback, each of which
+ * has set CIPHER_NAME to {@code cipher}, a CIPHER_KEY, and CIPHER_ENABLE to true; {@code cipher = NONE} leaves them
+ * all without one. The clients share {@code keys} different keys between them: the server decrypts each message
+ * once, and encrypts each broadcast once per key rather than once per member, so the cost grows with {@code keys},
+ * not {@code clients}. AES_GCM ignores {@code keys}: each client agrees a key of its own with the server, sending
+ * its public key as the CIPHER_KEY, so the server encrypts each broadcast once per client. Each operation is one
+ * client sending a burst of {@code length}-letter messages, encrypted as its own cipher would, and waiting until
+ * every client has received all of them. The score is bursts per second.
+ * <p>
+ * Build as described in {@code bench/README.md} and run with the JMH runner, e.g.
+ * {@code java -cp 'out/bench:lib/*' org.openjdk.jmh.Main SessionCipherBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionCipherBenchmark {
+    private static final int BURST = 100;
+    private static final String KEY_LETTERS = "BDEFGIKPQSTUVWXZ"; // None of them in LEMON or MONARCHY.
+
+    @Param({"nio"})
+    public String engine;
+
+    @Param({"NONE", "CAESAR", "VIGNERE", "PLAYFAIR", "AES_GCM"})
+    public String cipher;
+
+    @Param({"1", "4"})
+    public int keys;
+
+    @Param({"16"})
+    public int clients;
+
+    @Param({"64", "4096"})
+    public int length;
+
+    private PrintStream console;
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<Thread> readers = new ArrayList<>();
+    private final AtomicLong received = new AtomicLong();
+    private OutputStream sender;
+    private String ciphertext;
+    private long expected = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // The servers print every connection that ends; keep that out of the measurement.
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        int port = freePort();
+        Thread server = switch (engine) {
+            case "blocking" -> new Thread(() -> run(new Server(port)::start));
+            case "nio" -> new Thread(() -> run(new NioServer(port)::start));
+            default -> throw new IllegalArgumentException(engine);
+        };
+        server.setDaemon(true);
+        server.start();
+
+        StringBuilder text = new StringBuilder(length);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (text.length() < length) {
+            text.append(CharacterCipher.ALPHABET.charAt(random.nextInt(CharacterCipher.ALPHABET.length())));
+        }
+        ciphertext = text.toString();
+
+        CipherEnum name = cipher.equals("NONE") ? null : CipherEnum.valueOf(cipher);
+        for (int i = 0; i < clients; i++) {
+            Socket socket = connect(port);
+            sockets.add(socket);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String username = "user" + i;
+            Frames.read(in);
+            Frames.write(out, new LoginMessage(username, new StringBuilder(username).reverse().toString()));
+            out.flush();
+            Frames.read(in);
+            if (name != null) {
+                KeyExchange exchange = name == CipherEnum.AES_GCM ? new KeyExchange() : null;
+                String key = exchange != null ? exchange.publicKey() : key(name, i % keys);
+                Frames.write(out, new OptionMessage(username, OptionEnum.CIPHER_NAME, name.name()));
+                Frames.write(out, new OptionMessage(username, OptionEnum.CIPHER_KEY, key));
+                Frames.write(out, new OptionMessage(username, OptionEnum.CIPHER_ENABLE, "true"));
+                out.flush();
+                MessageCipher own = null;
+                for (int reply = 0; reply < 3; reply++) {
+                    if (!(Frames.read(in) instanceof OptionMessage ack)) {
+                        throw new IllegalStateException(username + " could not enable " + name + " " + key);
+                    }
+                    if (ack.getOption() == OptionEnum.CIPHER_KEY) {
+                        own = exchange != null ? new AesGcmCipher(exchange.agree(ack.getValue())) : name.newCipher(key);
+                    }
+                }
+                if (i == 0) {
+                    ciphertext = own.encipher(ciphertext);
+                }
+            }
+            if (i == 0) {
+                sender = out;
+            }
+            Thread reader = new Thread(() -> receive(in));
+            reader.setDaemon(true);
+            reader.start();
+            readers.add(reader);
+        }
+    }
+
+    @Benchmark
+    public void broadcastBurst() throws IOException {
+        for (int i = 0; i < BURST; i++) {
+            Frames.write(sender, new TextMessage("user0", ciphertext));
+        }
+        sender.flush();
+        expected += (long) BURST * clients;
+        while (received.get() < expected) {
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        System.setOut(console);
+    }
+
+    /**
+     * Reads broadcasts until the socket closes, counting them. Runs on the client's reader thread.
+     */
+    private void receive(DataInputStream in) {
+        try {
+            while (true) {
+                Message msg = Frames.read(in);
+                if (msg instanceof TextMessage text && text.getUsername().equals("user0")) {
+                    received.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            // Closed at tear-down.
+        }
+    }
+
+    /**
+     * Returns the {@code n}th of the keys the clients share for a type of classical cipher.
+     */
+    private static String key(CipherEnum name, int n) {
+        char letter = KEY_LETTERS.charAt(n);
+        return switch (name) {
+            case CAESAR -> String.valueOf(letter);
+            case VIGNERE -> "LEMON" + letter;
+            case PLAYFAIR -> "MONARCHY" + letter;
+            case AES_GCM -> throw new IllegalArgumentException("AES_GCM keys are agreed, not shared");
+        };
+    }
+
+    /**
+     * Runs a server until the benchmark's JVM exits.
+     */
+    private void run(Startable server) {
+        try {
+            server.start();
+        } catch (IOException e) {
+            e.printStackTrace(console);
+        }
+    }
+
+    private interface Startable {
+        void start() throws IOException;
+    }
+
+    private static int freePort() throws IOException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            int port = ThreadLocalRandom.current().nextInt(20_000, 40_000);
+            try (ServerSocket probe = new ServerSocket(port)) {
+                return probe.getLocalPort();
+            } catch (IOException e) {
+                // In use; try another.
+            }
+        }
+        throw new IOException("No free port found.");
+    }
+
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket("localhost", port);
+            } catch (ConnectException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package sparta.clack.message;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary codec with Java serialization: time to encode and decode one message, and the size of the
+ * encoding, which is printed once per trial.
+ * <p>
+ * Build as described in {@code bench/README.md} and run with the JMH runner, e.g.
+ * {@code java -cp 'out/bench:lib/*' org.openjdk.jmh.Main MessageCodecBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+    @Param({"BINARY", "SERIAL"})
+    public String codecName;
+
+    @Param({"TEXT", "LOGIN", "OPTION", "FILE"})
+    public String kind;
+
+    private MessageCodec codec;
+    private Message msg;
+    private ByteBuffer encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        codec = codecName.equals("BINARY") ? MessageCodec.BINARY : MessageCodec.SERIAL;
+        Instant now = Instant.now();
+        msg = switch (kind) {
+            case "TEXT" -> new TextMessage("alice", "Did anyone see the build results from last night?", now);
+            case "LOGIN" -> new LoginMessage("alice", "ecila", now);
+            case "OPTION" -> new OptionMessage("alice", OptionEnum.CIPHER_NAME, "PLAYFAIR", now);
+            case "FILE" -> new FileMessage("alice", "notes.txt", new byte[4096], now);
+            default -> throw new IllegalArgumentException(kind);
+        };
+        encoded = codec.encode(msg, 0);
+        System.out.println(codecName + " " + kind + ": " + encoded.remaining() + " bytes per message");
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return codec.encode(msg, 4);
+    }
+
+    @Benchmark
+    public Message decode() throws IOException {
+        return codec.decode(encoded.duplicate());
+    }
+}
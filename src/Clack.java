@@ -1,5 +1,8 @@
 import sparta.clack.endpoint.Client;
+import sparta.clack.endpoint.MultiReactorServer;
+import sparta.clack.endpoint.NioServer;
 import sparta.clack.endpoint.Server;
+import sparta.clack.endpoint.ServerEngine;
 import sparta.clack.ui.ClientUI;
 
 /**
@@ -16,7 +19,7 @@ import sparta.clack.ui.ClientUI;
 public class Clack {
     private final static String USAGE =
             "Usage: java Clack client <server name> <server port>\n"
-                    + "       java Clack server <server port>";
+                    + "       java Clack server <server port> [blocking|nio|multi-reactor]";
 
     /**
      * Create new instance of Clack.
@@ -33,7 +36,8 @@ public class Clack {
      *     <code>client &lt;server name&gt; &lt;server port&gt;</code> - Starts a client that connects to the specified server.
      *   </li>
      *   <li>
-     *     <code>server &lt;server port&gt;</code> - Starts a server that listens on the specified port.
+     *     <code>server &lt;server port&gt; [engine]</code> - Starts a server that listens on the specified port,
+     *     using the given {@link ServerEngine} (blocking by default).
      *   </li>
      * </ul>
      *
@@ -48,7 +52,9 @@ public class Clack {
         String mode = args[0].toLowerCase();
         try {
             if ("server".equals(mode) && args.length == 2) {
-                startServer(args[1]);
+                startServer(args[1], ServerEngine.BLOCKING.name());
+            } else if ("server".equals(mode) && args.length == 3) {
+                startServer(args[1], args[2]);
             } else if ("client".equals(mode) && args.length == 3) {
                 startClient(args[1], args[2]);
             } else if ("ui".equals(mode) && args.length == 1) { //FIXME(Nate): remove this after ui transition
@@ -65,20 +71,26 @@ public class Clack {
 
     /**
      * Starts the server by accepting the given port string, parsing it into an integer, and initializing
-     * a {@link Server} instance to listen for client connections.
+     * a server on the requested engine to listen for client connections: a {@link Server} for the blocking engine,
+     * a {@link NioServer} for the single-threaded non-blocking one, or a {@link MultiReactorServer} for one
+     * non-blocking loop per core.
      * <p>
      * If the provided port string cannot be parsed as an integer or if any other error occurs while
      * initializing or starting the server, an error message is printed to the console, and usage instructions
      * are displayed.
      * </p>
      *
-     * @param portStr the port number as a string, which will be parsed into an integer to start the server.
+     * @param portStr   the port number as a string, which will be parsed into an integer to start the server.
+     * @param engineStr the name of the {@link ServerEngine} to run on.
      */
-    private static void startServer(String portStr) {
+    private static void startServer(String portStr, String engineStr) {
         try {
             int port = Integer.parseInt(portStr);
-            Server server = new Server(port, Server.DEFAULT_SERVERNAME);
-            server.start();
+            switch (ServerEngine.fromName(engineStr)) {
+                case BLOCKING -> new Server(port, Server.DEFAULT_SERVERNAME).start();
+                case NIO -> new NioServer(port, Server.DEFAULT_SERVERNAME).start();
+                case MULTI_REACTOR -> new MultiReactorServer(port, Server.DEFAULT_SERVERNAME).start();
+            }
         } catch (NumberFormatException e) {
             System.err.println(portStr + " cannot be parsed as an int.");
             System.err.println(USAGE);
@@ -0,0 +1,631 @@
+package sparta.clack.cipher;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The {@code AesGcmCipher} class implements authenticated encryption and decryption with AES in Galois/Counter Mode,
+ * using the JDK's {@code javax.crypto} implementation, which uses the processor's AES instructions where it has them.
+ *
+ * <p>Unlike the classical {@link CharacterCipher}s, it encrypts any text, not just its letters, and decrypting gives
+ * back exactly the text that was encrypted. Each message is sealed in a frame of its own: a fresh random 12-byte
+ * nonce, the ciphertext, as long as the UTF-8 text, and a 16-byte tag, without which the frame does not decrypt. A
+ * ciphertext string is the frame in Base64, so that it travels in a {@code TextMessage}.
+ * {@link #seal(ByteBuffer, ByteBuffer)} and {@link #open(ByteBuffer, ByteBuffer)} work on the frames themselves, and
+ * allocate no buffers of their own, though the JDK's {@link Cipher}, with the {@link GCMParameterSpec} that every
+ * nonce needs, still allocates about 0.9 KB for every frame, whatever its length.
+ *
+ * <p>{@link #encipher(String)} and {@link #decipher(String)}, which sessions call for every chat message, go through
+ * {@code seal} and {@code open} too: the UTF-8 text, the frame and its Base64 are written into buffers the thread
+ * keeps for its next message, so that beyond the JDK's share a message costs only the string it returns. Buffers for
+ * messages over {@value #KEPT_BUFFER} bytes are made for the message and dropped, so a thread holds on to no more
+ * than that however long the messages it once handled.
+ *
+ * <p>The key is a 128-, 192- or 256-bit AES key in Base64; {@link #newKey()} makes one. Every thread gets its own
+ * {@link Cipher} and nonce generator, made on its first message and kept for the next, so a cipher can be shared by
+ * any number of threads. They are the thread's, not the cipher's: the key is given to the {@code Cipher} for every
+ * frame, so a thread that works for many sessions, each with its own key, still keeps just one.
+ */
+public class AesGcmCipher implements MessageCipher {
+    /**
+     * The length of the nonce at the start of every frame, in bytes.
+     */
+    public static final int NONCE_LENGTH = 12;
+
+    /**
+     * The length of the authentication tag at the end of every frame, in bytes.
+     */
+    public static final int TAG_LENGTH = 16;
+
+    /**
+     * The number of bytes a frame adds to the text it seals.
+     */
+    public static final int OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+
+    /**
+     * The length of the random ID at the start of every text sealed by an {@link #encryptor()}, in bytes.
+     */
+    static final int STREAM_ID_LENGTH = 16;
+
+    /**
+     * The most text sealed in one frame by an {@link #encryptor()}.
+     */
+    static final int CHUNK = 4096;
+
+    /**
+     * The largest buffer a thread keeps from one message to the next, in bytes.
+     */
+    static final int KEPT_BUFFER = 64 * 1024;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    /**
+     * The Base64 digit of each 6-bit value.
+     */
+    private static final byte[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The 6-bit value of each Base64 digit below 128, or -1 for characters that are not digits.
+     */
+    private static final byte[] BASE64_VALUE = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUE, (byte) -1);
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64_VALUE[BASE64[i]] = (byte) i;
+        }
+    }
+
+    private final SecretKeySpec key;
+    private static final ThreadLocal<Engine> ENGINES = ThreadLocal.withInitial(Engine::new);
+
+    /**
+     * Constructs an {@code AesGcmCipher} with a key given in Base64.
+     *
+     * @param key a 16-, 24- or 32-byte AES key in Base64, such as one from {@link #newKey()}.
+     * @throws IllegalArgumentException if the key is null, not Base64, or not one of those lengths.
+     */
+    public AesGcmCipher(String key) throws IllegalArgumentException {
+        if (key == null) {
+            throw new IllegalArgumentException("Need a non-null key");
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(key.strip());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Key must be in Base64: " + e.getMessage(), e);
+        }
+        if (bytes.length != 16 && bytes.length != 24 && bytes.length != 32) {
+            throw new IllegalArgumentException("Key must be 16, 24 or 32 bytes, not " + bytes.length);
+        }
+        this.key = new SecretKeySpec(bytes, "AES");
+        Arrays.fill(bytes, (byte) 0);
+    }
+
+    /**
+     * Generates a new random 256-bit key.
+     *
+     * @return the key in Base64, for {@link #AesGcmCipher(String)}.
+     */
+    public static String newKey() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            return Base64.getEncoder().encodeToString(generator.generateKey().getEncoded());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("AES not available", e);
+        }
+    }
+
+    /**
+     * Encrypts a text into a frame, in Base64. Every character can be encrypted, and the frame is sealed whole, on
+     * the calling thread, in buffers it keeps for its next message.
+     *
+     * @param cleartext the text to encrypt.
+     * @return the frame in Base64, or null if cleartext is null.
+     */
+    @Override
+    public String encipher(String cleartext) {
+        if (cleartext == null) {
+            return null;
+        }
+        CipherEvent event = new CipherEvent();
+        Engine engine = ENGINES.get();
+        ByteBuffer text = engine.encode(cleartext);
+        ByteBuffer frame = engine.frame(OVERHEAD + text.remaining());
+        seal(text, frame, null);
+        String ciphertext = engine.toBase64(frame.flip());
+        event.finish(this, CipherEvent.ENCRYPT, cleartext, ciphertext);
+        return ciphertext;
+    }
+
+    /**
+     * Decrypts a frame, in Base64, back into the text that was encrypted, in buffers the calling thread keeps for its
+     * next message.
+     *
+     * @param ciphertext the frame in Base64.
+     * @return the decryption, or null if ciphertext is null.
+     * @throws IllegalArgumentException if the ciphertext is not Base64, or not a frame sealed with this key.
+     */
+    @Override
+    public String decipher(String ciphertext) throws IllegalArgumentException {
+        if (ciphertext == null) {
+            return null;
+        }
+        CipherEvent event = new CipherEvent();
+        Engine engine = ENGINES.get();
+        ByteBuffer frame = engine.fromBase64(ciphertext);
+        ByteBuffer text = engine.text(Math.max(frame.remaining() - OVERHEAD, 0));
+        open(frame, text, null);
+        String plaintext = new String(text.array(), 0, text.position(), StandardCharsets.UTF_8);
+        event.finish(this, CipherEvent.DECRYPT, ciphertext, plaintext);
+        return plaintext;
+    }
+
+    /**
+     * Seals the remaining bytes of a buffer in a frame: a new nonce, their encryption, and the tag.
+     *
+     * @param plaintext the bytes to encrypt; all of them are consumed.
+     * @param frame     where to put the frame; it needs room for {@link #OVERHEAD} more bytes than the plaintext.
+     * @return the length of the frame.
+     * @throws BufferOverflowException if {@code frame} does not have room for the frame; neither buffer is changed.
+     */
+    public int seal(ByteBuffer plaintext, ByteBuffer frame) {
+        return seal(plaintext, frame, null);
+    }
+
+    /**
+     * Opens a frame sealed by {@link #seal(ByteBuffer, ByteBuffer)}: checks its tag and decrypts it.
+     *
+     * @param frame     the frame, all of its remaining bytes; all of them are consumed.
+     * @param plaintext where to put the decryption; it needs room for {@link #OVERHEAD} fewer bytes than the frame.
+     * @return the length of the decryption.
+     * @throws IllegalArgumentException if the frame is too short, or was not sealed with this key, or has been
+     *                                  changed since; nothing is decrypted.
+     * @throws BufferOverflowException  if {@code plaintext} does not have room for the decryption; neither buffer is
+     *                                  changed.
+     */
+    public int open(ByteBuffer frame, ByteBuffer plaintext) throws IllegalArgumentException {
+        return open(frame, plaintext, null);
+    }
+
+    /**
+     * Seals a buffer in a frame, authenticating some associated data with it.
+     *
+     * @param plaintext the bytes to encrypt.
+     * @param frame     where to put the frame.
+     * @param aad       the data to authenticate but not encrypt, or null.
+     * @return the length of the frame.
+     * @throws BufferOverflowException if {@code frame} does not have room for the frame.
+     */
+    private int seal(ByteBuffer plaintext, ByteBuffer frame, byte[] aad) {
+        int length = OVERHEAD + plaintext.remaining();
+        if (frame.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        Engine engine = ENGINES.get();
+        engine.random.nextBytes(engine.nonce);
+        try {
+            // A GCMParameterSpec copies its nonce and cannot be changed, so every frame needs a spec of its own.
+            engine.cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, engine.nonce));
+            if (aad != null) {
+                engine.cipher.updateAAD(aad);
+            }
+            frame.put(engine.nonce);
+            engine.cipher.doFinal(plaintext, frame);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM encryption failed", e);
+        }
+        return length;
+    }
+
+    /**
+     * Opens a frame, checking the associated data it was sealed with.
+     *
+     * @param frame     the frame.
+     * @param plaintext where to put the decryption.
+     * @param aad       the data the frame was sealed with, or null.
+     * @return the length of the decryption.
+     * @throws IllegalArgumentException if the frame does not open.
+     * @throws BufferOverflowException  if {@code plaintext} does not have room for the decryption.
+     */
+    private int open(ByteBuffer frame, ByteBuffer plaintext, byte[] aad) throws IllegalArgumentException {
+        int length = frame.remaining() - OVERHEAD;
+        if (length < 0) {
+            throw new IllegalArgumentException("Ciphertext too short to be a frame");
+        }
+        if (plaintext.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        Engine engine = ENGINES.get();
+        frame.get(engine.nonce);
+        try {
+            engine.cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * Byte.SIZE, engine.nonce));
+            if (aad != null) {
+                engine.cipher.updateAAD(aad);
+            }
+            engine.cipher.doFinal(frame, plaintext);
+        } catch (AEADBadTagException e) {
+            throw new IllegalArgumentException("Ciphertext failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM decryption failed", e);
+        }
+        return length;
+    }
+
+    /**
+     * Returns a transform that encrypts a text a chunk at a time. Unlike {@link #encipher(String)}, it produces bytes,
+     * not Base64: a random {@value #STREAM_ID_LENGTH}-byte ID for the text, then a frame for every {@value #CHUNK}
+     * bytes of the text, and one for the rest. Each frame authenticates the ID and its place in the text, so that
+     * frames cannot be reordered, dropped, cut off or moved from another text without the decryptor noticing. A whole
+     * text can still be sent again as it is: only the protocol carrying it can tell that it has seen the ID before.
+     *
+     * @return a new encryptor, for one text.
+     */
+    @Override
+    public CipherTransform encryptor() {
+        return new Sealer();
+    }
+
+    /**
+     * Returns a transform that decrypts, a chunk at a time, a text encrypted by an {@link #encryptor()}.
+     *
+     * @return a new decryptor, for one text.
+     */
+    @Override
+    public CipherTransform decryptor() {
+        return new Opener();
+    }
+
+    /**
+     * Fills in the associated data of a text's frame after the text's ID: the frame's index in the text, and whether
+     * it is the last.
+     *
+     * @param aad   the text's ID, followed by the nine bytes to fill in.
+     * @param index the frame's index.
+     * @param last  whether the frame is the text's last.
+     * @return aad.
+     */
+    private static byte[] position(byte[] aad, long index, boolean last) {
+        for (int i = STREAM_ID_LENGTH + Long.BYTES - 1; i >= STREAM_ID_LENGTH; i--) {
+            aad[i] = (byte) index;
+            index >>>= Byte.SIZE;
+        }
+        aad[STREAM_ID_LENGTH + Long.BYTES] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+
+    /**
+     * A thread's own {@link Cipher}, with the nonce it last used and the generator for the next, and the buffers its
+     * messages are encoded, sealed and opened in.
+     */
+    private static final class Engine {
+        private final Cipher cipher;
+        private final byte[] nonce = new byte[NONCE_LENGTH];
+        private final SecureRandom random = new SecureRandom();
+        private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE); // As String.getBytes does.
+        private ByteBuffer text = ByteBuffer.allocate(256);
+        private ByteBuffer frame = ByteBuffer.allocate(256 + OVERHEAD);
+        private byte[] base64 = new byte[4 * (256 + OVERHEAD) / 3 + 4];
+
+        /**
+         * Creates the engine for the calling thread.
+         */
+        Engine() {
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                throw new IllegalStateException(TRANSFORMATION + " not available", e);
+            }
+        }
+
+        /**
+         * Returns an empty buffer for a text, the thread's own if the text is not too long to keep one for.
+         *
+         * @param capacity the most bytes the text can take.
+         * @return an empty buffer with room for at least that many.
+         */
+        ByteBuffer text(int capacity) {
+            if (capacity > KEPT_BUFFER) {
+                return ByteBuffer.allocate(capacity);
+            }
+            if (text.capacity() < capacity) {
+                text = ByteBuffer.allocate(Math.min(Math.max(capacity, 2 * text.capacity()), KEPT_BUFFER));
+            }
+            return text.clear();
+        }
+
+        /**
+         * Returns an empty buffer for a frame, the thread's own if the frame is not too long to keep one for.
+         *
+         * @param capacity the most bytes the frame can take.
+         * @return an empty buffer with room for at least that many.
+         */
+        ByteBuffer frame(int capacity) {
+            if (capacity > KEPT_BUFFER) {
+                return ByteBuffer.allocate(capacity);
+            }
+            if (frame.capacity() < capacity) {
+                frame = ByteBuffer.allocate(Math.min(Math.max(capacity, 2 * frame.capacity()), KEPT_BUFFER));
+            }
+            return frame.clear();
+        }
+
+        /**
+         * Encodes a text in UTF-8 into a text buffer. Characters that cannot be encoded, such as half a surrogate
+         * pair, become '?'.
+         *
+         * @param s the text.
+         * @return the buffer, flipped to hold the text's bytes.
+         */
+        ByteBuffer encode(String s) {
+            // UTF-8 never needs more than three bytes for one char: a character beyond it is two chars.
+            ByteBuffer out = text(3 * s.length());
+            utf8.reset();
+            utf8.encode(CharBuffer.wrap(s), out, true);
+            utf8.flush(out);
+            return out.flip();
+        }
+
+        /**
+         * Encodes the remaining bytes of a heap buffer in Base64, with padding, as {@link Base64#getEncoder()} does.
+         *
+         * @param bytes the bytes; all of them are consumed.
+         * @return the Base64 string.
+         */
+        String toBase64(ByteBuffer bytes) {
+            int length = (bytes.remaining() + 2) / 3 * 4;
+            byte[] out = length > KEPT_BUFFER ? new byte[length] : base64;
+            if (out.length < length) {
+                out = base64 = new byte[Math.min(Math.max(length, 2 * base64.length), KEPT_BUFFER)];
+            }
+            byte[] in = bytes.array();
+            int i = bytes.arrayOffset() + bytes.position();
+            int end = bytes.arrayOffset() + bytes.limit();
+            int o = 0;
+            for (; end - i >= 3; i += 3) {
+                int bits = (in[i] & 0xFF) << 16 | (in[i + 1] & 0xFF) << 8 | in[i + 2] & 0xFF;
+                out[o++] = BASE64[bits >>> 18];
+                out[o++] = BASE64[bits >>> 12 & 0x3F];
+                out[o++] = BASE64[bits >>> 6 & 0x3F];
+                out[o++] = BASE64[bits & 0x3F];
+            }
+            if (i < end) {
+                int bits = (in[i] & 0xFF) << 16 | (end - i == 2 ? (in[i + 1] & 0xFF) << 8 : 0);
+                out[o++] = BASE64[bits >>> 18];
+                out[o++] = BASE64[bits >>> 12 & 0x3F];
+                out[o++] = end - i == 2 ? BASE64[bits >>> 6 & 0x3F] : (byte) '=';
+                out[o++] = '=';
+            }
+            bytes.position(bytes.limit());
+            return new String(out, 0, o, StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Decodes a Base64 string into a frame buffer, accepting what {@link Base64#getDecoder()} does: the basic
+         * alphabet, with or without the padding.
+         *
+         * @param s the Base64 string.
+         * @return the buffer, flipped to hold the decoded bytes.
+         * @throws IllegalArgumentException if the string is not Base64.
+         */
+        ByteBuffer fromBase64(String s) throws IllegalArgumentException {
+            int end = s.length();
+            while (end > 0 && end > s.length() - 2 && s.charAt(end - 1) == '=') {
+                end--;
+            }
+            int padding = s.length() - end;
+            if (end % 4 == 1 || (padding > 0 && (s.length() % 4 != 0 || end % 4 == 0))) {
+                throw new IllegalArgumentException("Ciphertext is not Base64: wrong length or padding");
+            }
+            ByteBuffer out = frame(end / 4 * 3 + 2);
+            int bits = 0;
+            for (int i = 0; i < end; i++) {
+                char c = s.charAt(i);
+                int value = c < BASE64_VALUE.length ? BASE64_VALUE[c] : -1;
+                if (value < 0) {
+                    throw new IllegalArgumentException("Ciphertext is not Base64: illegal character at " + i);
+                }
+                bits = bits << 6 | value;
+                if ((i & 3) == 3) {
+                    out.put((byte) (bits >>> 16)).put((byte) (bits >>> 8)).put((byte) bits);
+                }
+            }
+            if ((end & 3) == 2) {
+                out.put((byte) (bits >>> 4));
+            } else if ((end & 3) == 3) {
+                out.put((byte) (bits >>> 10)).put((byte) (bits >>> 2));
+            }
+            return out.flip();
+        }
+    }
+
+    /**
+     * Moves as many bytes as fit from one buffer into another, without the slice a relative bulk put would need.
+     *
+     * @param in the bytes to move.
+     * @param to where to move them.
+     */
+    private static void move(ByteBuffer in, ByteBuffer to) {
+        int n = Math.min(in.remaining(), to.remaining());
+        to.put(to.position(), in, in.position(), n);
+        to.position(to.position() + n);
+        in.position(in.position() + n);
+    }
+
+    /**
+     * Seals a text in frames of {@value #CHUNK} bytes after its ID, holding each chunk back until the next byte shows
+     * whether it is the last.
+     */
+    private final class Sealer extends CipherTransform {
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+        private final byte[] aad = new byte[STREAM_ID_LENGTH + Long.BYTES + 1];
+        private boolean started = false;
+        private long index = 0;
+
+        /**
+         * Creates the encryptor, with a new random ID for its text. Writing the ID never adds to a frame: it goes
+         * before the first byte of the text, or before the empty frame of an empty text.
+         */
+        Sealer() {
+            super(CHUNK + OVERHEAD);
+            byte[] id = new byte[STREAM_ID_LENGTH];
+            ENGINES.get().random.nextBytes(id);
+            System.arraycopy(id, 0, aad, 0, STREAM_ID_LENGTH);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void transform(byte b, ByteBuffer out) {
+            start(out);
+            if (!chunk.hasRemaining()) {
+                seal(out, false);
+            }
+            chunk.put(b);
+        }
+
+        /**
+         * Copies the chunk's bytes in bulk, up to the end of the frame they fill, rather than one at a time.
+         */
+        @Override
+        void transform(ByteBuffer in, ByteBuffer out) {
+            while (in.hasRemaining() && out.remaining() >= maxOutput()) {
+                start(out);
+                if (!chunk.hasRemaining()) {
+                    seal(out, false);
+                }
+                move(in, chunk);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void end(ByteBuffer out) {
+            start(out);
+            seal(out, true);
+        }
+
+        /**
+         * Writes the text's ID, if it has not been written yet.
+         *
+         * @param out where to put the ID.
+         */
+        private void start(ByteBuffer out) {
+            if (!started) {
+                out.put(aad, 0, STREAM_ID_LENGTH);
+                started = true;
+            }
+        }
+
+        /**
+         * Seals the chunk held back, and empties it.
+         *
+         * @param out  where to put the frame.
+         * @param last whether the chunk ends the text.
+         */
+        private void seal(ByteBuffer out, boolean last) {
+            chunk.flip();
+            AesGcmCipher.this.seal(chunk, out, position(aad, index++, last));
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Opens a text sealed by a {@link Sealer}: reads its ID, then holds each frame back until the next byte shows
+     * whether it is the last.
+     */
+    private final class Opener extends CipherTransform {
+        private final ByteBuffer frame = ByteBuffer.allocate(CHUNK + OVERHEAD);
+        private final byte[] aad = new byte[STREAM_ID_LENGTH + Long.BYTES + 1];
+        private int header = 0;
+        private long index = 0;
+
+        /**
+         * Creates the decryptor.
+         */
+        Opener() {
+            super(CHUNK);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void transform(byte b, ByteBuffer out) throws IllegalArgumentException {
+            if (header < STREAM_ID_LENGTH) {
+                aad[header++] = b;
+                return;
+            }
+            if (!frame.hasRemaining()) {
+                open(out, false);
+            }
+            frame.put(b);
+        }
+
+        /**
+         * Copies the chunk's bytes in bulk, first into the ID, then up to the end of the frame they fill, rather than
+         * one at a time.
+         */
+        @Override
+        void transform(ByteBuffer in, ByteBuffer out) throws IllegalArgumentException {
+            while (in.hasRemaining() && out.remaining() >= maxOutput()) {
+                if (header < STREAM_ID_LENGTH) {
+                    int n = Math.min(in.remaining(), STREAM_ID_LENGTH - header);
+                    in.get(aad, header, n);
+                    header += n;
+                    continue;
+                }
+                if (!frame.hasRemaining()) {
+                    open(out, false);
+                }
+                move(in, frame);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void end(ByteBuffer out) throws IllegalArgumentException {
+            if (header < STREAM_ID_LENGTH) {
+                throw new IllegalArgumentException("Ciphertext too short to have an ID");
+            }
+            open(out, true);
+        }
+
+        /**
+         * Opens the frame held back, and empties it.
+         *
+         * @param out  where to put the decryption.
+         * @param last whether the frame ends the text.
+         * @throws IllegalArgumentException if the frame does not open as the next of the text.
+         */
+        private void open(ByteBuffer out, boolean last) throws IllegalArgumentException {
+            frame.flip();
+            AesGcmCipher.this.open(frame, out, position(aad, index++, last));
+            frame.clear();
+        }
+    }
+}
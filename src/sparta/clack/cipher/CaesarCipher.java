@@ -8,6 +8,8 @@ package sparta.clack.cipher;
  */
 public class CaesarCipher extends CharacterCipher {
     private final int key;
+    private final int[] encryptSchedule;
+    private final int[] decryptSchedule;
 
     /**
      * Constructs a {@code CaesarCipher} with the specified key and the default alphabet.
@@ -17,6 +19,8 @@ public class CaesarCipher extends CharacterCipher {
      */
     public CaesarCipher(int key) {
         this.key = key % ALPHABET.length();
+        this.encryptSchedule = new int[]{Math.floorMod(this.key, ALPHABET.length())};
+        this.decryptSchedule = inverse(encryptSchedule);
     }
 
     /**
@@ -36,6 +40,8 @@ public class CaesarCipher extends CharacterCipher {
             throw new IllegalArgumentException(
                     "First character of 'key' argument not in ALPHABET");
         }
+        this.encryptSchedule = new int[]{this.key};
+        this.decryptSchedule = inverse(encryptSchedule);
     }
 
     /**
@@ -58,7 +64,10 @@ public class CaesarCipher extends CharacterCipher {
      */
     @Override
     String encrypt(String preptext) {
-        return CharacterCipher.shift(preptext, key);
+        CipherEvent event = new CipherEvent();
+        String ciphertext = substitute(preptext, encryptSchedule);
+        event.finish(this, CipherEvent.ENCRYPT, preptext, ciphertext);
+        return ciphertext;
     }
 
     /**
@@ -69,6 +78,29 @@ public class CaesarCipher extends CharacterCipher {
      */
     @Override
     String decrypt(String ciphertext) {
-        return CharacterCipher.shift(ciphertext, -key);
+        CipherEvent event = new CipherEvent();
+        String plaintext = substitute(ciphertext, decryptSchedule);
+        event.finish(this, CipherEvent.DECRYPT, ciphertext, plaintext);
+        return plaintext;
+    }
+
+    /**
+     * Returns a transform that prepares and encrypts a text a chunk at a time.
+     *
+     * @return a new encryptor, for one text.
+     */
+    @Override
+    public CipherTransform encryptor() {
+        return new Shifter(encryptSchedule, CLEAN_INDEX, true);
+    }
+
+    /**
+     * Returns a transform that decrypts a ciphertext a chunk at a time.
+     *
+     * @return a new decryptor, for one text.
+     */
+    @Override
+    public CipherTransform decryptor() {
+        return new Shifter(decryptSchedule, INDEX, false);
     }
 }
@@ -1,14 +1,101 @@
 package sparta.clack.cipher;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
 /**
- * Abstract class for ciphers that work on character data.
+ * Abstract class for ciphers that work on character data: the classical {@link MessageCipher}s, which encrypt the
+ * letters of a text and drop everything else.
+ * <p>
+ * Shifting is table-driven: the index of every letter, and the letter every shift of every letter gives, are
+ * computed once, so shifting a character is two array lookups. Ciphers that shift each letter by an amount depending
+ * only on its position (see {@link #substitute(String, int[])}) build their key schedules once, when constructed.
+ * Long strings are shifted eight letters at a time, as the eight bytes of a {@code long}.
+ * <p>
+ * Long texts are encrypted and decrypted on several threads at once: {@link #encipher(String)} and
+ * {@link #decipher(String)} cut a text of two segments (128K characters) or more into segments whose lengths are a
+ * multiple of the cipher's {@link #blockSize()}, so each segment encrypts to exactly what it would have as part of
+ * the whole text, and run them on a fork/join pool of the ciphers' own, with a thread per core at most. Keeping them
+ * off the common pool means a burst of long messages cannot starve parallel streams and other users of it, and the
+ * pool's bound means it never grows threads to cover for blocked ones: if it cannot take the work, the text is done
+ * on the calling thread. Shorter texts, and every text on a machine with one core, are done on the calling thread
+ * too.
  */
-public abstract class CharacterCipher {
+public abstract class CharacterCipher implements MessageCipher {
     /**
      * Default alphabet used for encryption/decryption.
      */
     public static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
 
+    private static final int LETTERS = ALPHABET.length();
+
+    /**
+     * The index in ALPHABET of each character below 256, or -1 for characters not in it.
+     */
+    static final byte[] INDEX = new byte[256];
+
+    /**
+     * Like {@link #INDEX}, but with each lower-case letter's upper-case letter's index, as {@link #clean(String)}
+     * upper-cases letters before keeping them.
+     */
+    static final byte[] CLEAN_INDEX = new byte[256];
+
+    /**
+     * {@code SHIFTED[n][i]} is the letter n places after the i-th letter of ALPHABET, for n from 0 to 25.
+     */
+    private static final byte[][] SHIFTED = new byte[LETTERS][LETTERS];
+
+    /**
+     * Reads and writes eight bytes of a byte array at once, as a long.
+     */
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * A long with every byte set to 1: multiplying a byte value by it repeats the value in every byte.
+     */
+    private static final long BYTES = 0x0101010101010101L;
+
+    /**
+     * A long with the top bit of every byte set.
+     */
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * About how many characters each thread encrypts or decrypts at a time; shorter texts are done on one thread.
+     */
+    static final int SEGMENT = 1 << 16;
+
+    /**
+     * The pool that long texts are encrypted and decrypted on, in segments. Its workers are daemon threads, started
+     * only when a text is long enough to need them, and it never runs more of them than there are cores.
+     */
+    private static final ForkJoinPool SEGMENT_POOL = newSegmentPool(Runtime.getRuntime().availableProcessors());
+
+    static {
+        Arrays.fill(INDEX, (byte) -1);
+        for (int i = 0; i < LETTERS; i++) {
+            INDEX[ALPHABET.charAt(i)] = (byte) i;
+        }
+        for (int c = 0; c < CLEAN_INDEX.length; c++) {
+            CLEAN_INDEX[c] = c >= 'a' && c <= 'z' ? INDEX[c - 'a' + 'A'] : INDEX[c];
+        }
+        for (int n = 0; n < LETTERS; n++) {
+            for (int i = 0; i < LETTERS; i++) {
+                SHIFTED[n][i] = (byte) ALPHABET.charAt((i + n) % LETTERS);
+            }
+        }
+    }
+
     /** Create new instance of CharacterCipher. */
     public CharacterCipher() {}
 
@@ -83,15 +170,11 @@ public abstract class CharacterCipher {
      * @throws IllegalArgumentException if c is not in ALPHABET.
      */
     public static char shift(char c, int n) throws IllegalArgumentException {
-        if (ALPHABET.indexOf(c) < 0 ) {
-            throw new IllegalArgumentException(
-                    "Argument ('" + c + "') not in ALPHABET");
-        }
-        int index = (ALPHABET.indexOf(c) + n) % ALPHABET.length();
+        int index = indexOf(c);
         if (index < 0) {
-            index += ALPHABET.length(); // Handle negative shift
+            throw notInAlphabet(c);
         }
-        return ALPHABET.charAt(index);
+        return (char) SHIFTED[Math.floorMod(n, LETTERS)][index];
     }
 
     /**
@@ -103,14 +186,411 @@ public abstract class CharacterCipher {
      * @throws IllegalArgumentException if any character in the string is not in {@code ALPHABET}.
      */
     public static String shift(String str, int n) throws IllegalArgumentException {
+        return substitute(str, new int[]{Math.floorMod(n, LETTERS)});
+    }
+
+    /**
+     * Shifts every character of a string by an amount that depends on its position: the i-th character by
+     * {@code schedule[i % schedule.length]} places, in one pass over the string's bytes.
+     *
+     * @param str      the string to shift.
+     * @param schedule the key schedule: shifts from 0 to 25, at least one.
+     * @return the shifted string, or null if str is null.
+     * @throws IllegalArgumentException if any character in the string is not in {@code ALPHABET}.
+     */
+    static String substitute(String str, int[] schedule) throws IllegalArgumentException {
+        return substitute(str, schedule, true);
+    }
+
+    /**
+     * Shifts every character of a string like {@link #substitute(String, int[])}, optionally one byte at a time, to
+     * compare the two.
+     *
+     * @param str      the string to shift.
+     * @param schedule the key schedule: shifts from 0 to 25, at least one.
+     * @param wide     whether to shift eight letters at a time where possible.
+     * @return the shifted string, or null if str is null.
+     * @throws IllegalArgumentException if any character in the string is not in {@code ALPHABET}.
+     */
+    static String substitute(String str, int[] schedule, boolean wide) throws IllegalArgumentException {
         if (str == null) {
             return null;
         }
-        StringBuilder shiftedString = new StringBuilder();
-        for (char c : str.toCharArray()) {
-            shiftedString.append(shift(c, n));
+        // Letters fit in one byte; anything that does not becomes '?', which is not a letter either.
+        byte[] text = str.getBytes(StandardCharsets.ISO_8859_1);
+        int period = schedule.length;
+        int from = wide ? substituteWords(text, schedule) : 0;
+        for (int i = from, k = from % period; i < text.length; i++) {
+            int index = INDEX[text[i] & 0xFF];
+            if (index < 0) {
+                throw notInAlphabet(str.charAt(i));
+            }
+            text[i] = SHIFTED[schedule[k]][index];
+            if (++k == period) {
+                k = 0;
+            }
+        }
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Shifts the letters of a byte array eight at a time, from the start up to the first eight bytes that are not
+     * all letters, or the last eight bytes. Each byte of a long holds a value below 128 throughout, so adding and
+     * subtracting whole longs never carries from one byte into the next.
+     *
+     * @param text     the characters to shift, in place.
+     * @param schedule the key schedule: shifts from 0 to 25, at least one.
+     * @return the index of the first byte not shifted.
+     */
+    private static int substituteWords(byte[] text, int[] schedule) {
+        int period = schedule.length;
+        if (text.length < Long.BYTES) {
+            return 0;
+        }
+        // The schedule repeated, so the shifts for any eight bytes can be read as one long from where they start.
+        byte[] shifts = new byte[period + Long.BYTES];
+        for (int j = 0; j < shifts.length; j++) {
+            shifts[j] = (byte) schedule[j % period];
+        }
+        int step = Long.BYTES % period;
+        int i = 0;
+        for (int k = 0; i <= text.length - Long.BYTES; i += Long.BYTES) {
+            long word = (long) WORD.get(text, i);
+            // A byte is a letter if it is below 128, at least 'A' and not above 'Z'.
+            long atLeastA = word + (0x80 - 'A') * BYTES;
+            long aboveZ = word + (0x80 - 'Z' - 1) * BYTES;
+            if (((word | ~atLeastA | aboveZ) & HIGH_BITS) != 0) {
+                break;
+            }
+            long shifted = word - 'A' * BYTES + (long) WORD.get(shifts, k);
+            long wrapped = ((shifted + (0x80 - LETTERS) * BYTES) & HIGH_BITS) >>> 7;
+            WORD.set(text, i, shifted - wrapped * LETTERS + 'A' * BYTES);
+            k += step;
+            if (k >= period) {
+                k -= period;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Builds the key schedule that undoes another: each shift replaced by the shift back.
+     *
+     * @param schedule a key schedule, shifts from 0 to 25.
+     * @return the inverse schedule.
+     */
+    static int[] inverse(int[] schedule) {
+        int[] inverse = new int[schedule.length];
+        for (int i = 0; i < schedule.length; i++) {
+            inverse[i] = (LETTERS - schedule[i]) % LETTERS;
+        }
+        return inverse;
+    }
+
+    /**
+     * Returns a character's index in ALPHABET.
+     *
+     * @param c the character.
+     * @return its index, or -1 if it is not in ALPHABET.
+     */
+    static int indexOf(char c) {
+        return c < INDEX.length ? INDEX[c] : -1;
+    }
+
+    /**
+     * Builds the exception thrown for a character that cannot be shifted.
+     *
+     * @param c the character.
+     * @return the exception.
+     */
+    private static IllegalArgumentException notInAlphabet(char c) {
+        return new IllegalArgumentException("Argument ('" + c + "') not in ALPHABET");
+    }
+
+    /**
+     * Prepares a cleartext and encrypts it: what a sender does with a message before sending it. A long text is
+     * encrypted in segments on several threads (see {@link #encryptParallel(String)}).
+     *
+     * @param cleartext the text to encrypt.
+     * @return the encryption of the prepared cleartext, or null if cleartext is null.
+     * @throws IllegalArgumentException if the cleartext holds a letter this cipher cannot encrypt.
+     */
+    @Override
+    public final String encipher(String cleartext) throws IllegalArgumentException {
+        return cleartext == null ? null : encryptParallel(prep(cleartext));
+    }
+
+    /**
+     * Decrypts a ciphertext: what a receiver does with a message encrypted by {@link #encipher(String)}. A long
+     * ciphertext is decrypted in segments on several threads (see {@link #decryptParallel(String)}).
+     *
+     * @param ciphertext the text to decrypt.
+     * @return the decryption, as prepared before it was encrypted, or null if ciphertext is null.
+     * @throws IllegalArgumentException if the ciphertext is not one this cipher could have produced.
+     */
+    @Override
+    public final String decipher(String ciphertext) throws IllegalArgumentException {
+        if (ciphertext == null) {
+            return null;
+        }
+        try {
+            return decryptParallel(ciphertext);
+        } catch (IndexOutOfBoundsException e) {
+            // A Playfair ciphertext cut short in the middle of a digraph.
+            throw new IllegalArgumentException("Ciphertext ends in half a digraph", e);
+        }
+    }
+
+    /**
+     * Encrypts a string that's been prepared for encryption, in segments on the ciphers' fork/join pool if it is
+     * long enough. The result is always the same as {@link #encrypt(String)}'s.
+     *
+     * @param preptext a version of a cleartext string, prepared for encryption.
+     * @return the encryption of the preptext.
+     */
+    String encryptParallel(String preptext) {
+        return encryptParallel(preptext, SEGMENT_POOL);
+    }
+
+    /**
+     * Encrypts a string that's been prepared for encryption, in segments on a fork/join pool if it is long enough.
+     * The result is always the same as {@link #encrypt(String)}'s.
+     *
+     * @param preptext a version of a cleartext string, prepared for encryption.
+     * @param pool     the pool to encrypt on.
+     * @return the encryption of the preptext.
+     */
+    String encryptParallel(String preptext, ForkJoinPool pool) {
+        return worthSplitting(preptext, pool) ? inSegments(preptext, this::encrypt, pool) : encrypt(preptext);
+    }
+
+    /**
+     * Decrypts an encrypted string, in segments on the ciphers' fork/join pool if it is long enough. The result is
+     * always the same as {@link #decrypt(String)}'s.
+     *
+     * @param ciphertext the encrypted string to decrypt.
+     * @return the decryption of the ciphertext.
+     */
+    String decryptParallel(String ciphertext) {
+        return decryptParallel(ciphertext, SEGMENT_POOL);
+    }
+
+    /**
+     * Decrypts an encrypted string, in segments on a fork/join pool if it is long enough. The result is always the
+     * same as {@link #decrypt(String)}'s.
+     *
+     * @param ciphertext the encrypted string to decrypt.
+     * @param pool       the pool to decrypt on.
+     * @return the decryption of the ciphertext.
+     */
+    String decryptParallel(String ciphertext, ForkJoinPool pool) {
+        return worthSplitting(ciphertext, pool) ? inSegments(ciphertext, this::decrypt, pool) : decrypt(ciphertext);
+    }
+
+    /**
+     * Returns the length that segments of a text must be a multiple of to encrypt and decrypt independently: 1 for
+     * a cipher that treats every character alike.
+     *
+     * @return the block size, at least 1.
+     */
+    int blockSize() {
+        return 1;
+    }
+
+    /**
+     * Returns the length of the segments a text is cut into: {@link #SEGMENT} rounded up to a whole number of blocks.
+     *
+     * @return the segment length.
+     */
+    private long segmentLength() {
+        long block = blockSize();
+        return (SEGMENT + block - 1) / block * block;
+    }
+
+    /**
+     * Creates the pool that long texts are cut up and run on: one that never has more than parallelism workers,
+     * and rejects work rather than start another thread to stand in for a blocked one.
+     *
+     * @param parallelism the number of workers.
+     * @return the pool.
+     */
+    static ForkJoinPool newSegmentPool(int parallelism) {
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("clack-cipher-" + worker.getPoolIndex());
+            return worker;
+        }, null, false, 0, parallelism, 1, null, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns whether a text is worth encrypting or decrypting in segments on a pool: it is at least two segments
+     * long, and the pool has more than one thread. Anything else is done whole, on the calling thread.
+     *
+     * @param text the text, or null.
+     * @param pool the pool the segments would run on.
+     * @return true if the text should be cut into segments.
+     */
+    private boolean worthSplitting(String text, ForkJoinPool pool) {
+        return text != null && text.length() >= 2 * segmentLength() && pool.getParallelism() > 1;
+    }
+
+    /**
+     * Applies an encryption or decryption to a text in segments on a fork/join pool, and joins the results. Only for
+     * texts that are {@linkplain #worthSplitting(String, ForkJoinPool) worth splitting}. If the pool will not take
+     * the work, because it is shut down or has no thread to spare, the text is done whole on the calling thread.
+     *
+     * @param text the text.
+     * @param op   {@link #encrypt(String)} or {@link #decrypt(String)}.
+     * @param pool the pool to run the segments on.
+     * @return the result of the operation.
+     * @throws IllegalArgumentException  the exception of the first segment that failed, i.e. the one the whole text
+     *                                   would have thrown for its first bad character.
+     * @throws IndexOutOfBoundsException likewise, for a ciphertext cut short in the last segment.
+     */
+    private String inSegments(String text, UnaryOperator<String> op, ForkJoinPool pool)
+            throws IllegalArgumentException, IndexOutOfBoundsException {
+        long segment = segmentLength();
+        String[] results = new String[(int) ((text.length() + segment - 1) / segment)];
+        RuntimeException[] failures = new RuntimeException[results.length];
+        try {
+            pool.invoke(new Segments(text, op, (int) segment, results, failures, 0, results.length));
+        } catch (RejectedExecutionException e) {
+            return op.apply(text);
+        }
+        for (RuntimeException failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        StringBuilder joined = new StringBuilder(text.length());
+        for (String result : results) {
+            joined.append(result);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * A range of a text's segments to encrypt or decrypt, split in half until it is one segment. A segment that
+     * fails keeps its exception rather than throwing it, so the caller can report the first segment's failure
+     * whichever one failed first. A ForkJoinTask is Serializable, but these never are: each lives only for one call
+     * to {@link #inSegments}, so its operation need not be serializable either.
+     */
+    @SuppressWarnings("serial")
+    private static final class Segments extends RecursiveAction {
+        private final String text;
+        private final UnaryOperator<String> op;
+        private final int segment;
+        private final String[] results;
+        private final RuntimeException[] failures;
+        private final int from;
+        private final int to;
+
+        /**
+         * Creates the task for a range of segments.
+         *
+         * @param text     the whole text.
+         * @param op       the operation to apply to each segment.
+         * @param segment  the length of each segment but the last.
+         * @param results  where to put the result for each segment.
+         * @param failures where to put the exception of each segment that fails.
+         * @param from     the first segment in the range.
+         * @param to       the segment after the last in the range.
+         */
+        Segments(String text, UnaryOperator<String> op, int segment, String[] results, RuntimeException[] failures,
+                 int from, int to) {
+            this.text = text;
+            this.op = op;
+            this.segment = segment;
+            this.results = results;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                int start = from * segment;
+                try {
+                    results[from] = op.apply(text.substring(start, Math.min(start + segment, text.length())));
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    failures[from] = e;
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Segments(text, op, segment, results, failures, from, middle),
+                        new Segments(text, op, segment, results, failures, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Returns a transform that prepares and encrypts a text a chunk at a time; see {@link CipherTransform}.
+     *
+     * @return a new encryptor, for one text.
+     */
+    @Override
+    public abstract CipherTransform encryptor();
+
+    /**
+     * Returns a transform that decrypts a ciphertext a chunk at a time; see {@link CipherTransform}.
+     *
+     * @return a new decryptor, for one text.
+     */
+    @Override
+    public abstract CipherTransform decryptor();
+
+    /**
+     * A transform that shifts each letter by the next amount in a key schedule, going back to its start after the
+     * last, and drops or rejects everything else.
+     */
+    static final class Shifter extends CipherTransform {
+        private final int[] schedule;
+        private final byte[] letters;
+        private final boolean dropOthers;
+        private int position;
+
+        /**
+         * Creates a transform for a key schedule.
+         *
+         * @param schedule   the key schedule: shifts from 0 to 25, at least one.
+         * @param letters    the index of the letter each byte is, or -1: {@link #INDEX} or {@link #CLEAN_INDEX}.
+         * @param dropOthers whether to drop bytes that are not letters, rather than throw.
+         */
+        Shifter(int[] schedule, byte[] letters, boolean dropOthers) {
+            super(1);
+            this.schedule = schedule;
+            this.letters = letters;
+            this.dropOthers = dropOthers;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void transform(byte b, ByteBuffer out) throws IllegalArgumentException {
+            int index = letters[b & 0xFF];
+            if (index < 0) {
+                if (dropOthers) {
+                    return;
+                }
+                throw notInAlphabet((char) (b & 0xFF));
+            }
+            out.put(SHIFTED[schedule[position]][index]);
+            if (++position == schedule.length) {
+                position = 0;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void end(ByteBuffer out) {
         }
-        return shiftedString.toString();
     }
 
     /**
@@ -0,0 +1,184 @@
+package sparta.clack.cipher;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of ciphers by type and key, so that every session using the same cipher and key shares one
+ * instance, whose key tables are built once rather than for every message.
+ * <p>
+ * When full, the cache drops the cipher least recently asked for. The ciphers are held in a
+ * {@link ConcurrentHashMap}, so lookups take no lock: a hit reads the map and stamps the entry with the time of its
+ * use, taken from a counter that only moves when a different entry is used, so sessions sharing one cipher do not
+ * even write to shared memory. Only a miss that fills the cache scans the entries for the oldest stamp. A cipher is
+ * built outside the map, so a slow build does not hold up other sessions. If two threads build the same cipher at
+ * once, the first one added is kept and both get it.
+ * <p>
+ * A CipherCache is thread-safe.
+ */
+public final class CipherCache implements CipherCacheMBean {
+    /**
+     * The capacity of a cache built with the no-argument constructor.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * A cache entry's key.
+     *
+     * @param name the cipher's type.
+     * @param key  the cipher's key.
+     */
+    private record Key(CipherEnum name, String key) {
+    }
+
+    /**
+     * A cached cipher, and when it was last asked for.
+     */
+    private static final class Entry {
+        final MessageCipher cipher;
+        volatile long lastUsed;
+
+        Entry(MessageCipher cipher, long lastUsed) {
+            this.cipher = cipher;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<Key, Entry> ciphers = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong(); // The stamp of the most recent use of any entry.
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache of {@link #DEFAULT_CAPACITY} ciphers.
+     */
+    public CipherCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity the most ciphers to hold.
+     * @throws IllegalArgumentException if capacity is less than 1.
+     */
+    public CipherCache(int capacity) throws IllegalArgumentException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cipher of a type and key, building it if the cache does not hold it.
+     *
+     * @param name the cipher's type.
+     * @param key  the cipher's key.
+     * @return the cipher, shared with every other caller asking for the same type and key.
+     * @throws IllegalArgumentException if the key is not valid for this type of cipher; nothing is cached.
+     */
+    public MessageCipher get(CipherEnum name, String key) throws IllegalArgumentException {
+        Key id = new Key(Objects.requireNonNull(name, "name"), key);
+        Entry entry = ciphers.get(id);
+        if (entry != null) {
+            hits.increment();
+            touch(entry);
+            return entry.cipher;
+        }
+        misses.increment();
+        Entry built = new Entry(name.newCipher(key), clock.incrementAndGet());
+        Entry raced = ciphers.putIfAbsent(id, built);
+        if (raced != null) {
+            touch(raced);
+            return raced.cipher;
+        }
+        while (ciphers.size() > capacity) {
+            evictLeastRecentlyUsed();
+        }
+        return built.cipher;
+    }
+
+    /**
+     * Marks an entry as the most recently used. Does nothing if it already is, so that repeated hits on one cipher
+     * stay reads.
+     *
+     * @param entry the entry just asked for.
+     */
+    private void touch(Entry entry) {
+        if (entry.lastUsed != clock.get()) {
+            entry.lastUsed = clock.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the entry with the oldest stamp. Stamps read during the scan may be changing, so the choice is only
+     * approximately the least recently used while other threads are looking ciphers up.
+     */
+    private void evictLeastRecentlyUsed() {
+        Map.Entry<Key, Entry> oldest = null;
+        for (Map.Entry<Key, Entry> candidate : ciphers.entrySet()) {
+            if (oldest == null || candidate.getValue().lastUsed < oldest.getValue().lastUsed) {
+                oldest = candidate;
+            }
+        }
+        if (oldest != null && ciphers.remove(oldest.getKey(), oldest.getValue())) {
+            evictions.increment();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSize() {
+        return ciphers.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns a one-line summary of the cache's size and statistics.
+     *
+     * @return a string representation of this CipherCache object.
+     */
+    @Override
+    public String toString() {
+        return getSize() + "/" + capacity + " ciphers; " + getHits() + " hits, " + getMisses() + " misses, "
+                + getEvictions() + " evictions";
+    }
+}
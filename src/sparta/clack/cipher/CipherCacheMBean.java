@@ -0,0 +1,41 @@
+package sparta.clack.cipher;
+
+/**
+ * The JMX view of a {@link CipherCache}: its size and how well it is doing.
+ */
+public interface CipherCacheMBean {
+    /**
+     * Returns the most ciphers the cache holds.
+     *
+     * @return the capacity.
+     */
+    int getCapacity();
+
+    /**
+     * Returns the number of ciphers the cache holds.
+     *
+     * @return the size.
+     */
+    int getSize();
+
+    /**
+     * Returns the number of lookups that found their cipher in the cache.
+     *
+     * @return the count.
+     */
+    long getHits();
+
+    /**
+     * Returns the number of lookups that had to build their cipher, including those whose key was not valid.
+     *
+     * @return the count.
+     */
+    long getMisses();
+
+    /**
+     * Returns the number of ciphers dropped to make room for others.
+     *
+     * @return the count.
+     */
+    long getEvictions();
+}
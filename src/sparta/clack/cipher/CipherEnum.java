@@ -1,7 +1,8 @@
 package sparta.clack.cipher;
 
 /**
- * An enumeration representing the available cipher types for encryption.
+ * An enumeration representing the available cipher types for encryption, each able to build its cipher from a key.
+ * Building one computes its key's tables; to build each cipher once and share it, get it from a {@link CipherCache}.
  */
 public enum CipherEnum {
     /**
@@ -17,5 +18,28 @@ public enum CipherEnum {
     /**
      * Represents the Vigenère cipher algorithm.
      */
-    VIGNERE;
+    VIGNERE,
+
+    /**
+     * Represents authenticated encryption with AES in Galois/Counter Mode.
+     */
+    AES_GCM;
+
+    /**
+     * Builds a new cipher of this type. Ciphers are immutable, so one can be shared by any number of threads.
+     *
+     * @param key the cipher's key: for CAESAR, a string whose first letter gives the shift; for PLAYFAIR, the
+     *            keyword the matrix is built from; for VIGNERE, a keyword of uppercase letters; for AES_GCM, a
+     *            16-, 24- or 32-byte key in Base64.
+     * @return the cipher.
+     * @throws IllegalArgumentException if the key is not valid for this type of cipher.
+     */
+    public MessageCipher newCipher(String key) throws IllegalArgumentException {
+        return switch (this) {
+            case CAESAR -> new CaesarCipher(key);
+            case PLAYFAIR -> new PlayfairCipher(key);
+            case VIGNERE -> new VignereCipher(key);
+            case AES_GCM -> new AesGcmCipher(key);
+        };
+    }
 }
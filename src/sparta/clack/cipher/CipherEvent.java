@@ -0,0 +1,69 @@
+package sparta.clack.cipher;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event for one string encrypted or decrypted, timed from start to finish.
+ * <p>
+ * The event is only recorded while a recording enables it, e.g. one started with {@code jcmd <pid> JFR.start};
+ * otherwise creating and finishing it costs next to nothing. Each cipher creates one at the start of
+ * {@code encrypt} or {@code decrypt} ({@code encipher} or {@code decipher} for AES_GCM) and calls
+ * {@link #finish(MessageCipher, String, String, String)} with the result. A long text done in segments on several
+ * threads records one event per segment.
+ */
+@Name("sparta.clack.Cipher")
+@Label("Cipher")
+@Category({"Clack", "Cipher"})
+@Description("A string encrypted or decrypted.")
+@StackTrace(false)
+final class CipherEvent extends Event {
+    /**
+     * The operation of an encryption.
+     */
+    static final String ENCRYPT = "encrypt";
+
+    /**
+     * The operation of a decryption.
+     */
+    static final String DECRYPT = "decrypt";
+
+    @Label("Cipher")
+    String cipher;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Input Length")
+    @Description("The number of characters encrypted or decrypted.")
+    int inputLength;
+
+    @Label("Output Length")
+    @Description("The number of characters produced.")
+    int outputLength;
+
+    /**
+     * Creates the event and starts timing it.
+     */
+    CipherEvent() {
+        begin();
+    }
+
+    /**
+     * Stops timing the event and, if it is enabled and lasted at least its threshold, records it.
+     *
+     * @param cipher    the cipher used.
+     * @param operation {@link #ENCRYPT} or {@link #DECRYPT}.
+     * @param input     the string encrypted or decrypted.
+     * @param output    the result.
+     */
+    void finish(MessageCipher cipher, String operation, String input, String output) {
+        end();
+        if (shouldCommit()) {
+            this.cipher = cipher.getClass().getSimpleName();
+            this.operation = operation;
+            this.inputLength = input == null ? 0 : input.length();
+            this.outputLength = output == null ? 0 : output.length();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package sparta.clack.cipher;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * An input stream that reads another stream through a {@link CipherTransform}, so that what is read from it is the
+ * encryption or decryption of the other stream's content, holding no more than a small buffer in memory.
+ * <p>
+ * The transform is finished when the other stream ends. A byte the transform cannot take is reported as an
+ * {@link IOException}. Marking and resetting are not supported.
+ */
+public class CipherInputStream extends FilterInputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CipherTransform transform;
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private ByteBuffer pending = ByteBuffer.wrap(input, 0, 0);
+    private final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    private boolean finished;
+
+    /**
+     * Creates a stream that reads the transform of another stream's content.
+     *
+     * @param in        the stream to read from.
+     * @param transform a new transform, from {@link MessageCipher#encryptor()} or
+     *                  {@link MessageCipher#decryptor()}.
+     */
+    public CipherInputStream(InputStream in, CipherTransform transform) {
+        super(Objects.requireNonNull(in, "in"));
+        this.transform = Objects.requireNonNull(transform, "transform");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        return fill() ? output.get() & 0xFF : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, output.remaining());
+        output.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int step = (int) Math.min(n - skipped, output.remaining());
+            output.position(output.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    /**
+     * Returns the number of transformed bytes that can be read without reading the underlying stream.
+     *
+     * @return the number of bytes buffered.
+     */
+    @Override
+    public int available() {
+        return output.remaining();
+    }
+
+    /**
+     * Returns false: marking and resetting are not supported.
+     *
+     * @return false.
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Does nothing: marking is not supported.
+     *
+     * @param readlimit ignored.
+     */
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    /**
+     * Always throws: resetting is not supported.
+     *
+     * @throws IOException always.
+     */
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Transforms more of the underlying stream until there is output to read, or the transform has finished.
+     *
+     * @return whether there is output to read.
+     * @throws IOException if the underlying stream cannot be read, or its content cannot be transformed.
+     */
+    private boolean fill() throws IOException {
+        while (!output.hasRemaining()) {
+            if (finished) {
+                return false;
+            }
+            output.clear();
+            try {
+                if (!pending.hasRemaining()) {
+                    int n = in.read(input);
+                    pending = ByteBuffer.wrap(input, 0, Math.max(n, 0));
+                    if (n < 0) {
+                        finished = true;
+                        transform.finish(output);
+                    }
+                }
+                if (!finished) {
+                    transform.update(pending, output);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                output.flip();
+            }
+        }
+        return true;
+    }
+}
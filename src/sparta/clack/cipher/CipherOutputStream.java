@@ -0,0 +1,109 @@
+package sparta.clack.cipher;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * An output stream that encrypts or decrypts what is written to it with a {@link CipherTransform}, and writes the
+ * result to another stream, holding no more than a small buffer in memory.
+ * <p>
+ * {@link #flush()} writes everything transformed so far, but a transform may hold a byte back until it sees the next
+ * one, such as the first letter of a Playfair digraph; only {@link #close()} ends the text and writes that too.
+ * A byte the transform cannot take is reported as an {@link IOException}.
+ */
+public class CipherOutputStream extends FilterOutputStream {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CipherTransform transform;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean closed;
+
+    /**
+     * Creates a stream that writes the transform of everything written to it to another stream.
+     *
+     * @param out       the stream to write the result to.
+     * @param transform a new transform, from {@link MessageCipher#encryptor()} or
+     *                  {@link MessageCipher#decryptor()}.
+     */
+    public CipherOutputStream(OutputStream out, CipherTransform transform) {
+        super(Objects.requireNonNull(out, "out"));
+        this.transform = Objects.requireNonNull(transform, "transform");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        ByteBuffer in = ByteBuffer.wrap(b, off, len);
+        while (in.hasRemaining()) {
+            try {
+                transform.update(in, buffer);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            drain();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Ends the text, writes what the transform held back, and closes the underlying stream.
+     *
+     * @throws IOException if the text cannot end here, or writing or closing the underlying stream fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            transform.finish(buffer);
+            drain();
+            out.flush();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the buffered result to the underlying stream and empties the buffer.
+     *
+     * @throws IOException if writing fails.
+     */
+    private void drain() throws IOException {
+        if (buffer.position() > 0) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package sparta.clack.cipher;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encrypts or decrypts a text a chunk at a time, from one {@link ByteBuffer} into another, so that a text of any
+ * length can be enciphered in constant memory. Between chunks it keeps whatever the cipher needs to carry on: the
+ * position in a Vigenère key, or the first letter of a Playfair digraph.
+ * <p>
+ * Get one from {@link MessageCipher#encryptor()} or {@link MessageCipher#decryptor()}, and use it for one text, on
+ * one thread: call {@link #update(ByteBuffer, ByteBuffer)} for each chunk, then {@link #finish(ByteBuffer)} once.
+ * <p>
+ * A {@link CharacterCipher}'s encryptor prepares the text as it goes, as the cipher's {@code prep} does, then
+ * encrypts it: its output is the encryption of the prep of the whole text. The text is read a byte at a time, so it
+ * prepares ASCII text exactly as {@code prep} does; any other byte, such as each byte of a non-ASCII character in
+ * UTF-8, is dropped with the rest of the punctuation. Its decryptor takes ciphertext letters only and, like the
+ * cipher's {@code decrypt}, throws an {@link IllegalArgumentException} for anything else. The transforms of an
+ * {@link AesGcmCipher} take any bytes, and seal them in frames of their own (see {@link AesGcmCipher#encryptor()});
+ * they copy a chunk's bytes in bulk rather than one at a time.
+ */
+public abstract class CipherTransform {
+    private final int maxOutput;
+    private boolean finished;
+
+    /**
+     * Creates a transform.
+     *
+     * @param maxOutput the most bytes one byte of input, or finishing, can add to the output.
+     */
+    CipherTransform(int maxOutput) {
+        this.maxOutput = maxOutput;
+    }
+
+    /**
+     * Returns the most bytes one byte of input, or {@link #finish(ByteBuffer)}, can add to the output.
+     *
+     * @return the largest output for one step.
+     */
+    public final int maxOutput() {
+        return maxOutput;
+    }
+
+    /**
+     * Transforms as much of a chunk as there is room for: bytes are taken from {@code in} until it is empty, or
+     * {@code out} has less than {@link #maxOutput()} bytes of room left.
+     *
+     * @param in  the bytes to transform.
+     * @param out where to put the result.
+     * @throws IllegalArgumentException if a byte cannot be decrypted, or encrypted with this key.
+     * @throws IllegalStateException    if the transform has finished.
+     */
+    public final void update(ByteBuffer in, ByteBuffer out) throws IllegalArgumentException {
+        if (finished) {
+            throw new IllegalStateException("Transform already finished");
+        }
+        transform(in, out);
+    }
+
+    /**
+     * Ends the text, putting anything still held back into {@code out}, such as the last letter of an odd-length
+     * Playfair text with its padding 'X'.
+     *
+     * @param out where to put the rest of the result; it needs room for {@link #maxOutput()} bytes.
+     * @throws BufferOverflowException  if {@code out} does not have room for {@link #maxOutput()} bytes.
+     * @throws IllegalArgumentException if the text cannot end here.
+     * @throws IllegalStateException    if the transform has already finished.
+     */
+    public final void finish(ByteBuffer out) throws IllegalArgumentException {
+        if (finished) {
+            throw new IllegalStateException("Transform already finished");
+        }
+        if (out.remaining() < maxOutput) {
+            throw new BufferOverflowException();
+        }
+        finished = true;
+        end(out);
+    }
+
+    /**
+     * Transforms as much of a chunk as there is room for, as {@link #update(ByteBuffer, ByteBuffer)} describes. This
+     * takes a byte at a time; a transform that can take many at once overrides it.
+     *
+     * @param in  the bytes to transform.
+     * @param out where to put the result.
+     * @throws IllegalArgumentException if a byte cannot be transformed.
+     */
+    void transform(ByteBuffer in, ByteBuffer out) throws IllegalArgumentException {
+        while (in.hasRemaining() && out.remaining() >= maxOutput) {
+            transform(in.get(), out);
+        }
+    }
+
+    /**
+     * Transforms one byte of input.
+     *
+     * @param b   the byte.
+     * @param out where to put the result, with room for {@link #maxOutput()} bytes.
+     * @throws IllegalArgumentException if the byte cannot be transformed.
+     */
+    abstract void transform(byte b, ByteBuffer out) throws IllegalArgumentException;
+
+    /**
+     * Puts anything still held back into the output, at the end of the text.
+     *
+     * @param out where to put the result, with room for {@link #maxOutput()} bytes.
+     * @throws IllegalArgumentException if the text cannot end here.
+     */
+    abstract void end(ByteBuffer out) throws IllegalArgumentException;
+}
@@ -0,0 +1,141 @@
+package sparta.clack.cipher;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The {@code KeyExchange} class agrees an {@link AesGcmCipher} key between two parties that share no secret, so that
+ * the key itself is never sent: each sends the other the public half of a key pair made for this exchange only, and
+ * both derive the same key from their own private half and the other's public half.
+ *
+ * <p>The key pairs are X25519 (RFC 7748), and the shared secret is turned into a 256-bit AES key with HKDF-SHA256
+ * (RFC 5869), with a salt of zeros and, as its info, a label and both public keys, the lower first, so that the key
+ * also depends on which two keys were exchanged. Public keys travel as their X.509 encoding, in Base64.
+ *
+ * <p>The exchange keeps the key from anyone who only listens to the connection, but it does not authenticate either
+ * party: someone who can change the messages in flight can run an exchange with each side and read everything. Only
+ * a transport that authenticates the server, such as TLS, prevents that.
+ *
+ * <p>An exchange is for one key: make a new one, with a new key pair, for every key agreed.
+ */
+public final class KeyExchange {
+    /**
+     * The key agreement algorithm, and the algorithm of its keys.
+     */
+    public static final String ALGORITHM = "X25519";
+
+    private static final String HMAC = "HmacSHA256";
+    private static final byte[] LABEL = "clack AES_GCM key".getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY_LENGTH = 32;
+
+    private final KeyPair keys;
+    private final byte[] publicKey;
+
+    /**
+     * Makes a new key pair for an exchange.
+     */
+    public KeyExchange() {
+        try {
+            keys = KeyPairGenerator.getInstance(ALGORITHM).generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " not available", e);
+        }
+        publicKey = keys.getPublic().getEncoded();
+    }
+
+    /**
+     * Returns the public half of this exchange's key pair, to send to the other party.
+     *
+     * @return the public key, X.509 encoded, in Base64.
+     */
+    public String publicKey() {
+        return Base64.getEncoder().encodeToString(publicKey);
+    }
+
+    /**
+     * Derives the key both parties share, from this exchange's private key and the other party's public key.
+     *
+     * @param peerPublicKey the other party's {@link #publicKey()}.
+     * @return a 256-bit AES key in Base64, for {@link AesGcmCipher#AesGcmCipher(String)}.
+     * @throws IllegalArgumentException if peerPublicKey is null, not Base64, or not an X25519 public key that
+     *                                  can agree a key.
+     */
+    public String agree(String peerPublicKey) throws IllegalArgumentException {
+        if (peerPublicKey == null) {
+            throw new IllegalArgumentException("Need a non-null public key");
+        }
+        byte[] peer;
+        try {
+            peer = Base64.getDecoder().decode(peerPublicKey.strip());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Public key must be in Base64: " + e.getMessage(), e);
+        }
+        byte[] secret;
+        try {
+            PublicKey key = KeyFactory.getInstance(ALGORITHM).generatePublic(new X509EncodedKeySpec(peer));
+            KeyAgreement agreement = KeyAgreement.getInstance(ALGORITHM);
+            agreement.init(keys.getPrivate());
+            agreement.doPhase(key, true); // Refuses small-order points, whose secret anyone could guess.
+            secret = agreement.generateSecret();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " not available", e);
+        } catch (GeneralSecurityException | IllegalStateException e) {
+            throw new IllegalArgumentException("Not an " + ALGORITHM + " public key: " + e.getMessage(), e);
+        }
+        byte[] key = hkdf(secret, info(peer));
+        Arrays.fill(secret, (byte) 0);
+        String encoded = Base64.getEncoder().encodeToString(key);
+        Arrays.fill(key, (byte) 0);
+        return encoded;
+    }
+
+    /**
+     * Builds the HKDF info: the label, then both public keys, the lower first, so that both parties build the same.
+     *
+     * @param peer the other party's public key, X.509 encoded.
+     * @return the info.
+     */
+    private byte[] info(byte[] peer) {
+        boolean ownFirst = Arrays.compareUnsigned(publicKey, peer) <= 0;
+        byte[] first = ownFirst ? publicKey : peer;
+        byte[] second = ownFirst ? peer : publicKey;
+        byte[] info = Arrays.copyOf(LABEL, LABEL.length + first.length + second.length);
+        System.arraycopy(first, 0, info, LABEL.length, first.length);
+        System.arraycopy(second, 0, info, LABEL.length + first.length, second.length);
+        return info;
+    }
+
+    /**
+     * Derives {@value #KEY_LENGTH} bytes from a shared secret with HKDF-SHA256: extract with a salt of zeros, then
+     * expand, which for one hash's length of output is a single HMAC.
+     *
+     * @param secret the shared secret.
+     * @param info   what the key is for.
+     * @return the key.
+     */
+    static byte[] hkdf(byte[] secret, byte[] info) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(new byte[KEY_LENGTH], HMAC));
+            byte[] pseudorandomKey = mac.doFinal(secret);
+            mac.init(new SecretKeySpec(pseudorandomKey, HMAC));
+            Arrays.fill(pseudorandomKey, (byte) 0);
+            mac.update(info);
+            mac.update((byte) 1);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC + " not available", e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package sparta.clack.cipher;
+
+/**
+ * A cipher that a session can apply to the text of its chat messages, whatever it works on: the classical
+ * {@link CharacterCipher}s, which encrypt letters and drop everything else, and {@link AesGcmCipher}, which seals any
+ * text in an authenticated frame.
+ * <p>
+ * Get one from {@link CipherEnum#newCipher(String)}, or shared from a {@link CipherCache}. Implementations are
+ * immutable, so one can be used by any number of threads.
+ */
+public interface MessageCipher {
+    /**
+     * Encrypts a text: what a sender does with a message before sending it.
+     *
+     * @param cleartext the text to encrypt.
+     * @return the encryption, or null if cleartext is null.
+     * @throws IllegalArgumentException if the cleartext holds something this cipher cannot encrypt.
+     */
+    String encipher(String cleartext) throws IllegalArgumentException;
+
+    /**
+     * Decrypts a ciphertext: what a receiver does with a message encrypted by {@link #encipher(String)}.
+     *
+     * @param ciphertext the text to decrypt.
+     * @return the decryption, or null if ciphertext is null.
+     * @throws IllegalArgumentException if the ciphertext is not one this cipher could have produced.
+     */
+    String decipher(String ciphertext) throws IllegalArgumentException;
+
+    /**
+     * Returns a transform that encrypts a text a chunk at a time, from one buffer into another, in constant memory.
+     *
+     * @return a new encryptor, for one text.
+     */
+    CipherTransform encryptor();
+
+    /**
+     * Returns a transform that decrypts, a chunk at a time, a text encrypted by an {@link #encryptor()}.
+     *
+     * @return a new decryptor, for one text.
+     */
+    CipherTransform decryptor();
+}
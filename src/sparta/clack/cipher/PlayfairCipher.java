@@ -1,5 +1,9 @@
 package sparta.clack.cipher;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * The {@code PlayfairCipher} class implements encryption and decryption using the Playfair cipher technique.
  *
@@ -14,9 +18,28 @@ package sparta.clack.cipher;
  *   <li>If the letters of a digraph form a rectangle, they are replaced by the letters in the same row but at the
  *       opposite corners.</li>
  * </ul>
+ *
+ * <p>The matrix only depends on the key, so the constructor builds it once, and from it the digraph every digraph
+ * encrypts and decrypts to. Encrypting or decrypting a digraph is then a single table lookup.
  */
 public class PlayfairCipher extends CharacterCipher {
-    private final String key;
+    private static final int SIZE = 5;
+    private static final int LETTERS = ALPHABET.length();
+    private static final int I = 'I' - 'A';
+    private static final int J = 'J' - 'A';
+    private static final int X = 'X' - 'A';
+
+    /**
+     * The digraph each digraph of letters encrypts to: the two letters for the digraph {@code ab} are at
+     * {@code 2 * (26 * a + b)}, where a and b are the letters' indexes in ALPHABET. Both are 0 if either letter is
+     * not in the matrix.
+     */
+    private final byte[] encryptTable;
+
+    /**
+     * The digraph each digraph of letters decrypts to, laid out like {@link #encryptTable}.
+     */
+    private final byte[] decryptTable;
 
     /**
      * Constructs a {@code PlayfairCipher} with the specified key.
@@ -32,7 +55,22 @@ public class PlayfairCipher extends CharacterCipher {
         if (key.isEmpty()) {
             key = "ABCDEFGHIKLMNOPQRSTUVWXYZ";
         }
-        this.key = key.toUpperCase().replaceAll("[^A-Z]", "");  // Keep only A-Z letters
+        char[][] matrix = createMatrix(key.toUpperCase().replaceAll("[^A-Z]", ""));  // Keep only A-Z letters
+
+        // Each letter's position in the matrix, or -1 if it is not in it; a letter repeated in the key is found
+        // where it first appears.
+        int[] rows = new int[LETTERS];
+        int[] cols = new int[LETTERS];
+        Arrays.fill(rows, -1);
+        for (int i = SIZE - 1; i >= 0; i--) {
+            for (int j = SIZE - 1; j >= 0; j--) {
+                int letter = indexOf(matrix[i][j]);
+                rows[letter] = i;
+                cols[letter] = j;
+            }
+        }
+        this.encryptTable = digraphTable(matrix, rows, cols, 1);  // Shift right or down
+        this.decryptTable = digraphTable(matrix, rows, cols, SIZE - 1);  // Shift left or up
     }
 
     /**
@@ -70,6 +108,16 @@ public class PlayfairCipher extends CharacterCipher {
         return prepText.toString();
     }
 
+    /**
+     * Returns 2: a segment of whole digraphs encrypts like the digraphs do in the whole text.
+     *
+     * @return the block size.
+     */
+    @Override
+    int blockSize() {
+        return 2;
+    }
+
     /**
      * Encrypt a string that's been prepared for encryption.
      *
@@ -81,29 +129,10 @@ public class PlayfairCipher extends CharacterCipher {
         if (preptext == null) {
             return null;
         }
-        char[][] matrix = createMatrix();
-        StringBuilder ciphertext = new StringBuilder();
-        for (int i = 0; i < preptext.length(); i += 2) {
-            char a = preptext.charAt(i);
-            char b = preptext.charAt(i + 1);
-            int[] posA = findPosition(matrix, a);
-            int[] posB = findPosition(matrix, b);
-
-            if (posA[0] == posB[0]) {
-                // Same row: shift right
-                ciphertext.append(matrix[posA[0]][(posA[1] + 1) % 5]);
-                ciphertext.append(matrix[posB[0]][(posB[1] + 1) % 5]);
-            } else if (posA[1] == posB[1]) {
-                // Same column: shift down
-                ciphertext.append(matrix[(posA[0] + 1) % 5][posA[1]]);
-                ciphertext.append(matrix[(posB[0] + 1) % 5][posB[1]]);
-            } else {
-                // Rectangle: swap corners
-                ciphertext.append(matrix[posA[0]][posB[1]]);
-                ciphertext.append(matrix[posB[0]][posA[1]]);
-            }
-        }
-        return ciphertext.toString();
+        CipherEvent event = new CipherEvent();
+        String result = substitute(preptext, encryptTable);
+        event.finish(this, CipherEvent.ENCRYPT, preptext, result);
+        return result;
     }
 
     /**
@@ -114,70 +143,210 @@ public class PlayfairCipher extends CharacterCipher {
      */
     @Override
     String decrypt(String ciphertext) {
-        char[][] matrix = createMatrix();
-        StringBuilder plaintext = new StringBuilder();
-        for (int i = 0; i < ciphertext.length(); i += 2) {
-            char a = ciphertext.charAt(i);
-            char b = ciphertext.charAt(i + 1);
-            int[] posA = findPosition(matrix, a);
-            int[] posB = findPosition(matrix, b);
-
-            if (posA[0] == posB[0]) {
-                // Same row: shift left
-                plaintext.append(matrix[posA[0]][(posA[1] + 4) % 5]);
-                plaintext.append(matrix[posB[0]][(posB[1] + 4) % 5]);
-            } else if (posA[1] == posB[1]) {
-                // Same column: shift up
-                plaintext.append(matrix[(posA[0] + 4) % 5][posA[1]]);
-                plaintext.append(matrix[(posB[0] + 4) % 5][posB[1]]);
-            } else {
-                // Rectangle: swap corners
-                plaintext.append(matrix[posA[0]][posB[1]]);
-                plaintext.append(matrix[posB[0]][posA[1]]);
+        CipherEvent event = new CipherEvent();
+        String result = substitute(ciphertext, decryptTable);
+        event.finish(this, CipherEvent.DECRYPT, ciphertext, result);
+        return result;
+    }
+
+    /**
+     * Replaces each digraph of a string with the one a digraph table gives for it.
+     *
+     * @param text  the string, of whole digraphs.
+     * @param table {@link #encryptTable} or {@link #decryptTable}.
+     * @return the string with its digraphs replaced.
+     * @throws IllegalArgumentException  if a character in the string is not in the matrix.
+     * @throws IndexOutOfBoundsException if the string ends in half a digraph.
+     */
+    private static String substitute(String text, byte[] table) throws IllegalArgumentException {
+        // Letters fit in one byte; anything that does not becomes '?', which is not in the matrix either.
+        byte[] digraphs = text.getBytes(StandardCharsets.ISO_8859_1);
+        int whole = digraphs.length & ~1;
+        for (int i = 0; i < whole; i += 2) {
+            int a = indexOf((char) (digraphs[i] & 0xFF));
+            int b = indexOf((char) (digraphs[i + 1] & 0xFF));
+            int entry = a < 0 || b < 0 ? -1 : 2 * (LETTERS * a + b);
+            if (entry < 0 || table[entry] == 0) {
+                throw notInMatrix();
+            }
+            digraphs[i] = table[entry];
+            digraphs[i + 1] = table[entry + 1];
+        }
+        if (whole < digraphs.length) {
+            throw new StringIndexOutOfBoundsException(digraphs.length);
+        }
+        return new String(digraphs, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns a transform that prepares and encrypts a text a chunk at a time, carrying the first letter of a digraph
+     * over from one chunk to the next.
+     *
+     * @return a new encryptor, for one text.
+     */
+    @Override
+    public CipherTransform encryptor() {
+        return new Digraphs(encryptTable, true);
+    }
+
+    /**
+     * Returns a transform that decrypts a ciphertext a chunk at a time, carrying the first letter of a digraph over
+     * from one chunk to the next. Unlike {@link #decrypt(String)}, it reports a ciphertext that ends in half a digraph
+     * with an {@link IllegalArgumentException}.
+     *
+     * @return a new decryptor, for one text.
+     */
+    @Override
+    public CipherTransform decryptor() {
+        return new Digraphs(decryptTable, false);
+    }
+
+    /**
+     * A transform that pairs letters into digraphs and replaces each with the one a digraph table gives for it.
+     */
+    private static final class Digraphs extends CipherTransform {
+        private final byte[] table;
+        private final boolean prep;
+        private int pending = -1;
+
+        /**
+         * Creates a transform for a digraph table.
+         *
+         * @param table {@link #encryptTable} or {@link #decryptTable}.
+         * @param prep  whether to prepare the text as {@link #prep(String)} does, rather than take only upper-case
+         *              letters in whole digraphs.
+         */
+        Digraphs(byte[] table, boolean prep) {
+            super(2);
+            this.table = table;
+            this.prep = prep;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void transform(byte b, ByteBuffer out) throws IllegalArgumentException {
+            int letter = (prep ? CLEAN_INDEX : INDEX)[b & 0xFF];
+            if (letter < 0) {
+                if (prep) {
+                    return;
+                }
+                throw notInMatrix();
+            }
+            if (prep && letter == J) {
+                letter = I;
+            }
+            if (pending < 0) {
+                pending = letter;
+                return;
+            }
+            if (prep && letter == pending) {
+                // As prep does, the repeated letter is replaced with an 'X'
+                letter = X;
+            }
+            put(pending, letter, out);
+            pending = -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void end(ByteBuffer out) throws IllegalArgumentException {
+            if (pending < 0) {
+                return;
+            }
+            if (!prep) {
+                throw new IllegalArgumentException("Ciphertext ends in half a digraph");
+            }
+            put(pending, X, out);  // Add 'X' to the last letter if odd-length
+            pending = -1;
+        }
+
+        /**
+         * Puts the digraph the table gives for a digraph.
+         *
+         * @param a   the index in ALPHABET of the digraph's first letter.
+         * @param b   the index of its second letter.
+         * @param out where to put the digraph.
+         * @throws IllegalArgumentException if either letter is not in the matrix.
+         */
+        private void put(int a, int b, ByteBuffer out) throws IllegalArgumentException {
+            int entry = 2 * (LETTERS * a + b);
+            if (table[entry] == 0) {
+                throw notInMatrix();
+            }
+            out.put(table[entry]).put(table[entry + 1]);
+        }
+    }
+
+    /**
+     * Builds the exception thrown for a character that is not in the matrix.
+     *
+     * @return the exception.
+     */
+    private static IllegalArgumentException notInMatrix() {
+        return new IllegalArgumentException("Character not found in matrix");
+    }
+
+    /**
+     * Builds the table of the digraph each digraph of letters in the matrix is replaced with.
+     *
+     * @param matrix the Playfair cipher matrix.
+     * @param rows   the row of each letter in the matrix, or -1 if it is not in it.
+     * @param cols   the column of each letter in the matrix.
+     * @param step   how far along its row or column a letter moves: 1 to encrypt, 4 to decrypt.
+     * @return the digraph table.
+     */
+    private static byte[] digraphTable(char[][] matrix, int[] rows, int[] cols, int step) {
+        byte[] table = new byte[2 * LETTERS * LETTERS];
+        for (int a = 0; a < LETTERS; a++) {
+            for (int b = 0; b < LETTERS; b++) {
+                if (rows[a] < 0 || rows[b] < 0) {
+                    continue;
+                }
+                int rowA = rows[a], colA = cols[a], rowB = rows[b], colB = cols[b];
+                int entry = 2 * (LETTERS * a + b);
+                if (rowA == rowB) {
+                    // Same row: shift right, or left
+                    table[entry] = (byte) matrix[rowA][(colA + step) % SIZE];
+                    table[entry + 1] = (byte) matrix[rowB][(colB + step) % SIZE];
+                } else if (colA == colB) {
+                    // Same column: shift down, or up
+                    table[entry] = (byte) matrix[(rowA + step) % SIZE][colA];
+                    table[entry + 1] = (byte) matrix[(rowB + step) % SIZE][colB];
+                } else {
+                    // Rectangle: swap corners
+                    table[entry] = (byte) matrix[rowA][colB];
+                    table[entry + 1] = (byte) matrix[rowB][colA];
+                }
             }
         }
-        return plaintext.toString();
+        return table;
     }
 
     /**
      * Creates a 5x5 matrix for the Playfair cipher based on the provided key. The matrix is filled with the letters
      * of the key (removing duplicates) and then the remaining unused alphabetic letters (excluding 'J') are added.
      *
+     * @param key the key, only uppercase alphabetic characters.
      * @return the 5x5 Playfair cipher matrix.
      */
-    private char[][] createMatrix() {
+    private static char[][] createMatrix(String key) {
         StringBuilder combined = new StringBuilder(key);
         for (char c = 'A'; c <= 'Z'; c++) {
             if (combined.indexOf(String.valueOf(c)) == -1 && c != 'J') {
                 combined.append(c);
             }
         }
-        char[][] matrix = new char[5][5];
+        char[][] matrix = new char[SIZE][SIZE];
         int index = 0;
-        for (int i = 0; i < 5; i++) {
-            for (int j = 0; j < 5; j++) {
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
                 matrix[i][j] = combined.charAt(index++);
             }
         }
         return matrix;
     }
-
-    /**
-     * Finds the row and column of a given character in the Playfair cipher matrix.
-     *
-     * @param matrix the Playfair cipher matrix.
-     * @param c the character to locate in the matrix.
-     * @return an array containing the row and column indices of the character in the matrix.
-     * @throws IllegalArgumentException if the character is not found in the matrix.
-     */
-    private int[] findPosition(char[][] matrix, char c) throws IllegalArgumentException {
-        for (int i = 0; i < 5; i++) {
-            for (int j = 0; j < 5; j++) {
-                if (matrix[i][j] == c) {
-                    return new int[]{i, j};
-                }
-            }
-        }
-        throw new IllegalArgumentException("Character not found in matrix");
-    }
 }
@@ -8,7 +8,8 @@ package sparta.clack.cipher;
  * encryption and decryption based on this technique.
  */
 public class VignereCipher extends CharacterCipher {
-    private final String key;
+    private final int[] encryptSchedule;
+    private final int[] decryptSchedule;
 
     /**
      * Constructs a {@code VignereCipher} with the specified key.
@@ -23,7 +24,11 @@ public class VignereCipher extends CharacterCipher {
         if (key.length() != prep(key).length()) {
             throw new IllegalArgumentException("Key must contain only uppercase alphabetic characters");
         }
-        this.key = key;
+        this.encryptSchedule = new int[key.length()];
+        for (int i = 0; i < key.length(); i++) {
+            encryptSchedule[i] = indexOf(key.charAt(i));  // Shift value is determined by key
+        }
+        this.decryptSchedule = inverse(encryptSchedule);
     }
 
     /**
@@ -38,6 +43,16 @@ public class VignereCipher extends CharacterCipher {
         return cleartext.replaceAll("[^A-Z]", "").toUpperCase();
     }
 
+    /**
+     * Returns the key's length: a segment that starts at a multiple of it starts at the key's first letter.
+     *
+     * @return the block size.
+     */
+    @Override
+    int blockSize() {
+        return encryptSchedule.length;
+    }
+
     /**
      * Encrypt a string that's been prepared for encryption.
      *
@@ -46,18 +61,10 @@ public class VignereCipher extends CharacterCipher {
      */
     @Override
     String encrypt(String preptext) {
-        StringBuilder encryptedText = new StringBuilder();
-        int keyLength = key.length();
-
-        for (int i = 0; i < preptext.length(); i++) {
-            char plaintextChar = preptext.charAt(i);
-            char keyChar = key.charAt(i % keyLength);
-
-            int shift = ALPHABET.indexOf(keyChar);  // Shift value is determined by key
-            encryptedText.append(shift(plaintextChar, shift));
-        }
-
-        return encryptedText.toString();
+        CipherEvent event = new CipherEvent();
+        String ciphertext = substitute(preptext, encryptSchedule);
+        event.finish(this, CipherEvent.ENCRYPT, preptext, ciphertext);
+        return ciphertext;
     }
 
     /**
@@ -68,17 +75,31 @@ public class VignereCipher extends CharacterCipher {
      */
     @Override
     String decrypt(String ciphertext) {
-        StringBuilder decryptedText = new StringBuilder();
-        int keyLength = key.length();
-
-        for (int i = 0; i < ciphertext.length(); i++) {
-            char cipherChar = ciphertext.charAt(i);
-            char keyChar = key.charAt(i % keyLength);
+        CipherEvent event = new CipherEvent();
+        String plaintext = substitute(ciphertext, decryptSchedule);  // Shifts back for decryption
+        event.finish(this, CipherEvent.DECRYPT, ciphertext, plaintext);
+        return plaintext;
+    }
 
-            int shift = ALPHABET.indexOf(keyChar);  // Shift value is determined by key
-            decryptedText.append(shift(cipherChar, -shift));  // Negative shift for decryption
-        }
+    /**
+     * Returns a transform that prepares and encrypts a text a chunk at a time, carrying the key's position over from
+     * one chunk to the next.
+     *
+     * @return a new encryptor, for one text.
+     */
+    @Override
+    public CipherTransform encryptor() {
+        return new Shifter(encryptSchedule, INDEX, true);
+    }
 
-        return decryptedText.toString();
+    /**
+     * Returns a transform that decrypts a ciphertext a chunk at a time, carrying the key's position over from one
+     * chunk to the next.
+     *
+     * @return a new decryptor, for one text.
+     */
+    @Override
+    public CipherTransform decryptor() {
+        return new Shifter(decryptSchedule, INDEX, false);
     }
 }
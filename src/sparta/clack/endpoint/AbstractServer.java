@@ -0,0 +1,77 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.cipher.CipherCache;
+import sparta.clack.metrics.ServerMetrics;
+
+import java.io.IOException;
+
+/**
+ * What the Clack servers have in common, whichever {@link ServerEngine} they run on: the port they listen on, and
+ * the {@link ServerContext} shared by all their sessions.
+ * <p>
+ * The engines differ only in how they accept and serve connections, which each implements in {@link #start()}.
+ */
+public abstract class AbstractServer {
+    /**
+     * The default name assigned to the server if no specific name is provided.
+     */
+    public static final String DEFAULT_SERVERNAME = "server";
+
+    final int port;
+    final ServerContext context;
+
+    /**
+     * Creates a server for exchanging Message objects.
+     *
+     * @param port       the port to listen on.
+     * @param serverName the name to use when constructing Message objects.
+     * @param room       the room that logged-in clients join and TEXT messages are broadcast to.
+     * @throws IllegalArgumentException if port not in range [1024, 49151].
+     */
+    AbstractServer(int port, String serverName, ChatRoom room) throws IllegalArgumentException {
+        if (port < 1024 || port > 49151) {
+            throw new IllegalArgumentException(
+                    "Port " + port + " not in range 1024-49151.");
+        }
+        this.port = port;
+        this.context = ServerContext.create(serverName, room);
+    }
+
+    /**
+     * Starts this server, listening on the port it was constructed with, and serves connections until the process
+     * exits.
+     *
+     * @throws IOException if the server cannot listen on its port, or accepting connections fails.
+     */
+    public abstract void start() throws IOException;
+
+    /**
+     * Returns the log of the messages this server receives and sends, whose level and sampling rate can be changed
+     * while the server runs.
+     *
+     * @return the traffic log; written to logs/traffic.log once the server has started.
+     */
+    public TrafficLog getTrafficLog() {
+        return context.traffic();
+    }
+
+    /**
+     * Returns the counters and latency histograms of this server's traffic. They are also registered over JMX, and
+     * a summary is printed every minute, once the server has started.
+     *
+     * @return the server's metrics.
+     */
+    public ServerMetrics getMetrics() {
+        return context.metrics();
+    }
+
+    /**
+     * Returns the cache of the ciphers this server's sessions use, shared by sessions using the same cipher and key.
+     * Its statistics are also registered over JMX, and printed with the metrics, once the server has started.
+     *
+     * @return the server's ciphers.
+     */
+    public CipherCache getCiphers() {
+        return context.ciphers();
+    }
+}
@@ -0,0 +1,423 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.message.DownloadMessage;
+import sparta.clack.message.Message;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A full-duplex connection to a server: messages are received and sent independently of each other.
+ * <p>
+ * A receive loop on its own virtual thread reads every message the server sends, replies and broadcasts alike, and
+ * passes each to a {@link Listener} as it arrives. {@link #send(Message)} never waits for the network: it encodes
+ * the message, queues it, and returns a future that completes once the message has been written. A writer on a
+ * second virtual thread takes everything queued since its last write and sends it with one gathering write, so a
+ * script can push messages as fast as it likes without waiting for a round trip per message.
+ * <p>
+ * {@link #request(Message)} numbers a message before sending it, and returns a future completed with the server's
+ * reply, which carries the same number. Any number of requests may be outstanding at once: their replies are matched
+ * by number, not by the order they arrive in; the server stops reading requests while too many of their replies are
+ * waiting to be read, so the receive loop's pace, not the server's memory, bounds how far requests run ahead.
+ * Replies are still passed to the listener as well. A request whose reply has not begun to arrive within its timeout
+ * fails, so that a reply the server never sends cannot leave its caller waiting, or its entry behind, for as long as
+ * the connection lasts.
+ * <p>
+ * The raw file bytes that follow a {@link DownloadMessage} are handed to
+ * {@link Listener#onDownload(DownloadMessage, InputStream)}, so the receive loop stays in step with the server.
+ * <p>
+ * The send queue is not bounded; a sender that must not run ahead of the connection (an upload, say) should wait
+ * on the futures it gets back. An AsyncClient is thread-safe.
+ */
+public final class AsyncClient implements Closeable {
+    /**
+     * The default time {@link #request(Message)} waits for a reply to begin to arrive, in milliseconds.
+     */
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Receives what the server sends. Called on the client's receive thread, one message at a time, in the order
+     * the messages arrived; a slow listener holds up the messages behind it, but never the sender.
+     */
+    public interface Listener {
+        /**
+         * Handles a message from the server.
+         *
+         * @param msg the message received.
+         */
+        void onMessage(Message msg);
+
+        /**
+         * Handles a download: the server's DownloadMessage, followed by the bytes it announces. By default the
+         * bytes are discarded and the message is passed to {@link #onMessage(Message)}.
+         *
+         * @param reply the server's reply, giving the range of the file that follows.
+         * @param data  exactly the announced bytes; whatever is not read is skipped once this method returns.
+         * @throws IOException if the bytes cannot be read or stored.
+         */
+        default void onDownload(DownloadMessage reply, InputStream data) throws IOException {
+            onMessage(reply);
+        }
+    }
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final Listener listener;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private final AtomicLong lastRequestId = new AtomicLong();
+    private final ConcurrentHashMap<Long, CompletableFuture<Message>> requests = new ConcurrentHashMap<>();
+    private final Thread receiver;
+    private final Thread writer;
+
+    /**
+     * A frame waiting to be written, and the future to complete once it has been.
+     */
+    private record Pending(ByteBuffer frame, CompletableFuture<Void> written) {
+    }
+
+    /**
+     * Connects to a server and starts receiving.
+     *
+     * @param hostname the hostname of the server.
+     * @param port     the service's port on the server.
+     * @param listener what to give received messages to.
+     * @throws IOException if the connection cannot be made.
+     */
+    public AsyncClient(String hostname, int port, Listener listener) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(hostname, port));
+        this.listener = listener;
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            // The socket adaptor's stream, unlike Channels.newInputStream, lets one thread read while another writes.
+            this.in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream()));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.receiver = Thread.ofVirtual().name("clack-client-receiver").unstarted(this::receive);
+        this.writer = Thread.ofVirtual().name("clack-client-writer").unstarted(this::drain);
+        writer.start();
+        receiver.start();
+    }
+
+    /**
+     * Queues a message to be sent. Returns at once.
+     *
+     * @param msg the message to send.
+     * @return a future completed once the message has been written to the connection, or completed exceptionally
+     * if it cannot be encoded or the connection is closed before it is written.
+     */
+    public CompletableFuture<Void> send(Message msg) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        if (closed.isDone()) {
+            written.completeExceptionally(new IOException("Connection closed."));
+            return written;
+        }
+        try {
+            queue.add(new Pending(Frames.encode(msg), written));
+        } catch (IOException e) {
+            written.completeExceptionally(e);
+            return written;
+        }
+        // Closed meanwhile: the writer may already be gone, so make sure nothing is left waiting.
+        if (closed.isDone()) {
+            failPending();
+        }
+        return written;
+    }
+
+    /**
+     * Numbers a message and queues it to be sent, like {@link #send(Message)}, but returns a future for the
+     * server's reply to it instead, which fails if the reply has not begun to arrive within
+     * {@link #DEFAULT_REQUEST_TIMEOUT_MILLIS}. Returns at once; the message's request ID is overwritten.
+     * <p>
+     * Only messages the server answers should be sent this way: a TEXT message is broadcast rather than answered,
+     * and a chunk of an upload is answered only if it is the last, so their futures would only ever time out.
+     *
+     * @param msg the message to send.
+     * @return a future completed with the reply, once it has been passed to the listener, or completed
+     * exceptionally if the message cannot be sent, the connection ends first, or the reply is too late.
+     */
+    public CompletableFuture<Message> request(Message msg) {
+        return request(msg, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Numbers a message and queues it to be sent, like {@link #request(Message)}, with a timeout of its own.
+     * <p>
+     * The timeout ends the wait for the reply, not for the listener: once the reply has arrived, a download is
+     * given all the time it takes. A reply that arrives after its request has timed out is still passed to the
+     * listener.
+     *
+     * @param msg           the message to send.
+     * @param timeoutMillis how long to wait for the reply to begin to arrive, in milliseconds.
+     * @return a future completed with the reply, once it has been passed to the listener, or completed
+     * exceptionally with a {@link TimeoutException} if the reply is too late, or with another exception if the
+     * message cannot be sent or the connection ends first.
+     */
+    public CompletableFuture<Message> request(Message msg, long timeoutMillis) {
+        long requestId = lastRequestId.incrementAndGet();
+        CompletableFuture<Message> reply = new CompletableFuture<>();
+        requests.put(requestId, reply);
+        msg.setRequestId(requestId);
+        send(msg).whenComplete((ignored, e) -> {
+            if (e != null && requests.remove(requestId, reply)) {
+                reply.completeExceptionally(e);
+            }
+        });
+        CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (requests.remove(requestId, reply)) {
+                reply.completeExceptionally(new TimeoutException(
+                        "No reply to request " + requestId + " within " + timeoutMillis + " ms."));
+            }
+        });
+        // Closed meanwhile: the receive loop may already be gone.
+        if (closed.isDone()) {
+            failRequests();
+        }
+        return reply;
+    }
+
+    /**
+     * Returns a future that completes when the connection ends: normally once the server closes it or
+     * {@link #close()} is called, exceptionally if reading or writing fails.
+     *
+     * @return the future.
+     */
+    public CompletableFuture<Void> closed() {
+        return closed;
+    }
+
+    /**
+     * Returns whether the connection is still open.
+     *
+     * @return false once the connection has ended.
+     */
+    public boolean isOpen() {
+        return !closed.isDone();
+    }
+
+    /**
+     * Closes the connection at once. Messages not yet written are dropped and their futures fail. To end a
+     * conversation politely, send a LogoutMessage and wait for {@link #closed()} instead.
+     */
+    @Override
+    public void close() {
+        shutDown(null);
+        if (Thread.currentThread() == receiver || Thread.currentThread() == writer) {
+            return;
+        }
+        try {
+            receiver.join();
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads messages until the connection ends. Runs on the receive thread.
+     */
+    private void receive() {
+        try {
+            while (true) {
+                Message msg;
+                try {
+                    msg = Frames.read(in);
+                } catch (EOFException e) {
+                    shutDown(null);
+                    return;
+                }
+                long requestId = msg.getRequestId();
+                // Taken before the listener runs, so that a download cannot time out once its reply has arrived.
+                CompletableFuture<Message> request = requestId == 0 ? null : requests.remove(requestId);
+                try {
+                    if (msg instanceof DownloadMessage reply && reply.getRange() != null
+                            && reply.getFileSize() >= 0) {
+                        receiveDownload(reply);
+                    } else {
+                        listener.onMessage(msg);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (request != null) {
+                        request.completeExceptionally(e);
+                    }
+                    throw e;
+                }
+                if (request != null) {
+                    request.complete(msg);
+                }
+            }
+        } catch (IOException e) {
+            shutDown(e);
+        } catch (RuntimeException e) {
+            shutDown(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a download's bytes to the listener, then skips whatever it left unread.
+     *
+     * @param reply the server's reply announcing the bytes.
+     * @throws IOException if reading fails, or the listener fails.
+     */
+    private void receiveDownload(DownloadMessage reply) throws IOException {
+        BoundedInputStream data = new BoundedInputStream(in, reply.getRange().length());
+        listener.onDownload(reply, data);
+        data.skipRest();
+    }
+
+    /**
+     * Writes queued frames until the connection ends. Runs on the writer thread.
+     */
+    private void drain() {
+        List<Pending> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, ChatRoom.DEFAULT_MAX_BATCH - 1);
+                ByteBuffer[] frames = new ByteBuffer[batch.size()];
+                long length = 0;
+                for (int i = 0; i < frames.length; i++) {
+                    frames[i] = batch.get(i).frame();
+                    if (frames[i] == null) {
+                        return; // Closed; the rest are failed below.
+                    }
+                    length += frames[i].remaining();
+                }
+                for (long written = 0; written < length; ) {
+                    written += channel.write(frames);
+                }
+                for (Pending pending : batch) {
+                    pending.written().complete(null);
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            shutDown(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            batch.forEach(AsyncClient::fail);
+            failPending();
+        }
+    }
+
+    /**
+     * Ends the connection once: completes {@link #closed()}, fails the requests still waiting for replies, wakes
+     * the writer, and closes the channel, which ends the receive loop.
+     *
+     * @param cause the failure that ended it, or null.
+     */
+    private void shutDown(Throwable cause) {
+        boolean first = cause == null ? closed.complete(null) : closed.completeExceptionally(cause);
+        if (!first) {
+            return;
+        }
+        failRequests();
+        queue.add(new Pending(null, null));
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Closing anyway.
+        }
+    }
+
+    /**
+     * Fails every frame still queued. Called once the connection has ended.
+     */
+    private void failPending() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            fail(pending);
+        }
+    }
+
+    /**
+     * Fails every request still waiting for its reply. Called once the connection has ended.
+     */
+    private void failRequests() {
+        for (Long requestId : requests.keySet()) {
+            CompletableFuture<Message> reply = requests.remove(requestId);
+            if (reply != null) {
+                reply.completeExceptionally(new IOException("Connection closed."));
+            }
+        }
+    }
+
+    /**
+     * Fails one frame's future, unless it is the marker queued to wake the writer.
+     */
+    private static void fail(Pending pending) {
+        if (pending.written() != null) {
+            pending.written().completeExceptionally(new IOException("Connection closed."));
+        }
+    }
+
+    /**
+     * A view of the next few bytes of a stream, for reading a download.
+     */
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed during a download.");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = in.read(bytes, offset, (int) Math.min(length, remaining));
+            if (count < 0) {
+                throw new EOFException("Connection closed during a download.");
+            }
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        /**
+         * Reads and discards whatever is left.
+         */
+        void skipRest() throws IOException {
+            byte[] scratch = new byte[8192];
+            while (read(scratch, 0, scratch.length) >= 0) {
+                // Discarded.
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.cipher.MessageCipher;
+import sparta.clack.message.Message;
+import sparta.clack.message.TextMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The set of logged-in sessions on a server, and the fan-out of TEXT messages to all of them.
+ * <p>
+ * A broadcast message is encoded into a frame once; every member then gets its own view of the same bytes, queued
+ * in the member's bounded {@link Outbox}. Members that have a cipher get a TEXT message's text encrypted with it, and
+ * the message is encrypted and encoded once for each cipher rather than for each member: ciphers come from the
+ * server's {@link sparta.clack.cipher.CipherCache}, so members using the same cipher and key share one. Each member
+ * has its own writer, so a client that reads slowly only fills its own queue, and the room's
+ * {@link SlowConsumerPolicy} decides what happens then.
+ * <p>
+ * Writers coalesce: each write takes every frame queued for the client, up to the room's batch size, and sends them
+ * with one gathering write, so a burst of broadcasts costs one system call per client rather than one per message.
+ * A writer can also be told to linger, waiting up to a flush delay for more frames before writing a small batch;
+ * the default is not to wait, so a frame is written as soon as the writer is free. The room's {@link FlushStats}
+ * count how many frames each write carried.
+ * <p>
+ * A ChatRoom is thread-safe and is shared by every session of one server.
+ */
+public class ChatRoom {
+    /**
+     * The default number of broadcasts queued for one client before the slow-consumer policy applies.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * The default time a broadcast waits for room under {@link SlowConsumerPolicy#BLOCK}, in milliseconds.
+     */
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 5_000;
+
+    /**
+     * The default number of frames written to one client with a single gathering write.
+     */
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /**
+     * The default time a writer waits for more frames before writing a batch smaller than the maximum, in
+     * microseconds.
+     */
+    public static final long DEFAULT_FLUSH_DELAY_MICROS = 0;
+
+    /**
+     * A session that can receive broadcasts.
+     */
+    interface Member {
+        /**
+         * Returns the user logged in on this session.
+         *
+         * @return the username.
+         */
+        String getUsername();
+
+        /**
+         * Queues a broadcast frame for this session, applying the room's slow-consumer policy.
+         *
+         * @param msg   the message broadcast, as sent, before any encryption; to count and log the frame by.
+         * @param frame this member's own view of the encoded frame.
+         */
+        void deliver(Message msg, ByteBuffer frame);
+
+        /**
+         * Returns the cipher that the text of broadcast TEXT messages is encrypted with for this session.
+         *
+         * @return the cipher, or null to send the text as it is.
+         */
+        MessageCipher getCipher();
+    }
+
+    private final int queueCapacity;
+    private final SlowConsumerPolicy policy;
+    private final long blockTimeoutMillis;
+    private final int maxBatch;
+    private final long flushDelayMicros;
+    private final FlushStats flushStats = new FlushStats();
+    private final Set<Member> members = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates an empty room.
+     *
+     * @param queueCapacity      the number of broadcasts queued for one client before the policy applies.
+     * @param policy             what to do with a client whose queue is full.
+     * @param blockTimeoutMillis how long {@link SlowConsumerPolicy#BLOCK} waits for room, in milliseconds.
+     * @param maxBatch           the most frames written to one client with a single write; 1 turns coalescing off.
+     * @param flushDelayMicros   how long a writer waits for more frames before writing a smaller batch, in
+     *                           microseconds; 0 writes as soon as the queue is drained.
+     * @throws IllegalArgumentException if queueCapacity or maxBatch is less than 1, or blockTimeoutMillis or
+     *                                  flushDelayMicros is negative.
+     */
+    public ChatRoom(int queueCapacity, SlowConsumerPolicy policy, long blockTimeoutMillis, int maxBatch,
+                    long flushDelayMicros) throws IllegalArgumentException {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity cannot be less than 1.");
+        }
+        if (blockTimeoutMillis < 0) {
+            throw new IllegalArgumentException("blockTimeoutMillis cannot be negative.");
+        }
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch cannot be less than 1.");
+        }
+        if (flushDelayMicros < 0) {
+            throw new IllegalArgumentException("flushDelayMicros cannot be negative.");
+        }
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.maxBatch = maxBatch;
+        this.flushDelayMicros = flushDelayMicros;
+    }
+
+    /**
+     * Creates an empty room with the default batch size and flush delay.
+     *
+     * @param queueCapacity      the number of broadcasts queued for one client before the policy applies.
+     * @param policy             what to do with a client whose queue is full.
+     * @param blockTimeoutMillis how long {@link SlowConsumerPolicy#BLOCK} waits for room, in milliseconds.
+     * @throws IllegalArgumentException if queueCapacity is less than 1, or blockTimeoutMillis is negative.
+     */
+    public ChatRoom(int queueCapacity, SlowConsumerPolicy policy, long blockTimeoutMillis)
+            throws IllegalArgumentException {
+        this(queueCapacity, policy, blockTimeoutMillis, DEFAULT_MAX_BATCH, DEFAULT_FLUSH_DELAY_MICROS);
+    }
+
+    /**
+     * Creates an empty room with the default queue capacity, the {@link SlowConsumerPolicy#DROP_OLDEST} policy, and
+     * the default block timeout.
+     */
+    public ChatRoom() {
+        this(DEFAULT_QUEUE_CAPACITY, SlowConsumerPolicy.DROP_OLDEST, DEFAULT_BLOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates an outbound queue sized and configured for this room.
+     *
+     * @return a new, empty outbox.
+     */
+    Outbox newOutbox() {
+        return new Outbox(queueCapacity, policy, TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis), maxBatch,
+                TimeUnit.MICROSECONDS.toNanos(flushDelayMicros), flushStats);
+    }
+
+    /**
+     * Adds a logged-in session to the room.
+     *
+     * @param member the session.
+     */
+    void join(Member member) {
+        members.add(member);
+    }
+
+    /**
+     * Removes a session from the room. Does nothing if it is not a member.
+     *
+     * @param member the session.
+     */
+    void leave(Member member) {
+        members.remove(member);
+    }
+
+    /**
+     * Sends a message to every member, the sender included. The message is encoded only once, or for a TEXT
+     * message, once as it is and once for each cipher the members use. If a cipher cannot encrypt the text, the
+     * members using it miss the message, and everyone else still gets it.
+     *
+     * @param msg the message to send.
+     * @throws IOException if the message cannot be encoded.
+     */
+    void broadcast(Message msg) throws IOException {
+        ByteBuffer plain = null;
+        Map<MessageCipher, ByteBuffer> enciphered = null;
+        for (Member member : members) {
+            MessageCipher cipher = member.getCipher();
+            ByteBuffer frame;
+            if (cipher == null || !(msg instanceof TextMessage text)) {
+                if (plain == null) {
+                    plain = Frames.encode(msg);
+                }
+                frame = plain;
+            } else {
+                if (enciphered == null) {
+                    enciphered = new IdentityHashMap<>();
+                }
+                if (!enciphered.containsKey(cipher)) {
+                    enciphered.put(cipher, encipher(text, cipher));
+                }
+                frame = enciphered.get(cipher);
+                if (frame == null) {
+                    continue;
+                }
+            }
+            member.deliver(msg, frame.duplicate());
+        }
+    }
+
+    /**
+     * Encodes a TEXT message with its text encrypted by one member's cipher.
+     *
+     * @param text   the message.
+     * @param cipher the cipher.
+     * @return the frame, or null if the cipher could not encrypt the text or the result could not be encoded.
+     */
+    private static ByteBuffer encipher(TextMessage text, MessageCipher cipher) {
+        try {
+            return Frames.encode(text.withText(cipher.encipher(text.getText())));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not encrypt a broadcast with " + cipher.getClass().getSimpleName() + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the names of the users currently in the room.
+     *
+     * @return the usernames, sorted.
+     */
+    public List<String> getUsernames() {
+        List<String> usernames = new ArrayList<>();
+        for (Member member : members) {
+            usernames.add(member.getUsername());
+        }
+        usernames.sort(null);
+        return usernames;
+    }
+
+    /**
+     * Returns the number of sessions currently in the room.
+     *
+     * @return the number of logged-in users.
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Returns the slow-consumer policy applied to this room's members.
+     *
+     * @return the policy.
+     */
+    public SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the counters of how many frames each write to this room's members carried.
+     *
+     * @return the room's flush statistics.
+     */
+    public FlushStats getFlushStats() {
+        return flushStats;
+    }
+}
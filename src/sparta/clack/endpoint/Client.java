@@ -2,12 +2,18 @@ package sparta.clack.endpoint;
 
 import sparta.clack.message.*;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.*;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Represents a client that connects to a server for sending and receiving messages.
@@ -15,7 +21,14 @@ import java.util.Scanner;
  * To begin a conversation, a client connects to the server and waits for the server to send the first Message.
  * <p>
  * The conversation ends when the client sends a LogoutMessage.
- * The server replies with a last TextMessage, closes the connection, and waits for a new connection.
+ * The server replies with a last TextMessage and closes the connection.
+ * <p>
+ * Messages travel as length-prefixed frames, which every server engine understands.
+ * <p>
+ * The conversation runs over an {@link AsyncClient}, so whatever the server sends, broadcasts included, is shown
+ * as soon as it arrives, even while the user is typing. Commands whose answer the client needs (login, uploads and
+ * downloads) are sent as numbered requests and wait for the reply with the same number; all others are sent without
+ * waiting.
  */
 public class Client {
     /**
@@ -23,10 +36,16 @@ public class Client {
      */
     public static final String DEFAULT_USERNAME = "client";
 
+    /**
+     * The most upload chunks queued for sending at once.
+     */
+    private static final int MAX_CHUNKS_QUEUED = 8;
+
     private final String hostname;
     private final int port;
     private final String prompt;
     private final String username;
+    private final CompletableFuture<Message> greeting = new CompletableFuture<>();
 
     /**
      * Creates a client for exchanging Message objects.
@@ -70,72 +89,208 @@ public class Client {
         System.out.println("Attempting connection to " + hostname + ":" + port);
         Scanner keyboard = new Scanner(System.in);
 
-        try (
-                Socket socket = new Socket(hostname, port);
-                ObjectInputStream inObj = new ObjectInputStream(socket.getInputStream());
-                ObjectOutputStream outObj = new ObjectOutputStream(socket.getOutputStream());
-        ) {
-            String userInput;
-            Message inMsg;
-            Message outMsg;
+        // Wait for the greeting before asking for login details.
+        try (AsyncClient connection = new AsyncClient(hostname, port, new Listener())) {
+            connection.closed().whenComplete(
+                    (ignored, e) -> greeting.completeExceptionally(new IOException("Connection closed.")));
+            await(greeting);
 
             // Login
             boolean loggedIn = false;
             while (!loggedIn) {
-                TextMessage response = (TextMessage) inObj.readObject();
-                System.out.println(response.getText());
-                if (response.getText().equals("Login successful.")) {
-                    loggedIn = true;
-                }
                 System.out.print("Enter login details (username password): ");
                 String loginDetails = keyboard.nextLine();
-                String[] loginTokens = loginDetails.split("\\s+");
+                String[] loginTokens = loginDetails.trim().split("\\s+");
                 if (loginTokens.length == 2) {
-                    outMsg = new TextMessage(username, "LOGIN " + loginTokens[0] + " " + loginTokens[1]);
+                    Message response = await(connection.request(new LoginMessage(loginTokens[0], loginTokens[1])));
+                    loggedIn = response instanceof TextMessage text && text.getText().equals("Login successful.");
                 } else {
-                    outMsg = new TextMessage(username, "Invalid LOGIN format. Please use: LOGIN <username> <password>");
+                    System.out.println("Invalid LOGIN format. Please use: <username> <password>");
                 }
-                outObj.writeObject(outMsg);
-                outObj.flush();
             }
 
-            // Logged-in
-            do {
-                // Get server message and show it to user.
-                inMsg = (Message) inObj.readObject();
-                switch (inMsg.getMsgType()) {
-                    case TEXT:
-                        System.out.println(((TextMessage) inMsg).getText());
-                        break;
-                    default:
-                        System.out.println("Unexpected message type: " + inMsg);
-                        break;
-                }
-
-                // Get user input
+            // Logged-in. Replies and broadcasts are shown by the listener as they arrive.
+            boolean loggedOut = false;
+            while (!loggedOut && connection.isOpen()) {
                 System.out.print(prompt);
-                userInput = keyboard.nextLine();
+                String userInput = keyboard.nextLine();
                 String[] tokens = userInput.trim().split("\\s+");
+                switch (tokens[0].toUpperCase()) {
+                    // Uploads and downloads have their own conversation with the server.
+                    case "SENDFILE" -> sendFile(connection, tokens);
+                    case "GETFILE" -> getFile(connection, tokens);
+                    case "HELP" -> connection.send(new HelpMessage(username));
+                    case "LISTUSERS" -> connection.send(new ListUsersMessage(username));
+                    case "LOGOUT" -> {
+                        connection.send(new LogoutMessage(username));
+                        loggedOut = true;
+                    }
+                    default -> connection.send(new TextMessage(username, userInput));
+                }
+            }
 
-                outMsg = switch (tokens[0].toUpperCase()) {
-                    case "HELP" -> new HelpMessage(username);
-                    case "LOGOUT" -> new LogoutMessage(username);
-                    case "LISTUSERS" -> new ListUsersMessage(username);
-                    default -> new TextMessage(username, userInput);
-                };
-
-                // Send to server
-                outObj.writeObject(outMsg);
-                outObj.flush();
-            } while (outMsg.getMsgType() != MsgType.LOGOUT);
-
-            // Get server's closing reply and show it to user
-            inMsg = (Message) inObj.readObject();
-            System.out.println(((TextMessage) inMsg).getText());
+            // The server closes the connection once it has said good-bye.
+            await(connection.closed());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
 
         System.out.println("Connection to " + hostname + ":" + port + " closed, exiting.");
     }
+
+    /**
+     * Uploads a file for the SENDFILE command as a resumable upload, reading one chunk from disk at a time.
+     * <p>
+     * The client asks the server which parts of the file it is missing, sends the chunks covering them, and asks
+     * again, until the server reports the file complete. If an earlier attempt at the same file was cut off, the
+     * server already has some of it and only the rest is sent. Chunks are sent without waiting for each other, but
+     * only a few are ever queued at once.
+     *
+     * @param connection the connection to the server.
+     * @param tokens     the command's words: SENDFILE, the path to read, and optionally the name to save as.
+     * @throws IOException if the connection fails, or the file cannot be read after it was opened.
+     */
+    private void sendFile(AsyncClient connection, String[] tokens) throws IOException {
+        if (tokens.length < 2 || tokens.length > 3) {
+            System.out.println("Invalid SENDFILE format. Please use: SENDFILE <path> [save-as name]");
+            return;
+        }
+        FileChunkReader reader;
+        try {
+            reader = new FileChunkReader(username, tokens[1], tokens[tokens.length - 1],
+                    FileChunkMessage.DEFAULT_CHUNK_SIZE);
+        } catch (IOException e) {
+            System.out.println("Cannot read " + tokens[1] + ": " + e.getMessage());
+            return;
+        }
+        try (reader) {
+            UploadStatusMessage status = askUploadStatus(connection, reader);
+            List<ByteRange> previous = null;
+            Deque<CompletableFuture<?>> unsent = new ArrayDeque<>();
+            while (status != null && !status.isComplete()) {
+                if (status.getMissing().equals(previous)) {
+                    System.out.println("Upload of " + reader.getFileName() + " is not making progress, giving up.");
+                    return;
+                }
+                long bytes = 0;
+                for (ByteRange range : status.getMissing()) {
+                    bytes += range.length();
+                }
+                System.out.println("Sending " + bytes + " of " + reader.getSize() + " bytes...");
+                for (ByteRange range : status.getMissing()) {
+                    for (long position = range.start(); position < range.end(); position += reader.getChunkSize()) {
+                        if (unsent.size() == MAX_CHUNKS_QUEUED) {
+                            await(unsent.poll());
+                        }
+                        unsent.add(connection.send(reader.chunkAt(position)));
+                    }
+                }
+                previous = status.getMissing();
+                status = askUploadStatus(connection, reader);
+            }
+            if (status != null) {
+                System.out.println("File saved successfully as " + status.getFileName());
+            }
+        }
+    }
+
+    /**
+     * Downloads a saved file, or a range of it, for the GETFILE command. The listener writes the bytes as they
+     * arrive (see {@link Listener#onDownload(DownloadMessage, InputStream)}).
+     *
+     * @param connection the connection to the server.
+     * @param tokens     the command's words: GETFILE, the file name, and optionally the first and end positions.
+     * @throws IOException if the connection fails, or the local file cannot be written.
+     */
+    private void getFile(AsyncClient connection, String[] tokens) throws IOException {
+        ByteRange range = null;
+        try {
+            if (tokens.length == 4) {
+                range = new ByteRange(Long.parseLong(tokens[2]), Long.parseLong(tokens[3]));
+            } else if (tokens.length != 2) {
+                throw new IllegalArgumentException("wrong number of arguments");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid GETFILE format. Please use: GETFILE <name> [<start> <end>]");
+            return;
+        }
+        Message reply = await(connection.request(new DownloadMessage(username, tokens[1], range)));
+        if (reply instanceof DownloadMessage download) {
+            System.out.println("Saved bytes " + download.getRange() + " of " + download.getFileSize() + " to "
+                    + Path.of(download.getFileName()).getFileName());
+        }
+    }
+
+    /**
+     * Asks the server about a resumable upload and waits for the answer.
+     *
+     * @param connection the connection to the server.
+     * @param reader     the file being uploaded.
+     * @return the server's status reply, or null if the server reported an error instead.
+     * @throws IOException if the connection fails.
+     */
+    private UploadStatusMessage askUploadStatus(AsyncClient connection, FileChunkReader reader) throws IOException {
+        Message reply = await(connection.request(new UploadStatusMessage(username, reader.getUploadId(),
+                reader.getFileName(), reader.getSize(), reader.getChunkSize(), null)));
+        return reply instanceof UploadStatusMessage status ? status : null;
+    }
+
+    /**
+     * Waits for a future, turning its failure into an IOException.
+     *
+     * @param future the future.
+     * @param <T>    the result type.
+     * @return the result.
+     * @throws IOException if the future failed, or the wait was interrupted.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server.");
+        }
+    }
+
+    /**
+     * Shows what the server sends as it arrives; the first message is the greeting. Downloaded bytes are written at
+     * their own position in a file of the same name in the current directory, so separate ranges can be fetched
+     * into one file.
+     */
+    private class Listener implements AsyncClient.Listener {
+        @Override
+        public void onMessage(Message msg) {
+            switch (msg) {
+                case TextMessage text -> System.out.println(text.getText());
+                case DownloadMessage ignored -> {
+                }
+                case UploadStatusMessage ignored -> {
+                }
+                default -> System.out.println("Unexpected message type: " + msg);
+            }
+            greeting.complete(msg);
+        }
+
+        @Override
+        public void onDownload(DownloadMessage reply, InputStream data) throws IOException {
+            Path target = Path.of(reply.getFileName()).getFileName();
+            try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(FileChunkMessage.DEFAULT_CHUNK_SIZE);
+                long position = reply.getRange().start();
+                int length;
+                while ((length = data.read(buffer.array())) >= 0) {
+                    buffer.limit(length).position(0);
+                    while (buffer.hasRemaining()) {
+                        position += file.write(buffer, position);
+                    }
+                }
+                if (reply.getRange().end() == reply.getFileSize()) {
+                    file.truncate(reply.getFileSize());
+                }
+            }
+            onMessage(reply);
+        }
+    }
 }
@@ -0,0 +1,288 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.cipher.MessageCipher;
+import sparta.clack.message.Message;
+import sparta.clack.metrics.ServerMetrics;
+import sparta.clack.metrics.Stage;
+
+import java.io.*;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Handles the conversation with a single connected client for the blocking engine.
+ * <p>
+ * The server creates one ClientSession per accepted socket and runs it on its own (virtual) thread. All of the
+ * state belonging to a conversation lives in the session's {@link SessionState}, so sessions never see each other's
+ * settings.
+ * <p>
+ * Everything sent to the client, replies and broadcasts alike, goes through the session's {@link Outbox} and is
+ * written by a second virtual thread, so a client that reads slowly never holds up the sessions broadcasting to it.
+ * The writer takes whatever has queued up since its last write and sends it with one gathering write, so a burst of
+ * broadcasts costs one system call rather than one per message. The connection is a blocking {@link SocketChannel}
+ * rather than a plain socket so that downloads can go from the file straight to the socket (see {@link FileRegion}).
+ * <p>
+ * Commands that wait on the store are each handled on a virtual thread of their own (see
+ * {@link SessionState#runsAside(Message)}), which queues the answer when it is ready while the session goes on
+ * reading. Once {@link SessionState#ASIDE_LIMIT} are running, the session waits for one to finish before reading on.
+ * Likewise, once {@link Outbox#REPLY_LIMIT} replies are waiting to be written, it waits for the writer to send some
+ * before reading the next command, so a client that never reads its replies stops being read too.
+ * <p>
+ * Every message is counted in the server's {@link ServerMetrics}, and the time each spends being decoded, handled,
+ * encoded and written is recorded there.
+ * <p>
+ * The session ends when the client sends a LogoutMessage, or when the connection fails. Either way the socket is
+ * closed before {@link #run()} returns.
+ */
+class ClientSession implements Runnable, ChatRoom.Member {
+    private final SocketChannel clientChannel;
+    private final SessionState state;
+    private final Outbox outbox;
+    private final TrafficLog traffic;
+    private final ServerMetrics metrics;
+    private final long connectionId;
+    private final Semaphore aside = new Semaphore(SessionState.ASIDE_LIMIT);
+
+    /**
+     * Creates a session for an accepted client connection.
+     *
+     * @param clientChannel the blocking channel returned by {@code ServerSocketChannel.accept()}; closed when the
+     *                      session ends.
+     * @param context       what the server's sessions share: its room, uploads, ciphers, traffic log and metrics.
+     */
+    ClientSession(SocketChannel clientChannel, ServerContext context) {
+        this.clientChannel = clientChannel;
+        this.state = new SessionState(context.serverName(), context.room(), context.uploads(), context.ciphers(),
+                this);
+        this.outbox = context.room().newOutbox();
+        this.traffic = context.traffic();
+        this.metrics = context.metrics();
+        this.connectionId = traffic.newConnectionId();
+        ServerEvents.SessionAccept.record(connectionId, clientChannel.socket().getRemoteSocketAddress());
+    }
+
+    /**
+     * Greets the client, then feeds every received message to the session state until the client logs out.
+     */
+    @Override
+    public void run() {
+        // The socket adaptor's stream, unlike Channels.newInputStream, lets one thread read while another writes.
+        try (
+                SocketChannel channel = clientChannel;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(channel.socket().getInputStream()))
+        ) {
+            // Frames are already batched by the outbox; waiting for more with Nagle's algorithm only adds delay.
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Thread writer = Thread.ofVirtual().name(Thread.currentThread().getName() + "-writer")
+                    .start(this::drain);
+            metrics.connectionOpened();
+            try {
+                // Connection made. Greet client.
+                send(state.greeting());
+
+                // Login, then converse with client.
+                while (!state.isClosed()) {
+                    outbox.awaitReplyRoom();
+                    byte[] body = new byte[Frames.checkBodyLength(in.readInt())];
+                    in.readFully(body);
+                    long received = System.nanoTime();
+                    ServerEvents.MessageReceive receiveEvent = new ServerEvents.MessageReceive();
+                    Message inMsg = Frames.decode(ByteBuffer.wrap(body));
+                    int length = Frames.HEADER_LENGTH + body.length;
+                    receiveEvent.finish(connectionId, state.getCurrentUser(), inMsg, length);
+                    long decoded = System.nanoTime();
+                    metrics.recordStage(Stage.DESERIALIZE, decoded - received);
+                    metrics.recordIn(inMsg.getMsgType(), length);
+                    traffic.record(connectionId, false, inMsg, length);
+                    if (state.runsAside(inMsg)) {
+                        aside.acquire();
+                        Thread.ofVirtual().name(Thread.currentThread().getName() + "-aside")
+                                .start(() -> handleAside(inMsg, received));
+                        continue;
+                    }
+                    ServerEvents.Dispatch dispatchEvent = new ServerEvents.Dispatch();
+                    Message outMsg = state.handle(inMsg);
+                    dispatchEvent.finish(connectionId, state.getCurrentUser(), inMsg, outMsg);
+                    metrics.recordStage(Stage.DISPATCH, System.nanoTime() - decoded);
+                    if (outMsg != null) {
+                        send(outMsg);
+                    }
+                    metrics.recordHandled(inMsg.getMsgType(), System.nanoTime() - received);
+                    // Virtual threads are not preempted: while a client's input keeps arriving, this thread never
+                    // parks, so give the writer a turn once it has a full batch to send.
+                    if (outbox.hasFullBatch()) {
+                        Thread.yield();
+                    }
+                }
+            } finally {
+                // After a logout, let the commands still being handled aside answer, and the writer finish what is
+                // queued (the good-bye), before the socket closes. After a failure, drop it and close the socket so
+                // a writer stuck on a dead client is released.
+                state.leave();
+                metrics.connectionClosed();
+                if (state.isClosed()) {
+                    aside.acquireUninterruptibly(SessionState.ASIDE_LIMIT);
+                    outbox.close();
+                } else {
+                    disconnect();
+                }
+                writer.join();
+            }
+        } catch (IOException e) {
+            System.err.println("Session " + describe() + " failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Still log a bug in handling a message, and say good-bye, rather than let the thread die silently.
+            System.err.println("Session " + describe() + " failed: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("=== Terminating connection"
+                + (state.getCurrentUser() == null ? "" : " for " + state.getCurrentUser()) + ". ===");
+    }
+
+    /**
+     * Returns the user logged in on this session.
+     *
+     * @return the username, or null before login.
+     */
+    @Override
+    public String getUsername() {
+        return state.getCurrentUser();
+    }
+
+    /**
+     * Returns the cipher this session has enabled, which broadcasts to it are encrypted with.
+     *
+     * @return the cipher, or null if none is enabled.
+     */
+    @Override
+    public MessageCipher getCipher() {
+        return state.getActiveCipher();
+    }
+
+    /**
+     * Queues a broadcast for this client. If the client is too slow for the room's policy, it is disconnected.
+     *
+     * @param msg   the message broadcast.
+     * @param frame this session's view of the encoded frame.
+     */
+    @Override
+    public void deliver(Message msg, ByteBuffer frame) {
+        metrics.recordOut(msg.getMsgType(), frame.remaining());
+        traffic.record(connectionId, true, msg, frame.remaining());
+        if (!outbox.offer(frame)) {
+            System.err.println("Session " + describe() + " too slow, disconnecting.");
+            disconnect();
+        }
+    }
+
+    /**
+     * Handles a command that waits on the store and queues its answer. Runs on a thread of its own, started by the
+     * session for each such command. If the answer cannot be queued the whole session is disconnected.
+     *
+     * @param inMsg    the command received.
+     * @param received when it was received, in {@link System#nanoTime()} terms.
+     */
+    private void handleAside(Message inMsg, long received) {
+        try {
+            long start = System.nanoTime();
+            ServerEvents.Dispatch dispatchEvent = new ServerEvents.Dispatch();
+            SessionState.Answer answer = state.handleAside(inMsg);
+            Message outMsg = answer.reply();
+            dispatchEvent.finish(connectionId, state.getCurrentUser(), inMsg, outMsg);
+            metrics.recordStage(Stage.DISPATCH, System.nanoTime() - start);
+            if (answer.download() != null) {
+                metrics.recordOut(outMsg.getMsgType(), answer.download().length());
+                traffic.record(connectionId, true, outMsg, answer.download().length());
+                outbox.add(answer.download());
+            } else {
+                send(outMsg);
+            }
+            metrics.recordHandled(inMsg.getMsgType(), System.nanoTime() - received);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Session " + describe() + " failed: " + e);
+            disconnect();
+        } finally {
+            aside.release();
+        }
+    }
+
+    /**
+     * Queues a reply for this client.
+     *
+     * @param outMsg the message to send.
+     * @throws IOException if the message cannot be encoded.
+     */
+    private void send(Message outMsg) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer frame = Frames.encode(outMsg);
+        metrics.recordStage(Stage.SERIALIZE, System.nanoTime() - start);
+        metrics.recordOut(outMsg.getMsgType(), frame.remaining());
+        traffic.record(connectionId, true, outMsg, frame.remaining());
+        outbox.add(frame);
+    }
+
+    /**
+     * Writes queued batches of frames, and file regions, to the client until the outbox is closed and empty. Runs on
+     * the writer thread. If a write fails the whole session is disconnected.
+     */
+    private void drain() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (outbox.takeBatch(batch)) {
+                if (batch.getFirst() instanceof FileRegion region) {
+                    try {
+                        while (!region.isDone()) {
+                            region.writeTo(clientChannel);
+                        }
+                    } finally {
+                        region.close();
+                    }
+                } else {
+                    ByteBuffer[] frames = batch.toArray(new ByteBuffer[0]);
+                    long length = 0;
+                    for (ByteBuffer frame : frames) {
+                        length += frame.remaining();
+                    }
+                    long start = System.nanoTime();
+                    for (long written = 0; written < length; ) {
+                        written += clientChannel.write(frames);
+                    }
+                    metrics.recordStage(Stage.FLUSH, System.nanoTime() - start);
+                    outbox.recordFlush(frames.length, length);
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            disconnect();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops anything still queued and closes the socket, which also ends the reading thread.
+     */
+    private void disconnect() {
+        outbox.abort();
+        try {
+            clientChannel.close();
+        } catch (IOException ignored) {
+            // Already closing.
+        }
+    }
+
+    /**
+     * Describes this session for log output.
+     *
+     * @return the remote address, plus the username once logged in.
+     */
+    private String describe() {
+        String remote = String.valueOf(clientChannel.socket().getRemoteSocketAddress());
+        return state.getCurrentUser() == null ? remote : state.getCurrentUser() + "@" + remote;
+    }
+}
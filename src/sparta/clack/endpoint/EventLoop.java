@@ -0,0 +1,301 @@
+package sparta.clack.endpoint;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A selector loop that owns a set of client connections.
+ * <p>
+ * Every {@link NioConnection}, and the {@link SessionState} inside it, is created and touched only by the loop's
+ * thread, so the hot path (read, decode, handle, write) takes no locks. Other threads hand over newly accepted
+ * channels with {@link #assign(SocketChannel)}, and ask for a connection to be flushed (after queueing a broadcast
+ * in its outbox) or closed; the loop picks these requests up the next time it wakes.
+ * <p>
+ * The loop also keeps its own counters. They are written by the loop thread only and may be read from any thread
+ * through {@link #getStats()}.
+ */
+final class EventLoop implements Runnable {
+    private final int index;
+    private final ServerContext context;
+    private final Selector selector;
+    private final Queue<SocketChannel> assigned = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> toFlush = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> toClose = new ConcurrentLinkedQueue<>();
+
+    // Counters. The connection count is also changed by the thread that assigns channels; the others are written
+    // only by the loop thread and are volatile purely so that other threads see recent values.
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile long messagesIn = 0;
+    private volatile long messagesOut = 0;
+    private volatile long bytesIn = 0;
+    private volatile long bytesOut = 0;
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates an event loop with its own selector. The loop does nothing until {@link #run()} is called.
+     *
+     * @param index       the loop's number, used in stats and thread names.
+     * @param context     what the server's sessions share, handed on to this loop's connections.
+     * @throws IOException if the selector cannot be opened.
+     */
+    EventLoop(int index, ServerContext context) throws IOException {
+        this.index = index;
+        this.context = context;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Makes this loop accept connections from a listening channel itself, as well as serving them. Must be called
+     * before {@link #run()}.
+     *
+     * @param serverChannel the listening channel; it is switched to non-blocking mode.
+     * @throws IOException if the channel cannot be registered.
+     */
+    void listen(ServerSocketChannel serverChannel) throws IOException {
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Hands a newly accepted channel to this loop. Safe to call from any thread.
+     *
+     * @param channel the accepted channel.
+     */
+    void assign(SocketChannel channel) {
+        connections.incrementAndGet();
+        assigned.add(channel);
+        selector.wakeup();
+        if (stopped) {
+            // Too late: the loop will never open it.
+            closeAssigned();
+        }
+    }
+
+    /**
+     * Returns whether this loop has stopped, after which it serves nothing and needs replacing. Safe to call from
+     * any thread.
+     *
+     * @return true once {@link #run()} has returned, or is about to.
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Asks the loop to write a connection's outbox. Safe to call from any thread.
+     *
+     * @param connection one of this loop's connections.
+     */
+    void requestFlush(NioConnection connection) {
+        toFlush.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to close a connection. Safe to call from any thread.
+     *
+     * @param connection one of this loop's connections.
+     */
+    void requestClose(NioConnection connection) {
+        toClose.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the number of connections owned by (or on their way to) this loop.
+     *
+     * @return the current connection count.
+     */
+    int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Returns a snapshot of this loop's counters.
+     *
+     * @return the loop's stats.
+     */
+    LoopStats getStats() {
+        return new LoopStats(index, connections.get(), messagesIn, messagesOut, bytesIn, bytesOut);
+    }
+
+    /**
+     * Runs the loop until the thread is interrupted, then closes the selector and every connection.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select(this::service);
+                openAssigned();
+                runRequests();
+            }
+        } catch (IOException e) {
+            System.err.println("Event loop " + index + " failed: " + e.getMessage());
+        } finally {
+            stopped = true;
+            closeAssigned();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection connection) {
+                    connection.close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // Shutting down anyway.
+            }
+        }
+    }
+
+    /**
+     * Records a frame received by one of this loop's connections. Loop thread only.
+     *
+     * @param frameLength the frame's length in bytes, header included.
+     */
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    void countIn(int frameLength) {
+        messagesIn++;
+        bytesIn += frameLength;
+    }
+
+    /**
+     * Records a batch of frames, or a file region with its announcing frame, taken for writing by one of this
+     * loop's connections. Loop thread only.
+     *
+     * @param messages the number of messages.
+     * @param length   their length in bytes, headers included.
+     */
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    void countOut(int messages, long length) {
+        messagesOut += messages;
+        bytesOut += length;
+    }
+
+    /**
+     * Records that one of this loop's connections has closed.
+     */
+    void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Services a ready key: accepts pending connections on a listening channel, or does I/O on a connection,
+     * closing it if its I/O, or handling what it reads, fails.
+     *
+     * @param key the ready key.
+     */
+    private void service(SelectionKey key) {
+        if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel());
+            return;
+        }
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+            connection.close();
+        } catch (RuntimeException e) {
+            // A bug handling one client's message must not end the loop, and with it every other connection.
+            System.err.println("Connection failed: " + e);
+            connection.close();
+        }
+    }
+
+    /**
+     * Accepts every pending connection on a listening channel this loop serves itself.
+     *
+     * @param serverChannel the listening channel.
+     */
+    private void accept(ServerSocketChannel serverChannel) {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                connections.incrementAndGet();
+                open(channel);
+            }
+        } catch (IOException e) {
+            System.err.println("Accept failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens every channel handed over by {@link #assign(SocketChannel)} since the last pass.
+     */
+    private void openAssigned() {
+        SocketChannel channel;
+        while ((channel = assigned.poll()) != null) {
+            open(channel);
+        }
+    }
+
+    /**
+     * Closes every channel handed over but not yet opened, once the loop has stopped.
+     */
+    private void closeAssigned() {
+        SocketChannel channel;
+        while ((channel = assigned.poll()) != null) {
+            connections.decrementAndGet();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Dropping it anyway.
+            }
+        }
+    }
+
+    /**
+     * Carries out the flush and close requests made by other threads since the last pass.
+     */
+    private void runRequests() {
+        NioConnection connection;
+        while ((connection = toClose.poll()) != null) {
+            connection.close();
+        }
+        while ((connection = toFlush.poll()) != null) {
+            try {
+                connection.onFlushRequested();
+            } catch (IOException e) {
+                System.err.println("Connection failed: " + e.getMessage());
+                connection.close();
+            } catch (RuntimeException e) {
+                System.err.println("Connection failed: " + e);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Registers an accepted channel with this loop's selector and greets the client.
+     *
+     * @param channel the accepted channel.
+     */
+    private void open(SocketChannel channel) {
+        NioConnection connection = new NioConnection(channel, this, context);
+        try {
+            channel.configureBlocking(false);
+            // Frames are already batched by the outbox; waiting for more with Nagle's algorithm only adds delay.
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connection.open(channel.register(selector, SelectionKey.OP_READ, connection));
+        } catch (IOException e) {
+            System.err.println("Could not open connection: " + e.getMessage());
+            connection.close();
+        } catch (RuntimeException e) {
+            System.err.println("Could not open connection: " + e);
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.store.Segment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A range of a stored file waiting in an {@link Outbox} to be sent to a client as raw bytes, together with the frame
+ * that announces it. Keeping the two in one entry means nothing can be queued, or dropped, between them.
+ * <p>
+ * The range is a list of {@link Segment}s of the store's chunk files. Their bytes go from each chunk file to the
+ * socket with {@link FileChannel#transferTo}, which the operating system can do without copying them through the
+ * Java heap (sendfile on Linux), so serving a file costs little more than the page cache it is already in. The
+ * region opens each chunk file when it reaches it, and closes it once it has been sent or abandoned.
+ */
+final class FileRegion {
+    private final ByteBuffer header;
+    private final List<Segment> segments;
+    private final long length;
+    private int index = 0;
+    private long sentOfSegment = 0;
+    private FileChannel file = null;
+
+    /**
+     * Creates a region of a stored file.
+     *
+     * @param header   the encoded frame to send before the file's bytes.
+     * @param segments the chunk file segments holding the bytes to send, in order.
+     */
+    FileRegion(ByteBuffer header, List<Segment> segments) {
+        this.header = header;
+        this.segments = List.copyOf(segments);
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.count();
+        }
+        this.length = header.remaining() + count;
+    }
+
+    /**
+     * Sends as much of the header, then of the file's bytes, as the target will take. A blocking target takes at
+     * least some, a non-blocking one possibly none.
+     *
+     * @param target the socket to send to.
+     * @return the number of bytes sent.
+     * @throws IOException if writing fails, or a chunk file is missing or shorter than its segment.
+     */
+    long writeTo(WritableByteChannel target) throws IOException {
+        long sent = 0;
+        if (header.hasRemaining()) {
+            sent = target.write(header);
+            if (header.hasRemaining()) {
+                return sent;
+            }
+        }
+        while (index < segments.size()) {
+            Segment segment = segments.get(index);
+            if (file == null) {
+                file = FileChannel.open(segment.file(), StandardOpenOption.READ);
+            }
+            long position = segment.position() + sentOfSegment;
+            long remaining = segment.count() - sentOfSegment;
+            long transferred = file.transferTo(position, remaining, target);
+            if (transferred == 0 && position >= file.size()) {
+                throw new IOException("Chunk file " + segment.file() + " is shorter than expected.");
+            }
+            sentOfSegment += transferred;
+            sent += transferred;
+            if (transferred < remaining) {
+                return sent;
+            }
+            close();
+            index++;
+            sentOfSegment = 0;
+        }
+        return sent;
+    }
+
+    /**
+     * Returns the total number of bytes in the header and the file range.
+     *
+     * @return the region's length on the wire.
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Returns whether the header and the whole file range have been sent.
+     *
+     * @return true once nothing remains.
+     */
+    boolean isDone() {
+        return !header.hasRemaining() && index >= segments.size();
+    }
+
+    /**
+     * Closes the chunk file being sent, if any. Safe to call more than once.
+     */
+    void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException ignored) {
+            // Only reading; nothing is lost.
+        }
+        file = null;
+    }
+}
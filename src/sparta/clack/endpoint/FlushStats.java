@@ -0,0 +1,106 @@
+package sparta.clack.endpoint;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how well writes to clients are being coalesced: how many flushes (gathering writes of a batch of frames)
+ * have been made, and how many frames each carried. One FlushStats is shared by all the outboxes of a
+ * {@link ChatRoom}, and is thread-safe.
+ * <p>
+ * Besides the totals, flushes are counted by batch size in power-of-two buckets: bucket 0 counts flushes of one
+ * frame, bucket 1 of two or three, bucket 2 of four to seven, and so on, with the last bucket taking everything
+ * larger.
+ */
+public final class FlushStats {
+    /**
+     * The number of batch-size buckets.
+     */
+    public static final int BUCKETS = 8;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicLongArray batchSizes = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records one flush.
+     *
+     * @param frameCount the number of frames written together.
+     * @param byteCount  their total length in bytes.
+     */
+    void record(int frameCount, long byteCount) {
+        flushes.increment();
+        frames.add(frameCount);
+        bytes.add(byteCount);
+        int bucket = 31 - Integer.numberOfLeadingZeros(Math.max(frameCount, 1));
+        batchSizes.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * Returns the number of flushes made.
+     *
+     * @return the flush count.
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * Returns the number of frames written.
+     *
+     * @return the frame count.
+     */
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    /**
+     * Returns the number of bytes written in frames.
+     *
+     * @return the byte count, frame headers included.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Returns the average number of frames per flush.
+     *
+     * @return frames divided by flushes, or 0 before the first flush.
+     */
+    public double getFramesPerFlush() {
+        long flushCount = getFlushes();
+        return flushCount == 0 ? 0 : (double) getFrames() / flushCount;
+    }
+
+    /**
+     * Returns the number of flushes in each batch-size bucket.
+     *
+     * @return a new array of {@link #BUCKETS} counts.
+     */
+    public long[] getBatchSizeCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = batchSizes.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns a one-line summary of the counters.
+     *
+     * @return a string representation of this FlushStats object.
+     */
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder()
+                .append(getFrames()).append(" frames in ").append(getFlushes()).append(" flushes (")
+                .append(String.format("%.2f", getFramesPerFlush())).append(" per flush), by batch size:");
+        long[] counts = getBatchSizeCounts();
+        for (int i = 0; i < BUCKETS; i++) {
+            summary.append(' ').append(1 << i).append(i == BUCKETS - 1 ? "+" : "").append('=').append(counts[i]);
+        }
+        return summary.toString();
+    }
+}
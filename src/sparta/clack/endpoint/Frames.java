@@ -0,0 +1,100 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.message.Message;
+import sparta.clack.message.MessageCodec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire framing shared by the client and every server engine.
+ * <p>
+ * Each Message travels as one frame: a 4-byte big-endian body length followed by the body, which is the message
+ * encoded on its own by {@link MessageCodec#BINARY}. The codec writes straight after the header space, so a frame
+ * is built with a single allocation and no copy. Because every frame is self-contained, a non-blocking reader can
+ * tell from the header alone whether a complete message has arrived, and an encoded frame can be written to any
+ * number of connections.
+ */
+final class Frames {
+    /**
+     * Size of the length header that precedes each frame body.
+     */
+    static final int HEADER_LENGTH = Integer.BYTES;
+
+    /**
+     * Largest frame body accepted from the network. Longer frames are treated as a protocol error.
+     */
+    static final int MAX_BODY_LENGTH = 16 * 1024 * 1024;
+
+    private static final MessageCodec CODEC = MessageCodec.BINARY;
+
+    private Frames() {
+    }
+
+    /**
+     * Encodes a message as a complete frame.
+     *
+     * @param msg the message to encode.
+     * @return a buffer holding the header and body, positioned at 0 and ready to be written.
+     * @throws IOException if the message cannot be encoded or is too large for one frame.
+     */
+    static ByteBuffer encode(Message msg) throws IOException {
+        ByteBuffer frame = CODEC.encode(msg, HEADER_LENGTH);
+        int bodyLength = frame.remaining() - HEADER_LENGTH;
+        if (bodyLength > MAX_BODY_LENGTH) {
+            throw new IOException("Message too large for one frame (" + bodyLength + " bytes).");
+        }
+        frame.putInt(0, bodyLength);
+        return frame;
+    }
+
+    /**
+     * Decodes a frame body (without its header) back into a message.
+     *
+     * @param body the frame body; read from its position to its limit.
+     * @return the decoded message.
+     * @throws IOException if the body does not hold an encoded Message.
+     */
+    static Message decode(ByteBuffer body) throws IOException {
+        return CODEC.decode(body);
+    }
+
+    /**
+     * Validates a body length read from a frame header.
+     *
+     * @param bodyLength the length read from the header.
+     * @return the same length.
+     * @throws IOException if the length is negative or larger than {@link #MAX_BODY_LENGTH}.
+     */
+    static int checkBodyLength(int bodyLength) throws IOException {
+        if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
+            throw new IOException("Invalid frame length " + bodyLength + ".");
+        }
+        return bodyLength;
+    }
+
+    /**
+     * Reads one frame from a blocking stream and decodes it.
+     *
+     * @param in the stream to read from.
+     * @return the decoded message.
+     * @throws IOException if the stream fails, ends mid-frame, or holds a malformed frame.
+     */
+    static Message read(DataInputStream in) throws IOException {
+        byte[] body = new byte[checkBodyLength(in.readInt())];
+        in.readFully(body);
+        return decode(ByteBuffer.wrap(body));
+    }
+
+    /**
+     * Encodes a message and writes the frame to a blocking stream. The stream is not flushed.
+     *
+     * @param out the stream to write to.
+     * @param msg the message to write.
+     * @throws IOException if encoding or writing fails.
+     */
+    static void write(OutputStream out, Message msg) throws IOException {
+        ByteBuffer frame = encode(msg);
+        out.write(frame.array(), frame.arrayOffset(), frame.remaining());
+    }
+}
@@ -0,0 +1,26 @@
+package sparta.clack.endpoint;
+
+/**
+ * A snapshot of one event loop's counters, used to check that connections and traffic are spread evenly across
+ * the loops of a {@link MultiReactorServer}.
+ *
+ * @param loop        the loop's number.
+ * @param connections the connections the loop currently owns.
+ * @param messagesIn  messages received since the loop started.
+ * @param messagesOut messages sent since the loop started.
+ * @param bytesIn     bytes received since the loop started, frame headers included.
+ * @param bytesOut    bytes sent since the loop started, frame headers included.
+ */
+public record LoopStats(int loop, int connections, long messagesIn, long messagesOut, long bytesIn, long bytesOut) {
+    /**
+     * Returns a one-line summary of this snapshot.
+     *
+     * @return a string representation of this LoopStats object.
+     */
+    @Override
+    public String toString() {
+        return "loop " + loop + ": " + connections + " connections, "
+                + messagesIn + " msgs in (" + bytesIn + " B), "
+                + messagesOut + " msgs out (" + bytesOut + " B)";
+    }
+}
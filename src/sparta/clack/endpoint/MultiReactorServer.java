@@ -0,0 +1,207 @@
+package sparta.clack.endpoint;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A non-blocking server that spreads its connections over several selector loops.
+ * <p>
+ * One acceptor thread takes new connections and hands each one to the {@link EventLoop} that currently owns the
+ * fewest. Every loop runs on its own platform thread and owns its connections outright, so sessions are never
+ * shared between loops and the per-message path takes no locks. By default there is one loop per available core.
+ * <p>
+ * It speaks the same protocol as {@link Server} and {@link NioServer}.
+ */
+public class MultiReactorServer extends AbstractServer {
+    private static final long STATS_INTERVAL_MILLIS = 60_000;
+
+    // Object variables.
+    private final int loopCount;
+    private volatile List<EventLoop> loops = List.of();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>(); // Stopped as serve() returns.
+
+    /**
+     * Creates a multi-reactor server for exchanging Message objects.
+     *
+     * @param port       the port to listen on.
+     * @param serverName the name to use when constructing Message objects.
+     * @param room       the room that logged-in clients join and TEXT messages are broadcast to.
+     * @param loopCount  the number of event loops (and loop threads) to run.
+     * @throws IllegalArgumentException if port not in range [1024, 49151], or loopCount is less than 1.
+     */
+    public MultiReactorServer(int port, String serverName, ChatRoom room, int loopCount)
+            throws IllegalArgumentException {
+        super(port, serverName, room);
+        if (loopCount < 1) {
+            throw new IllegalArgumentException("loopCount cannot be less than 1.");
+        }
+        this.loopCount = loopCount;
+    }
+
+    /**
+     * Creates a multi-reactor server with a default {@link ChatRoom}.
+     *
+     * @param port       the port to listen on.
+     * @param serverName the name to use when constructing Message objects.
+     * @param loopCount  the number of event loops (and loop threads) to run.
+     * @throws IllegalArgumentException if port not in range [1024, 49151], or loopCount is less than 1.
+     */
+    public MultiReactorServer(int port, String serverName, int loopCount) throws IllegalArgumentException {
+        this(port, serverName, new ChatRoom(), loopCount);
+    }
+
+    /**
+     * Creates a multi-reactor server with one event loop per available core.
+     *
+     * @param port       the port to listen on.
+     * @param serverName the name to use when constructing Message objects.
+     * @throws IllegalArgumentException if port not in range [1024, 49151].
+     */
+    public MultiReactorServer(int port, String serverName) {
+        this(port, serverName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a multi-reactor server with one event loop per available core, using the default servername
+     * (Server.DEFAULT_SERVERNAME).
+     *
+     * @param port the port to listen on.
+     * @throws IllegalArgumentException if port not in range [1024, 49151].
+     */
+    public MultiReactorServer(int port) {
+        this(port, DEFAULT_SERVERNAME);
+    }
+
+    /**
+     * Starts this server, listening on the port it was constructed with. The event loops run on their own threads;
+     * the calling thread becomes the acceptor and runs until the process exits.
+     *
+     * @throws IOException if a selector or the listening channel cannot be opened, or accepting fails.
+     */
+    @Override
+    public void start() throws IOException {
+        context.start(port);
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Server (" + loopCount + " event loops) starting on port " + port + ".");
+            System.out.println("Ctrl + C to exit.");
+            serve(serverChannel);
+        } // Server channel closed
+    }
+
+    /**
+     * Starts the event loops, then accepts connections from a listening channel and hands each one to the
+     * least-loaded loop. The calling thread becomes the acceptor. If accepting fails, or the channel is closed, the
+     * loops are stopped, closing their connections, rather than left serving a server that takes no more.
+     *
+     * @param serverChannel the bound, blocking listening channel.
+     * @throws IOException if a selector cannot be opened, or accepting fails.
+     */
+    @SuppressWarnings("InfiniteLoopStatement")
+    void serve(ServerSocketChannel serverChannel) throws IOException {
+        try {
+            List<EventLoop> started = new ArrayList<>(loopCount);
+            for (int i = 0; i < loopCount; i++) {
+                started.add(startLoop(i));
+            }
+            loops = List.copyOf(started);
+            threads.add(Thread.ofVirtual().name("clack-loop-stats").start(this::reportStats));
+
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                EventLoop loop = leastLoaded();
+                if (loop != null) {
+                    loop.assign(channel);
+                } else {
+                    System.err.println("No event loop is running; connection dropped.");
+                    channel.close();
+                }
+            }
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of every event loop's counters.
+     *
+     * @return one LoopStats per loop, in loop order; empty before {@link #start()}.
+     */
+    public List<LoopStats> getLoopStats() {
+        List<LoopStats> stats = new ArrayList<>(loops.size());
+        for (EventLoop loop : loops) {
+            stats.add(loop.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Creates an event loop and starts it on its own platform thread.
+     *
+     * @param index the loop's index, used in its thread's name and its stats.
+     * @return the running loop.
+     * @throws IOException if the loop's selector cannot be opened.
+     */
+    private EventLoop startLoop(int index) throws IOException {
+        EventLoop loop = new EventLoop(index, context);
+        threads.add(Thread.ofPlatform().name("clack-loop-" + index).start(loop));
+        return loop;
+    }
+
+    /**
+     * Finds the running event loop that currently owns the fewest connections. A loop that has stopped owns none,
+     * and would otherwise win every assignment while serving nothing, so it is replaced with a new one first. Only
+     * the acceptor thread calls this, so only it replaces loops.
+     *
+     * @return the least-loaded loop, or null if no loop is running and none could be started.
+     */
+    private EventLoop leastLoaded() {
+        List<EventLoop> loops = this.loops;
+        EventLoop best = null;
+        for (int i = 0; i < loops.size(); i++) {
+            EventLoop loop = loops.get(i);
+            if (loop.isStopped()) {
+                try {
+                    loop = startLoop(i);
+                } catch (IOException e) {
+                    System.err.println("Could not restart event loop " + i + ": " + e.getMessage());
+                    continue;
+                }
+                System.err.println("Event loop " + i + " stopped; started a new one.");
+                List<EventLoop> replaced = new ArrayList<>(loops);
+                replaced.set(i, loop);
+                loops = List.copyOf(replaced);
+                this.loops = loops;
+            }
+            if (best == null || loop.getConnectionCount() < best.getConnectionCount()) {
+                best = loop;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Prints every loop's counters periodically, so an uneven spread of load shows up in the server log.
+     */
+    private void reportStats() {
+        try {
+            while (true) {
+                Thread.sleep(STATS_INTERVAL_MILLIS);
+                for (LoopStats stats : getLoopStats()) {
+                    System.out.println("[stats] " + stats);
+                }
+                System.out.println("[stats] writes: " + context.room().getFlushStats());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.cipher.MessageCipher;
+import sparta.clack.message.Message;
+import sparta.clack.metrics.ServerMetrics;
+import sparta.clack.metrics.Stage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One client connection served by a selector loop.
+ * <p>
+ * Bytes read from the channel collect in a per-connection read buffer until a complete frame (see {@link Frames})
+ * is available; each frame is decoded and fed to the connection's {@link SessionState}. Replies and broadcasts are
+ * queued as encoded frames in the connection's {@link Outbox} and written whenever the channel can take them, so a
+ * slow client never blocks the loop. Frames are taken from the outbox in batches, each written with one gathering
+ * write, so the frames that pile up during one pass of the loop cost one system call. Every message is counted in
+ * the server's {@link ServerMetrics}, and the time each spends being decoded, handled, encoded and written is
+ * recorded there.
+ * <p>
+ * Commands that wait on the store (see {@link SessionState#runsAside(Message)}) are each handled on a virtual thread
+ * of their own, never on the loop, which queues the answer and asks the loop to write it. While
+ * {@link SessionState#ASIDE_LIMIT} are running, the connection stops reading, and frames already read wait in the
+ * read buffer until one finishes. It does the same while {@link Outbox#REPLY_LIMIT} replies are waiting to be
+ * written, until the client has taken enough of them, so a client that never reads its replies stops being read too.
+ * <p>
+ * Apart from {@link #deliver(Message, ByteBuffer)}, which other loops call to broadcast, and the commands handled
+ * aside, a connection is only ever touched by the thread running its {@link EventLoop}.
+ */
+final class NioConnection implements ChatRoom.Member {
+    static final int INITIAL_READ_CAPACITY = 4 * 1024;
+
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final SessionState state;
+    private final Outbox outbox;
+    private final TrafficLog traffic;
+    private final ServerMetrics metrics;
+    private final long connectionId;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicInteger aside = new AtomicInteger(); // Commands being handled aside.
+    private SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_CAPACITY); // Always in write mode.
+    private final List<Object> batch = new ArrayList<>(); // Frames, or a file region, not yet fully written.
+    private ByteBuffer[] frames = new ByteBuffer[0]; // The batch's frames, for gathering writes.
+    private int nextFrame = 0; // The first frame of the batch not yet fully written.
+    private boolean heldBack = false; // Frames left in the read buffer while the outbox was backlogged.
+
+    /**
+     * Creates a connection for an accepted, non-blocking channel.
+     *
+     * @param channel     the accepted channel.
+     * @param loop        the event loop that owns this connection.
+     * @param context     what the server's sessions share: its room, uploads, ciphers, traffic log and metrics.
+     */
+    NioConnection(SocketChannel channel, EventLoop loop, ServerContext context) {
+        this.channel = channel;
+        this.loop = loop;
+        this.state = new SessionState(context.serverName(), context.room(), context.uploads(), context.ciphers(),
+                this);
+        this.outbox = context.room().newOutbox();
+        this.traffic = context.traffic();
+        this.metrics = context.metrics();
+        this.connectionId = traffic.newConnectionId();
+        ServerEvents.SessionAccept.record(connectionId, channel.socket().getRemoteSocketAddress());
+        metrics.connectionOpened();
+    }
+
+    /**
+     * Binds this connection to its selection key and queues the greeting.
+     *
+     * @param key the key returned when the channel was registered with its selector.
+     * @throws IOException if the greeting cannot be sent.
+     */
+    void open(SelectionKey key) throws IOException {
+        this.key = key;
+        send(state.greeting());
+        flush();
+    }
+
+    /**
+     * Reads whatever the channel has available and handles every complete frame.
+     *
+     * @throws IOException if reading, decoding or writing fails, or the client closed the connection.
+     */
+    void onReadable() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            readBuffer = resize(readBuffer, readBuffer.capacity() * 2);
+        }
+        if (channel.read(readBuffer) < 0) {
+            throw new IOException("Connection closed by client.");
+        }
+        readFrames();
+        flush();
+    }
+
+    /**
+     * Writes queued frames now that the channel can accept more bytes.
+     *
+     * @throws IOException if writing fails.
+     */
+    void onWritable() throws IOException {
+        flush();
+    }
+
+    /**
+     * Writes queued frames after another thread delivered a broadcast or answered a command handled aside, and
+     * handles any frames left in the read buffer while too many commands were being handled aside.
+     *
+     * @throws IOException if decoding, handling or writing fails.
+     */
+    void onFlushRequested() throws IOException {
+        flushRequested.set(false);
+        if (channel.isOpen()) {
+            readFrames();
+            flush();
+        }
+    }
+
+    /**
+     * Returns the user logged in on this connection.
+     *
+     * @return the username, or null before login.
+     */
+    @Override
+    public String getUsername() {
+        return state.getCurrentUser();
+    }
+
+    /**
+     * Returns the cipher this connection has enabled, which broadcasts to it are encrypted with.
+     *
+     * @return the cipher, or null if none is enabled.
+     */
+    @Override
+    public MessageCipher getCipher() {
+        return state.getActiveCipher();
+    }
+
+    /**
+     * Queues a broadcast for this client and asks the owning loop to write it. Safe to call from any thread. If
+     * the client is too slow for the room's policy, the loop is asked to close the connection instead.
+     *
+     * @param msg   the message broadcast.
+     * @param frame this connection's view of the encoded frame.
+     */
+    @Override
+    public void deliver(Message msg, ByteBuffer frame) {
+        metrics.recordOut(msg.getMsgType(), frame.remaining());
+        traffic.record(connectionId, true, msg, frame.remaining());
+        if (!outbox.offer(frame)) {
+            System.err.println("Connection for " + getUsername() + " too slow, disconnecting.");
+            loop.requestClose(this);
+        } else {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Closes the channel, cancels its key and leaves the room. Safe to call more than once.
+     */
+    void close() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        state.leave();
+        outbox.abort();
+        if (!batch.isEmpty() && batch.getFirst() instanceof FileRegion region) {
+            region.close();
+        }
+        batch.clear();
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing more to do with a connection that will not close.
+        }
+        loop.connectionClosed();
+        metrics.connectionClosed();
+        String user = state.getCurrentUser();
+        System.out.println("=== Terminating connection" + (user == null ? "" : " for " + user) + ". ===");
+    }
+
+    /**
+     * Decodes and handles every complete frame in the read buffer, leaving any partial frame for the next read.
+     *
+     * @throws IOException if a frame is malformed or too large.
+     */
+    private void readFrames() throws IOException {
+        heldBack = false;
+        readBuffer.flip();
+        while (readBuffer.remaining() >= Frames.HEADER_LENGTH && !state.isClosed()
+                && aside.get() < SessionState.ASIDE_LIMIT) {
+            if (outbox.isBacklogged()) {
+                heldBack = true;
+                break;
+            }
+            int start = readBuffer.position();
+            int bodyLength = Frames.checkBodyLength(readBuffer.getInt(start));
+            if (readBuffer.remaining() < Frames.HEADER_LENGTH + bodyLength) {
+                break;
+            }
+            ByteBuffer body = readBuffer.slice(start + Frames.HEADER_LENGTH, bodyLength);
+            readBuffer.position(start + Frames.HEADER_LENGTH + bodyLength);
+            loop.countIn(Frames.HEADER_LENGTH + bodyLength);
+            receive(body, Frames.HEADER_LENGTH + bodyLength);
+        }
+        readBuffer.compact();
+
+        // Make room for the rest of a partial frame, or give back the space a large frame needed.
+        if (readBuffer.position() >= Frames.HEADER_LENGTH) {
+            int frameLength = Frames.HEADER_LENGTH + Frames.checkBodyLength(readBuffer.getInt(0));
+            if (frameLength > readBuffer.capacity()) {
+                readBuffer = resize(readBuffer, frameLength);
+            }
+        } else if (readBuffer.capacity() > INITIAL_READ_CAPACITY) {
+            readBuffer = resize(readBuffer, INITIAL_READ_CAPACITY);
+        }
+    }
+
+    /**
+     * Decodes one received frame, feeds the message to the session state and queues the reply.
+     *
+     * @param body   the frame's body.
+     * @param length the length of the whole frame.
+     * @throws IOException if the frame is malformed, or the reply or a broadcast cannot be encoded.
+     */
+    private void receive(ByteBuffer body, int length) throws IOException {
+        long received = System.nanoTime();
+        ServerEvents.MessageReceive receiveEvent = new ServerEvents.MessageReceive();
+        Message inMsg = Frames.decode(body);
+        receiveEvent.finish(connectionId, state.getCurrentUser(), inMsg, length);
+        long decoded = System.nanoTime();
+        metrics.recordStage(Stage.DESERIALIZE, decoded - received);
+        metrics.recordIn(inMsg.getMsgType(), length);
+        traffic.record(connectionId, false, inMsg, length);
+        if (state.runsAside(inMsg)) {
+            aside.incrementAndGet();
+            Thread.ofVirtual().start(() -> handleAside(inMsg, received));
+            return;
+        }
+        ServerEvents.Dispatch dispatchEvent = new ServerEvents.Dispatch();
+        Message outMsg = state.handle(inMsg);
+        dispatchEvent.finish(connectionId, state.getCurrentUser(), inMsg, outMsg);
+        metrics.recordStage(Stage.DISPATCH, System.nanoTime() - decoded);
+        if (outMsg != null) {
+            send(outMsg);
+        }
+        metrics.recordHandled(inMsg.getMsgType(), System.nanoTime() - received);
+    }
+
+    /**
+     * Handles a command that waits on the store, queues its answer and asks the loop to write it. Runs on a thread
+     * of its own, started by {@link #receive(ByteBuffer, int)} for each such command. If the answer cannot be queued,
+     * the loop is asked to close the connection instead.
+     *
+     * @param inMsg    the command received.
+     * @param received when it was received, in {@link System#nanoTime()} terms.
+     */
+    private void handleAside(Message inMsg, long received) {
+        try {
+            long start = System.nanoTime();
+            ServerEvents.Dispatch dispatchEvent = new ServerEvents.Dispatch();
+            SessionState.Answer answer = state.handleAside(inMsg);
+            Message outMsg = answer.reply();
+            dispatchEvent.finish(connectionId, state.getCurrentUser(), inMsg, outMsg);
+            metrics.recordStage(Stage.DISPATCH, System.nanoTime() - start);
+            if (answer.download() != null) {
+                metrics.recordOut(outMsg.getMsgType(), answer.download().length());
+                traffic.record(connectionId, true, outMsg, answer.download().length());
+                outbox.add(answer.download());
+            } else {
+                send(outMsg);
+            }
+            metrics.recordHandled(inMsg.getMsgType(), System.nanoTime() - received);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Connection for " + getUsername() + " failed: " + e);
+            loop.requestClose(this);
+        } finally {
+            // Only now, so that the flush below sees the connection's last command finished.
+            aside.decrementAndGet();
+            requestFlush();
+        }
+    }
+
+    /**
+     * Asks the loop to flush this connection, unless a flush has already been asked for and not yet started.
+     */
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            loop.requestFlush(this);
+        }
+    }
+
+    /**
+     * Queues a reply for writing.
+     *
+     * @param outMsg the message to send.
+     * @throws IOException if the message cannot be encoded.
+     */
+    private void send(Message outMsg) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer frame = Frames.encode(outMsg);
+        metrics.recordStage(Stage.SERIALIZE, System.nanoTime() - start);
+        metrics.recordOut(outMsg.getMsgType(), frame.remaining());
+        traffic.record(connectionId, true, outMsg, frame.remaining());
+        outbox.add(frame);
+    }
+
+    /**
+     * Writes as much of the outbox as the channel will take, then sets the interest set: OP_WRITE while bytes are
+     * still waiting, OP_READ while the session is open, not at its limit of commands handled aside, and not backlogged
+     * with replies. Frames held back in the read buffer are handled on the loop's next pass once reading may resume.
+     * A logged-out session is closed once its good-bye, and the answers to any commands it was still handling aside,
+     * have been written.
+     *
+     * @throws IOException if writing fails.
+     */
+    private void flush() throws IOException {
+        // Read before draining: once it is zero, every answer is already in the outbox.
+        int running = aside.get();
+        while (true) {
+            if (batch.isEmpty()) {
+                if (!outbox.pollBatch(batch)) {
+                    break;
+                }
+                takeBatch();
+            }
+            if (!writeSome()) {
+                break;
+            }
+            batch.clear();
+        }
+        if (state.isClosed() && batch.isEmpty() && running == 0) {
+            close();
+            return;
+        }
+        int ops = state.isClosed() || running >= SessionState.ASIDE_LIMIT || outbox.isBacklogged()
+                ? 0 : SelectionKey.OP_READ;
+        if (!batch.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+        if (heldBack && (ops & SelectionKey.OP_READ) != 0) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Counts a batch just taken from the outbox and, if it is a batch of frames, prepares it for gathering writes.
+     */
+    private void takeBatch() {
+        if (batch.getFirst() instanceof FileRegion region) {
+            loop.countOut(1, region.length());
+            return;
+        }
+        frames = batch.toArray(frames);
+        nextFrame = 0;
+        long length = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            length += frames[i].remaining();
+        }
+        loop.countOut(batch.size(), length);
+        outbox.recordFlush(batch.size(), length);
+    }
+
+    /**
+     * Writes as much of the current batch as the channel will take.
+     *
+     * @return true if it has been written completely.
+     * @throws IOException if writing fails.
+     */
+    private boolean writeSome() throws IOException {
+        if (batch.getFirst() instanceof FileRegion region) {
+            region.writeTo(channel);
+            if (region.isDone()) {
+                region.close();
+                return true;
+            }
+            return false;
+        }
+        int count = batch.size();
+        long start = System.nanoTime();
+        channel.write(frames, nextFrame, count - nextFrame);
+        metrics.recordStage(Stage.FLUSH, System.nanoTime() - start);
+        while (nextFrame < count && !frames[nextFrame].hasRemaining()) {
+            frames[nextFrame++] = null;
+        }
+        return nextFrame == count;
+    }
+
+    /**
+     * Copies a buffer's contents into a new buffer of a different capacity.
+     *
+     * @param buffer   the buffer to copy, in write mode.
+     * @param capacity the new capacity; must hold the buffer's contents.
+     * @return the new buffer, in write mode.
+     */
+    private static ByteBuffer resize(ByteBuffer buffer, int capacity) {
+        ByteBuffer resized = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        resized.put(buffer);
+        return resized;
+    }
+}
@@ -0,0 +1,72 @@
+package sparta.clack.endpoint;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * A server that handles every client connection from a single thread, using a non-blocking
+ * {@link java.nio.channels.Selector}.
+ * <p>
+ * It speaks the same protocol as {@link Server}, but instead of parking one thread per connection it keeps an
+ * {@link NioConnection} (read buffer, write queue and {@link SessionState}) per client, and services whichever
+ * connections are ready. An idle client costs a few kilobytes of buffer rather than a thread stack.
+ * <p>
+ * The one {@link EventLoop} both accepts and serves connections. See {@link MultiReactorServer} for a server that
+ * spreads connections over one loop per core.
+ */
+public class NioServer extends AbstractServer {
+    /**
+     * Creates a non-blocking server for exchanging Message objects.
+     *
+     * @param port       the port to listen on.
+     * @param serverName the name to use when constructing Message objects.
+     * @param room       the room that logged-in clients join and TEXT messages are broadcast to.
+     * @throws IllegalArgumentException if port not in range [1024, 49151].
+     */
+    public NioServer(int port, String serverName, ChatRoom room) throws IllegalArgumentException {
+        super(port, serverName, room);
+    }
+
+    /**
+     * Creates a non-blocking server for exchanging Message objects, with a default {@link ChatRoom}.
+     *
+     * @param port       the port to listen on.
+     * @param serverName the name to use when constructing Message objects.
+     * @throws IllegalArgumentException if port not in range [1024, 49151].
+     */
+    public NioServer(int port, String serverName) throws IllegalArgumentException {
+        this(port, serverName, new ChatRoom());
+    }
+
+    /**
+     * Creates a non-blocking server for exchanging Message objects, using the default servername
+     * (Server.DEFAULT_SERVERNAME).
+     *
+     * @param port the port to listen on.
+     * @throws IllegalArgumentException if port not in range [1024, 49151].
+     */
+    public NioServer(int port) {
+        this(port, DEFAULT_SERVERNAME);
+    }
+
+    /**
+     * Starts this server, listening on the port it was constructed with. The calling thread becomes the selector
+     * loop and runs until the process exits.
+     *
+     * @throws IOException if the selector or listening channel cannot be opened.
+     */
+    @Override
+    public void start() throws IOException {
+        context.start(port);
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            EventLoop loop = new EventLoop(0, context);
+            loop.listen(serverChannel);
+            System.out.println("Server (nio) starting on port " + port + ".");
+            System.out.println("Ctrl + C to exit.");
+            loop.run();
+        } // Server channel closed
+    }
+}
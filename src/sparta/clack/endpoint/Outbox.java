@@ -0,0 +1,388 @@
+package sparta.clack.endpoint;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of encoded frames waiting to be written to one client.
+ * <p>
+ * Any thread may add frames: the session's own replies through {@link #add(ByteBuffer)}, and broadcasts from other
+ * sessions through {@link #offer(ByteBuffer)}, which applies the room's {@link SlowConsumerPolicy} when the queue is
+ * full. Only broadcasts count towards the capacity, and only broadcasts are ever dropped: a reply to the client's own
+ * command, which the client may be waiting for, is always written. Replies are bounded instead by the session: once
+ * {@link #REPLY_LIMIT} replies and file regions are waiting, {@link #isBacklogged()} tells it to stop reading
+ * commands until the writer has taken some, so a client that sends commands without reading the replies is held back
+ * by TCP rather than filling the server's memory. Replies and broadcasts wait in one queue, in the order they were
+ * added; a second queue remembers which of its frames are broadcasts. A single writer (the session's writer thread,
+ * or its event loop) removes frames in batches, writes each batch with one gathering write, and records it with
+ * {@link #recordFlush(int, long)}.
+ * <p>
+ * Besides frames, the queue holds {@link FileRegion}s for downloads, in order with the frames around them. Entries
+ * are therefore removed as plain objects, each either a ByteBuffer or a FileRegion. Regions are never dropped to
+ * make room, and any still queued when the outbox is aborted are closed.
+ */
+final class Outbox {
+    /**
+     * The number of replies and file regions waiting for one client at which its session stops reading commands.
+     */
+    static final int REPLY_LIMIT = 64;
+
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final long blockTimeoutNanos;
+    private final int maxBatch;
+    private final long flushDelayNanos;
+    private final FlushStats flushStats;
+    private final ArrayDeque<Object> frames = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> broadcasts = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition repliesTaken = lock.newCondition();
+    private int replies = 0; // Replies and file regions queued.
+    private boolean closed = false;
+
+    /**
+     * Creates an empty outbox.
+     *
+     * @param capacity          the number of broadcasts {@link #offer(ByteBuffer)} will queue before applying the
+     *                          policy.
+     * @param policy            what to do when a broadcast finds the queue full.
+     * @param blockTimeoutNanos how long {@link SlowConsumerPolicy#BLOCK} waits for room.
+     * @param maxBatch          the most frames in one batch.
+     * @param flushDelayNanos   how long {@link #takeBatch(List)} waits for more frames to fill a batch.
+     * @param flushStats        where to record each batch written.
+     */
+    Outbox(int capacity, SlowConsumerPolicy policy, long blockTimeoutNanos, int maxBatch, long flushDelayNanos,
+           FlushStats flushStats) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.blockTimeoutNanos = blockTimeoutNanos;
+        this.maxBatch = maxBatch;
+        this.flushDelayNanos = flushDelayNanos;
+        this.flushStats = flushStats;
+    }
+
+    /**
+     * Queues a broadcast frame, applying the slow-consumer policy if the capacity's worth of broadcasts is already
+     * queued. The frame must be this client's own view of the bytes, not shared with another queue. Only a virtual
+     * thread waits under {@link SlowConsumerPolicy#BLOCK}; on a platform thread, such as an event loop serving many
+     * other clients, a full queue disconnects the client at once, as {@link SlowConsumerPolicy#DISCONNECT} does.
+     *
+     * @param frame the frame to queue.
+     * @return false if the client is too slow and should be disconnected; true otherwise (including when the frame
+     * was queued by dropping an older one, or the outbox is already closed).
+     */
+    boolean offer(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (broadcasts.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST -> dropOldestBroadcast();
+                    case DISCONNECT -> {
+                        return false;
+                    }
+                    case BLOCK -> {
+                        if (!Thread.currentThread().isVirtual()) {
+                            // Waiting here would stall every other connection on the sender's event loop.
+                            return false;
+                        }
+                        long nanos = blockTimeoutNanos;
+                        while (broadcasts.size() >= capacity && !closed) {
+                            if (nanos <= 0) {
+                                return false;
+                            }
+                            nanos = notFull.awaitNanos(nanos);
+                        }
+                        if (closed) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            frames.add(frame);
+            broadcasts.add(frame);
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a frame regardless of capacity, never to be dropped. Used for replies to the client's own commands. A
+     * client may pipeline any number of commands without waiting for their replies, so these are bounded not here but
+     * by the session, which stops reading commands while {@link #isBacklogged()}.
+     *
+     * @param frame the frame to queue.
+     */
+    void add(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (!closed) {
+                frames.add(frame);
+                replies++;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a file region for a download, regardless of capacity; it counts towards {@link #REPLY_LIMIT}. If the
+     * outbox is already closed, the region is closed instead.
+     *
+     * @param region the region to queue.
+     */
+    void add(FileRegion region) {
+        lock.lock();
+        try {
+            if (!closed) {
+                frames.add(region);
+                replies++;
+                notEmpty.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        region.close();
+    }
+
+    /**
+     * Removes the next batch without waiting. A batch is either one file region, or as many frames as are queued
+     * before the next region, up to the batch size.
+     *
+     * @param batch the list to add the batch's entries to, in order.
+     * @return false if the outbox is empty.
+     */
+    boolean pollBatch(List<Object> batch) {
+        lock.lock();
+        try {
+            return moveBatch(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the next batch, waiting for one if necessary. If a flush delay is set, a batch of frames smaller than
+     * the batch size waits up to that long, from when its first frame was taken, for more frames to join it.
+     *
+     * @param batch the list to add the batch's entries to, in order.
+     * @return false once the outbox has been closed and drained.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean takeBatch(List<Object> batch) throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty()) {
+                if (closed) {
+                    return false;
+                }
+                notEmpty.await();
+            }
+            moveBatch(batch);
+            if (flushDelayNanos > 0 && batch.getFirst() instanceof ByteBuffer) {
+                long nanos = flushDelayNanos;
+                while (batch.size() < maxBatch && !closed && nanos > 0) {
+                    if (frames.isEmpty()) {
+                        nanos = notEmpty.awaitNanos(nanos);
+                    } else if (frames.peek() instanceof ByteBuffer) {
+                        moveFrames(batch);
+                    } else {
+                        break;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a batch of frames written to the client.
+     *
+     * @param frameCount the number of frames written together.
+     * @param byteCount  their total length in bytes.
+     */
+    void recordFlush(int frameCount, long byteCount) {
+        flushStats.record(frameCount, byteCount);
+    }
+
+    /**
+     * Returns whether no frames are waiting.
+     *
+     * @return true if the outbox is empty.
+     */
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return frames.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether so many replies and file regions are waiting that the session should stop reading commands.
+     *
+     * @return true while at least {@link #REPLY_LIMIT} are queued.
+     */
+    boolean isBacklogged() {
+        lock.lock();
+        try {
+            return replies >= REPLY_LIMIT;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until fewer than {@link #REPLY_LIMIT} replies and file regions are queued, or the outbox is closed. Called
+     * by a session's reading thread before it reads the next command.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void awaitReplyRoom() throws InterruptedException {
+        lock.lock();
+        try {
+            while (replies >= REPLY_LIMIT && !closed) {
+                repliesTaken.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether at least a full batch of entries is waiting.
+     *
+     * @return true if the next batch cannot take everything queued.
+     */
+    boolean hasFullBatch() {
+        lock.lock();
+        try {
+            return frames.size() >= maxBatch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting frames. Frames already queued can still be removed; {@link #takeBatch(List)} returns false once
+     * they are gone, and any sender blocked on a full queue, or reader waiting for replies to be taken, is released.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            repliesTaken.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting frames and discards any that are queued, closing queued file regions.
+     */
+    void abort() {
+        lock.lock();
+        try {
+            for (Object entry : frames) {
+                if (entry instanceof FileRegion region) {
+                    region.close();
+                }
+            }
+            frames.clear();
+            broadcasts.clear();
+            replies = 0;
+        } finally {
+            lock.unlock();
+        }
+        close();
+    }
+
+    /**
+     * Moves the next batch from the queue. Caller holds the lock.
+     *
+     * @return false if the queue is empty.
+     */
+    private boolean moveBatch(List<Object> batch) {
+        Object first = frames.peek();
+        if (first == null) {
+            return false;
+        }
+        if (first instanceof FileRegion) {
+            batch.add(frames.poll());
+            tookReplies(1);
+        } else {
+            moveFrames(batch);
+        }
+        return true;
+    }
+
+    /**
+     * Moves queued frames into a batch until it is full or the next entry is not a frame. Caller holds the lock.
+     */
+    private void moveFrames(List<Object> batch) {
+        int moved = 0;
+        int movedReplies = 0;
+        while (batch.size() < maxBatch && frames.peek() instanceof ByteBuffer frame) {
+            batch.add(frames.poll());
+            // Broadcasts leave in the order they came, so the oldest left is the next one taken or dropped.
+            if (frame == broadcasts.peek()) {
+                broadcasts.poll();
+                moved++;
+            } else {
+                movedReplies++;
+            }
+        }
+        if (moved > 0) {
+            notFull.signalAll();
+        }
+        tookReplies(movedReplies);
+    }
+
+    /**
+     * Counts replies or file regions taken by the writer, releasing the reader if that makes room. Caller holds the
+     * lock.
+     */
+    private void tookReplies(int count) {
+        if (count > 0) {
+            replies -= count;
+            if (replies < REPLY_LIMIT) {
+                repliesTaken.signalAll();
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest queued broadcast, leaving replies and file regions. Caller holds the lock.
+     */
+    private void dropOldestBroadcast() {
+        ByteBuffer oldest = broadcasts.poll();
+        Iterator<Object> entries = frames.iterator();
+        while (entries.hasNext()) {
+            // By identity: a reply may hold the same bytes.
+            if (entries.next() == oldest) {
+                entries.remove();
+                return;
+            }
+        }
+    }
+}
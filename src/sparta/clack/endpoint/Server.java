@@ -1,11 +1,9 @@
 package sparta.clack.endpoint;
 
-import sparta.clack.message.*;
-
-import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /**
  * Represents a server that handles client connections for sending and receiving messages.
@@ -13,26 +11,29 @@ import java.nio.file.Files;
  * To begin a conversation, a client connects to the server and waits for the server to send the first Message.
  * <p>
  * The conversation ends when the client sends a LogoutMessage.
- * The server replies with a last TextMessage, closes the connection, and waits for a new connection.
+ * The server replies with a last TextMessage and closes the connection.
+ * <p>
+ * Each accepted connection is handed to its own {@link ClientSession}, running on a virtual thread, so any number of
+ * clients can be connected at once. Idle sessions park cheaply instead of pinning a platform thread.
  */
-public class Server {
+public class Server extends AbstractServer {
+    private final Thread.Builder sessionThreads = Thread.ofVirtual().name("clack-session-", 0);
+
     /**
-     * The default name assigned to the server if no specific name is provided.
+     * Creates a server for exchanging Message objects.
+     *
+     * @param port       the port to listen on.
+     * @param serverName the name to use when constructing Message objects.
+     * @param room       the room that logged-in clients join and TEXT messages are broadcast to.
+     * @throws IllegalArgumentException if port not in range [1024, 49151].
      */
-    public static final String DEFAULT_SERVERNAME = "server";
-
-    private static final String GREETING =
-            "[Server listening. 'Logout' (case insensitive) closes connection.]";
-    private static final String GOOD_BYE =
-            "[Closing connection, good-bye.]";
-
-    // Object variables.
-    private final int port;
-    private final String serverName;
-    private final boolean SHOW_TRAFFIC = true; // FOR DEBUGGING
+    public Server(int port, String serverName, ChatRoom room)
+            throws IllegalArgumentException {
+        super(port, serverName, room);
+    }
 
     /**
-     * Creates a server for exchanging Message objects.
+     * Creates a server for exchanging Message objects, with a default {@link ChatRoom}.
      *
      * @param port       the port to listen on.
      * @param serverName the name to use when constructing Message objects.
@@ -40,12 +41,7 @@ public class Server {
      */
     public Server(int port, String serverName)
             throws IllegalArgumentException {
-        if (port < 1024 || port > 49151) {
-            throw new IllegalArgumentException(
-                    "Port " + port + " not in range 1024-49151.");
-        }
-        this.port = port;
-        this.serverName = serverName;
+        this(port, serverName, new ChatRoom());
     }
 
     /**
@@ -60,145 +56,24 @@ public class Server {
     }
 
     /**
-     * Starts this server, listening on the port it was constructed with.
+     * Starts this server, listening on the port it was constructed with. Every accepted connection is served by a
+     * new virtual thread; this method keeps accepting until the process exits.
      *
-     * @throws IOException            if ServerSocket creation, connection acceptance, wrapping, or IO fails.
-     * @throws ClassNotFoundException if a message's class cannot be found during deserialization.
+     * @throws IOException if the listening channel cannot be opened, or connection acceptance fails.
      */
+    @Override
     @SuppressWarnings("InfiniteLoopStatement")
-    public void start() throws IOException, ClassNotFoundException {
-        File tempDirectory = new File("tempfiles");
-        if (!tempDirectory.exists()) {
-            boolean success = tempDirectory.mkdirs();  // Creates the directory and any necessary parent directories
-            if (success) {
-                System.out.println("Directory 'tempfiles' created successfully.");
-            } else {
-                throw new IOException("Failed to create 'tempfiles' directory.");
-            }
-        }
+    public void start() throws IOException {
+        context.start(port);
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
             System.out.println("Server starting on port " + port + ".");
             System.out.println("Ctrl + C to exit.");
             while (true) {
-                try (
-                        Socket clientSocket = serverSocket.accept();
-                        ObjectInputStream inObj = new ObjectInputStream(clientSocket.getInputStream());
-                        ObjectOutputStream outObj = new ObjectOutputStream(clientSocket.getOutputStream());
-                ) {
-                    Message inMsg;
-                    Message outMsg;
-
-                    // Connection made. Greet client.
-                    outMsg = new TextMessage(serverName, GREETING);
-                    outObj.writeObject(outMsg);
-                    outObj.flush();
-                    if (SHOW_TRAFFIC) {
-                        System.out.println("=> " + outMsg);
-                    }
-
-                    // Wait for login
-                    String currentUser = null;
-                    boolean loggedIn = false;
-                    while (!loggedIn) {
-                        inMsg = (Message) inObj.readObject();
-                        if (SHOW_TRAFFIC) {
-                            System.out.println("<= " + inMsg);
-                        }
-                        if (inMsg.getMsgType() == MsgType.LOGIN) {
-                            String[] loginParts = ((TextMessage) inMsg).getText().split(" ");
-                            if (loginParts.length == 2) {
-                                String username = loginParts[0];
-                                String password = loginParts[1];
-                                if (password.contentEquals(new StringBuilder(username).reverse())) {
-                                    currentUser = username;
-                                    loggedIn = true;
-                                    outMsg = new TextMessage(serverName, "Login successful.");
-                                } else {
-                                    outMsg = new TextMessage(serverName, "Invalid username or password.");
-                                }
-                            } else {
-                                outMsg = new TextMessage(serverName, "Invalid LOGIN command format.");
-                            }
-                        } else {
-                            outMsg = new TextMessage(serverName, GREETING);
-                        }
-                        outObj.writeObject(outMsg);
-                        outObj.flush();
-                        if (SHOW_TRAFFIC) {
-                            System.out.println("=> " + outMsg);
-                        }
-                    }
-
-                    String cipher_key = null;
-                    boolean cipher_enable = false;
-                    String cipher_name = null;
-
-                    // Converse with client.
-                    do {
-                        inMsg = (Message) inObj.readObject();
-                        if (SHOW_TRAFFIC) {
-                            System.out.println("<= " + inMsg);
-                        }
-
-                        // Process the received message
-                        outMsg = switch (inMsg.getMsgType()) {
-                            case MsgType.FILE -> {
-                                String fileSavePath = "tempfiles/" + ((FileMessage) inMsg).getFileName();
-                                File fileToSave = new File(fileSavePath);
-                                try {
-                                    Files.write(fileToSave.toPath(), ((FileMessage) inMsg).getFileContents().getBytes());
-                                } catch (IOException e) {
-                                    yield new TextMessage(serverName, "Error saving file: " + e.getMessage());
-                                }
-                                yield new TextMessage(serverName, "File saved successfully as " + fileToSave.getName());
-                            }
-                            case MsgType.HELP -> {
-                                yield new TextMessage(serverName,
-                                        """
-                                                Welcome to the server. Here are the commands you can use:
-                                                1. 'LOGIN <username> <password>' - Log in with your username.
-                                                2. 'TEXT <message>' - Send a text message to the server.
-                                                3. 'LISTUSERS' - Request a list of currently logged-in users.
-                                                4. 'LOGOUT' - Log out and end the conversation.
-                                                
-                                                For help, send 'HELP'.
-                                                All commands are case insensitive.""");
-                            }
-                            case MsgType.LISTUSERS -> {
-                                yield new TextMessage(serverName, "Users:\n• " + currentUser + "\n");
-                            }
-                            case MsgType.LOGOUT -> {
-                                yield new TextMessage(serverName, GOOD_BYE);
-                            }
-                            case MsgType.OPTION -> {
-                                if (inMsg instanceof OptionMessage optionMessage) {
-                                    switch (optionMessage.getOption()) {
-                                        case CIPHER_KEY -> cipher_key = optionMessage.getValue();
-                                        case CIPHER_ENABLE ->
-                                                cipher_enable = Boolean.parseBoolean(optionMessage.getValue());
-                                        case CIPHER_NAME -> cipher_name = optionMessage.getValue();
-                                    }
-                                }
-                                yield inMsg;
-                            }
-                            case MsgType.TEXT -> {
-                                yield inMsg;
-                            }
-                            default -> null;
-                        };
-                        outObj.writeObject(outMsg);
-                        outObj.flush();
-                        if (SHOW_TRAFFIC) {
-                            System.out.println("=> " + outMsg);
-                        }
-                    } while (inMsg.getMsgType() != MsgType.LOGOUT);
-
-                    System.out.println("=== Terminating connection. ===");
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
+                SocketChannel clientChannel = serverChannel.accept();
+                sessionThreads.start(new ClientSession(clientChannel, context));
             }
-        } // Server socket closed
+        } // Server channel closed
     }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.cipher.CipherCache;
+import sparta.clack.metrics.ServerMetrics;
+import sparta.clack.store.ContentStore;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+
+/**
+ * What every session of a server shares, whichever engine serves it: the server's name, its room, its uploads, its
+ * cipher cache, its traffic log and its metrics.
+ * <p>
+ * A server creates one context and hands it to each session, or to each {@link EventLoop}, which hands it on to its
+ * connections.
+ *
+ * @param serverName the name to use when constructing Message objects.
+ * @param room       the room that logged-in clients join and TEXT messages are broadcast to.
+ * @param uploads    the server's resumable uploads.
+ * @param ciphers    the server's ciphers, shared by sessions using the same cipher and key.
+ * @param traffic    the log to record every message sent and received in.
+ * @param metrics    the server's metrics, to count every message in.
+ */
+record ServerContext(String serverName, ChatRoom room, UploadRegistry uploads, CipherCache ciphers,
+                     TrafficLog traffic, ServerMetrics metrics) {
+    /**
+     * The directory that holds the file store, and the parts of unfinished uploads.
+     */
+    static final Path STORE_DIRECTORY = Path.of("tempfiles");
+
+    /**
+     * The file the traffic log is written to.
+     */
+    static final Path TRAFFIC_LOG = Path.of("logs", "traffic.log");
+
+    private static final long METRICS_INTERVAL_MILLIS = 60_000;
+
+    /**
+     * Creates the shared state of a new server, storing files under {@link #STORE_DIRECTORY} and logging traffic to
+     * {@link #TRAFFIC_LOG}.
+     *
+     * @param serverName the name to use when constructing Message objects.
+     * @param room       the room that logged-in clients join and TEXT messages are broadcast to.
+     * @return the context.
+     */
+    static ServerContext create(String serverName, ChatRoom room) {
+        return new ServerContext(serverName, room,
+                new UploadRegistry(new ContentStore(STORE_DIRECTORY), STORE_DIRECTORY.resolve(".uploads")),
+                new CipherCache(), new TrafficLog(TRAFFIC_LOG), new ServerMetrics(room::size));
+    }
+
+    /**
+     * Prepares everything a server needs before it accepts its first connection: creates the store's directory,
+     * starts the traffic log, and starts reporting metrics.
+     *
+     * @param port the port the server listens on, to tell its metrics apart from other servers'.
+     * @throws IOException if the directory cannot be created, or the traffic log cannot be opened.
+     */
+    void start(int port) throws IOException {
+        createStoreDirectory();
+        traffic.start();
+        startMetrics(port);
+    }
+
+    /**
+     * Registers the metrics and cipher cache over JMX, and starts a thread that prints a summary of them every
+     * minute. A failure to register is reported but otherwise ignored: the server runs without JMX.
+     *
+     * @param port the port the server listens on.
+     */
+    private void startMetrics(int port) {
+        try {
+            metrics.register(serverName, port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(ciphers, new ObjectName(ServerMetrics.DOMAIN
+                    + ":type=CipherCache,server=" + ObjectName.quote(serverName) + ",port=" + port));
+        } catch (JMException e) {
+            System.err.println("Could not register metrics over JMX: " + e.getMessage());
+        }
+        Thread.ofVirtual().name("clack-metrics").start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(METRICS_INTERVAL_MILLIS);
+                    for (String line : metrics.snapshot().split(System.lineSeparator())) {
+                        System.out.println("[metrics] " + line);
+                    }
+                    System.out.println("[metrics] ciphers: " + ciphers);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * Creates the 'tempfiles' directory that holds the file store, if it does not exist yet.
+     *
+     * @throws IOException if the directory cannot be created.
+     */
+    private static void createStoreDirectory() throws IOException {
+        File tempDirectory = STORE_DIRECTORY.toFile();
+        if (!tempDirectory.exists()) {
+            boolean success = tempDirectory.mkdirs();  // Creates the directory and any necessary parent directories
+            if (success) {
+                System.out.println("Directory 'tempfiles' created successfully.");
+            } else {
+                throw new IOException("Failed to create 'tempfiles' directory.");
+            }
+        }
+    }
+}
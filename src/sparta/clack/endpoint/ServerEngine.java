@@ -0,0 +1,38 @@
+package sparta.clack.endpoint;
+
+/**
+ * An enumeration of the transports a Clack server can run on. All engines speak the same protocol, and each is an
+ * {@link AbstractServer} sharing one {@link ServerContext} among its sessions.
+ */
+public enum ServerEngine {
+    /**
+     * One virtual thread per connection, blocking on socket streams ({@link Server}).
+     */
+    BLOCKING,
+
+    /**
+     * A single selector thread multiplexing non-blocking channels ({@link NioServer}).
+     */
+    NIO,
+
+    /**
+     * One acceptor thread feeding a selector loop per core ({@link MultiReactorServer}).
+     */
+    MULTI_REACTOR;
+
+    /**
+     * Looks up an engine by name, ignoring case and treating '-' as '_'.
+     *
+     * @param name the engine name, e.g. "nio" or "multi-reactor".
+     * @return the matching engine.
+     * @throws IllegalArgumentException if no engine has that name.
+     */
+    public static ServerEngine fromName(String name) throws IllegalArgumentException {
+        for (ServerEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name.replace('-', '_'))) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown server engine '" + name + "'.");
+    }
+}
@@ -0,0 +1,249 @@
+package sparta.clack.endpoint;
+
+import jdk.jfr.*;
+import sparta.clack.message.Message;
+
+/**
+ * The JDK Flight Recorder events the servers emit, one class per event, so that a recording shows each session's
+ * steps beside the JVM's own GC, thread and socket events.
+ * <p>
+ * The events are only recorded while a recording enables them, e.g. one started with
+ * {@code jcmd <pid> JFR.start}; otherwise creating and finishing one costs next to nothing. A timed event starts
+ * timing when it is created, and is recorded by its {@code finish} method, which fills in its fields only if the
+ * event is going to be kept.
+ * <p>
+ * Events that belong to one connection carry the same connection ID as its {@link TrafficLog} records.
+ */
+final class ServerEvents {
+    private ServerEvents() {
+    }
+
+    /**
+     * A client connection accepted.
+     */
+    @Name("sparta.clack.SessionAccept")
+    @Label("Session Accept")
+    @Category({"Clack", "Server"})
+    @Description("A client connection accepted.")
+    @StackTrace(false)
+    static final class SessionAccept extends Event {
+        @Label("Connection ID")
+        long connectionId;
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        /**
+         * Records an accepted connection.
+         *
+         * @param connectionId the connection's ID.
+         * @param remote       the client's address.
+         */
+        static void record(long connectionId, Object remote) {
+            SessionAccept event = new SessionAccept();
+            if (event.shouldCommit()) {
+                event.connectionId = connectionId;
+                event.remoteAddress = String.valueOf(remote);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * A login attempt, successful or not.
+     */
+    @Name("sparta.clack.Login")
+    @Label("Login")
+    @Category({"Clack", "Server"})
+    @Description("A login attempt, timed from the LoginMessage being handled to the session joining the room.")
+    @StackTrace(false)
+    static final class Login extends Event {
+        @Label("Username")
+        String username;
+
+        @Label("Successful")
+        boolean successful;
+
+        /**
+         * Creates the event and starts timing it.
+         */
+        Login() {
+            begin();
+        }
+
+        /**
+         * Stops timing the event and records it, if enabled.
+         *
+         * @param username   the username sent.
+         * @param successful whether the session is now logged in.
+         */
+        void finish(String username, boolean successful) {
+            end();
+            if (shouldCommit()) {
+                this.username = username;
+                this.successful = successful;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A frame decoded into a message.
+     */
+    @Name("sparta.clack.MessageReceive")
+    @Label("Message Receive")
+    @Category({"Clack", "Server"})
+    @Description("A message received, timed while its frame was decoded.")
+    @StackTrace(false)
+    static final class MessageReceive extends Event {
+        @Label("Connection ID")
+        long connectionId;
+
+        @Label("Username")
+        String username;
+
+        @Label("Message Type")
+        String messageType;
+
+        @Label("Request ID")
+        long requestId;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        /**
+         * Creates the event and starts timing it.
+         */
+        MessageReceive() {
+            begin();
+        }
+
+        /**
+         * Stops timing the event and records it, if enabled.
+         *
+         * @param connectionId the connection's ID.
+         * @param username     the user logged in on the connection, or null.
+         * @param msg          the message decoded.
+         * @param size         the length of its frame.
+         */
+        void finish(long connectionId, String username, Message msg, long size) {
+            end();
+            if (shouldCommit()) {
+                this.connectionId = connectionId;
+                this.username = username;
+                this.messageType = msg.getMsgType().name();
+                this.requestId = msg.getRequestId();
+                this.size = size;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A message handled by its session, up to its reply being built.
+     */
+    @Name("sparta.clack.Dispatch")
+    @Label("Dispatch")
+    @Category({"Clack", "Server"})
+    @Description("A received message handled by its session, including any broadcast or file save it caused.")
+    @StackTrace(false)
+    static final class Dispatch extends Event {
+        @Label("Connection ID")
+        long connectionId;
+
+        @Label("Username")
+        String username;
+
+        @Label("Message Type")
+        String messageType;
+
+        @Label("Request ID")
+        long requestId;
+
+        @Label("Reply Type")
+        String replyType;
+
+        /**
+         * Creates the event and starts timing it.
+         */
+        Dispatch() {
+            begin();
+        }
+
+        /**
+         * Stops timing the event and records it, if enabled.
+         *
+         * @param connectionId the connection's ID.
+         * @param username     the user logged in on the connection, or null.
+         * @param inMsg        the message handled.
+         * @param reply        the reply built, or null.
+         */
+        void finish(long connectionId, String username, Message inMsg, Message reply) {
+            end();
+            if (shouldCommit()) {
+                this.connectionId = connectionId;
+                this.username = username;
+                this.messageType = inMsg.getMsgType().name();
+                this.requestId = inMsg.getRequestId();
+                this.replyType = reply == null ? null : reply.getMsgType().name();
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A file saved to the server's store.
+     */
+    @Name("sparta.clack.FileSave")
+    @Label("File Save")
+    @Category({"Clack", "Server"})
+    @Description("A file saved to the store: all of it for a whole file, the final commit for an upload in chunks.")
+    @StackTrace(false)
+    static final class FileSave extends Event {
+        @Label("Username")
+        String username;
+
+        @Label("File Name")
+        String fileName;
+
+        @Label("Saved As")
+        String savedAs;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Upload")
+        @Description("How the file arrived: whole, chunked or resumable.")
+        String upload;
+
+        /**
+         * Creates the event and starts timing it.
+         */
+        FileSave() {
+            begin();
+        }
+
+        /**
+         * Stops timing the event and records it, if enabled.
+         *
+         * @param username the user saving the file.
+         * @param fileName the name asked for.
+         * @param savedAs  the name the store saved the file under.
+         * @param size     the file's size in bytes.
+         * @param upload   how the file arrived: whole, chunked or resumable.
+         */
+        void finish(String username, String fileName, String savedAs, long size, String upload) {
+            end();
+            if (shouldCommit()) {
+                this.username = username;
+                this.fileName = fileName;
+                this.savedAs = savedAs;
+                this.size = size;
+                this.upload = upload;
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,600 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.cipher.AesGcmCipher;
+import sparta.clack.cipher.CharacterCipher;
+import sparta.clack.cipher.CipherCache;
+import sparta.clack.cipher.CipherEnum;
+import sparta.clack.cipher.KeyExchange;
+import sparta.clack.cipher.MessageCipher;
+import sparta.clack.message.*;
+import sparta.clack.store.ContentStore;
+import sparta.clack.store.Manifest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * The server side of one conversation, as an explicit state machine (see {@code design/server_state.puml}).
+ * <p>
+ * A session starts in {@link Phase#LOGIN_WAIT}. A valid login moves it to {@link Phase#CMD_WAIT}, and a
+ * LogoutMessage moves it to {@link Phase#CLOSED}. Each received message is passed to {@link #handle(Message)},
+ * which returns the reply to send. No I/O on the connection happens here, so the same state machine drives both
+ * the blocking engine ({@link ClientSession}) and the non-blocking ones ({@link NioConnection}).
+ * <p>
+ * Logging in joins the server's {@link ChatRoom}; TEXT messages are broadcast to the room rather than answered.
+ * <p>
+ * Setting the CIPHER_NAME and CIPHER_KEY options chooses the session's cipher, taken from the server's
+ * {@link CipherCache} so that sessions with the same cipher and key share one; options that name no valid cipher are
+ * answered with what is wrong with them, and any other option with an OptionMessage giving the option and its new
+ * value, though never the key. Enabling encryption while no valid cipher has been chosen is refused in the same way,
+ * and leaves it disabled, so that a client is never told its text is encrypted when it is not. While CIPHER_ENABLE
+ * is true and the options name a valid cipher, the chat text the client sends is decrypted as it is received, and
+ * the chat text relayed to it is encrypted as it is sent: the room sees cleartext, and encrypts a broadcast once for
+ * each cipher its members use (see {@link ChatRoom#broadcast(Message)}). The server's own replies (help, user lists,
+ * notices and errors) are never encrypted, so a client can always read them, including one that enabled a cipher it
+ * cannot use.
+ * <p>
+ * The AES_GCM key is never sent: it is agreed with a {@link KeyExchange}. Once CIPHER_NAME is AES_GCM, the client
+ * sends its X25519 public key as the CIPHER_KEY, and the acknowledgement carries the server's, from which each side
+ * derives the session's key; every session has a key, and a cipher, of its own. Until an exchange has been made
+ * under AES_GCM, the session has no cipher, and enabling encryption is refused. The exchange stops anyone who only
+ * listens from reading the chat, but not anyone who can change the messages in flight, and the classical ciphers'
+ * keys are still sent as they are: only a transport that authenticates the server, such as TLS, protects against
+ * both.
+ * <p>
+ * Files are saved to the server's {@link ContentStore}, which never overwrites one file with another: a file saved
+ * under a name already taken is saved under a numbered variant, and the reply says which. A file sent in chunks is
+ * passed to the store as each chunk arrives, so at most one store chunk is ever held in memory. The session answers
+ * once the last chunk has been saved, or as soon as the upload fails. Chunks of a resumable upload, and requests for
+ * its status, are passed on to the server's {@link UploadRegistry} instead.
+ * <p>
+ * Commands that wait on the store (saving a whole file, preparing a download, reporting an upload's status) are not
+ * passed to {@link #handle(Message)}. The engine checks {@link #runsAside(Message)} for each message and hands these
+ * to {@link #handleAside(Message)} on a thread of their own, so that a large file does not hold up the session's
+ * later messages, and queues the {@link Answer} whenever it is ready. Their replies may therefore overtake one
+ * another, or be overtaken by replies to later messages; a client that needs one request finished before the next
+ * starts must wait for its reply. At most {@link #ASIDE_LIMIT} are handled at once per session; beyond that the
+ * engine stops reading until one finishes. A download is answered with a {@link FileRegion} rather than a plain
+ * reply, which the engine queues in place of the announcing DownloadMessage it already holds encoded.
+ * <p>
+ * Every reply carries the request ID of the message it answers (see {@link Message#getRequestId()}), so a client
+ * may pipeline numbered requests and match the replies however they are interleaved with broadcasts or with each
+ * other. Broadcasts carry no request ID. Pipelining is bounded by the client's own reading: once
+ * {@link Outbox#REPLY_LIMIT} replies are waiting to be written to it, the engine stops reading its requests until it
+ * has read enough of them.
+ * <p>
+ * A SessionState is owned by a single thread at a time and is not thread-safe, apart from
+ * {@link #handleAside(Message)} and {@link #getActiveCipher()}.
+ */
+final class SessionState {
+    /**
+     * The points of the conversation at which the server waits for the client.
+     */
+    enum Phase {
+        /**
+         * Greeting sent; waiting for a valid LoginMessage.
+         */
+        LOGIN_WAIT,
+
+        /**
+         * Logged in; waiting for the next command.
+         */
+        CMD_WAIT,
+
+        /**
+         * Good-bye sent; the connection should be closed once the reply has been written.
+         */
+        CLOSED
+    }
+
+    /**
+     * What {@link #handleAside(Message)} answers a command with.
+     *
+     * @param reply    the reply, with the request's ID; for a download, the DownloadMessage announcing the bytes.
+     * @param download the region to queue in place of the reply, which already holds it encoded; null unless a
+     *                 download was prepared.
+     */
+    record Answer(Message reply, FileRegion download) {
+    }
+
+    /**
+     * The most commands a session handles aside at once.
+     */
+    static final int ASIDE_LIMIT = 16;
+
+    static final String GREETING =
+            "[Server listening. 'Logout' (case insensitive) closes connection.]";
+    static final String GOOD_BYE =
+            "[Closing connection, good-bye.]";
+    static final String HELP =
+            """
+                    Welcome to the server. Here are the commands you can use:
+                    1. 'LOGIN <username> <password>' - Log in with your username.
+                    2. 'TEXT <message>' - Send a text message to everyone logged in.
+                    3. 'LISTUSERS' - Request a list of currently logged-in users.
+                    4. 'SENDFILE <path> [save-as name]' - Upload a file; an interrupted upload resumes where it stopped.
+                    5. 'GETFILE <name> [<start> <end>]' - Download a saved file, or the bytes from start to end.
+                    6. 'LOGOUT' - Log out and end the conversation.
+
+                    For help, send 'HELP'.
+                    All commands are case insensitive.""";
+
+    private final String serverName;
+    private final ChatRoom room;
+    private final UploadRegistry uploads;
+    private final CipherCache ciphers;
+    private final ContentStore store;
+    private final ChatRoom.Member member;
+    private Phase phase = Phase.LOGIN_WAIT;
+
+    // Per-session state. currentUser is set once, at login, before any command can be handled aside.
+    private volatile String currentUser = null;
+    private String cipher_key = null;
+    private boolean cipher_enable = false;
+    private String cipher_name = null;
+    private MessageCipher cipher = null; // Built for cipher_name and cipher_key, once both are set and valid.
+    private MessageCipher agreedCipher = null; // AES_GCM's, for the key agreed by the last CIPHER_KEY, if any.
+    private volatile MessageCipher activeCipher = null; // The cipher while cipher_enable is true; read by the room.
+
+    // Chunked upload in progress, if any. While uploadName is set but upload is null, the upload has failed and its
+    // remaining chunks are dropped.
+    private String uploadName = null;
+    private ContentStore.Writer upload = null;
+
+    /**
+     * Creates the state for a newly accepted connection.
+     *
+     * @param serverName the name to use when constructing Message objects.
+     * @param room       the room to join on login.
+     * @param uploads    the server's resumable uploads, and the store files are saved to.
+     * @param ciphers    the server's ciphers, shared by sessions using the same cipher and key.
+     * @param member     the connection that receives this session's broadcasts.
+     */
+    SessionState(String serverName, ChatRoom room, UploadRegistry uploads, CipherCache ciphers,
+                 ChatRoom.Member member) {
+        this.serverName = serverName;
+        this.room = room;
+        this.uploads = uploads;
+        this.ciphers = ciphers;
+        this.store = uploads.getStore();
+        this.member = member;
+    }
+
+    /**
+     * Builds the greeting to send as soon as the connection is accepted.
+     *
+     * @return the greeting message.
+     */
+    Message greeting() {
+        return new TextMessage(serverName, GREETING);
+    }
+
+    /**
+     * Advances the state machine with a message received from the client.
+     *
+     * @param inMsg the message received.
+     * @return the reply to send, with the request's ID, or null if the message needs no reply.
+     * @throws IOException              if a broadcast cannot be encoded.
+     * @throws IllegalStateException    if the session is already closed.
+     * @throws IllegalArgumentException if the message must be handled aside instead.
+     */
+    Message handle(Message inMsg) throws IOException {
+        if (runsAside(inMsg)) {
+            throw new IllegalArgumentException(inMsg.getMsgType() + " must be handled aside.");
+        }
+        Message reply = switch (phase) {
+            case LOGIN_WAIT -> checkLogin(inMsg);
+            case CMD_WAIT -> command(inMsg);
+            case CLOSED -> throw new IllegalStateException("Session already closed.");
+        };
+        return answer(inMsg, reply);
+    }
+
+    /**
+     * Returns whether a received message is a command that waits on the store, to be passed to
+     * {@link #handleAside(Message)} rather than {@link #handle(Message)}.
+     *
+     * @param inMsg the message received.
+     * @return true for a whole file, a download request or an upload status request, once logged in.
+     */
+    boolean runsAside(Message inMsg) {
+        return phase == Phase.CMD_WAIT && switch (inMsg.getMsgType()) {
+            case MsgType.FILE, MsgType.DOWNLOAD, MsgType.UPLOADSTATUS -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Handles a command that waits on the store. May be called from any thread, while the session's own thread goes
+     * on handling later messages, since it reads nothing of the session that changes after login.
+     *
+     * @param inMsg a message for which {@link #runsAside(Message)} returned true.
+     * @return the answer to send.
+     * @throws IOException              if a download's announcement cannot be encoded.
+     * @throws IllegalArgumentException if the message is not one to handle aside.
+     */
+    Answer handleAside(Message inMsg) throws IOException {
+        return switch (inMsg.getMsgType()) {
+            case MsgType.DOWNLOAD -> prepareDownload((DownloadMessage) inMsg);
+            case MsgType.FILE -> new Answer(answer(inMsg, saveFile((FileMessage) inMsg)), null);
+            case MsgType.UPLOADSTATUS -> new Answer(answer(inMsg, uploadStatus((UploadStatusMessage) inMsg)), null);
+            default -> throw new IllegalArgumentException(inMsg.getMsgType() + " is not handled aside.");
+        };
+    }
+
+    /**
+     * Returns the cipher the text of this session's TEXT messages is encrypted and decrypted with. May be called
+     * from any thread, e.g. by another session broadcasting.
+     *
+     * @return the cipher, or null if the session has no cipher or has not enabled it.
+     */
+    MessageCipher getActiveCipher() {
+        return activeCipher;
+    }
+
+    /**
+     * Returns the point of the conversation this session is at.
+     *
+     * @return the current phase.
+     */
+    Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Returns whether the client has logged out.
+     *
+     * @return true once the good-bye has been built.
+     */
+    boolean isClosed() {
+        return phase == Phase.CLOSED;
+    }
+
+    /**
+     * Leaves the room, if this session had joined it, and abandons any unfinished upload. Called when the connection
+     * ends, however it ends.
+     */
+    void leave() {
+        if (currentUser != null) {
+            room.leave(member);
+        }
+        closeUpload();
+    }
+
+    /**
+     * Returns the user logged in on this session.
+     *
+     * @return the username, or null before login.
+     */
+    String getCurrentUser() {
+        return currentUser;
+    }
+
+    /**
+     * Handles a message received while waiting for login.
+     *
+     * @param inMsg the message received.
+     * @return the login confirmation or failure, or the greeting again for any other message.
+     */
+    private Message checkLogin(Message inMsg) {
+        if (!(inMsg instanceof LoginMessage loginMessage)) {
+            return greeting();
+        }
+        ServerEvents.Login event = new ServerEvents.Login();
+        String username = loginMessage.getUsername();
+        String password = loginMessage.getPassword();
+        if (username != null && password != null
+                && password.contentEquals(new StringBuilder(username).reverse())) {
+            currentUser = username;
+            phase = Phase.CMD_WAIT;
+            room.join(member);
+            event.finish(username, true);
+            return new TextMessage(serverName, "Login successful.");
+        }
+        event.finish(username, false);
+        return new TextMessage(serverName, "Invalid username or password.");
+    }
+
+    /**
+     * Handles a message received after login.
+     *
+     * @param inMsg the message received.
+     * @return the reply to send back to the client, or null.
+     * @throws IOException if a broadcast cannot be encoded.
+     */
+    private Message command(Message inMsg) throws IOException {
+        return switch (inMsg.getMsgType()) {
+            case MsgType.FILECHUNK -> {
+                FileChunkMessage chunk = (FileChunkMessage) inMsg;
+                if (chunk.getUploadId() == null) {
+                    yield receiveChunk(chunk);
+                }
+                uploads.receive(currentUser, chunk);
+                yield null;
+            }
+            case MsgType.HELP -> new TextMessage(serverName, HELP);
+            case MsgType.LISTUSERS -> {
+                StringBuilder users = new StringBuilder("Users:\n");
+                for (String username : room.getUsernames()) {
+                    users.append("• ").append(username).append("\n");
+                }
+                yield new TextMessage(serverName, users.toString());
+            }
+            case MsgType.LOGOUT -> {
+                phase = Phase.CLOSED;
+                room.leave(member);
+                yield new TextMessage(serverName, GOOD_BYE);
+            }
+            case MsgType.OPTION -> {
+                if (inMsg instanceof OptionMessage optionMessage) {
+                    if (optionMessage.getOption() == null) {
+                        yield new TextMessage(serverName, "Option message names no option.");
+                    }
+                    String value = optionMessage.getValue();
+                    String problem = switch (optionMessage.getOption()) {
+                        case CIPHER_KEY -> {
+                            cipher_key = value;
+                            try {
+                                value = agreeKey(); // Never the key sent: the server's public key, or null.
+                            } catch (IllegalArgumentException e) {
+                                cipher = null;
+                                yield keepEnabled("Cipher key not valid for " + CipherEnum.AES_GCM + ": "
+                                        + e.getMessage());
+                            }
+                            yield keepEnabled(chooseCipher());
+                        }
+                        case CIPHER_ENABLE -> {
+                            cipher_enable = Boolean.parseBoolean(value);
+                            yield checkEnable();
+                        }
+                        case CIPHER_NAME -> {
+                            cipher_name = value;
+                            yield keepEnabled(chooseCipher());
+                        }
+                    };
+                    activeCipher = cipher_enable ? cipher : null;
+                    if (problem != null) {
+                        yield new TextMessage(serverName, problem);
+                    }
+                    // Acknowledge the setting, but never send a key back over the wire.
+                    yield new OptionMessage(serverName, optionMessage.getOption(), value);
+                }
+                yield null;
+            }
+            case MsgType.TEXT -> {
+                TextMessage text = (TextMessage) inMsg;
+                MessageCipher incoming = activeCipher;
+                if (incoming != null) {
+                    try {
+                        text = text.withText(incoming.decipher(text.getText()));
+                    } catch (IllegalArgumentException e) {
+                        yield new TextMessage(serverName, "Could not decrypt message: " + e.getMessage());
+                    }
+                }
+                // The sender's ID means nothing to the other members.
+                text.setRequestId(0);
+                room.broadcast(text);
+                yield null;
+            }
+            default -> null;
+        };
+    }
+
+    /**
+     * Sets a reply's request ID to that of the message it answers. Replies are sent as they are, never encrypted.
+     *
+     * @param inMsg the message received.
+     * @param reply the reply to send, or null.
+     * @return the reply to send, or null.
+     */
+    private Message answer(Message inMsg, Message reply) {
+        if (reply != null) {
+            reply.setRequestId(inMsg.getRequestId());
+        }
+        return reply;
+    }
+
+    /**
+     * Saves a file sent whole.
+     *
+     * @param fileMessage the file received.
+     * @return the name it was saved under, or why it could not be saved.
+     */
+    private Message saveFile(FileMessage fileMessage) {
+        try {
+            String fileName = UploadRegistry.fileName(fileMessage.getFileName());
+            ServerEvents.FileSave event = new ServerEvents.FileSave();
+            Manifest saved = store.save(fileName, fileMessage.getFileBytes());
+            event.finish(currentUser, fileName, saved.name(), saved.size(), "whole");
+            return new TextMessage(serverName, "File saved successfully as " + saved.name());
+        } catch (IOException e) {
+            return new TextMessage(serverName, "Error saving file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reports which bytes of a resumable upload the server still needs.
+     *
+     * @param request the client's request.
+     * @return the upload's status, or why it could not be found or finished.
+     */
+    private Message uploadStatus(UploadStatusMessage request) {
+        try {
+            return uploads.status(serverName, currentUser, request);
+        } catch (IOException e) {
+            return new TextMessage(serverName, "Error saving file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Agrees an AES_GCM key with the client, if CIPHER_NAME is AES_GCM: the CIPHER_KEY just set is then the client's
+     * X25519 public key, rather than a key, and the session's AES_GCM cipher is built for the key agreed. Any other
+     * CIPHER_KEY drops the cipher of an earlier exchange.
+     *
+     * @return the server's public key, to acknowledge the CIPHER_KEY with, or null if no key was agreed.
+     * @throws IllegalArgumentException if the CIPHER_KEY is not an X25519 public key.
+     */
+    private String agreeKey() throws IllegalArgumentException {
+        agreedCipher = null;
+        if (cipher_name == null || cipher_key == null
+                || !cipher_name.strip().equalsIgnoreCase(CipherEnum.AES_GCM.name())) {
+            return null;
+        }
+        KeyExchange exchange = new KeyExchange();
+        agreedCipher = new AesGcmCipher(exchange.agree(cipher_key));
+        return exchange.publicKey();
+    }
+
+    /**
+     * Finds the cipher named by the session's cipher options in the server's cache, building it there if no session
+     * has used it yet, so that its key tables are built when the options change rather than for every message. Until
+     * both the name and the key are set, the session has no cipher. AES_GCM is the exception: its cipher is the
+     * session's own, built by {@link #agreeKey()}, and not shared through the cache.
+     *
+     * @return null if the options are incomplete or name a valid cipher, or else what is wrong with them.
+     */
+    private String chooseCipher() {
+        cipher = null;
+        if (cipher_name == null || cipher_key == null) {
+            return null;
+        }
+        CipherEnum name;
+        try {
+            name = CipherEnum.valueOf(cipher_name.strip().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return "Unknown cipher '" + cipher_name + "'.";
+        }
+        if (name == CipherEnum.AES_GCM) {
+            if (agreedCipher == null) {
+                return "AES_GCM needs a key exchange: send CIPHER_KEY with your X25519 public key.";
+            }
+            cipher = agreedCipher;
+            return null;
+        }
+        try {
+            MessageCipher chosen = ciphers.get(name, cipher_key);
+            chosen.encipher(CharacterCipher.ALPHABET); // Some Playfair keys leave letters out of the matrix.
+            cipher = chosen;
+            return null;
+        } catch (IllegalArgumentException e) {
+            return "Cipher key not valid for " + name + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * Disables encryption if it was enabled but the session no longer has a valid cipher, so that it is never turned
+     * off, or later back on, without the client being told.
+     *
+     * @param problem why the last setting failed, or null.
+     * @return the problem, followed by the news that encryption was disabled if it was.
+     */
+    private String keepEnabled(String problem) {
+        if (!cipher_enable || cipher != null) {
+            return problem;
+        }
+        cipher_enable = false;
+        String disabled = "Encryption disabled: set a valid CIPHER_NAME and CIPHER_KEY, then enable it again.";
+        return problem == null ? disabled : problem + " " + disabled;
+    }
+
+    /**
+     * Refuses to enable encryption while the session has no valid cipher, leaving it disabled.
+     *
+     * @return null if encryption is disabled or can be enabled, or else why it cannot be.
+     */
+    private String checkEnable() {
+        if (cipher_enable && cipher == null) {
+            cipher_enable = false;
+            return "Cannot enable encryption: set a valid CIPHER_NAME and CIPHER_KEY first.";
+        }
+        return null;
+    }
+
+    /**
+     * Passes a chunk of a file upload on to the store. A chunk at offset 0 starts a new upload, abandoning any
+     * unfinished one; every other chunk must continue the current upload exactly where the previous chunk ended.
+     * The file is saved under its name once the last chunk arrives.
+     *
+     * @param chunk the chunk received.
+     * @return the result once the last chunk is written or the upload fails, otherwise null.
+     */
+    private Message receiveChunk(FileChunkMessage chunk) {
+        String fileName;
+        try {
+            fileName = UploadRegistry.fileName(chunk.getFileName());
+        } catch (IOException e) {
+            return new TextMessage(serverName, "Error saving file: " + e.getMessage());
+        }
+        try {
+            if (chunk.getOffset() == 0) {
+                closeUpload();
+                uploadName = fileName;
+                upload = store.newWriter();
+            } else if (!fileName.equals(uploadName)) {
+                throw new IOException("no upload of " + fileName + " in progress.");
+            } else if (upload == null) {
+                // Already failed and reported; drop the rest.
+                if (chunk.isLast()) {
+                    uploadName = null;
+                }
+                return null;
+            } else if (chunk.getOffset() != upload.size()) {
+                throw new IOException("expected offset " + upload.size() + " but got " + chunk.getOffset() + ".");
+            }
+            if (!chunk.isIntact()) {
+                throw new IOException("chunk at offset " + chunk.getOffset() + " failed its checksum.");
+            }
+            upload.write(ByteBuffer.wrap(chunk.getData()));
+            if (!chunk.isLast()) {
+                return null;
+            }
+            ServerEvents.FileSave event = new ServerEvents.FileSave();
+            Manifest saved = upload.commit(fileName);
+            event.finish(currentUser, fileName, saved.name(), saved.size(), "chunked");
+            closeUpload();
+            return new TextMessage(serverName, "File saved successfully as " + saved.name());
+        } catch (IOException e) {
+            closeUpload();
+            if (!chunk.isLast()) {
+                uploadName = fileName;
+            }
+            return new TextMessage(serverName, "Error saving file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Looks up a saved file for a download request and prepares the region to send.
+     *
+     * @param request the client's request.
+     * @return the DownloadMessage announcing the bytes to be sent with the region holding them, or an error message.
+     * @throws IOException if the announcement cannot be encoded.
+     */
+    private Answer prepareDownload(DownloadMessage request) throws IOException {
+        try {
+            String fileName = UploadRegistry.fileName(request.getFileName());
+            Manifest file = store.open(fileName);
+            long size = file.size();
+            ByteRange requested = request.getRange() == null ? new ByteRange(0, size) : request.getRange();
+            if (requested.start() > size) {
+                throw new IOException("range " + requested + " is outside the file's " + size + " bytes.");
+            }
+            ByteRange range = new ByteRange(requested.start(), Math.min(requested.end(), size));
+            Message reply = new DownloadMessage(serverName, fileName, range, size);
+            reply.setRequestId(request.getRequestId()); // Encoded here, into the region.
+            return new Answer(reply, new FileRegion(Frames.encode(reply),
+                    store.segments(file, range.start(), range.end())));
+        } catch (IOException e) {
+            return new Answer(answer(request, new TextMessage(serverName, "Error reading file: " + e.getMessage())),
+                    null);
+        }
+    }
+
+    /**
+     * Forgets the current upload, if any. Chunks it already stored stay in the store.
+     */
+    private void closeUpload() {
+        upload = null;
+        uploadName = null;
+    }
+}
@@ -0,0 +1,26 @@
+package sparta.clack.endpoint;
+
+/**
+ * An enumeration of what a {@link ChatRoom} does when a member's outbound queue is full, i.e. when a client reads
+ * more slowly than the room is sending to it.
+ */
+public enum SlowConsumerPolicy {
+    /**
+     * Discard the oldest queued broadcast to make room for the new one. The slow client misses messages but stays
+     * connected, and nobody else is affected. Replies to the client's own commands are never discarded.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Disconnect the slow client.
+     */
+    DISCONNECT,
+
+    /**
+     * Make the sender wait until the slow client's queue has room. The wait is bounded by the room's block
+     * timeout; a client that is still full after that is disconnected. Only senders on virtual threads (sessions of
+     * the blocking {@link Server}) wait: a sender on an event loop never does, since every other connection on the
+     * loop would wait with it, so a full queue disconnects the client at once.
+     */
+    BLOCK
+}
@@ -0,0 +1,478 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.message.Message;
+import sparta.clack.message.MsgType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A server's log of the messages it receives and sends, written to a file in the background.
+ * <p>
+ * Connection threads only {@link #record(long, boolean, Message, long)} a message: its type, user, request ID and
+ * size are copied into the next slot of a fixed ring of primitive arrays, and nothing is formatted or allocated. A
+ * slot is claimed with a compare-and-set, so recording never takes a lock, and if the ring is full the record is
+ * dropped and counted rather than making the connection wait.
+ * <p>
+ * A single background thread drains the ring, formats one line per record, and appends the lines to the log file.
+ * It wakes every 100 ms, or sooner once a quarter of the ring has filled, so it writes in large batches and seldom
+ * competes with the connections for a core. Once the file reaches its size limit it is renamed {@code <name>.1}
+ * (shifting older files up, and deleting the oldest) and a new file is started.
+ * <p>
+ * What is recorded is controlled at runtime by the {@link Level} and the sampling rate. Control messages (logins,
+ * commands, replies) are always recorded unless the level is {@link Level#OFF}; data messages (TEXT and file
+ * contents) are recorded at {@link Level#ALL} only, and then only one in {@link #getSampleEvery()} of them, so the
+ * log can be left on in production without recording every chat line.
+ * <p>
+ * A TrafficLog is thread-safe.
+ */
+public final class TrafficLog implements Closeable {
+    /**
+     * How much traffic to record.
+     */
+    public enum Level {
+        /**
+         * Nothing.
+         */
+        OFF,
+
+        /**
+         * Control messages only: everything but TEXT, FILE and FILECHUNK messages.
+         */
+        CONTROL,
+
+        /**
+         * Control messages, and a sample of data messages.
+         */
+        ALL
+    }
+
+    /**
+     * The default number of records the ring holds.
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * The default size at which the log file is rotated.
+     */
+    public static final long DEFAULT_MAX_FILE_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * The default number of rotated files kept besides the current one.
+     */
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    private static final long DRAIN_INTERVAL_NANOS = 100_000_000;
+    private static final int DIRECTION_OUT = 0x80;
+    private static final MsgType[] TYPES = MsgType.values();
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final int mask;
+    private volatile Level level = Level.ALL;
+    private volatile int sampleEvery = 1;
+
+    // The ring. A slot's sequence is its claim number while free, and one more once the record in it is published.
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final long[] connections;
+    private final long[] requestIds;
+    private final long[] sizes;
+    private final byte[] kinds; // Message type ordinal, with DIRECTION_OUT set for sent messages.
+    private final String[] usernames;
+    private final AtomicLong tail = new AtomicLong(); // The next claim number.
+    private long head = 0; // The next record to drain; only the drain thread touches it.
+
+    private final AtomicLong lastConnectionId = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean closed = false;
+    private volatile Thread drainer = null;
+
+    // Owned by the drain thread.
+    private final StringBuilder lines = new StringBuilder();
+    private FileChannel out = null;
+    private long fileBytes = 0;
+    private long droppedReported = 0;
+    private long formattedSecond = Long.MIN_VALUE;
+    private String secondPrefix = "";
+
+    /**
+     * Creates a traffic log. Nothing is written until {@link #start()} is called.
+     *
+     * @param file         the log file; its directory is created if necessary.
+     * @param capacity     the number of records the ring holds, rounded up to a power of two (at least 2).
+     * @param maxFileBytes the size at which the file is rotated.
+     * @param maxFiles     the number of rotated files to keep.
+     * @throws IllegalArgumentException if capacity or maxFileBytes is less than 1, or maxFiles is negative.
+     */
+    public TrafficLog(Path file, int capacity, long maxFileBytes, int maxFiles) throws IllegalArgumentException {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30.");
+        }
+        if (maxFileBytes < 1) {
+            throw new IllegalArgumentException("maxFileBytes cannot be less than 1.");
+        }
+        if (maxFiles < 0) {
+            throw new IllegalArgumentException("maxFiles cannot be negative.");
+        }
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        // At least two slots, or a published record would look like a free slot one lap ahead.
+        int slots = Math.max(2, Integer.highestOneBit(capacity) == capacity ? capacity
+                : Integer.highestOneBit(capacity) << 1);
+        this.mask = slots - 1;
+        this.sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            sequences.set(i, i);
+        }
+        this.times = new long[slots];
+        this.connections = new long[slots];
+        this.requestIds = new long[slots];
+        this.sizes = new long[slots];
+        this.kinds = new byte[slots];
+        this.usernames = new String[slots];
+    }
+
+    /**
+     * Creates a traffic log with the default capacity, file size and number of files.
+     *
+     * @param file the log file; its directory is created if necessary.
+     */
+    public TrafficLog(Path file) {
+        this(file, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * Opens the log file and starts the background thread that writes to it. Records made before this are kept,
+     * up to the ring's capacity. The log is closed, and so written out, when the JVM shuts down, e.g. on Ctrl + C.
+     *
+     * @throws IOException           if the file cannot be opened.
+     * @throws IllegalStateException if already started or closed.
+     */
+    public synchronized void start() throws IOException {
+        if (drainer != null || closed) {
+            throw new IllegalStateException("Traffic log already started.");
+        }
+        openFile();
+        drainer = Thread.ofPlatform().name("clack-traffic-log").daemon().start(this::drain);
+        Runtime.getRuntime().addShutdownHook(
+                Thread.ofPlatform().name("clack-traffic-log-close").unstarted(this::close));
+    }
+
+    /**
+     * Returns the current level.
+     *
+     * @return what is being recorded.
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Changes what is recorded. Takes effect at once.
+     *
+     * @param level the new level.
+     */
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * Returns the sampling rate for data messages.
+     *
+     * @return n, where one in n data messages is recorded at {@link Level#ALL}.
+     */
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    /**
+     * Changes the sampling rate for data messages. Takes effect at once.
+     *
+     * @param sampleEvery n, to record one in n data messages at random; 1 records them all.
+     * @throws IllegalArgumentException if sampleEvery is less than 1.
+     */
+    public void setSampleEvery(int sampleEvery) throws IllegalArgumentException {
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("sampleEvery cannot be less than 1.");
+        }
+        this.sampleEvery = sampleEvery;
+    }
+
+    /**
+     * Returns the number of records dropped because the ring was full.
+     *
+     * @return the dropped count.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of records written to the log file.
+     *
+     * @return the written count.
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Hands out a number to identify a connection by in the log.
+     *
+     * @return a new connection number, starting from 1.
+     */
+    long newConnectionId() {
+        return lastConnectionId.incrementAndGet();
+    }
+
+    /**
+     * Records a message, if the level and sampling rate say it should be. Never blocks and allocates nothing.
+     *
+     * @param connection the connection's number, from {@link #newConnectionId()}.
+     * @param outbound   true if the message was sent, false if it was received.
+     * @param msg        the message.
+     * @param bytes      its length on the wire, frame header included, plus any file bytes that follow it.
+     */
+    void record(long connection, boolean outbound, Message msg, long bytes) {
+        Level current = level;
+        if (current == Level.OFF) {
+            return;
+        }
+        MsgType type = msg.getMsgType();
+        if (type == MsgType.TEXT || type == MsgType.FILE || type == MsgType.FILECHUNK) {
+            int rate = sampleEvery;
+            if (current != Level.ALL || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0)) {
+                return;
+            }
+        }
+        long claim;
+        int slot;
+        while (true) {
+            claim = tail.get();
+            slot = (int) claim & mask;
+            long sequence = sequences.get(slot);
+            if (sequence < claim) {
+                dropped.increment(); // Still holds a record the drain thread has not reached.
+                return;
+            }
+            if (sequence == claim && tail.compareAndSet(claim, claim + 1)) {
+                break;
+            }
+        }
+        times[slot] = System.currentTimeMillis();
+        connections[slot] = connection;
+        requestIds[slot] = msg.getRequestId();
+        sizes[slot] = bytes;
+        kinds[slot] = (byte) (type.ordinal() | (outbound ? DIRECTION_OUT : 0));
+        usernames[slot] = msg.getUsername();
+        sequences.set(slot, claim + 1); // Publishes the record to the drain thread.
+        if ((claim & (mask >> 2)) == 0) {
+            // A quarter of the ring filled since the last wake-up; drain before it overflows.
+            Thread thread = drainer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread once it has written everything recorded so far, and closes the file.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = drainer;
+        }
+        if (thread == null) {
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes records to the file until the log is closed. Runs on the drain thread.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                boolean closing = closed;
+                if (drainOnce() == 0) {
+                    if (closing) {
+                        return;
+                    }
+                    LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Traffic log " + file + " failed, logging stopped: " + e.getMessage());
+            level = Level.OFF;
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // Nothing more can be written anyway.
+            }
+        }
+    }
+
+    /**
+     * Formats every published record, and a note of any dropped since the last pass, and writes them.
+     *
+     * @return the number of records written.
+     * @throws IOException if writing or rotating the file fails.
+     */
+    private int drainOnce() throws IOException {
+        int count = 0;
+        while (true) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            formatRecord(slot);
+            usernames[slot] = null;
+            sequences.set(slot, head + mask + 1); // Frees the slot for the claim one lap ahead.
+            head++;
+            count++;
+        }
+        long droppedNow = dropped.sum();
+        if (droppedNow != droppedReported) {
+            appendTime(System.currentTimeMillis());
+            lines.append(" ").append(droppedNow - droppedReported).append(" records dropped, log ring full\n");
+            droppedReported = droppedNow;
+        }
+        if (!lines.isEmpty()) {
+            writeLines();
+            written.addAndGet(count);
+        }
+        return count;
+    }
+
+    /**
+     * Appends one record as a line, e.g. {@code 2024-02-29T12:34:56.123Z #12 <= TEXT bob req=7 41 B}.
+     *
+     * @param slot the record's slot.
+     */
+    private void formatRecord(int slot) {
+        appendTime(times[slot]);
+        int kind = kinds[slot] & 0xFF;
+        lines.append(" #").append(connections[slot])
+                .append((kind & DIRECTION_OUT) != 0 ? " => " : " <= ")
+                .append(TYPES[kind & ~DIRECTION_OUT])
+                .append(' ').append(usernames[slot]);
+        if (requestIds[slot] != 0) {
+            lines.append(" req=").append(Long.toUnsignedString(requestIds[slot]));
+        }
+        lines.append(' ').append(sizes[slot]).append(" B\n");
+    }
+
+    /**
+     * Appends a time as an ISO-8601 instant with milliseconds. The date and time up to the second are formatted
+     * once per second and reused, since that is most of the cost of a line.
+     *
+     * @param millis the time, in milliseconds since the epoch.
+     */
+    private void appendTime(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != formattedSecond) {
+            String formatted = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(second));
+            secondPrefix = formatted.substring(0, formatted.length() - 1); // Without the 'Z'.
+            formattedSecond = second;
+        }
+        int fraction = Math.floorMod(millis, 1000);
+        lines.append(secondPrefix).append('.')
+                .append((char) ('0' + fraction / 100))
+                .append((char) ('0' + fraction / 10 % 10))
+                .append((char) ('0' + fraction % 10))
+                .append('Z');
+    }
+
+    /**
+     * Writes the formatted lines, rotating the file first if they would take it past its size limit.
+     *
+     * @throws IOException if writing or rotating fails.
+     */
+    private void writeLines() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        lines.setLength(0);
+        if (fileBytes > 0 && fileBytes + bytes.remaining() > maxFileBytes) {
+            rotate();
+        }
+        while (bytes.hasRemaining()) {
+            fileBytes += out.write(bytes);
+        }
+    }
+
+    /**
+     * Opens the log file for appending, creating its directory if necessary.
+     *
+     * @throws IOException if the file cannot be opened.
+     */
+    private void openFile() throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileBytes = out.size();
+    }
+
+    /**
+     * Closes the log file, renames it and the rotated files before it up by one, and opens a new one.
+     *
+     * @throws IOException if a file cannot be renamed or opened.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        if (maxFiles == 0) {
+            Files.delete(file);
+        } else {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if (Files.exists(rotated(i))) {
+                    Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        openFile();
+    }
+
+    /**
+     * Returns the name of a rotated file.
+     *
+     * @param number its number, 1 for the most recent.
+     * @return the log file's path with the number appended.
+     */
+    private Path rotated(int number) {
+        return file.resolveSibling(file.getFileName() + "." + number);
+    }
+}
@@ -0,0 +1,357 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.message.ByteRange;
+import sparta.clack.message.FileChunkMessage;
+import sparta.clack.message.UploadStatusMessage;
+import sparta.clack.store.ContentStore;
+import sparta.clack.store.Manifest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The resumable uploads in progress on a server, shared by all of its sessions.
+ * <p>
+ * Each upload is written to a part file named after its ID, at each chunk's own offset, so chunks may arrive in any
+ * order and over any number of connections. An upload belongs to the user logged in on the session that started it, and
+ * status requests and chunks for it from anyone else are refused, since upload IDs can be guessed. A chunk is recorded
+ * as received only once its checksum has been verified and it has been written. When a status request finds nothing
+ * missing, the part file is saved to the server's {@link ContentStore} and deleted, and the upload is forgotten. The
+ * registry also gives sessions that store, for files that arrive any other way.
+ * <p>
+ * Progress is kept in memory: unfinished uploads survive reconnects but not a server restart, after which they
+ * start again from the beginning. An upload neither asked about nor sent a chunk for within the idle timeout is
+ * abandoned, and its part file deleted, the next time a new upload starts, so uploads that were walked away from do
+ * not hold {@link #MAX_UPLOADS} slots, or disk space, for ever. An UploadRegistry is thread-safe.
+ */
+final class UploadRegistry {
+    /**
+     * The largest chunk size accepted; a chunk and its header must fit in one frame.
+     */
+    static final int MAX_CHUNK_SIZE = Frames.MAX_BODY_LENGTH / 2;
+
+    /**
+     * The most missing ranges listed in one status reply.
+     */
+    static final int MAX_RANGES_PER_REPLY = 1024;
+
+    /**
+     * The most chunks one upload may be split into; with the default chunk size, files of up to 64 GiB.
+     */
+    static final int MAX_CHUNK_COUNT = 1 << 20;
+
+    /**
+     * The most unfinished uploads kept at once, across all users.
+     */
+    static final int MAX_UPLOADS = 256;
+
+    /**
+     * The default time an upload may go unused before it is abandoned, in milliseconds.
+     */
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 15 * 60_000;
+
+    private static final Pattern UPLOAD_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+
+    private final ContentStore store;
+    private final Path partDirectory;
+    private final long idleTimeoutNanos;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty registry.
+     *
+     * @param store             the store completed files are saved to.
+     * @param partDirectory     the directory to write part files in.
+     * @param idleTimeoutMillis how long an upload may go unused before it is abandoned, in milliseconds.
+     */
+    UploadRegistry(ContentStore store, Path partDirectory, long idleTimeoutMillis) {
+        this.store = store;
+        this.partDirectory = partDirectory;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    }
+
+    /**
+     * Creates an empty registry with the default idle timeout.
+     *
+     * @param store         the store completed files are saved to.
+     * @param partDirectory the directory to write part files in.
+     */
+    UploadRegistry(ContentStore store, Path partDirectory) {
+        this(store, partDirectory, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the store completed files are saved to.
+     *
+     * @return the server's file store.
+     */
+    ContentStore getStore() {
+        return store;
+    }
+
+    /**
+     * Answers a status request, starting the upload if it is new. If the upload is already known under the same ID
+     * but with a different name, size or chunk size, it starts over. If nothing is missing, the file is saved.
+     *
+     * @param serverName the name to use in the reply.
+     * @param owner      the user logged in on the session that sent the request.
+     * @param query      the client's request.
+     * @return the reply listing the missing ranges; an empty list means the file has been saved, under the name
+     * the reply holds.
+     * @throws IOException if the request is invalid, the upload belongs to another user, too many uploads are in
+     *                     progress, or the file cannot be saved.
+     */
+    UploadStatusMessage status(String serverName, String owner, UploadStatusMessage query) throws IOException {
+        String id = query.getUploadId();
+        String fileName = fileName(query.getFileName());
+        long size = query.getSize();
+        int chunkSize = query.getChunkSize();
+        if (id == null || !UPLOAD_ID.matcher(id).matches()) {
+            throw new IOException("invalid upload ID.");
+        }
+        if (size < 0 || chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE
+                || size > (long) MAX_CHUNK_COUNT * chunkSize) {
+            throw new IOException("invalid size " + size + " or chunk size " + chunkSize + ".");
+        }
+        if (!uploads.containsKey(id)) {
+            evictIdle();
+            if (uploads.size() >= MAX_UPLOADS) {
+                throw new IOException("too many uploads in progress; try again later.");
+            }
+        }
+        Upload upload = uploads.compute(id, (key, existing) -> {
+            if (existing != null && (!existing.owner.equals(owner) || existing.matches(fileName, size, chunkSize))) {
+                return existing;
+            }
+            if (existing != null) {
+                existing.discard();
+            }
+            return new Upload(owner, fileName, size, chunkSize, partDirectory.resolve(id + ".part"));
+        });
+        if (!upload.owner.equals(owner)) {
+            throw new IOException("upload " + id + " belongs to another user.");
+        }
+        upload.touch();
+        List<ByteRange> missing = upload.missing(MAX_RANGES_PER_REPLY);
+        String savedName = fileName;
+        if (missing.isEmpty()) {
+            ServerEvents.FileSave event = new ServerEvents.FileSave();
+            Manifest saved = upload.finish();
+            event.finish(owner, fileName, saved.name(), saved.size(), "resumable");
+            savedName = saved.name();
+            uploads.remove(id, upload);
+        }
+        return new UploadStatusMessage(serverName, id, savedName, size, chunkSize, missing);
+    }
+
+    /**
+     * Verifies a chunk of a resumable upload and writes it to the upload's part file. Chunks for unknown uploads, and
+     * chunks that do not fit the upload or fail their checksum, are dropped; the client finds out which chunks are
+     * still needed from its next status request. So are chunks for another user's upload.
+     *
+     * @param owner the user logged in on the session that received the chunk.
+     * @param chunk the chunk received.
+     * @return true if the chunk was written and recorded.
+     */
+    boolean receive(String owner, FileChunkMessage chunk) {
+        Upload upload = uploads.get(chunk.getUploadId());
+        if (upload == null) {
+            return false;
+        }
+        if (!upload.owner.equals(owner)) {
+            System.err.println("Upload " + chunk.getUploadId() + ": chunk from " + owner
+                    + ", who did not start it, dropped.");
+            return false;
+        }
+        if (!chunk.isIntact()) {
+            System.err.println("Upload " + chunk.getUploadId() + ": chunk at " + chunk.getOffset()
+                    + " failed its checksum, dropped.");
+            return false;
+        }
+        try {
+            return upload.write(chunk.getOffset(), chunk.getData());
+        } catch (IOException e) {
+            System.err.println("Upload " + chunk.getUploadId() + ": could not write chunk at " + chunk.getOffset()
+                    + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of unfinished uploads.
+     *
+     * @return the number of uploads in progress.
+     */
+    int size() {
+        return uploads.size();
+    }
+
+    /**
+     * Abandons every upload that has gone unused for longer than the idle timeout, deleting its part file.
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Upload> entry : uploads.entrySet()) {
+            Upload upload = entry.getValue();
+            if (now - upload.lastUsed > idleTimeoutNanos && uploads.remove(entry.getKey(), upload)) {
+                upload.abandon();
+            }
+        }
+    }
+
+    /**
+     * Reduces a requested file name to its last path element, the form the store accepts.
+     *
+     * @param requested the name sent by the client.
+     * @return the name to save as.
+     * @throws IOException if there is no usable name.
+     */
+    static String fileName(String requested) throws IOException {
+        Path name = requested == null ? null : Path.of(requested).getFileName();
+        if (name == null || name.toString().isEmpty() || name.toString().equals("..")) {
+            throw new IOException("no file name.");
+        }
+        return name.toString();
+    }
+
+    /**
+     * One upload in progress: its part file and which of its chunks have arrived.
+     */
+    private final class Upload {
+        private final String owner;
+        private final String fileName;
+        private final long size;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final Path partFile;
+        private final BitSet received;
+        private FileChannel channel = null;
+        private Manifest saved = null;
+        private boolean done = false;
+        private volatile long lastUsed = System.nanoTime();
+
+        Upload(String owner, String fileName, long size, int chunkSize, Path partFile) {
+            this.owner = owner;
+            this.fileName = fileName;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.partFile = partFile;
+            this.received = new BitSet();
+        }
+
+        boolean matches(String fileName, long size, int chunkSize) {
+            return this.fileName.equals(fileName) && this.size == size && this.chunkSize == chunkSize;
+        }
+
+        /**
+         * Writes a chunk at its offset and records it, if it is a chunk of this upload.
+         */
+        synchronized boolean write(long offset, byte[] data) throws IOException {
+            if (done || offset % chunkSize != 0 || offset / chunkSize >= chunkCount
+                    || data.length != Math.min(chunkSize, size - offset)) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            FileChannel out = open();
+            while (buffer.hasRemaining()) {
+                out.write(buffer, offset + buffer.position());
+            }
+            received.set((int) (offset / chunkSize));
+            touch();
+            return true;
+        }
+
+        /**
+         * Records that the upload is still in use.
+         */
+        void touch() {
+            lastUsed = System.nanoTime();
+        }
+
+        /**
+         * Lists the byte ranges of the chunks not yet received, merging neighbouring chunks into one range.
+         */
+        synchronized List<ByteRange> missing(int maxRanges) {
+            List<ByteRange> missing = new ArrayList<>();
+            int from = received.nextClearBit(0);
+            while (from < chunkCount && missing.size() < maxRanges) {
+                int next = received.nextSetBit(from);
+                int to = next < 0 ? chunkCount : next;
+                missing.add(new ByteRange((long) from * chunkSize, Math.min((long) to * chunkSize, size)));
+                from = received.nextClearBit(to);
+            }
+            return missing;
+        }
+
+        /**
+         * Closes the part file, saves it to the store and deletes it. If already finished, returns the same result.
+         */
+        synchronized Manifest finish() throws IOException {
+            if (saved != null) {
+                return saved;
+            }
+            if (done) {
+                throw new IOException("upload of " + fileName + " was restarted.");
+            }
+            open().close();
+            saved = store.save(fileName, partFile);
+            done = true;
+            try {
+                Files.delete(partFile);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + partFile + ": " + e.getMessage());
+            }
+            return saved;
+        }
+
+        /**
+         * Closes the part file and stops accepting chunks, leaving the part file to be overwritten.
+         */
+        synchronized void discard() {
+            done = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Being replaced anyway.
+                }
+            }
+        }
+
+        /**
+         * Stops accepting chunks and deletes the part file, for an upload that has been walked away from.
+         */
+        synchronized void abandon() {
+            discard();
+            try {
+                Files.deleteIfExists(partFile);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + partFile + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Opens the part file the first time it is needed, discarding anything left in it from an earlier upload.
+         */
+        private FileChannel open() throws IOException {
+            if (channel == null) {
+                Files.createDirectories(partDirectory);
+                channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            return channel;
+        }
+    }
+}
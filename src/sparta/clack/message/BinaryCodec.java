@@ -0,0 +1,410 @@
+package sparta.clack.message;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes Messages in a compact binary layout, written field by field with no reflection.
+ * <p>
+ * Every encoding starts with the same fields:
+ * <pre>
+ *   type      1 byte     message type code (see the TYPE_ constants)
+ *   seconds   varlong    timestamp's epoch second, zigzag-encoded
+ *   nanos     varint     timestamp's nanosecond adjustment
+ *   username  string
+ *   requestId varlong    0 if the message is not a numbered request or a reply to one
+ * </pre>
+ * followed by the fields of the message type:
+ * <pre>
+ *   DOWNLOAD  fileName string, range (1 byte: 0 for null, else 1 followed by start varlong, length varlong),
+ *             fileSize plus one varlong
+ *   FILE      fileName string, contents bytes
+ *   FILECHUNK uploadId string, fileName string, offset varlong, last (1 byte: 0 or 1),
+ *             checksum (4 bytes, big-endian), data bytes
+ *   LOGIN     password string
+ *   OPTION    option (1 byte: ordinal + 1; 0 is not a valid code), value string
+ *   TEXT      text string
+ *   UPLOADSTATUS  uploadId string, fileName string, size varlong, chunkSize varint,
+ *             missing ranges (varint count plus one, 0 for null; then start varlong, length varlong per range)
+ *   HELP, LISTUSERS, LOGOUT   (nothing)
+ * </pre>
+ * The timestamp must lie between {@link Instant#MIN} and {@link Instant#MAX}, with nanos below one billion, and an
+ * OPTION message must have an option: anything else is rejected when decoding.
+ * <p>
+ * A varint is an unsigned LEB128 integer: 7 bits per byte, low bits first, high bit set on every byte but the last.
+ * A string is a varint holding its UTF-8 length plus one (0 means null) followed by the UTF-8 bytes; a bytes field
+ * is a varint length followed by the raw bytes.
+ */
+public final class BinaryCodec implements MessageCodec {
+    private static final byte TYPE_FILE = 1;
+    private static final byte TYPE_HELP = 2;
+    private static final byte TYPE_LISTUSERS = 3;
+    private static final byte TYPE_LOGIN = 4;
+    private static final byte TYPE_LOGOUT = 5;
+    private static final byte TYPE_OPTION = 6;
+    private static final byte TYPE_TEXT = 7;
+    private static final byte TYPE_FILECHUNK = 8;
+    private static final byte TYPE_UPLOADSTATUS = 9;
+    private static final byte TYPE_DOWNLOAD = 10;
+
+    private static final OptionEnum[] OPTIONS = OptionEnum.values();
+
+    /**
+     * Creates a binary codec. Use {@link MessageCodec#BINARY} rather than creating new instances.
+     */
+    BinaryCodec() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer encode(Message msg, int headroom) throws IOException {
+        int sizeHint = 64;
+        if (msg instanceof FileMessage fileMessage) {
+            sizeHint += fileMessage.getFileBytes().length;
+        } else if (msg instanceof FileChunkMessage chunk) {
+            sizeHint += chunk.getData().length;
+        }
+        Writer out = new Writer(headroom, sizeHint);
+        Instant timestamp = msg.getTimestamp();
+        out.writeByte(typeCode(msg.getMsgType()));
+        out.writeVarLong((timestamp.getEpochSecond() << 1) ^ (timestamp.getEpochSecond() >> 63));
+        out.writeVarLong(timestamp.getNano());
+        out.writeString(msg.getUsername());
+        out.writeVarLong(msg.getRequestId());
+        switch (msg) {
+            case DownloadMessage download -> {
+                out.writeString(download.getFileName());
+                ByteRange range = download.getRange();
+                out.writeByte(range == null ? 0 : 1);
+                if (range != null) {
+                    out.writeVarLong(range.start());
+                    out.writeVarLong(range.length());
+                }
+                out.writeVarLong(download.getFileSize() + 1);
+            }
+            case FileMessage fileMessage -> {
+                out.writeString(fileMessage.getFileName());
+                out.writeBytes(fileMessage.getFileBytes());
+            }
+            case FileChunkMessage chunk -> {
+                out.writeString(chunk.getUploadId());
+                out.writeString(chunk.getFileName());
+                out.writeVarLong(chunk.getOffset());
+                out.writeByte(chunk.isLast() ? 1 : 0);
+                out.writeInt(chunk.getChecksum());
+                out.writeBytes(chunk.getData());
+            }
+            case LoginMessage loginMessage -> out.writeString(loginMessage.getPassword());
+            case OptionMessage optionMessage -> {
+                OptionEnum option = optionMessage.getOption();
+                if (option == null) {
+                    throw new IOException("Option message has no option.");
+                }
+                out.writeByte(option.ordinal() + 1);
+                out.writeString(optionMessage.getValue());
+            }
+            case TextMessage textMessage -> out.writeString(textMessage.getText());
+            case UploadStatusMessage status -> {
+                out.writeString(status.getUploadId());
+                out.writeString(status.getFileName());
+                out.writeVarLong(status.getSize());
+                out.writeVarLong(status.getChunkSize());
+                List<ByteRange> missing = status.getMissing();
+                out.writeVarLong(missing == null ? 0 : missing.size() + 1L);
+                if (missing != null) {
+                    for (ByteRange range : missing) {
+                        out.writeVarLong(range.start());
+                        out.writeVarLong(range.length());
+                    }
+                }
+            }
+            default -> {
+                // HELP, LISTUSERS and LOGOUT carry nothing beyond the common fields.
+            }
+        }
+        return out.toBuffer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message decode(ByteBuffer body) throws IOException {
+        ByteBuffer in = body.duplicate();
+        try {
+            byte type = in.get();
+            long zigzag = readVarLong(in);
+            long seconds = (zigzag >>> 1) ^ -(zigzag & 1);
+            long nanos = readVarLong(in);
+            if (seconds < Instant.MIN.getEpochSecond() || seconds > Instant.MAX.getEpochSecond()
+                    || nanos < 0 || nanos >= 1_000_000_000L) {
+                throw new IOException("Timestamp out of range.");
+            }
+            Instant timestamp = Instant.ofEpochSecond(seconds, nanos);
+            String username = readString(in);
+            long requestId = readVarLong(in);
+            Message msg = switch (type) {
+                case TYPE_DOWNLOAD -> readDownload(in, username, timestamp);
+                case TYPE_FILE -> new FileMessage(username, readString(in), readBytes(in), timestamp);
+                case TYPE_FILECHUNK -> {
+                    String uploadId = readString(in);
+                    String fileName = readString(in);
+                    long offset = readVarLong(in);
+                    byte last = in.get();
+                    int checksum = in.getInt();
+                    if (offset < 0 || (last & ~1) != 0) {
+                        throw new IOException("Malformed file chunk.");
+                    }
+                    yield new FileChunkMessage(username, uploadId, fileName, offset, readBytes(in), last == 1,
+                            checksum, timestamp);
+                }
+                case TYPE_HELP -> new HelpMessage(username, timestamp);
+                case TYPE_LISTUSERS -> new ListUsersMessage(username, timestamp);
+                case TYPE_LOGIN -> new LoginMessage(username, readString(in), timestamp);
+                case TYPE_LOGOUT -> new LogoutMessage(username, timestamp);
+                case TYPE_OPTION -> {
+                    int option = in.get();
+                    if (option < 1 || option > OPTIONS.length) {
+                        throw new IOException("Unknown option code " + option + ".");
+                    }
+                    yield new OptionMessage(username, OPTIONS[option - 1], readString(in), timestamp);
+                }
+                case TYPE_TEXT -> new TextMessage(username, readString(in), timestamp);
+                case TYPE_UPLOADSTATUS -> readUploadStatus(in, username, timestamp);
+                default -> throw new IOException("Unknown message type code " + type + ".");
+            };
+            if (in.hasRemaining()) {
+                throw new IOException(in.remaining() + " unexpected bytes after message.");
+            }
+            msg.setRequestId(requestId);
+            return msg;
+        } catch (BufferUnderflowException | IllegalArgumentException | ArithmeticException
+                 | java.time.DateTimeException e) {
+            throw new IOException("Truncated or malformed message.", e);
+        }
+    }
+
+    /**
+     * Maps a message type to its wire code.
+     *
+     * @param msgType the message type.
+     * @return the code written for that type.
+     */
+    private static byte typeCode(MsgType msgType) {
+        return switch (msgType) {
+            case DOWNLOAD -> TYPE_DOWNLOAD;
+            case FILE -> TYPE_FILE;
+            case FILECHUNK -> TYPE_FILECHUNK;
+            case HELP -> TYPE_HELP;
+            case LISTUSERS -> TYPE_LISTUSERS;
+            case LOGIN -> TYPE_LOGIN;
+            case LOGOUT -> TYPE_LOGOUT;
+            case OPTION -> TYPE_OPTION;
+            case TEXT -> TYPE_TEXT;
+            case UPLOADSTATUS -> TYPE_UPLOADSTATUS;
+        };
+    }
+
+    /**
+     * Reads the fields of a DownloadMessage.
+     *
+     * @param in        the buffer to read from.
+     * @param username  the username already read.
+     * @param timestamp the timestamp already read.
+     * @return the message.
+     * @throws IOException if the fields are malformed.
+     */
+    private static DownloadMessage readDownload(ByteBuffer in, String username, Instant timestamp)
+            throws IOException {
+        String fileName = readString(in);
+        ByteRange range = switch (in.get()) {
+            case 0 -> null;
+            case 1 -> {
+                long start = readVarLong(in);
+                yield new ByteRange(start, start + readVarLong(in));
+            }
+            default -> throw new IOException("Malformed download range.");
+        };
+        return new DownloadMessage(username, fileName, range, readVarLong(in) - 1, timestamp);
+    }
+
+    /**
+     * Reads the fields of an UploadStatusMessage.
+     *
+     * @param in        the buffer to read from.
+     * @param username  the username already read.
+     * @param timestamp the timestamp already read.
+     * @return the message.
+     * @throws IOException if the fields are malformed.
+     */
+    private static UploadStatusMessage readUploadStatus(ByteBuffer in, String username, Instant timestamp)
+            throws IOException {
+        String uploadId = readString(in);
+        String fileName = readString(in);
+        long size = readVarLong(in);
+        long chunkSize = readVarLong(in);
+        long countPlusOne = readVarLong(in);
+        // Every range takes at least two bytes, which bounds the count before anything is allocated.
+        if (size < 0 || chunkSize < 0 || chunkSize > Integer.MAX_VALUE
+                || countPlusOne < 0 || countPlusOne - 1 > in.remaining() / 2) {
+            throw new IOException("Malformed upload status.");
+        }
+        List<ByteRange> missing = null;
+        if (countPlusOne > 0) {
+            missing = new ArrayList<>((int) (countPlusOne - 1));
+            for (long i = 1; i < countPlusOne; i++) {
+                long start = readVarLong(in);
+                missing.add(new ByteRange(start, start + readVarLong(in)));
+            }
+        }
+        return new UploadStatusMessage(username, uploadId, fileName, size, (int) chunkSize, missing, timestamp);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint of up to 64 bits.
+     *
+     * @param in the buffer to read from.
+     * @return the value read.
+     * @throws IOException if the varint is longer than 10 bytes.
+     */
+    private static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long.");
+    }
+
+    /**
+     * Reads a varint that must fit in the bytes left in the buffer.
+     *
+     * @param in the buffer to read from.
+     * @return the length read.
+     * @throws IOException if the length is negative or longer than what remains.
+     */
+    private static int readLength(ByteBuffer in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Field length " + length + " exceeds message.");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Reads a string field.
+     *
+     * @param in the buffer to read from.
+     * @return the string, or null.
+     * @throws IOException if the field is malformed.
+     */
+    private static String readString(ByteBuffer in) throws IOException {
+        long lengthPlusOne = readVarLong(in);
+        if (lengthPlusOne == 0) {
+            return null;
+        }
+        if (lengthPlusOne < 0 || lengthPlusOne - 1 > in.remaining()) {
+            throw new IOException("String length " + (lengthPlusOne - 1) + " exceeds message.");
+        }
+        int length = (int) (lengthPlusOne - 1);
+        String str = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return str;
+    }
+
+    /**
+     * Reads a bytes field.
+     *
+     * @param in the buffer to read from.
+     * @return a new array holding the bytes.
+     * @throws IOException if the field is malformed.
+     */
+    private static byte[] readBytes(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * A growable byte array that fields are appended to.
+     */
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        /**
+         * Creates a writer whose first {@code headroom} bytes are left free.
+         *
+         * @param headroom the number of bytes to skip.
+         * @param sizeHint the expected size of the encoding.
+         */
+        Writer(int headroom, int sizeHint) {
+            this.buf = new byte[headroom + sizeHint];
+            this.pos = headroom;
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(Integer.BYTES);
+            buf[pos++] = (byte) (value >>> 24);
+            buf[pos++] = (byte) (value >>> 16);
+            buf[pos++] = (byte) (value >>> 8);
+            buf[pos++] = (byte) value;
+        }
+
+        void writeString(String str) {
+            if (str == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            writeRaw(utf8);
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarLong(bytes.length);
+            writeRaw(bytes);
+        }
+
+        void writeRaw(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(buf, 0, pos);
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package sparta.clack.message;
+
+import java.io.Serializable;
+
+/**
+ * A range of byte positions in a file, from {@code start} (inclusive) to {@code end} (exclusive).
+ *
+ * @param start the position of the first byte in the range.
+ * @param end   the position just after the last byte in the range.
+ */
+public record ByteRange(long start, long end) implements Serializable {
+    /**
+     * Creates a byte range.
+     *
+     * @throws IllegalArgumentException if start is negative or end is before start.
+     */
+    public ByteRange {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid byte range [" + start + ", " + end + ").");
+        }
+    }
+
+    /**
+     * Returns the number of bytes in the range.
+     *
+     * @return end - start.
+     */
+    public long length() {
+        return end - start;
+    }
+
+    /**
+     * Returns the range in the usual half-open notation.
+     *
+     * @return a string of the form {@code [start, end)}.
+     */
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
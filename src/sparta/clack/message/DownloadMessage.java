@@ -0,0 +1,113 @@
+package sparta.clack.message;
+
+import java.time.Instant;
+
+/**
+ * Requests a file saved on the server, or announces the file's bytes in reply.
+ * <p>
+ * A client sends a DownloadMessage naming the file and, optionally, the range of bytes it wants. If the server can
+ * serve it, it replies with a DownloadMessage giving the range actually being sent and the file's full size. The
+ * reply's frame is followed directly on the connection by exactly that many raw bytes of the file, outside any
+ * frame. If the server cannot serve the file, it replies with a TextMessage instead and sends no bytes.
+ */
+public class DownloadMessage extends Message {
+    /**
+     * The name of the file on the server.
+     */
+    private final String fileName;
+
+    /**
+     * The bytes requested or sent, or null for the whole file.
+     */
+    private final ByteRange range;
+
+    /**
+     * The full length of the file, or -1 in a request.
+     */
+    private final long fileSize;
+
+    /**
+     * Constructs a DownloadMessage object requesting a file.
+     *
+     * @param username the name of the user requesting the file.
+     * @param fileName the name of the file on the server.
+     * @param range    the bytes wanted, or null for the whole file. A range reaching past the end of the file is cut
+     *                 short.
+     */
+    public DownloadMessage(String username, String fileName, ByteRange range) {
+        this(username, fileName, range, -1);
+    }
+
+    /**
+     * Constructs a DownloadMessage object announcing the bytes that follow it.
+     *
+     * @param username the name of the user sending the file.
+     * @param fileName the name of the file on the server.
+     * @param range    the bytes that follow this message.
+     * @param fileSize the full length of the file.
+     */
+    public DownloadMessage(String username, String fileName, ByteRange range, long fileSize) {
+        super(username, MsgType.DOWNLOAD);
+        this.fileName = fileName;
+        this.range = range;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Constructs a DownloadMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  the name of the user sending the message.
+     * @param fileName  the name of the file on the server.
+     * @param range     the bytes requested or sent, or null for the whole file.
+     * @param fileSize  the full length of the file, or -1 in a request.
+     * @param timestamp the time the message was originally created.
+     */
+    DownloadMessage(String username, String fileName, ByteRange range, long fileSize, Instant timestamp) {
+        super(username, MsgType.DOWNLOAD, timestamp);
+        this.fileName = fileName;
+        this.range = range;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Gets the name of the file on the server.
+     *
+     * @return the file name.
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Gets the bytes requested, or in a reply the bytes that follow this message.
+     *
+     * @return the range, or null for the whole file.
+     */
+    public ByteRange getRange() {
+        return this.range;
+    }
+
+    /**
+     * Gets the full length of the file.
+     *
+     * @return the file size in bytes, or -1 in a request.
+     */
+    public long getFileSize() {
+        return this.fileSize;
+    }
+
+    /**
+     * Returns a string representation of this DownloadMessage object.
+     *
+     * @return a string representation of this DownloadMessage object.
+     */
+    @Override
+    public String toString() {
+        return "DownloadMessage{"
+                + super.toString()
+                + ", fileName='" + fileName + "'"
+                + ", range=" + range
+                + ", fileSize=" + fileSize
+                + "}";
+    }
+}
@@ -0,0 +1,203 @@
+package sparta.clack.message;
+
+import java.time.Instant;
+import java.util.zip.CRC32C;
+
+/**
+ * Represents one piece of a file uploaded in chunks.
+ * <p>
+ * Unlike {@link FileMessage}, which holds a whole file in memory, a file sent in chunks only ever has one chunk in
+ * memory on either side, so files of any size can be uploaded with a small heap. The chunks of a file are sent in
+ * order, each carrying its offset in the file; the last one is marked so the receiver knows the file is complete.
+ * A {@link FileChunkReader} produces the chunks of a file on disk.
+ * <p>
+ * Every chunk carries a CRC32C checksum of its bytes, computed when the chunk is created, so the receiver can
+ * check it with {@link #isIntact()}. A chunk that also carries an upload ID belongs to a resumable upload (see
+ * {@link UploadStatusMessage}): its chunks may arrive in any order, over more than one connection.
+ */
+public class FileChunkMessage extends Message {
+    /**
+     * The chunk size used when none is given: 64 KiB.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The resumable upload this chunk belongs to, or null.
+     */
+    private final String uploadId;
+
+    /**
+     * The name to save the file as.
+     */
+    private final String fileName;
+
+    /**
+     * The position of this chunk in the file.
+     */
+    private final long offset;
+
+    /**
+     * The bytes of this chunk.
+     */
+    private final byte[] data;
+
+    /**
+     * Whether this is the file's final chunk.
+     */
+    private final boolean last;
+
+    /**
+     * The CRC32C checksum of the data, as computed by the sender.
+     */
+    private final int checksum;
+
+    /**
+     * Constructs a FileChunkMessage object for a resumable upload.
+     *
+     * @param username the name of the user sending the file.
+     * @param uploadId the resumable upload this chunk belongs to, or null for a plain in-order upload.
+     * @param fileName the name to save the file as.
+     * @param offset   the position of this chunk in the file.
+     * @param data     the bytes of this chunk; not copied.
+     * @param last     whether this is the file's final chunk.
+     */
+    public FileChunkMessage(String username, String uploadId, String fileName, long offset, byte[] data,
+                            boolean last) {
+        super(username, MsgType.FILECHUNK);
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.offset = offset;
+        this.data = data;
+        this.last = last;
+        this.checksum = checksum(data);
+    }
+
+    /**
+     * Constructs a FileChunkMessage object for a plain upload, whose chunks are sent in order over one connection.
+     *
+     * @param username the name of the user sending the file.
+     * @param fileName the name to save the file as.
+     * @param offset   the position of this chunk in the file.
+     * @param data     the bytes of this chunk; not copied.
+     * @param last     whether this is the file's final chunk.
+     */
+    public FileChunkMessage(String username, String fileName, long offset, byte[] data, boolean last) {
+        this(username, null, fileName, offset, data, last);
+    }
+
+    /**
+     * Constructs a FileChunkMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  the name of the user sending the file.
+     * @param uploadId  the resumable upload this chunk belongs to, or null.
+     * @param fileName  the name to save the file as.
+     * @param offset    the position of this chunk in the file.
+     * @param data      the bytes of this chunk; not copied.
+     * @param last      whether this is the file's final chunk.
+     * @param checksum  the checksum computed by the sender.
+     * @param timestamp the time the message was originally created.
+     */
+    FileChunkMessage(String username, String uploadId, String fileName, long offset, byte[] data, boolean last,
+                     int checksum, Instant timestamp) {
+        super(username, MsgType.FILECHUNK, timestamp);
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.offset = offset;
+        this.data = data;
+        this.last = last;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Computes the CRC32C checksum of a chunk's bytes.
+     *
+     * @param data the bytes.
+     * @return the checksum.
+     */
+    public static int checksum(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Gets the resumable upload this chunk belongs to.
+     *
+     * @return the upload ID, or null for a plain in-order upload.
+     */
+    public String getUploadId() {
+        return this.uploadId;
+    }
+
+    /**
+     * Gets the name to save the file as.
+     *
+     * @return the file name.
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Gets the position of this chunk in the file.
+     *
+     * @return the offset of the chunk's first byte.
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Gets the bytes of this chunk. The array is not copied and must not be modified.
+     *
+     * @return the chunk's bytes.
+     */
+    public byte[] getData() {
+        return this.data;
+    }
+
+    /**
+     * Returns whether this is the file's final chunk.
+     *
+     * @return true if no chunks follow this one.
+     */
+    public boolean isLast() {
+        return this.last;
+    }
+
+    /**
+     * Gets the checksum computed by the sender.
+     *
+     * @return the CRC32C of the data when the chunk was created.
+     */
+    public int getChecksum() {
+        return this.checksum;
+    }
+
+    /**
+     * Checks the data against the sender's checksum.
+     *
+     * @return true if the data arrived unchanged.
+     */
+    public boolean isIntact() {
+        return checksum(this.data) == this.checksum;
+    }
+
+    /**
+     * Returns a string representation of this FileChunkMessage object. The chunk's bytes are summarized by their
+     * count.
+     *
+     * @return a string representation of this FileChunkMessage object.
+     */
+    @Override
+    public String toString() {
+        return "FileChunkMessage{"
+                + super.toString()
+                + (uploadId == null ? "" : ", uploadId='" + uploadId + "'")
+                + ", fileName='" + fileName + "'"
+                + ", offset=" + offset
+                + ", length=" + data.length
+                + ", last=" + last
+                + "}";
+    }
+}
@@ -0,0 +1,177 @@
+package sparta.clack.message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Reads a file from disk as a sequence of {@link FileChunkMessage}s, one chunk at a time.
+ * <p>
+ * Only the chunk being returned is held in memory. Every file, even an empty one, yields at least one chunk, and
+ * the final chunk is marked as last. The file's length is taken when the reader is opened; bytes appended later
+ * are not sent.
+ * <p>
+ * {@link #next()} returns the chunks of a plain upload, in order. For a resumable upload, {@link #chunkAt(long)}
+ * returns any chunk, tagged with the reader's {@link #getUploadId() upload ID}. The ID is derived from the user,
+ * the save-as name, and the file's length and modification time, so a client that reconnects after a failure gets
+ * the same ID again without having to store it, while a changed file gets a new one.
+ */
+public class FileChunkReader implements Closeable {
+    private final String username;
+    private final String fileName;
+    private final int chunkSize;
+    private final FileChannel channel;
+    private final long size;
+    private final String uploadId;
+    private long offset = 0;
+    private boolean done = false;
+
+    /**
+     * Opens a file for reading in chunks.
+     *
+     * @param username     the name of the user sending the file.
+     * @param fileReadPath the path of the file to read and upload.
+     * @param fileSaveName the name to save the file as; only its last path element is used.
+     * @param chunkSize    the largest number of bytes in one chunk.
+     * @throws IOException              if the file cannot be opened.
+     * @throws IllegalArgumentException if chunkSize is not positive.
+     */
+    public FileChunkReader(String username, String fileReadPath, String fileSaveName, int chunkSize)
+            throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.username = username;
+        this.fileName = Paths.get(fileSaveName).getFileName().toString();
+        this.chunkSize = chunkSize;
+        this.channel = FileChannel.open(Path.of(fileReadPath), StandardOpenOption.READ);
+        this.size = channel.size();
+        long modified = Files.getLastModifiedTime(Path.of(fileReadPath)).toMillis();
+        this.uploadId = UUID.nameUUIDFromBytes((username + "\0" + fileName + "\0" + size + "\0" + modified)
+                .getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Opens a file for reading in chunks of {@link FileChunkMessage#DEFAULT_CHUNK_SIZE}, to be saved under its own
+     * name.
+     *
+     * @param username     the name of the user sending the file.
+     * @param fileReadPath the path of the file to read and upload.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FileChunkReader(String username, String fileReadPath) throws IOException {
+        this(username, fileReadPath, fileReadPath, FileChunkMessage.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Gets the number of bytes that will be sent in total.
+     *
+     * @return the file's length when it was opened.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the largest number of bytes in one chunk.
+     *
+     * @return the chunk size.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Gets the name the file will be saved as.
+     *
+     * @return the save-as name.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Gets the ID of a resumable upload of this file.
+     *
+     * @return the upload ID.
+     */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    /**
+     * Returns whether there are chunks left to read.
+     *
+     * @return true until the last chunk has been returned.
+     */
+    public boolean hasNext() {
+        return !done;
+    }
+
+    /**
+     * Reads the next chunk of the file.
+     *
+     * @return the next chunk, or null after the last one has been returned.
+     * @throws IOException if the file cannot be read, or is shorter than when it was opened.
+     */
+    public FileChunkMessage next() throws IOException {
+        if (done) {
+            return null;
+        }
+        byte[] data = read(offset);
+        FileChunkMessage chunk = new FileChunkMessage(username, fileName, offset, data, offset + data.length == size);
+        offset += data.length;
+        done = chunk.isLast();
+        return chunk;
+    }
+
+    /**
+     * Reads the chunk that starts at a given position, for a resumable upload. Does not affect {@link #next()}.
+     *
+     * @param position the chunk's offset; a multiple of the chunk size, less than the file size (or 0).
+     * @return the chunk, tagged with this reader's upload ID.
+     * @throws IOException              if the file cannot be read, or is shorter than when it was opened.
+     * @throws IllegalArgumentException if the position is not the start of a chunk.
+     */
+    public FileChunkMessage chunkAt(long position) throws IOException {
+        if (position < 0 || position % chunkSize != 0 || (position >= size && position != 0)) {
+            throw new IllegalArgumentException("No chunk starts at " + position + ".");
+        }
+        byte[] data = read(position);
+        return new FileChunkMessage(username, uploadId, fileName, position, data, position + data.length == size);
+    }
+
+    /**
+     * Reads the bytes of the chunk that starts at a given position.
+     *
+     * @param position the chunk's offset.
+     * @return the chunk's bytes.
+     * @throws IOException if the file cannot be read, or is shorter than when it was opened.
+     */
+    private byte[] read(long position) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate((int) Math.min(chunkSize, size - position));
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0) {
+                throw new IOException("File " + fileName + " shrank while it was being sent.");
+            }
+        }
+        return data.array();
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
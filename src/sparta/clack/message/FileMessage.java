@@ -3,19 +3,23 @@ package sparta.clack.message;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Instant;
 
 /**
  * Represents a message containing a file's content for upload.
  * <p>
  * This class is used to send files from a client to a server. The file is read from the file path
- * specified, and the contents are stored as a string. Optionally, the file can be saved under a different
- * name.
+ * specified, and its contents are stored as raw bytes, so binary files arrive unchanged. Optionally, the file can
+ * be saved under a different name.
+ * <p>
+ * The whole file is held in memory, so this message suits small files. Large files should be sent as a series of
+ * {@link FileChunkMessage}s instead.
  */
 public class FileMessage extends Message {
     /**
      * The contents of the file being uploaded.
      */
-    private final String fileContents;
+    private final byte[] fileBytes;
 
     /**
      * The name of the file being uploaded.
@@ -32,7 +36,7 @@ public class FileMessage extends Message {
     public FileMessage(String username, String fileReadPath) throws IOException {
         super(username, MsgType.FILE);
         this.fileName = Paths.get(fileReadPath).getFileName().toString();
-        this.fileContents = new String(Files.readAllBytes(Paths.get(fileReadPath)));
+        this.fileBytes = Files.readAllBytes(Paths.get(fileReadPath));
     }
 
     /**
@@ -47,16 +51,39 @@ public class FileMessage extends Message {
     public FileMessage(String username, String fileReadPath, String fileSaveName) throws IOException {
         super(username, MsgType.FILE);
         this.fileName = Paths.get(fileSaveName).getFileName().toString();
-        this.fileContents = new String(Files.readAllBytes(Paths.get(fileReadPath)));
+        this.fileBytes = Files.readAllBytes(Paths.get(fileReadPath));
+    }
+
+    /**
+     * Constructs a FileMessage object from contents already in memory, when rebuilding it from its encoded form.
+     *
+     * @param username  the name of the user sending the file.
+     * @param fileName  the name to save the file as.
+     * @param fileBytes the contents of the file; not copied.
+     * @param timestamp the time the message was originally created.
+     */
+    FileMessage(String username, String fileName, byte[] fileBytes, Instant timestamp) {
+        super(username, MsgType.FILE, timestamp);
+        this.fileName = fileName;
+        this.fileBytes = fileBytes;
     }
 
     /**
-     * Gets the contents of the file.
+     * Gets the contents of the file, decoded as text in the platform's default charset.
      *
      * @return the file contents as a string.
      */
     public String getFileContents() {
-        return this.fileContents;
+        return new String(this.fileBytes);
+    }
+
+    /**
+     * Gets the raw contents of the file. The array is not copied and must not be modified.
+     *
+     * @return the file contents as bytes.
+     */
+    public byte[] getFileBytes() {
+        return this.fileBytes;
     }
 
     /**
@@ -78,7 +105,7 @@ public class FileMessage extends Message {
         return "FileMessage{"
                 + super.toString()
                 + ", fileName='" + fileName + "'"
-                + ", fileContents='" + fileContents
+                + ", fileContents='" + getFileContents()
                 + "'}";
     }
 }
@@ -1,5 +1,7 @@
 package sparta.clack.message;
 
+import java.time.Instant;
+
 /**
  * This class represents a message requesting usage information.
  */
@@ -14,6 +16,16 @@ public class HelpMessage extends Message {
         super(username, MsgType.HELP);
     }
 
+    /**
+     * Constructs a HelpMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  the user sending this message.
+     * @param timestamp the time the message was originally created.
+     */
+    HelpMessage(String username, Instant timestamp) {
+        super(username, MsgType.HELP, timestamp);
+    }
+
     /**
      * Returns a string representation of this HelpMessage object.
      *
@@ -1,5 +1,7 @@
 package sparta.clack.message;
 
+import java.time.Instant;
+
 /**
  * This class represents a command to the server, asking for
  * a list of all active users of the server.
@@ -16,6 +18,16 @@ public class ListUsersMessage extends Message {
         super(username, MsgType.LISTUSERS);
     }
 
+    /**
+     * Constructs a ListUsersMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  the user sending this message.
+     * @param timestamp the time the message was originally created.
+     */
+    ListUsersMessage(String username, Instant timestamp) {
+        super(username, MsgType.LISTUSERS, timestamp);
+    }
+
     /**
      * Returns a string representation of this ListUsersMessage object.
      *
@@ -1,5 +1,7 @@
 package sparta.clack.message;
 
+import java.time.Instant;
+
 /**
  * Represents a message containing login credentials, including the username and password.
  */
@@ -20,6 +22,18 @@ public class LoginMessage extends Message {
         this.password = password;
     }
 
+    /**
+     * Constructs a LoginMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  the name of the user attempting to log in.
+     * @param password  the password associated with the login attempt.
+     * @param timestamp the time the message was originally created.
+     */
+    LoginMessage(String username, String password, Instant timestamp) {
+        super(username, MsgType.LOGIN, timestamp);
+        this.password = password;
+    }
+
     /**
      * Returns the password associated with this login message.
      *
@@ -1,5 +1,7 @@
 package sparta.clack.message;
 
+import java.time.Instant;
+
 /**
  * This class represents a command to the server, asking for termination of the connection.
  */
@@ -13,6 +15,16 @@ public class LogoutMessage extends Message {
         super(username, MsgType.LOGOUT);
     }
 
+    /**
+     * Constructs a LogoutMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  the user sending this message.
+     * @param timestamp the time the message was originally created.
+     */
+    LogoutMessage(String username, Instant timestamp) {
+        super(username, MsgType.LOGOUT, timestamp);
+    }
+
     /**
      * Returns a string representation of this LogoutMessage object.
      *
@@ -27,6 +27,12 @@ public abstract class Message implements  Serializable {
      */
     private final String username;
 
+    /**
+     * The number the client gave this request, copied by the server onto its reply so the client can match them.
+     * Zero means the message is not a numbered request, or not a reply to one.
+     */
+    private long requestId = 0;
+
     /**
      * Constructs a Message object with a given username.
      *
@@ -34,8 +40,20 @@ public abstract class Message implements  Serializable {
      * @param msgType the type of the message (e.g., TEXT, LISTUSERS, LOGOUT).
      */
     protected Message(String username, MsgType msgType) {
+        this(username, msgType, Instant.now());
+    }
+
+    /**
+     * Constructs a Message object with a given username and an existing timestamp. Used when a message is rebuilt
+     * from its encoded form.
+     *
+     * @param username  name of user creating this message.
+     * @param msgType   the type of the message (e.g., TEXT, LISTUSERS, LOGOUT).
+     * @param timestamp the time the message was originally created.
+     */
+    protected Message(String username, MsgType msgType, Instant timestamp) {
         this.msgType = msgType;
-        this.timestamp = Instant.now();
+        this.timestamp = timestamp;
         this.username = username;
     }
 
@@ -64,6 +82,26 @@ public abstract class Message implements  Serializable {
         return this.username;
     }
 
+    /**
+     * Gets the message's request ID, which correlates a reply with the request it answers.
+     *
+     * @return the request ID, or 0 if there is none.
+     */
+    public long getRequestId() {
+        return this.requestId;
+    }
+
+    /**
+     * Sets the message's request ID. A client numbers a request before sending it; the server gives its reply the
+     * same number, so replies can be matched to requests however many are outstanding. Set it before the message
+     * is sent or shared between threads.
+     *
+     * @param requestId the request ID, or 0 for none.
+     */
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
     /**
      * Return a string representation of this object.
      *
@@ -76,6 +114,7 @@ public abstract class Message implements  Serializable {
                 "msgTypeEnum=" + msgType +
                 ", timestamp=" + timestamp +
                 ", username='" + username + '\'' +
+                (requestId == 0 ? "" : ", requestId=" + requestId) +
                 '}';
     }
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package sparta.clack.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts Messages to and from bytes for sending over the network.
+ * <p>
+ * An encoding is written after a caller-chosen amount of free space ("headroom") at the start of the buffer, so a
+ * transport can put its own header in front of the message without copying it.
+ */
+public interface MessageCodec {
+    /**
+     * The compact, hand-written binary encoding (see {@link BinaryCodec}).
+     */
+    MessageCodec BINARY = new BinaryCodec();
+
+    /**
+     * Standard Java serialization of the Message object graph (see {@link SerialCodec}).
+     */
+    MessageCodec SERIAL = new SerialCodec();
+
+    /**
+     * Encodes a message.
+     *
+     * @param msg      the message to encode.
+     * @param headroom the number of bytes to leave free at the start of the buffer.
+     * @return a heap buffer positioned at 0 whose bytes from {@code headroom} to its limit hold the encoding.
+     * @throws IOException if the message cannot be encoded.
+     */
+    ByteBuffer encode(Message msg, int headroom) throws IOException;
+
+    /**
+     * Decodes a message.
+     *
+     * @param body a heap buffer holding exactly one encoding, from its position to its limit.
+     * @return the decoded message.
+     * @throws IOException if the bytes are not a valid encoding.
+     */
+    Message decode(ByteBuffer body) throws IOException;
+}
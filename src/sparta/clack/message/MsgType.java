@@ -4,11 +4,21 @@ package sparta.clack.message;
  * An enumeration representing message types.
  */
 public enum MsgType {
+    /**
+     * Represents a message requesting a saved file, or announcing the file's bytes that follow it.
+     */
+    DOWNLOAD,
+
     /**
      * Represents a message containing a file.
      */
     FILE,
 
+    /**
+     * Represents a message containing one piece of a file sent in chunks.
+     */
+    FILECHUNK,
+
     /**
      * Represents a message requesting usage information.
      */
@@ -37,5 +47,10 @@ public enum MsgType {
     /**
      * Represents a regular text message containing user input.
      */
-    TEXT
+    TEXT,
+
+    /**
+     * Represents a message asking about, or reporting, the chunks a resumable upload still needs.
+     */
+    UPLOADSTATUS
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package sparta.clack.message;
 
+import java.time.Instant;
+
 /**
  * This class represents a message that contains an option and its corresponding value.
  */
@@ -27,6 +29,20 @@ public class OptionMessage extends Message {
         this.value = value;
     }
 
+    /**
+     * Constructs an OptionMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  the name of the user creating this message.
+     * @param option    the option type (e.g., CIPHER_KEY, CIPHER_NAME, CIPHER_ENABLE).
+     * @param value     the value associated with the option.
+     * @param timestamp the time the message was originally created.
+     */
+    OptionMessage(String username, OptionEnum option, String value, Instant timestamp) {
+        super(username, MsgType.OPTION, timestamp);
+        this.option = option;
+        this.value = value;
+    }
+
     /**
      * Returns the option associated with this message.
      *
@@ -0,0 +1,45 @@
+package sparta.clack.message;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes Messages with standard Java serialization.
+ * <p>
+ * Every encoding carries its own stream header and class descriptors, which makes it large and slow to produce, but
+ * it needs no code per message type. Kept for comparison with {@link BinaryCodec}.
+ */
+public final class SerialCodec implements MessageCodec {
+    /**
+     * Creates a serialization codec. Use {@link MessageCodec#SERIAL} rather than creating new instances.
+     */
+    SerialCodec() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer encode(Message msg, int headroom) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[headroom]);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(msg);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message decode(ByteBuffer body) throws IOException {
+        InputStream bytes = new ByteArrayInputStream(
+                body.array(), body.arrayOffset() + body.position(), body.remaining());
+        try (ObjectInputStream in = new ObjectInputStream(bytes)) {
+            return (Message) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Malformed serialized message.", e);
+        }
+    }
+}
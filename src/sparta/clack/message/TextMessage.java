@@ -1,5 +1,7 @@
 package sparta.clack.message;
 
+import java.time.Instant;
+
 /**
  * This class represents messages containing text entered from the keyboard.
  */
@@ -20,6 +22,31 @@ public class TextMessage extends Message {    /**
         this.text = text;
     }
 
+    /**
+     * Constructs a TextMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  name of user sending the message.
+     * @param text      text of the message itself.
+     * @param timestamp the time the message was originally created.
+     */
+    TextMessage(String username, String text, Instant timestamp) {
+        super(username, MsgType.TEXT, timestamp);
+        this.text = text;
+    }
+
+    /**
+     * Returns a copy of this message with other text, from the same user, with the same timestamp and request ID;
+     * e.g. the message encrypted or decrypted.
+     *
+     * @param text the copy's text.
+     * @return the copy.
+     */
+    public TextMessage withText(String text) {
+        TextMessage copy = new TextMessage(getUsername(), text, getTimestamp());
+        copy.setRequestId(getRequestId());
+        return copy;
+    }
+
     /**
      * Returns the text of this message.
      *
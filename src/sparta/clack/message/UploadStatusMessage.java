@@ -0,0 +1,159 @@
+package sparta.clack.message;
+
+import java.io.Serial;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Asks about, or reports, the progress of a resumable upload.
+ * <p>
+ * A client sends an UploadStatusMessage without missing ranges to start an upload, or to pick up an unfinished one
+ * after reconnecting. The server replies with the same upload's details and the byte ranges it has not yet
+ * received and verified; the client then sends only the {@link FileChunkMessage}s covering those ranges, and asks
+ * again. A reply with no missing ranges means the file is complete and has been saved.
+ */
+public class UploadStatusMessage extends Message {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The ID that the upload's chunks carry.
+     */
+    private final String uploadId;
+
+    /**
+     * The name to save the file as.
+     */
+    private final String fileName;
+
+    /**
+     * The total length of the file.
+     */
+    private final long size;
+
+    /**
+     * The length of every chunk but the last.
+     */
+    private final int chunkSize;
+
+    /**
+     * The ranges not yet received, or null in a question. Held in an array, which unlike a List is known to be
+     * serializable; never modified after construction.
+     */
+    private final ByteRange[] missing;
+
+    /**
+     * Constructs an UploadStatusMessage object.
+     *
+     * @param username  the name of the user sending the message.
+     * @param uploadId  the ID that the upload's chunks carry.
+     * @param fileName  the name to save the file as.
+     * @param size      the total length of the file.
+     * @param chunkSize the length of every chunk but the last.
+     * @param missing   the ranges not yet received, or null when asking.
+     */
+    public UploadStatusMessage(String username, String uploadId, String fileName, long size, int chunkSize,
+                               List<ByteRange> missing) {
+        super(username, MsgType.UPLOADSTATUS);
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.missing = missing == null ? null : List.copyOf(missing).toArray(new ByteRange[0]);
+    }
+
+    /**
+     * Constructs an UploadStatusMessage object with an existing timestamp, when rebuilding it from its encoded form.
+     *
+     * @param username  the name of the user sending the message.
+     * @param uploadId  the ID that the upload's chunks carry.
+     * @param fileName  the name to save the file as.
+     * @param size      the total length of the file.
+     * @param chunkSize the length of every chunk but the last.
+     * @param missing   the ranges not yet received, or null when asking.
+     * @param timestamp the time the message was originally created.
+     */
+    UploadStatusMessage(String username, String uploadId, String fileName, long size, int chunkSize,
+                        List<ByteRange> missing, Instant timestamp) {
+        super(username, MsgType.UPLOADSTATUS, timestamp);
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.missing = missing == null ? null : List.copyOf(missing).toArray(new ByteRange[0]);
+    }
+
+    /**
+     * Gets the ID that the upload's chunks carry.
+     *
+     * @return the upload ID.
+     */
+    public String getUploadId() {
+        return this.uploadId;
+    }
+
+    /**
+     * Gets the name to save the file as.
+     *
+     * @return the file name.
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Gets the total length of the file.
+     *
+     * @return the file size in bytes.
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Gets the length of every chunk but the last.
+     *
+     * @return the chunk size in bytes.
+     */
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Gets the byte ranges the server still needs. A reply may list only some of them if there are very many; the
+     * rest are reported once those have been sent.
+     *
+     * @return an unmodifiable list of ranges, or null if this message is a question.
+     */
+    public List<ByteRange> getMissing() {
+        return this.missing == null ? null : Collections.unmodifiableList(Arrays.asList(this.missing));
+    }
+
+    /**
+     * Returns whether this is a reply reporting that the whole file has been received.
+     *
+     * @return true if nothing is missing.
+     */
+    public boolean isComplete() {
+        return this.missing != null && this.missing.length == 0;
+    }
+
+    /**
+     * Returns a string representation of this UploadStatusMessage object.
+     *
+     * @return a string representation of this UploadStatusMessage object.
+     */
+    @Override
+    public String toString() {
+        return "UploadStatusMessage{"
+                + super.toString()
+                + ", uploadId='" + uploadId + "'"
+                + ", fileName='" + fileName + "'"
+                + ", size=" + size
+                + ", chunkSize=" + chunkSize
+                + ", missing=" + getMissing()
+                + "}";
+    }
+}
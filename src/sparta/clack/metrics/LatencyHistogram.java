@@ -0,0 +1,252 @@
+package sparta.clack.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, cheap enough to record every message into.
+ * <p>
+ * Durations are counted in log-linear buckets: each power of two is split into eight equal buckets, so a percentile
+ * read back is within 12.5% of the true value, from one nanosecond up to about a minute (longer durations are
+ * counted in the last bucket, though the maximum is kept exactly).
+ * <p>
+ * Recording takes no lock. The counts are kept in several stripes, one per core up to a limit, and each thread
+ * records into the stripe its thread ID picks, so threads on different cores rarely update the same counter. The
+ * stripes are merged when the histogram is read, so reads are slower, and see each stripe as it was at a slightly
+ * different moment.
+ */
+public final class LatencyHistogram implements LatencyHistogramMBean {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 35; // 2^36 ns is about 69 s.
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    private static final int MAX_STRIPES = 16;
+
+    private final AtomicLongArray[] stripes;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int count = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(cores, 1) * 2 - 1));
+        stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos the duration in nanoseconds; negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        long id = Thread.currentThread().threadId();
+        AtomicLongArray stripe = stripes[(int) (id ^ (id >>> 16)) & (stripes.length - 1)];
+        stripe.incrementAndGet(bucket(value));
+        stripe.addAndGet(SUM, value);
+        long max = stripe.get(MAX);
+        while (value > max && !stripe.weakCompareAndSetVolatile(MAX, max, value)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    /**
+     * Adds every duration recorded in another histogram to this one.
+     *
+     * @param other the histogram to add; it is not changed.
+     */
+    public void add(LatencyHistogram other) {
+        AtomicLongArray stripe = stripes[0];
+        for (AtomicLongArray source : other.stripes) {
+            for (int i = 0; i < BUCKETS + 1; i++) {
+                long count = source.get(i);
+                if (count != 0) {
+                    stripe.addAndGet(i, count);
+                }
+            }
+        }
+        long value = other.getMaxNanos();
+        long max = stripe.get(MAX);
+        while (value > max && !stripe.weakCompareAndSetVolatile(MAX, max, value)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    /**
+     * Returns the number of durations recorded.
+     *
+     * @return the count.
+     */
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (long bucketCount : merged()) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the duration below which a fraction of the recorded durations fall.
+     *
+     * @param fraction the fraction, from 0 to 1; e.g. 0.99 for the 99th percentile.
+     * @return the duration in nanoseconds, rounded up to its bucket's upper bound but never more than the maximum;
+     * 0 if nothing has been recorded.
+     * @throws IllegalArgumentException if fraction is not between 0 and 1.
+     */
+    public long percentileNanos(double fraction) throws IllegalArgumentException {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("fraction must be between 0 and 1.");
+        }
+        long[] counts = merged();
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * fraction));
+        long seen = 0;
+        int index = 0;
+        while (index < BUCKETS - 1) {
+            seen += counts[index];
+            if (seen >= rank) {
+                break;
+            }
+            index++;
+        }
+        return Math.min(upperBound(index), getMaxNanos());
+    }
+
+    /**
+     * Returns the longest duration recorded.
+     *
+     * @return the maximum in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long getMaxNanos() {
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return max;
+    }
+
+    /**
+     * Returns the total of the durations recorded.
+     *
+     * @return the sum in nanoseconds.
+     */
+    public long getSumNanos() {
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            sum += stripe.get(SUM);
+        }
+        return sum;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : getSumNanos() / 1_000.0 / count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getP50Micros() {
+        return percentileNanos(0.5) / 1_000.0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getP99Micros() {
+        return percentileNanos(0.99) / 1_000.0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getP999Micros() {
+        return percentileNanos(0.999) / 1_000.0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMaxMicros() {
+        return getMaxNanos() / 1_000.0;
+    }
+
+    /**
+     * Returns a one-line summary of the histogram.
+     *
+     * @return a string representation of this LatencyHistogram object.
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f us",
+                getCount(), getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros());
+    }
+
+    /**
+     * Returns the bucket a duration is counted in.
+     *
+     * @param nanos the duration, not negative.
+     * @return the bucket's index.
+     */
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the longest duration counted in a bucket.
+     *
+     * @param index the bucket's index.
+     * @return its upper bound in nanoseconds.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exponent - SUB_BITS);
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return lower + width - 1;
+    }
+
+    /**
+     * Adds up the stripes' bucket counts.
+     *
+     * @return the count in each bucket.
+     */
+    private long[] merged() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,48 @@
+package sparta.clack.metrics;
+
+/**
+ * The JMX view of a {@link LatencyHistogram}. Times are in microseconds.
+ */
+public interface LatencyHistogramMBean {
+    /**
+     * Returns the number of times recorded.
+     *
+     * @return the count.
+     */
+    long getCount();
+
+    /**
+     * Returns the mean of the times recorded.
+     *
+     * @return the mean, or 0 if nothing has been recorded.
+     */
+    double getMeanMicros();
+
+    /**
+     * Returns the median time.
+     *
+     * @return the 50th percentile.
+     */
+    double getP50Micros();
+
+    /**
+     * Returns the 99th percentile time.
+     *
+     * @return the 99th percentile.
+     */
+    double getP99Micros();
+
+    /**
+     * Returns the 99.9th percentile time.
+     *
+     * @return the 99.9th percentile.
+     */
+    double getP999Micros();
+
+    /**
+     * Returns the longest time recorded.
+     *
+     * @return the maximum.
+     */
+    double getMaxMicros();
+}
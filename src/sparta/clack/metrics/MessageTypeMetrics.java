@@ -0,0 +1,157 @@
+package sparta.clack.metrics;
+
+import sparta.clack.message.MsgType;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the traffic of one message type, and times how long the server takes to handle each message of that type
+ * it receives: from the moment its frame has been read to the moment the reply has been queued. Thread-safe; the
+ * counters are {@link LongAdder}s, so recording takes no lock.
+ */
+public final class MessageTypeMetrics implements MessageTypeMetricsMBean {
+    private final MsgType type;
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Creates the metrics for a message type.
+     *
+     * @param type the message type counted.
+     */
+    MessageTypeMetrics(MsgType type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the message type counted.
+     *
+     * @return the message type.
+     */
+    public MsgType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the histogram of handling times.
+     *
+     * @return the latency histogram.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Counts a message received.
+     *
+     * @param bytes its length on the wire.
+     */
+    void recordIn(long bytes) {
+        messagesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Counts a message sent.
+     *
+     * @param bytes its length on the wire.
+     */
+    void recordOut(long bytes) {
+        messagesOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMeanMicros() {
+        return latency.getMeanMicros();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getP50Micros() {
+        return latency.getP50Micros();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getP99Micros() {
+        return latency.getP99Micros();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getP999Micros() {
+        return latency.getP999Micros();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMaxMicros() {
+        return latency.getMaxMicros();
+    }
+
+    /**
+     * Returns a one-line summary of the counters and handling times.
+     *
+     * @return a string representation of this MessageTypeMetrics object.
+     */
+    @Override
+    public String toString() {
+        return type + ": in " + getMessagesIn() + " (" + getBytesIn() + " B), out " + getMessagesOut() + " ("
+                + getBytesOut() + " B), handled in " + latency;
+    }
+}
@@ -0,0 +1,35 @@
+package sparta.clack.metrics;
+
+/**
+ * The JMX view of a {@link MessageTypeMetrics}: the traffic of one message type, and how long the server took to
+ * handle messages of that type, in microseconds.
+ */
+public interface MessageTypeMetricsMBean extends LatencyHistogramMBean {
+    /**
+     * Returns the number of messages of this type received.
+     *
+     * @return the count.
+     */
+    long getMessagesIn();
+
+    /**
+     * Returns the number of messages of this type sent, counting a broadcast once per recipient.
+     *
+     * @return the count.
+     */
+    long getMessagesOut();
+
+    /**
+     * Returns the number of bytes received in messages of this type.
+     *
+     * @return the byte count, frame headers included.
+     */
+    long getBytesIn();
+
+    /**
+     * Returns the number of bytes sent in messages of this type.
+     *
+     * @return the byte count, frame headers and any file bytes that follow a frame included.
+     */
+    long getBytesOut();
+}
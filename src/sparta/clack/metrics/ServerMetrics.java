@@ -0,0 +1,246 @@
+package sparta.clack.metrics;
+
+import sparta.clack.message.MsgType;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * Everything a server measures about its traffic: per message type, counters of the messages and bytes received and
+ * sent and a histogram of handling times; per {@link Stage}, a histogram of the time spent in it; and gauges of open
+ * connections and logged-in users.
+ * <p>
+ * The connections record into the metrics as they go. Counters are {@link java.util.concurrent.atomic.LongAdder}s
+ * and histograms are striped (see {@link LatencyHistogram}), so recording takes no lock and connections on different
+ * cores rarely touch the same memory. Reading merges the stripes, and is meant for occasional use: a JMX client
+ * polling the beans {@link #register(String, int)} exports, or a periodic {@link #snapshot()}.
+ * <p>
+ * A ServerMetrics is thread-safe.
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+    /**
+     * The JMX domain the beans are registered under.
+     */
+    public static final String DOMAIN = "sparta.clack";
+
+    private static final MsgType[] TYPES = MsgType.values();
+    private static final Stage[] STAGES = Stage.values();
+
+    private final IntSupplier loggedInUsers;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final MessageTypeMetrics[] types = new MessageTypeMetrics[TYPES.length];
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+
+    /**
+     * Creates a server's metrics, all zero.
+     *
+     * @param loggedInUsers reads the number of users logged in, for the gauge.
+     */
+    public ServerMetrics(IntSupplier loggedInUsers) {
+        this.loggedInUsers = loggedInUsers;
+        for (MsgType type : TYPES) {
+            types[type.ordinal()] = new MessageTypeMetrics(type);
+        }
+        for (Stage stage : STAGES) {
+            stages[stage.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Counts a connection opened.
+     */
+    public void connectionOpened() {
+        openConnections.incrementAndGet();
+    }
+
+    /**
+     * Counts a connection closed.
+     */
+    public void connectionClosed() {
+        openConnections.decrementAndGet();
+    }
+
+    /**
+     * Counts a message received.
+     *
+     * @param type  its type.
+     * @param bytes its frame's length, header included.
+     */
+    public void recordIn(MsgType type, long bytes) {
+        types[type.ordinal()].recordIn(bytes);
+    }
+
+    /**
+     * Counts a message sent, or a broadcast queued for one recipient.
+     *
+     * @param type  its type.
+     * @param bytes its frame's length, header included, plus any file bytes that follow it.
+     */
+    public void recordOut(MsgType type, long bytes) {
+        types[type.ordinal()].recordOut(bytes);
+    }
+
+    /**
+     * Records the time one message spent in a stage.
+     *
+     * @param stage the stage.
+     * @param nanos the time in nanoseconds.
+     */
+    public void recordStage(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records how long handling one received message took, from its frame being read to its reply being queued.
+     *
+     * @param type  the received message's type.
+     * @param nanos the time in nanoseconds.
+     */
+    public void recordHandled(MsgType type, long nanos) {
+        types[type.ordinal()].getLatency().record(nanos);
+    }
+
+    /**
+     * Returns the metrics of one message type.
+     *
+     * @param type the message type.
+     * @return its metrics.
+     */
+    public MessageTypeMetrics getType(MsgType type) {
+        return types[type.ordinal()];
+    }
+
+    /**
+     * Returns the time histogram of one stage.
+     *
+     * @param stage the stage.
+     * @return its histogram.
+     */
+    public LatencyHistogram getStage(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLoggedInUsers() {
+        return loggedInUsers.getAsInt();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMessagesIn() {
+        long total = 0;
+        for (MessageTypeMetrics type : types) {
+            total += type.getMessagesIn();
+        }
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMessagesOut() {
+        long total = 0;
+        for (MessageTypeMetrics type : types) {
+            total += type.getMessagesOut();
+        }
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesIn() {
+        long total = 0;
+        for (MessageTypeMetrics type : types) {
+            total += type.getBytesIn();
+        }
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesOut() {
+        long total = 0;
+        for (MessageTypeMetrics type : types) {
+            total += type.getBytesOut();
+        }
+        return total;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, as one bean for the server, one per message type and
+     * one per stage, e.g. {@code sparta.clack:type=MessageType,server="server",port=7000,name=TEXT}.
+     *
+     * @param serverName the server's name.
+     * @param port       the server's port, which tells apart servers of the same name in one JVM.
+     * @throws JMException if a bean cannot be registered, e.g. because one of the same name already is.
+     */
+    public void register(String serverName, int port) throws JMException {
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        String keys = ",server=" + ObjectName.quote(serverName) + ",port=" + port;
+        mbeans.registerMBean(this, new ObjectName(DOMAIN + ":type=Server" + keys));
+        for (MessageTypeMetrics type : types) {
+            ObjectName name = new ObjectName(DOMAIN + ":type=MessageType" + keys + ",name=" + type.getType());
+            mbeans.registerMBean(type, name);
+        }
+        for (Stage stage : STAGES) {
+            mbeans.registerMBean(getStage(stage), new ObjectName(DOMAIN + ":type=Stage" + keys + ",name=" + stage));
+        }
+    }
+
+    /**
+     * Returns a summary of every metric, one line each: the gauges and totals, every message type that has been
+     * received or sent, and every stage that has been timed.
+     *
+     * @return the summary, each line ending with a line separator.
+     */
+    public String snapshot() {
+        StringBuilder lines = new StringBuilder()
+                .append(getOpenConnections()).append(" connections, ").append(getLoggedInUsers())
+                .append(" logged in; ").append(getMessagesIn()).append(" msgs in (").append(getBytesIn())
+                .append(" B), ").append(getMessagesOut()).append(" msgs out (").append(getBytesOut()).append(" B)")
+                .append(System.lineSeparator());
+        for (MessageTypeMetrics type : types) {
+            if (type.getMessagesIn() != 0 || type.getMessagesOut() != 0) {
+                lines.append(type).append(System.lineSeparator());
+            }
+        }
+        for (Stage stage : STAGES) {
+            if (getStage(stage).getCount() != 0) {
+                lines.append(stage).append(": ").append(getStage(stage)).append(System.lineSeparator());
+            }
+        }
+        return lines.toString();
+    }
+
+    /**
+     * Returns the same summary as {@link #snapshot()}.
+     *
+     * @return a string representation of this ServerMetrics object.
+     */
+    @Override
+    public String toString() {
+        return snapshot();
+    }
+}
@@ -0,0 +1,49 @@
+package sparta.clack.metrics;
+
+/**
+ * The JMX view of a {@link ServerMetrics}: the server's gauges and traffic totals. The traffic of each message type,
+ * and the time spent in each {@link Stage}, are exported as beans of their own.
+ */
+public interface ServerMetricsMBean {
+    /**
+     * Returns the number of connections currently open.
+     *
+     * @return the connection count.
+     */
+    int getOpenConnections();
+
+    /**
+     * Returns the number of users currently logged in.
+     *
+     * @return the user count.
+     */
+    int getLoggedInUsers();
+
+    /**
+     * Returns the number of messages received, of every type.
+     *
+     * @return the count.
+     */
+    long getMessagesIn();
+
+    /**
+     * Returns the number of messages sent, of every type.
+     *
+     * @return the count.
+     */
+    long getMessagesOut();
+
+    /**
+     * Returns the number of bytes received in messages.
+     *
+     * @return the byte count.
+     */
+    long getBytesIn();
+
+    /**
+     * Returns the number of bytes sent in messages.
+     *
+     * @return the byte count.
+     */
+    long getBytesOut();
+}
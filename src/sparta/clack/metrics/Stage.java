@@ -0,0 +1,27 @@
+package sparta.clack.metrics;
+
+/**
+ * The stages a message passes through on the server, each timed by its own {@link LatencyHistogram}.
+ */
+public enum Stage {
+    /**
+     * Decoding a received frame into a Message.
+     */
+    DESERIALIZE,
+
+    /**
+     * Handling a received Message: running the session's state machine, which includes saving uploads, looking up
+     * downloads and broadcasting TEXT messages.
+     */
+    DISPATCH,
+
+    /**
+     * Encoding a reply as a frame.
+     */
+    SERIALIZE,
+
+    /**
+     * Writing a batch of frames to a client's socket.
+     */
+    FLUSH
+}
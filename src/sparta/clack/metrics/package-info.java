@@ -0,0 +1,4 @@
+/**
+ * Classes defining the server's throughput and latency metrics, and their export over JMX.
+ */
+package sparta.clack.metrics;
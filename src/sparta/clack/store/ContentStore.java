@@ -0,0 +1,407 @@
+package sparta.clack.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * A content-addressed, deduplicating file store.
+ * <p>
+ * Files are cut into fixed-size chunks, and each chunk is saved once, in a file named after its SHA-256 digest:
+ * {@code chunks/ab/abcd…}. A file name maps to a {@link Manifest} listing its chunks, saved as
+ * {@code manifests/<name>.manifest}. Saving a file whose chunks are already stored writes nothing but its manifest,
+ * so an attachment shared over and over costs its disk space once.
+ * <p>
+ * Names are never overwritten. Saving different content under a name already in use saves it under the first free
+ * numbered variant instead ({@code report-1.pdf}, {@code report-2.pdf}, …); saving the same content again returns
+ * the existing manifest. Chunk and manifest files are written to temporary files and moved into place atomically, so
+ * a reader never sees a partial one.
+ * <p>
+ * Stored bytes are read back either as {@link Segment}s of chunk files, for sending with
+ * {@link FileChannel#transferTo}, or as read-only memory-mapped buffers. Chunks are immutable once written, so both
+ * stay valid for as long as they are needed.
+ * <p>
+ * Chunks are never deleted: a chunk stored for an upload that is later abandoned stays in the store. A
+ * ContentStore is thread-safe.
+ */
+public final class ContentStore {
+    /**
+     * The chunk size used unless another is given.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The most numbered variants tried before a name is given up on.
+     */
+    static final int MAX_VARIANTS = 1000;
+
+    private static final String MANIFEST_HEADER = "clack-manifest 1";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Path chunkDirectory;
+    private final Path manifestDirectory;
+    private final int chunkSize;
+
+    /**
+     * Creates a store in a directory, which is created when first needed.
+     *
+     * @param root      the directory to keep chunks and manifests in.
+     * @param chunkSize the size to cut files into.
+     * @throws IllegalArgumentException if the chunk size is not positive.
+     */
+    public ContentStore(Path root, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize + ".");
+        }
+        this.chunkDirectory = root.resolve("chunks");
+        this.manifestDirectory = root.resolve("manifests");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Creates a store in a directory, with the default chunk size.
+     *
+     * @param root the directory to keep chunks and manifests in.
+     */
+    public ContentStore(Path root) {
+        this(root, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns the size files are cut into.
+     *
+     * @return the chunk size in bytes.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Starts saving a file whose bytes arrive a piece at a time.
+     *
+     * @return a writer; nothing is saved under a name until it is committed.
+     */
+    public Writer newWriter() {
+        return new Writer();
+    }
+
+    /**
+     * Saves a file held in memory.
+     *
+     * @param name     the name to save it under, or to number if taken.
+     * @param contents the file's bytes.
+     * @return the manifest, holding the name actually used.
+     * @throws IOException if the name is invalid or the file cannot be saved.
+     */
+    public Manifest save(String name, byte[] contents) throws IOException {
+        Writer writer = newWriter();
+        writer.write(ByteBuffer.wrap(contents));
+        return writer.commit(name);
+    }
+
+    /**
+     * Saves a copy of a file on disk. The file is read by mapping one chunk of it at a time, so no chunk is copied
+     * through the heap.
+     *
+     * @param name the name to save it under, or to number if taken.
+     * @param file the file to copy.
+     * @return the manifest, holding the name actually used.
+     * @throws IOException if the name is invalid or the file cannot be read or saved.
+     */
+    public Manifest save(String name, Path file) throws IOException {
+        checkName(name);
+        List<String> chunks = new ArrayList<>();
+        long size;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = in.size();
+            for (long position = 0; position < size; position += chunkSize) {
+                long length = Math.min(chunkSize, size - position);
+                chunks.add(storeChunk(in.map(FileChannel.MapMode.READ_ONLY, position, length)));
+            }
+        }
+        return commit(name, new Manifest(name, size, chunkSize, chunks));
+    }
+
+    /**
+     * Looks up a saved file.
+     *
+     * @param name the name it was saved under.
+     * @return its manifest.
+     * @throws NoSuchFileException if nothing is saved under the name.
+     * @throws IOException         if the name is invalid or the manifest cannot be read.
+     */
+    public Manifest open(String name) throws IOException {
+        checkName(name);
+        Path file = manifestFile(name);
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new NoSuchFileException(name);
+        }
+        try {
+            if (lines.size() < 2 || !lines.getFirst().equals(MANIFEST_HEADER)) {
+                throw new IllegalArgumentException("not a manifest.");
+            }
+            String[] sizes = lines.get(1).split(" ");
+            if (sizes.length != 2) {
+                throw new IllegalArgumentException("no size and chunk size.");
+            }
+            List<String> chunks = lines.subList(2, lines.size());
+            for (String chunk : chunks) {
+                if (chunk.length() != 64 || !chunk.equals(HEX.formatHex(HEX.parseHex(chunk)))) {
+                    throw new IllegalArgumentException("bad digest " + chunk + ".");
+                }
+            }
+            return new Manifest(name, Long.parseLong(sizes[0]), Integer.parseInt(sizes[1]), chunks);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt manifest " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lists the chunk file segments that hold a range of a saved file.
+     *
+     * @param manifest the file.
+     * @param start    the position of the first byte.
+     * @param end      the position after the last byte; at most the file's size.
+     * @return the segments, in order; empty if the range is.
+     * @throws IndexOutOfBoundsException if the range is not within the file.
+     */
+    public List<Segment> segments(Manifest manifest, long start, long end) {
+        if (start < 0 || start > end || end > manifest.size()) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") is outside the file's "
+                    + manifest.size() + " bytes.");
+        }
+        List<Segment> segments = new ArrayList<>();
+        long size = manifest.chunkSize();
+        for (long position = start; position < end; ) {
+            int index = (int) (position / size);
+            long offset = position - index * size;
+            long count = Math.min(size - offset, end - position);
+            segments.add(new Segment(chunkFile(manifest.chunks().get(index)), offset, count));
+            position += count;
+        }
+        return segments;
+    }
+
+    /**
+     * Maps a range of a saved file into memory, one read-only buffer per chunk it touches.
+     *
+     * @param manifest the file.
+     * @param start    the position of the first byte.
+     * @param end      the position after the last byte; at most the file's size.
+     * @return the buffers, in order; empty if the range is.
+     * @throws IOException               if a chunk file cannot be mapped.
+     * @throws IndexOutOfBoundsException if the range is not within the file.
+     */
+    public List<ByteBuffer> map(Manifest manifest, long start, long end) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (Segment segment : segments(manifest, start, end)) {
+            try (FileChannel chunk = FileChannel.open(segment.file(), StandardOpenOption.READ)) {
+                buffers.add(chunk.map(FileChannel.MapMode.READ_ONLY, segment.position(), segment.count()));
+            }
+        }
+        return buffers;
+    }
+
+    /**
+     * Saves a manifest under its name, or under the first free numbered variant of it. If the name or a variant
+     * already holds the same content, that manifest is returned instead.
+     */
+    private synchronized Manifest commit(String name, Manifest manifest) throws IOException {
+        Files.createDirectories(manifestDirectory);
+        for (int variant = 0; variant <= MAX_VARIANTS; variant++) {
+            String candidate = variant == 0 ? name : numbered(name, variant);
+            if (!Files.exists(manifestFile(candidate))) {
+                Manifest saved = new Manifest(candidate, manifest.size(), manifest.chunkSize(), manifest.chunks());
+                writeManifest(saved);
+                return saved;
+            }
+            try {
+                Manifest existing = open(candidate);
+                if (existing.sameContent(manifest)) {
+                    return existing;
+                }
+            } catch (IOException e) {
+                // Unreadable; treat the name as taken.
+            }
+        }
+        throw new IOException("too many files named " + name + ".");
+    }
+
+    private void writeManifest(Manifest manifest) throws IOException {
+        StringBuilder text = new StringBuilder(MANIFEST_HEADER).append('\n')
+                .append(manifest.size()).append(' ').append(manifest.chunkSize()).append('\n');
+        for (String chunk : manifest.chunks()) {
+            text.append(chunk).append('\n');
+        }
+        Path temp = Files.createTempFile(manifestDirectory, null, ".tmp");
+        try {
+            Files.writeString(temp, text, StandardCharsets.UTF_8);
+            Files.move(temp, manifestFile(manifest.name()), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Saves one chunk, unless a chunk with the same digest is already stored.
+     *
+     * @param chunk the chunk's bytes; consumed.
+     * @return the chunk's digest.
+     */
+    private String storeChunk(ByteBuffer chunk) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM provides SHA-256.", e);
+        }
+        sha256.update(chunk.duplicate());
+        String digest = HEX.formatHex(sha256.digest());
+        Path file = chunkFile(digest);
+        if (Files.exists(file)) {
+            return digest;
+        }
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), null, ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+            // Another writer may have stored the same chunk meanwhile; its bytes are the same, so either copy will do.
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return digest;
+    }
+
+    private Path chunkFile(String digest) {
+        return chunkDirectory.resolve(digest.substring(0, 2)).resolve(digest);
+    }
+
+    private Path manifestFile(String name) {
+        return manifestDirectory.resolve(name + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Numbers a name before its extension, if it has one: {@code report.pdf} becomes {@code report-1.pdf}.
+     *
+     * @param name    the name.
+     * @param variant the number.
+     * @return the numbered name.
+     */
+    static String numbered(String name, int variant) {
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0) {
+            return name + "-" + variant;
+        }
+        return name.substring(0, dot) + "-" + variant + name.substring(dot);
+    }
+
+    /**
+     * Checks that a name is a single, ordinary path element, so it cannot reach outside the store.
+     */
+    private static void checkName(String name) throws IOException {
+        boolean valid;
+        try {
+            Path path = Path.of(name);
+            valid = !name.isEmpty() && !name.equals(".") && !name.equals("..")
+                    && path.getFileName() != null && path.getFileName().toString().equals(name);
+        } catch (InvalidPathException e) {
+            valid = false;
+        }
+        if (!valid) {
+            throw new IOException("invalid file name " + name + ".");
+        }
+    }
+
+    /**
+     * Saves a file whose bytes arrive a piece at a time, holding at most one chunk in memory. Full chunks are stored
+     * as soon as they are complete; the name is only claimed by {@link #commit(String)}. A Writer is used by one
+     * thread and is not thread-safe.
+     */
+    public final class Writer {
+        private final List<String> chunks = new ArrayList<>();
+        private ByteBuffer pending = null;
+        private long size = 0;
+        private boolean committed = false;
+
+        private Writer() {
+        }
+
+        /**
+         * Appends bytes to the file.
+         *
+         * @param bytes the bytes; consumed.
+         * @throws IOException           if a completed chunk cannot be stored.
+         * @throws IllegalStateException if the writer has been committed.
+         */
+        public void write(ByteBuffer bytes) throws IOException {
+            if (committed) {
+                throw new IllegalStateException("Already committed.");
+            }
+            while (bytes.hasRemaining()) {
+                if (pending == null) {
+                    pending = ByteBuffer.allocate(chunkSize);
+                }
+                int count = Math.min(pending.remaining(), bytes.remaining());
+                pending.put(pending.position(), bytes, bytes.position(), count);
+                pending.position(pending.position() + count);
+                bytes.position(bytes.position() + count);
+                size += count;
+                if (!pending.hasRemaining()) {
+                    chunks.add(storeChunk(pending.flip()));
+                    pending.clear();
+                }
+            }
+        }
+
+        /**
+         * Returns the number of bytes written so far.
+         *
+         * @return the file's size so far.
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Stores the last chunk and saves the file's manifest.
+         *
+         * @param name the name to save the file under, or to number if taken.
+         * @return the manifest, holding the name actually used.
+         * @throws IOException           if the name is invalid or the file cannot be saved.
+         * @throws IllegalStateException if the writer has already been committed.
+         */
+        public Manifest commit(String name) throws IOException {
+            if (committed) {
+                throw new IllegalStateException("Already committed.");
+            }
+            checkName(name);
+            if (pending != null && pending.position() > 0) {
+                chunks.add(storeChunk(pending.flip()));
+            }
+            committed = true;
+            pending = null;
+            return ContentStore.this.commit(name, new Manifest(name, size, chunkSize, chunks));
+        }
+    }
+}
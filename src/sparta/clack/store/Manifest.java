@@ -0,0 +1,41 @@
+package sparta.clack.store;
+
+import java.util.List;
+
+/**
+ * The description of one file in a {@link ContentStore}: its name, its size, and the SHA-256 digests of the chunks
+ * that make it up, in order. Every chunk is {@code chunkSize} bytes except the last, which may be shorter; an empty
+ * file has no chunks.
+ *
+ * @param name      the name the file is saved under.
+ * @param size      the file's size in bytes.
+ * @param chunkSize the size of each chunk but the last.
+ * @param chunks    the chunks' digests as lowercase hex strings.
+ */
+public record Manifest(String name, long size, int chunkSize, List<String> chunks) {
+    /**
+     * Checks that the chunks add up to the size.
+     *
+     * @throws IllegalArgumentException if the size or chunk size is invalid, or there are too few or too many chunks.
+     */
+    public Manifest {
+        if (size < 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid size " + size + " or chunk size " + chunkSize + ".");
+        }
+        if (chunks.size() != (size + chunkSize - 1) / chunkSize) {
+            throw new IllegalArgumentException(chunks.size() + " chunks of " + chunkSize + " bytes cannot hold "
+                    + size + " bytes.");
+        }
+        chunks = List.copyOf(chunks);
+    }
+
+    /**
+     * Returns whether another manifest describes the same bytes, whatever its name.
+     *
+     * @param other the manifest to compare with.
+     * @return true if both have the same size, chunk size and chunks.
+     */
+    public boolean sameContent(Manifest other) {
+        return size == other.size && chunkSize == other.chunkSize && chunks.equals(other.chunks);
+    }
+}
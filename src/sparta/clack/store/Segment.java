@@ -0,0 +1,14 @@
+package sparta.clack.store;
+
+import java.nio.file.Path;
+
+/**
+ * A run of bytes within one chunk file of a {@link ContentStore}. A stored file, or a range of it, is read as a list
+ * of segments in order.
+ *
+ * @param file     the chunk file.
+ * @param position the position of the first byte in the chunk file.
+ * @param count    the number of bytes.
+ */
+public record Segment(Path file, long position, long count) {
+}
@@ -0,0 +1,4 @@
+/**
+ * Classes defining the content-addressed store that the server saves files in.
+ */
+package sparta.clack.store;
@@ -0,0 +1,206 @@
+package sparta.clack.cipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AesGcmCipherTest {
+    private static final String KEY = "AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8=";
+
+    @Test
+    void roundTripKeepsEveryCharacter() {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        for (String text : new String[]{"", "Attack at dawn!", "naïve café, 東京 🙂\n\ttabs"}) {
+            String ciphertext = cipher.encipher(text);
+            assertEquals(text, cipher.decipher(ciphertext));
+            assertEquals(text.getBytes(StandardCharsets.UTF_8).length + AesGcmCipher.OVERHEAD,
+                    Base64.getDecoder().decode(ciphertext).length);
+        }
+        assertEquals("Hello", new AesGcmCipher(KEY).decipher(cipher.encipher("Hello")));
+    }
+
+    @Test
+    void everyMessageHasItsOwnNonce() {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        assertNotEquals(cipher.encipher("same text"), cipher.encipher("same text"));
+    }
+
+    @Test
+    void keys() {
+        assertEquals("Hi", new AesGcmCipher(" " + KEY + "\n").decipher(new AesGcmCipher(KEY).encipher("Hi")));
+        for (int length : new int[]{16, 24, 32}) {
+            new AesGcmCipher(Base64.getEncoder().encodeToString(new byte[length]));
+        }
+        assertEquals(32, Base64.getDecoder().decode(AesGcmCipher.newKey()).length);
+        assertNotEquals(AesGcmCipher.newKey(), AesGcmCipher.newKey());
+        assertThrows(IllegalArgumentException.class, () -> new AesGcmCipher(null));
+        assertThrows(IllegalArgumentException.class, () -> new AesGcmCipher("LEMON"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AesGcmCipher(Base64.getEncoder().encodeToString(new byte[20])));
+        assertInstanceOf(AesGcmCipher.class, CipherEnum.AES_GCM.newCipher(KEY));
+    }
+
+    @Test
+    void tamperedOrForeignCiphertextDoesNotDecrypt() {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        byte[] frame = Base64.getDecoder().decode(cipher.encipher("Attack at dawn!"));
+        for (int i = 0; i < frame.length; i++) {
+            byte[] tampered = frame.clone();
+            tampered[i] ^= 1;
+            String ciphertext = Base64.getEncoder().encodeToString(tampered);
+            Exception e = assertThrows(IllegalArgumentException.class, () -> cipher.decipher(ciphertext));
+            assertEquals("Ciphertext failed authentication", e.getMessage());
+        }
+        String other = new AesGcmCipher(AesGcmCipher.newKey()).encipher("Attack at dawn!");
+        assertThrows(IllegalArgumentException.class, () -> cipher.decipher(other));
+        assertThrows(IllegalArgumentException.class, () -> cipher.decipher("not Base64!"));
+        assertThrows(IllegalArgumentException.class, () -> cipher.decipher("AAAA"));
+    }
+
+    @Test
+    void base64MatchesTheJdks() {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        SplittableRandom random = new SplittableRandom(2);
+        for (int length = 0; length < 200; length++) {
+            byte[] text = new byte[length];
+            random.nextBytes(text);
+            ByteBuffer frame = ByteBuffer.allocate(length + AesGcmCipher.OVERHEAD);
+            cipher.seal(ByteBuffer.wrap(text), frame);
+            String padded = Base64.getEncoder().encodeToString(frame.array());
+            String unpadded = Base64.getEncoder().withoutPadding().encodeToString(frame.array());
+            String expected = new String(text, StandardCharsets.UTF_8);
+            assertEquals(expected, cipher.decipher(padded));
+            assertEquals(expected, cipher.decipher(unpadded));
+
+            String ciphertext = cipher.encipher(expected);
+            assertEquals(Base64.getEncoder().encodeToString(Base64.getDecoder().decode(ciphertext)), ciphertext);
+        }
+        for (String bad : new String[]{"AAAA=", "AA=", "A===", "====", "AAAAA=A=", "AAAAA", "AAA\u00e9"}) {
+            Exception e = assertThrows(IllegalArgumentException.class, () -> cipher.decipher(bad), bad);
+            assertTrue(e.getMessage().startsWith("Ciphertext is not Base64"), e.getMessage());
+        }
+    }
+
+    @Test
+    void messagesOfAnyLength() {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        // Longer than the buffers a thread keeps, then short again, then a half surrogate pair, as getBytes sends it.
+        for (String text : new String[]{"é".repeat(AesGcmCipher.KEPT_BUFFER), "short", "half \ud83d pair"}) {
+            String expected = new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            assertEquals(expected, cipher.decipher(cipher.encipher(text)));
+        }
+    }
+
+    @Test
+    void sealAndOpenBuffers() {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        byte[] text = new byte[1000];
+        new SplittableRandom(1).nextBytes(text);
+        ByteBuffer frame = ByteBuffer.allocateDirect(2000).position(7);
+        assertEquals(1000 + AesGcmCipher.OVERHEAD, cipher.seal(ByteBuffer.wrap(text), frame));
+        assertEquals(7 + 1000 + AesGcmCipher.OVERHEAD, frame.position());
+
+        frame.flip().position(7);
+        ByteBuffer small = ByteBuffer.allocate(999);
+        assertThrows(BufferOverflowException.class, () -> cipher.open(frame, small));
+        assertEquals(7, frame.position());
+        ByteBuffer opened = ByteBuffer.allocate(1000);
+        assertEquals(1000, cipher.open(frame, opened));
+        assertFalse(frame.hasRemaining());
+        assertArrayEquals(text, opened.array());
+
+        assertThrows(BufferOverflowException.class,
+                () -> cipher.seal(ByteBuffer.wrap(text), ByteBuffer.allocate(1000 + AesGcmCipher.OVERHEAD - 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> cipher.open(ByteBuffer.allocate(AesGcmCipher.OVERHEAD - 1), ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void streamsRoundTripInFrames() throws IOException {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        SplittableRandom random = new SplittableRandom(3);
+        for (int length : new int[]{0, 1, AesGcmCipher.CHUNK, AesGcmCipher.CHUNK + 1, 50_000}) {
+            byte[] text = new byte[length];
+            random.nextBytes(text);
+            ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+            try (OutputStream out = new CipherOutputStream(sealed, cipher.encryptor())) {
+                out.write(text);
+            }
+            int frames = Math.max((length + AesGcmCipher.CHUNK - 1) / AesGcmCipher.CHUNK, 1);
+            assertEquals(AesGcmCipher.STREAM_ID_LENGTH + length + frames * AesGcmCipher.OVERHEAD, sealed.size());
+            try (InputStream in = new CipherInputStream(new ByteArrayInputStream(sealed.toByteArray()),
+                    cipher.decryptor())) {
+                assertArrayEquals(text, in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void streamsDetectReorderedTruncatedOrSplicedFrames() throws IOException {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        int id = AesGcmCipher.STREAM_ID_LENGTH;
+        int frame = AesGcmCipher.CHUNK + AesGcmCipher.OVERHEAD;
+        byte[] sealed = sealStream(cipher, new byte[3 * AesGcmCipher.CHUNK]);
+        byte[] other = sealStream(cipher, new byte[3 * AesGcmCipher.CHUNK]);
+        assertEquals(id + 3 * frame, sealed.length);
+        assertFalse(Arrays.equals(sealed, 0, id, other, 0, id));
+
+        byte[] swapped = sealed.clone();
+        System.arraycopy(sealed, id, swapped, id + frame, frame);
+        System.arraycopy(sealed, id + frame, swapped, id, frame);
+        byte[] truncated = Arrays.copyOf(sealed, id + 2 * frame);
+        byte[] spliced = sealed.clone();
+        System.arraycopy(other, id + frame, spliced, id + frame, frame);
+        byte[] headless = Arrays.copyOf(sealed, id - 1);
+        for (byte[] bad : new byte[][]{swapped, truncated, spliced, headless}) {
+            assertThrows(IOException.class, () -> {
+                try (InputStream in = new CipherInputStream(new ByteArrayInputStream(bad), cipher.decryptor())) {
+                    in.readAllBytes();
+                }
+            });
+        }
+    }
+
+    private static byte[] sealStream(AesGcmCipher cipher, byte[] text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream sealer = new CipherOutputStream(out, cipher.encryptor())) {
+            sealer.write(text);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void sharedAcrossThreads() throws InterruptedException {
+        AesGcmCipher cipher = new AesGcmCipher(KEY);
+        Thread[] threads = new Thread[4];
+        boolean[] ok = new boolean[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int n = t;
+            threads[t] = new Thread(() -> {
+                boolean good = true;
+                for (int i = 0; i < 1000; i++) {
+                    String text = "thread " + n + " message " + i;
+                    good &= text.equals(cipher.decipher(cipher.encipher(text)));
+                }
+                ok[n] = good;
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertTrue(ok[t]);
+        }
+    }
+}
@@ -2,6 +2,9 @@ package sparta.clack.cipher;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
 import static sparta.clack.cipher.CharacterCipher.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -143,4 +146,82 @@ class CharacterCipherTest {
         assertEquals(ALPHABET, shift(ALPHABET, 0));
         assertEquals("BCDEFGHIJKLMNOPQRSTUVWXYZA", shift(ALPHABET, 1));
     }
+
+    @Test
+    void testSubstitute() {
+        int[] schedule = {0, 1, 25};
+        assertThrows(IllegalArgumentException.class,
+                () -> substitute("AB c", schedule));
+        assertThrows(IllegalArgumentException.class,
+                () -> substitute("AB\u0100", schedule));
+
+        assertNull(substitute(null, schedule));
+        assertEquals("", substitute("", schedule));
+        assertEquals("ABZEEB", substitute("AAAEDC", schedule));
+        assertEquals("AAAEDC", substitute("ABZEEB", inverse(schedule)));
+        assertArrayEquals(new int[]{0, 25, 1}, inverse(schedule));
+        assertEquals(0, indexOf('A'));
+        assertEquals(25, indexOf('Z'));
+        assertEquals(-1, indexOf('a'));
+        assertEquals(-1, indexOf('\u0141'));
+    }
+
+    @Test
+    void testSubstituteWords() {
+        int[] schedule = {11, 4, 12, 14, 13};
+        String letters = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGZZZAAA";
+        assertEquals(substitute(letters, schedule, false), substitute(letters, schedule, true));
+        assertEquals(letters, substitute(substitute(letters, schedule), inverse(schedule)));
+        // A non-letter after whole words of letters is still reported.
+        for (char c : new char[]{'@', '[', 'a', '\u00c1'}) {
+            Exception e = assertThrows(IllegalArgumentException.class,
+                    () -> substitute("ABCDEFGHIJKLMNOPQ" + c + "ST", schedule));
+            assertEquals("Argument ('" + c + "') not in ALPHABET", e.getMessage());
+        }
+    }
+
+    @Test
+    void testParallelMatchesSequential() {
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder letters = new StringBuilder();
+        while (letters.length() < 5 * SEGMENT + 3) {
+            letters.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        String text = letters.toString();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (CharacterCipher cipher : new CharacterCipher[]{
+                    new CaesarCipher(3), new VignereCipher("LEMONADE"), new PlayfairCipher("MONARCHY")}) {
+                String preptext = cipher.prep(text);
+                String ciphertext = cipher.encrypt(preptext);
+                assertEquals(ciphertext, cipher.encryptParallel(preptext, pool));
+                assertEquals(cipher.decrypt(ciphertext), cipher.decryptParallel(ciphertext, pool));
+                assertEquals(ciphertext, cipher.encryptParallel(preptext));
+                assertNull(cipher.encryptParallel(null, pool));
+                assertEquals(ciphertext, cipher.encipher(text));
+                assertEquals(cipher.decrypt(ciphertext), cipher.decipher(ciphertext));
+            }
+            // The first bad character is reported, wherever the segments end.
+            String bad = text.substring(0, 3 * SEGMENT) + "a" + text.substring(3 * SEGMENT) + "!";
+            Exception e = assertThrows(IllegalArgumentException.class,
+                    () -> new CaesarCipher(3).encryptParallel(bad, pool));
+            assertEquals("Argument ('a') not in ALPHABET", e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testRejectedSegmentsAreDoneOnTheCaller() {
+        StringBuilder letters = new StringBuilder();
+        while (letters.length() < 3 * SEGMENT) {
+            letters.append(ALPHABET);
+        }
+        String preptext = letters.toString();
+        CharacterCipher cipher = new VignereCipher("LEMONADE");
+        ForkJoinPool pool = CharacterCipher.newSegmentPool(4);
+        pool.shutdown();
+        assertEquals(cipher.encrypt(preptext), cipher.encryptParallel(preptext, pool));
+        assertEquals(preptext, cipher.decryptParallel(cipher.encrypt(preptext), pool));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package sparta.clack.cipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherCacheTest {
+
+    @Test
+    void newCipherBuildsEachType() {
+        assertInstanceOf(CaesarCipher.class, CipherEnum.CAESAR.newCipher("D"));
+        assertInstanceOf(PlayfairCipher.class, CipherEnum.PLAYFAIR.newCipher("MONARCHY"));
+        assertInstanceOf(VignereCipher.class, CipherEnum.VIGNERE.newCipher("LEMON"));
+        assertThrows(IllegalArgumentException.class, () -> CipherEnum.VIGNERE.newCipher("lemon"));
+        assertThrows(IllegalArgumentException.class, () -> CipherEnum.CAESAR.newCipher(null));
+    }
+
+    @Test
+    void sameTypeAndKeyShareOneCipher() {
+        CipherCache cache = new CipherCache(4);
+        MessageCipher first = cache.get(CipherEnum.VIGNERE, "LEMON");
+        assertSame(first, cache.get(CipherEnum.VIGNERE, "LEMON"));
+        assertNotSame(first, cache.get(CipherEnum.PLAYFAIR, "LEMON"));
+        assertNotSame(first, cache.get(CipherEnum.VIGNERE, "LIME"));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.getSize());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        CipherCache cache = new CipherCache(2);
+        MessageCipher a = cache.get(CipherEnum.CAESAR, "A");
+        MessageCipher b = cache.get(CipherEnum.CAESAR, "B");
+        assertSame(a, cache.get(CipherEnum.CAESAR, "A"));
+        cache.get(CipherEnum.CAESAR, "C");
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getSize());
+        assertSame(a, cache.get(CipherEnum.CAESAR, "A"));
+        assertNotSame(b, cache.get(CipherEnum.CAESAR, "B"));
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    void invalidKeysAreNotCached() {
+        CipherCache cache = new CipherCache();
+        assertThrows(IllegalArgumentException.class, () -> cache.get(CipherEnum.VIGNERE, "NOT VALID"));
+        assertThrows(IllegalArgumentException.class, () -> cache.get(CipherEnum.PLAYFAIR, null));
+        assertThrows(NullPointerException.class, () -> cache.get(null, "KEY"));
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getMisses());
+        assertEquals(CipherCache.DEFAULT_CAPACITY, cache.getCapacity());
+        assertThrows(IllegalArgumentException.class, () -> new CipherCache(0));
+    }
+
+    @Test
+    void concurrentLookupsShareOneCipher() throws InterruptedException {
+        CipherCache cache = new CipherCache(8);
+        Set<MessageCipher> seen = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    seen.add(cache.get(CipherEnum.PLAYFAIR, "KEY" + i % 4));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4, seen.size());
+        assertEquals(8_000, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    void concurrentMissesKeepTheCacheWithinCapacity() throws InterruptedException {
+        CipherCache cache = new CipherCache(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    cache.get(CipherEnum.CAESAR, String.valueOf((char) ('A' + i % 26)));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cache.getSize() <= 4, cache.toString());
+        assertEquals(8_000, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getEvictions() >= 26 - 4, cache.toString());
+    }
+}
@@ -0,0 +1,218 @@
+package sparta.clack.cipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CipherTransformTest {
+    private static final String CHARACTERS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZJJXXabcdefghijklmnopqrstuvwxyz ,.!?'\n0123456789";
+
+    private static CharacterCipher[] ciphers() {
+        return new CharacterCipher[]{
+                new CaesarCipher(3), new CaesarCipher(-30), new VignereCipher("LEMON"), new PlayfairCipher("MONARCHY"),
+                new PlayfairCipher("")};
+    }
+
+    private static String text(SplittableRandom random, int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            char c = CHARACTERS.charAt(random.nextInt(CHARACTERS.length()));
+            text.append(c);
+            if (random.nextInt(10) == 0) {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] transformInChunks(CipherTransform transform, byte[] input, SplittableRandom random) {
+        ByteBuffer in = ByteBuffer.wrap(input);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        while (in.hasRemaining()) {
+            ByteBuffer chunk = in.slice().limit(Math.min(in.remaining(), random.nextInt(1, 20)));
+            while (chunk.hasRemaining()) {
+                ByteBuffer out = ByteBuffer.allocate(random.nextInt(transform.maxOutput(), 8));
+                transform.update(chunk, out);
+                result.write(out.array(), 0, out.position());
+            }
+            in.position(in.position() + chunk.position());
+        }
+        ByteBuffer out = ByteBuffer.allocate(transform.maxOutput());
+        transform.finish(out);
+        result.write(out.array(), 0, out.position());
+        return result.toByteArray();
+    }
+
+    @Test
+    void buffersMatchStrings() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (CharacterCipher cipher : ciphers()) {
+            for (int length : new int[]{0, 1, 2, 3, 17, 500}) {
+                String text = text(random, length);
+                String ciphertext = cipher.encrypt(cipher.prep(text));
+                assertEquals(ciphertext, string(transformInChunks(cipher.encryptor(), bytes(text), random)),
+                        cipher + " " + text);
+                assertEquals(cipher.decrypt(ciphertext),
+                        string(transformInChunks(cipher.decryptor(), bytes(ciphertext), random)));
+            }
+        }
+    }
+
+    @Test
+    void streamsMatchStrings() throws IOException {
+        SplittableRandom random = new SplittableRandom(7);
+        for (CharacterCipher cipher : ciphers()) {
+            String text = text(random, 20_000);
+            String ciphertext = cipher.encrypt(cipher.prep(text));
+
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            try (OutputStream out = new CipherOutputStream(encrypted, cipher.encryptor())) {
+                byte[] input = bytes(text);
+                for (int i = 0; i < input.length; ) {
+                    int n = Math.min(input.length - i, random.nextInt(0, 3000));
+                    out.write(input, i, n);
+                    i += n;
+                    out.write(new byte[0]);
+                }
+            }
+            assertEquals(ciphertext, encrypted.toString(StandardCharsets.US_ASCII));
+
+            try (InputStream in = new CipherInputStream(new ByteArrayInputStream(bytes(ciphertext)),
+                    cipher.decryptor())) {
+                assertEquals(cipher.decrypt(ciphertext), string(in.readAllBytes()));
+            }
+
+            try (InputStream in = new CipherInputStream(new ByteArrayInputStream(bytes(text)), cipher.encryptor())) {
+                assertEquals(ciphertext.charAt(0), in.read());
+                assertEquals(10, in.skip(10));
+                assertEquals(ciphertext.substring(11), string(in.readAllBytes()));
+                assertEquals(-1, in.read());
+            }
+        }
+    }
+
+    /**
+     * Transform a whole input, in chunks of random sizes into outputs of random sizes, either in bulk or a byte at a
+     * time.
+     */
+    private static byte[] transformAll(CipherTransform transform, byte[] input, boolean bulk,
+                                       SplittableRandom random) {
+        ByteBuffer in = ByteBuffer.wrap(input);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        while (in.hasRemaining()) {
+            ByteBuffer out = ByteBuffer.allocate(random.nextInt(transform.maxOutput(), 3 * transform.maxOutput()));
+            ByteBuffer chunk = in.slice().limit(Math.min(in.remaining(), random.nextInt(1, 3 * AesGcmCipher.CHUNK)));
+            if (bulk) {
+                transform.update(chunk, out);
+            } else {
+                while (chunk.hasRemaining() && out.remaining() >= transform.maxOutput()) {
+                    transform.transform(chunk.get(), out);
+                }
+            }
+            in.position(in.position() + chunk.position());
+            result.write(out.array(), 0, out.position());
+        }
+        ByteBuffer out = ByteBuffer.allocate(transform.maxOutput());
+        transform.finish(out);
+        result.write(out.array(), 0, out.position());
+        return result.toByteArray();
+    }
+
+    @Test
+    void aesBulkMatchesByteAtATime() {
+        AesGcmCipher cipher = new AesGcmCipher(AesGcmCipher.newKey());
+        SplittableRandom random = new SplittableRandom(5);
+        for (int length : new int[]{0, 1, AesGcmCipher.CHUNK, AesGcmCipher.CHUNK + 1, 5 * AesGcmCipher.CHUNK + 7}) {
+            byte[] text = new byte[length];
+            random.nextBytes(text);
+            int frames = Math.max((length + AesGcmCipher.CHUNK - 1) / AesGcmCipher.CHUNK, 1);
+            int sealedLength = AesGcmCipher.STREAM_ID_LENGTH + length + frames * AesGcmCipher.OVERHEAD;
+
+            byte[] sealedInBulk = transformAll(cipher.encryptor(), text, true, random);
+            assertEquals(sealedLength, sealedInBulk.length);
+            assertArrayEquals(text, transformAll(cipher.decryptor(), sealedInBulk, false, random));
+
+            byte[] sealedByBytes = transformAll(cipher.encryptor(), text, false, random);
+            assertEquals(sealedLength, sealedByBytes.length);
+            assertArrayEquals(text, transformAll(cipher.decryptor(), sealedByBytes, true, random));
+        }
+    }
+
+    @Test
+    void stateCarriesAcrossChunks() {
+        CipherTransform vignere = new VignereCipher("LEMON").encryptor();
+        ByteBuffer out = ByteBuffer.allocate(16);
+        vignere.update(ByteBuffer.wrap(bytes("ATT")), out);
+        vignere.update(ByteBuffer.wrap(bytes("ACKATDAWN")), out);
+        vignere.finish(out);
+        assertEquals("LXFOPVEFRNHR", new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII));
+
+        CipherTransform playfair = new PlayfairCipher("KEY").encryptor();
+        out = ByteBuffer.allocate(16);
+        playfair.update(ByteBuffer.wrap(bytes("bal")), out);
+        assertEquals(2, out.position());
+        playfair.update(ByteBuffer.wrap(bytes("loon")), out);
+        playfair.finish(out);
+        PlayfairCipher pf = new PlayfairCipher("KEY");
+        assertEquals(pf.encrypt(pf.prep("balloon")), new String(out.array(), 0, out.position(),
+                StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void badCiphertext() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new CaesarCipher(3).decryptor().update(ByteBuffer.wrap(bytes("AB c")), ByteBuffer.allocate(8)));
+        Exception e = assertThrows(IllegalArgumentException.class,
+                () -> new PlayfairCipher("KEY").decryptor().update(ByteBuffer.wrap(bytes("A!")),
+                        ByteBuffer.allocate(8)));
+        assertEquals("Character not found in matrix", e.getMessage());
+
+        CipherTransform playfair = new PlayfairCipher("KEY").decryptor();
+        playfair.update(ByteBuffer.wrap(bytes("ABC")), ByteBuffer.allocate(8));
+        assertThrows(IllegalArgumentException.class, () -> playfair.finish(ByteBuffer.allocate(8)));
+
+        IOException io = assertThrows(IOException.class, () -> {
+            try (InputStream in = new CipherInputStream(new ByteArrayInputStream(bytes("ABC1")),
+                    new VignereCipher("KEY").decryptor())) {
+                in.readAllBytes();
+            }
+        });
+        assertEquals("Argument ('1') not in ALPHABET", io.getMessage());
+        assertThrows(IOException.class, () -> {
+            try (OutputStream out = new CipherOutputStream(new ByteArrayOutputStream(),
+                    new PlayfairCipher("KEY").decryptor())) {
+                out.write(bytes("ABC"));
+            }
+        });
+    }
+
+    @Test
+    void finishedTransform() {
+        CipherTransform caesar = new CaesarCipher(1).encryptor();
+        caesar.finish(ByteBuffer.allocate(1));
+        assertThrows(IllegalStateException.class, () -> caesar.update(ByteBuffer.allocate(1), ByteBuffer.allocate(1)));
+        assertThrows(IllegalStateException.class, () -> caesar.finish(ByteBuffer.allocate(1)));
+
+        CipherTransform playfair = new PlayfairCipher("KEY").encryptor();
+        assertThrows(BufferOverflowException.class, () -> playfair.finish(ByteBuffer.allocate(1)));
+    }
+}
@@ -0,0 +1,52 @@
+package sparta.clack.cipher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyExchangeTest {
+
+    @Test
+    void bothSidesAgreeTheSameKey() {
+        KeyExchange client = new KeyExchange();
+        KeyExchange server = new KeyExchange();
+        String key = client.agree(server.publicKey());
+        assertEquals(key, server.agree(client.publicKey()));
+        assertEquals(32, Base64.getDecoder().decode(key).length);
+        assertEquals("Hi", new AesGcmCipher(key).decipher(new AesGcmCipher(server.agree(client.publicKey()))
+                .encipher("Hi")));
+
+        // Every exchange makes new key pairs, and so a new key.
+        KeyExchange other = new KeyExchange();
+        assertNotEquals(client.publicKey(), other.publicKey());
+        assertNotEquals(key, other.agree(server.publicKey()));
+        assertEquals(key, client.agree(" " + server.publicKey() + "\n"));
+    }
+
+    @Test
+    void hkdfMatchesRfc5869() {
+        // Test case 3 of RFC 5869: no salt, which is a salt of zeros, and no info; the first 32 bytes of its output.
+        byte[] secret = new byte[22];
+        Arrays.fill(secret, (byte) 0x0b);
+        assertEquals("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d",
+                HexFormat.of().formatHex(KeyExchange.hkdf(secret, new byte[0])));
+    }
+
+    @Test
+    void badPublicKeysAreRefused() {
+        KeyExchange exchange = new KeyExchange();
+        byte[] encoded = Base64.getDecoder().decode(new KeyExchange().publicKey());
+        // The point 0 has small order: anyone could guess the secret it agrees.
+        byte[] zero = Arrays.copyOf(encoded, encoded.length);
+        Arrays.fill(zero, encoded.length - 32, encoded.length, (byte) 0);
+        for (String bad : new String[]{null, "not Base64!", AesGcmCipher.newKey(),
+                Base64.getEncoder().encodeToString(Arrays.copyOf(encoded, encoded.length - 1)),
+                Base64.getEncoder().encodeToString(zero)}) {
+            assertThrows(IllegalArgumentException.class, () -> exchange.agree(bad), bad);
+        }
+    }
+}
@@ -68,4 +68,21 @@ class PlayfairCipherTest {
         String singleCharEncrypted = pf.encrypt(pf.prep("A"));
         assertNotNull(singleCharEncrypted);
     }
+
+    @Test
+    void roundTrip() {
+        PlayfairCipher pf = new PlayfairCipher("MONARCHY");
+        String preptext = pf.prep("THE QUICK BROWN FOX JUMPED OVER THE LAZY POODLE");
+        assertEquals(preptext, pf.decrypt(pf.encrypt(preptext)));
+    }
+
+    @Test
+    void characterNotInMatrix() {
+        PlayfairCipher pf = new PlayfairCipher("KEY");
+        Exception e = assertThrows(IllegalArgumentException.class,
+                () -> pf.encrypt("AJ"));
+        assertEquals("Character not found in matrix", e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> pf.decrypt("a!"));
+    }
 }
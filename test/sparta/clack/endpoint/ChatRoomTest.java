@@ -0,0 +1,141 @@
+package sparta.clack.endpoint;
+
+import org.junit.jupiter.api.Test;
+import sparta.clack.cipher.CaesarCipher;
+import sparta.clack.cipher.MessageCipher;
+import sparta.clack.cipher.CipherCache;
+import sparta.clack.cipher.CipherEnum;
+import sparta.clack.cipher.PlayfairCipher;
+import sparta.clack.message.ListUsersMessage;
+import sparta.clack.message.Message;
+import sparta.clack.message.TextMessage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatRoomTest {
+
+    /**
+     * A member that keeps every frame delivered to it.
+     */
+    static final class Recorder implements ChatRoom.Member {
+        final String username;
+        final MessageCipher cipher;
+        final List<ByteBuffer> frames = new ArrayList<>();
+
+        Recorder(String username, MessageCipher cipher) {
+            this.username = username;
+            this.cipher = cipher;
+        }
+
+        @Override
+        public String getUsername() {
+            return username;
+        }
+
+        @Override
+        public void deliver(Message msg, ByteBuffer frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public MessageCipher getCipher() {
+            return cipher;
+        }
+
+        /**
+         * Decode the texts of the TEXT messages delivered so far.
+         *
+         * @return the texts, in the order they were delivered.
+         */
+        List<String> texts() {
+            List<String> texts = new ArrayList<>();
+            for (ByteBuffer frame : frames) {
+                try {
+                    Message msg = Frames.decode(frame.duplicate().position(Frames.HEADER_LENGTH));
+                    texts.add(((TextMessage) msg).getText());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return texts;
+        }
+    }
+
+    @Test
+    void broadcastReachesEveryMemberUntilTheyLeave() throws IOException {
+        ChatRoom room = new ChatRoom();
+        Recorder al = new Recorder("al", null);
+        Recorder bo = new Recorder("bo", null);
+        room.join(al);
+        room.join(bo);
+        assertEquals(List.of("al", "bo"), room.getUsernames());
+        room.broadcast(new TextMessage("al", "one"));
+        room.leave(bo);
+        room.leave(bo);
+        room.broadcast(new TextMessage("al", "two"));
+        assertEquals(List.of("one", "two"), al.texts());
+        assertEquals(List.of("one"), bo.texts());
+        assertEquals(1, room.size());
+    }
+
+    @Test
+    void textIsEncryptedAndEncodedOncePerCipher() throws IOException {
+        ChatRoom room = new ChatRoom();
+        CipherCache ciphers = new CipherCache();
+        Recorder plainA = new Recorder("plainA", null);
+        Recorder plainB = new Recorder("plainB", null);
+        Recorder caesarA = new Recorder("caesarA", ciphers.get(CipherEnum.CAESAR, "D"));
+        Recorder caesarB = new Recorder("caesarB", ciphers.get(CipherEnum.CAESAR, "D"));
+        Recorder vignere = new Recorder("vignere", ciphers.get(CipherEnum.VIGNERE, "LEMON"));
+        List<Recorder> members = List.of(plainA, caesarA, vignere, plainB, caesarB);
+        members.forEach(room::join);
+        room.broadcast(new TextMessage("plainA", "ATTACKATDAWN"));
+
+        assertEquals(List.of("ATTACKATDAWN"), plainA.texts());
+        assertEquals(List.of("DWWDFNDWGDZQ"), caesarA.texts());
+        assertEquals(List.of("LXFOPVEFRNHR"), vignere.texts());
+        // Members with the same cipher get views of one frame, each with its own position.
+        assertSame(plainA.frames.getFirst().array(), plainB.frames.getFirst().array());
+        assertSame(caesarA.frames.getFirst().array(), caesarB.frames.getFirst().array());
+        assertNotSame(plainA.frames.getFirst().array(), caesarA.frames.getFirst().array());
+        assertNotSame(caesarA.frames.getFirst().array(), vignere.frames.getFirst().array());
+        caesarA.frames.getFirst().position(3);
+        assertEquals(0, caesarB.frames.getFirst().position());
+    }
+
+    @Test
+    void otherMessagesAreNeverEncrypted() throws IOException {
+        ChatRoom room = new ChatRoom();
+        Recorder plain = new Recorder("plain", null);
+        Recorder caesar = new Recorder("caesar", new CaesarCipher(3));
+        room.join(plain);
+        room.join(caesar);
+        room.broadcast(new ListUsersMessage("plain"));
+        assertSame(plain.frames.getFirst().array(), caesar.frames.getFirst().array());
+    }
+
+    @Test
+    void failingCipherOnlyCostsItsOwnMembers() throws IOException {
+        ChatRoom room = new ChatRoom();
+        // A key of one letter leaves the rest of the alphabet out of the matrix, so HELLO cannot be encrypted.
+        MessageCipher broken = new PlayfairCipher("A".repeat(25));
+        Recorder plain = new Recorder("plain", null);
+        Recorder caesar = new Recorder("caesar", new CaesarCipher(3));
+        Recorder first = new Recorder("first", broken);
+        Recorder second = new Recorder("second", broken);
+        for (Recorder member : List.of(first, plain, second, caesar)) {
+            room.join(member);
+        }
+        room.broadcast(new TextMessage("plain", "HELLO"));
+        assertEquals(List.of("HELLO"), plain.texts());
+        assertEquals(List.of("KHOOR"), caesar.texts());
+        assertTrue(first.frames.isEmpty());
+        assertTrue(second.frames.isEmpty());
+    }
+}
@@ -0,0 +1,39 @@
+package sparta.clack.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+class ClientSessionTest {
+
+    Loopback server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = Loopback.blocking();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Test that a client pipelining requests without reading the replies stops being read once its replies back up,
+     * and is read again, and answered in full, once it reads them.
+     */
+    @Test
+    void unreadRepliesStopReading() throws Exception {
+        server.assertPipeliningIsHeldBack();
+    }
+
+    /**
+     * Test that broadcasts are recorded in the traffic log as they go out to each member.
+     */
+    @Test
+    void broadcastsAreLogged() throws IOException {
+        server.assertBroadcastsAreLogged();
+    }
+}
@@ -0,0 +1,289 @@
+package sparta.clack.endpoint;
+
+import sparta.clack.cipher.CipherCache;
+import sparta.clack.message.HelpMessage;
+import sparta.clack.message.LoginMessage;
+import sparta.clack.message.Message;
+import sparta.clack.message.TextMessage;
+import sparta.clack.metrics.ServerMetrics;
+import sparta.clack.store.ContentStore;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A server engine listening on an ephemeral loopback port, with its store and traffic log in a temporary directory,
+ * for tests that talk to it over real sockets.
+ */
+final class Loopback implements Closeable {
+    /**
+     * The receive buffer of the listening socket, inherited by every accepted connection. Kept small so that a client
+     * that stops being read fills it quickly.
+     */
+    static final int SERVER_RECEIVE_BUFFER = 16 * 1024;
+
+    /**
+     * The most requests {@link #assertPipeliningIsHeldBack()} sends; far more than the sockets' buffers hold.
+     */
+    static final int MAX_PIPELINED = 1_000_000;
+
+    /**
+     * How long writes must make no progress for the server to count as no longer reading.
+     */
+    static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    final Path root;
+    final ServerContext context;
+    private final ServerSocketChannel listener;
+    private final Thread thread;
+
+    /**
+     * Starts an engine.
+     *
+     * @param name   what to call the temporary directory.
+     * @param engine starts the engine's thread, serving the listening channel with the context.
+     * @throws IOException if the directory or the listening channel cannot be created.
+     */
+    private Loopback(String name, Engine engine) throws IOException {
+        root = Files.createTempDirectory(name);
+        ChatRoom room = new ChatRoom();
+        context = new ServerContext("server", room,
+                new UploadRegistry(new ContentStore(root.resolve("store")), root.resolve("parts")),
+                new CipherCache(), new TrafficLog(root.resolve("traffic.log")), new ServerMetrics(room::size));
+        listener = ServerSocketChannel.open();
+        listener.setOption(StandardSocketOptions.SO_RCVBUF, SERVER_RECEIVE_BUFFER);
+        listener.bind(new InetSocketAddress("127.0.0.1", 0));
+        thread = engine.start(listener, context);
+    }
+
+    /**
+     * What starts an engine's thread.
+     */
+    private interface Engine {
+        Thread start(ServerSocketChannel listener, ServerContext context) throws IOException;
+    }
+
+    /**
+     * Starts the blocking engine: a virtual thread running a {@link ClientSession} per connection, as {@link Server}
+     * does.
+     *
+     * @return the running engine.
+     * @throws IOException if it cannot listen.
+     */
+    static Loopback blocking() throws IOException {
+        return new Loopback("loopback-blocking", (listener, context) -> Thread.ofPlatform().start(() -> {
+            try {
+                while (true) {
+                    Thread.ofVirtual().start(new ClientSession(listener.accept(), context));
+                }
+            } catch (IOException e) {
+                // Closed by close().
+            }
+        }));
+    }
+
+    /**
+     * Starts the non-blocking engine: one {@link EventLoop} that accepts and serves every connection, as
+     * {@link NioServer} does.
+     *
+     * @return the running engine.
+     * @throws IOException if its selector cannot be opened.
+     */
+    static Loopback nio() throws IOException {
+        return new Loopback("loopback-nio", (listener, context) -> {
+            EventLoop loop = new EventLoop(0, context);
+            loop.listen(listener);
+            return Thread.ofPlatform().start(loop);
+        });
+    }
+
+    /**
+     * Connects a client and reads the greeting.
+     *
+     * @return the client, connected.
+     * @throws IOException if it cannot connect.
+     */
+    Peer connect() throws IOException {
+        Peer peer = new Peer(SocketChannel.open(listener.getLocalAddress()));
+        assertEquals(SessionState.GREETING, ((TextMessage) peer.receive()).getText());
+        return peer;
+    }
+
+    /**
+     * Connects a client and logs it in.
+     *
+     * @param username the user to log in as.
+     * @return the client, logged in.
+     * @throws IOException if it cannot connect or log in.
+     */
+    Peer logIn(String username) throws IOException {
+        Peer peer = connect();
+        peer.send(new LoginMessage(username, new StringBuilder(username).reverse().toString()));
+        assertEquals("Login successful.", ((TextMessage) peer.receive()).getText());
+        return peer;
+    }
+
+    /**
+     * Pipeline numbered HELP requests without reading the replies, until the server stops reading them, then read
+     * every reply. Asserts that the server stopped well before {@link #MAX_PIPELINED} requests, rather than queueing
+     * replies without limit, and that it still answered every request it was sent, in order.
+     *
+     * @throws Exception if the connection fails, or the replies do not all arrive within a minute.
+     */
+    void assertPipeliningIsHeldBack() throws Exception {
+        try (Peer peer = logIn("al")) {
+            SocketChannel channel = peer.channel;
+            channel.configureBlocking(false);
+            int sent = 0;
+            ByteBuffer frame = null; // The request being written, if it has not been written completely.
+            long lastProgress = System.nanoTime();
+            while (sent < MAX_PIPELINED) {
+                if (frame == null) {
+                    Message help = new HelpMessage("al");
+                    help.setRequestId(sent + 1);
+                    frame = Frames.encode(help);
+                }
+                if (channel.write(frame) > 0) {
+                    lastProgress = System.nanoTime();
+                } else if (System.nanoTime() - lastProgress > STALL_NANOS) {
+                    break;
+                } else {
+                    Thread.sleep(1);
+                }
+                if (!frame.hasRemaining()) {
+                    sent++;
+                    frame = null;
+                }
+            }
+            assertTrue(sent < MAX_PIPELINED, "server read all " + sent + " requests without their replies being read");
+
+            channel.configureBlocking(true);
+            int requests = frame == null ? sent : sent + 1;
+            CompletableFuture<Void> replies = new CompletableFuture<>();
+            Thread.ofVirtual().start(() -> {
+                try {
+                    for (int i = 1; i <= requests; i++) {
+                        assertEquals(i, peer.receive().getRequestId());
+                    }
+                    replies.complete(null);
+                } catch (Throwable e) {
+                    replies.completeExceptionally(e);
+                }
+            });
+            if (frame != null) {
+                peer.write(frame);
+            }
+            replies.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Broadcast a TEXT message from one of two users, and assert that the traffic log records it going out to each.
+     *
+     * @throws IOException if the connection fails, or the log cannot be started or read.
+     */
+    void assertBroadcastsAreLogged() throws IOException {
+        context.traffic().start();
+        try (Peer al = logIn("al"); Peer bo = logIn("bo")) {
+            al.send(new TextMessage("al", "hello"));
+            assertEquals("hello", ((TextMessage) al.receive()).getText());
+            assertEquals("hello", ((TextMessage) bo.receive()).getText());
+        }
+        context.traffic().close();
+        try (Stream<String> lines = Files.lines(root.resolve("traffic.log"))) {
+            assertEquals(2, lines.filter(line -> line.contains(" => TEXT al ")).count());
+        }
+    }
+
+    /**
+     * Stops the engine, which closes the connections it still serves, and deletes the temporary directory.
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        listener.close();
+        try {
+            thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * A client connection that speaks in frames, or in raw bytes.
+     */
+    static final class Peer implements Closeable {
+        final SocketChannel channel;
+
+        Peer(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Write bytes, all of them, on a blocking channel.
+         *
+         * @param bytes the bytes.
+         * @throws IOException if writing fails.
+         */
+        void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        /**
+         * Send a message as one frame.
+         *
+         * @param msg the message.
+         * @throws IOException if it cannot be encoded or written.
+         */
+        void send(Message msg) throws IOException {
+            write(Frames.encode(msg));
+        }
+
+        /**
+         * Read the next frame.
+         *
+         * @return the message it holds.
+         * @throws IOException if reading fails, or the server closed the connection.
+         */
+        Message receive() throws IOException {
+            ByteBuffer header = readFully(ByteBuffer.allocate(Frames.HEADER_LENGTH));
+            ByteBuffer body = readFully(ByteBuffer.allocate(Frames.checkBodyLength(header.getInt(0))));
+            return Frames.decode(body.flip());
+        }
+
+        private ByteBuffer readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Connection closed by server.");
+                }
+            }
+            return buffer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
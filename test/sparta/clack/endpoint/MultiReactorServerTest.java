@@ -0,0 +1,77 @@
+package sparta.clack.endpoint;
+
+import org.junit.jupiter.api.Test;
+import sparta.clack.message.TextMessage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiReactorServerTest {
+
+    /**
+     * Test that each connection goes to the loop owning the fewest, so connections are spread evenly over the loops,
+     * and that once a loop's connections close, it is given the next ones.
+     */
+    @Test
+    void connectionsGoToTheLeastLoadedLoop() throws Exception {
+        MultiReactorServer server = new MultiReactorServer(1024, "server", 4);
+        List<Loopback.Peer> peers = new ArrayList<>();
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress("127.0.0.1", 0));
+            Thread acceptor = Thread.ofPlatform().start(() -> {
+                try {
+                    server.serve(listener);
+                } catch (IOException e) {
+                    // Closed at the end of the test.
+                }
+            });
+            try {
+                // Ties go to the first loop, so connection i goes to loop i % 4.
+                for (int i = 0; i < 12; i++) {
+                    peers.add(connect(listener));
+                }
+                assertEquals(List.of(3, 3, 3, 3), connections(server));
+
+                for (int i = 0; i < 12; i += 4) {
+                    peers.get(i).close();
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (connections(server).getFirst() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertEquals(List.of(0, 3, 3, 3), connections(server));
+
+                for (int i = 0; i < 3; i++) {
+                    peers.add(connect(listener));
+                }
+                assertEquals(List.of(3, 3, 3, 3), connections(server));
+            } finally {
+                for (Loopback.Peer peer : peers) {
+                    peer.close();
+                }
+                listener.close();
+                acceptor.join(10_000);
+            }
+        }
+    }
+
+    /**
+     * Connects a client and waits for the greeting, by which time the connection has been assigned to a loop.
+     */
+    private static Loopback.Peer connect(ServerSocketChannel listener) throws IOException {
+        Loopback.Peer peer = new Loopback.Peer(SocketChannel.open(listener.getLocalAddress()));
+        assertEquals(SessionState.GREETING, ((TextMessage) peer.receive()).getText());
+        return peer;
+    }
+
+    private static List<Integer> connections(MultiReactorServer server) {
+        return server.getLoopStats().stream().map(LoopStats::connections).toList();
+    }
+}
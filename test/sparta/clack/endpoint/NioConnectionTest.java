@@ -0,0 +1,149 @@
+package sparta.clack.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sparta.clack.message.HelpMessage;
+import sparta.clack.message.Message;
+import sparta.clack.message.TextMessage;
+import sparta.clack.message.UploadStatusMessage;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioConnectionTest {
+
+    Loopback server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = Loopback.nio();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Test that a client pipelining requests without reading the replies stops being read once its replies back up,
+     * and is read again, and answered in full, once it reads them.
+     */
+    @Test
+    void unreadRepliesStopReading() throws Exception {
+        server.assertPipeliningIsHeldBack();
+    }
+
+    /**
+     * Test that broadcasts are recorded in the traffic log as they go out to each member.
+     */
+    @Test
+    void broadcastsAreLogged() throws IOException {
+        server.assertBroadcastsAreLogged();
+    }
+
+    /**
+     * Test that frames arriving a byte at a time, headers included, are put back together and each answered once.
+     */
+    @Test
+    void framesSplitAcrossReadsAreReassembled() throws Exception {
+        try (Loopback.Peer peer = server.logIn("al")) {
+            peer.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ByteBuffer first = Frames.encode(numbered(new HelpMessage("al"), 1));
+            ByteBuffer second = Frames.encode(numbered(new HelpMessage("al"), 2));
+            ByteBuffer both = ByteBuffer.allocate(first.remaining() + second.remaining()).put(first).put(second).flip();
+            while (both.hasRemaining()) {
+                peer.write(both.slice(both.position(), 1));
+                both.position(both.position() + 1);
+                Thread.sleep(1);
+            }
+            assertEquals(1, peer.receive().getRequestId());
+            assertEquals(2, peer.receive().getRequestId());
+        }
+    }
+
+    /**
+     * Test that a frame many times the initial read buffer is read whole, and that smaller frames after it are still
+     * read once the buffer has shrunk back.
+     */
+    @Test
+    void framesLargerThanTheReadBufferAreRead() throws IOException {
+        try (Loopback.Peer peer = server.logIn("al")) {
+            String text = "x".repeat(64 * NioConnection.INITIAL_READ_CAPACITY);
+            peer.send(new TextMessage("al", text));
+            assertEquals(text, ((TextMessage) peer.receive()).getText());
+            peer.send(numbered(new HelpMessage("al"), 7));
+            assertEquals(7, peer.receive().getRequestId());
+        }
+    }
+
+    /**
+     * Test that commands pipelined past the limit on those handled aside are left in the read buffer until some
+     * finish, and are then all read and answered, along with the command after them.
+     */
+    @Test
+    void readingResumesAfterTheAsideLimit() throws IOException {
+        try (Loopback.Peer peer = server.logIn("al")) {
+            int count = 4 * SessionState.ASIDE_LIMIT;
+            List<ByteBuffer> frames = new ArrayList<>();
+            Set<Long> expected = new HashSet<>();
+            for (int i = 1; i <= count; i++) {
+                frames.add(Frames.encode(numbered(new UploadStatusMessage("al", "upload-" + i, "file.txt", 1, 1,
+                        List.of()), i)));
+                expected.add((long) i);
+            }
+            frames.add(Frames.encode(numbered(new HelpMessage("al"), count + 1)));
+            expected.add((long) count + 1);
+            for (ByteBuffer frame : frames) {
+                peer.write(frame);
+            }
+
+            Set<Long> answered = new HashSet<>();
+            while (answered.size() < expected.size()) {
+                assertTrue(answered.add(peer.receive().getRequestId()), "a request was answered twice");
+            }
+            assertEquals(expected, answered);
+        }
+    }
+
+    /**
+     * Test that one loop serves several connections at once, each getting its own replies in order.
+     */
+    @Test
+    void oneLoopServesSeveralConnections() throws IOException {
+        int sessions = 8;
+        int requests = 32;
+        List<Loopback.Peer> peers = new ArrayList<>();
+        try {
+            for (int i = 0; i < sessions; i++) {
+                peers.add(server.logIn("user" + i));
+            }
+            for (int n = 1; n <= requests; n++) {
+                for (int i = 0; i < sessions; i++) {
+                    peers.get(i).send(numbered(new HelpMessage("user" + i), n));
+                }
+            }
+            for (Loopback.Peer peer : peers) {
+                for (int n = 1; n <= requests; n++) {
+                    assertEquals(n, peer.receive().getRequestId());
+                }
+            }
+        } finally {
+            for (Loopback.Peer peer : peers) {
+                peer.close();
+            }
+        }
+    }
+
+    private static Message numbered(Message msg, long requestId) {
+        msg.setRequestId(requestId);
+        return msg;
+    }
+}
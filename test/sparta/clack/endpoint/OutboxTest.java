@@ -0,0 +1,275 @@
+package sparta.clack.endpoint;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxTest {
+
+    /**
+     * Build an outbox that writes one frame at a time and never lingers.
+     *
+     * @param capacity the number of broadcasts queued before the policy applies.
+     * @param policy   the slow-consumer policy.
+     * @return the outbox.
+     */
+    static Outbox outbox(int capacity, SlowConsumerPolicy policy) {
+        return new Outbox(capacity, policy, 0, 1, 0, new FlushStats());
+    }
+
+    /**
+     * Build an outbox whose broadcasts wait for room under {@link SlowConsumerPolicy#BLOCK}.
+     *
+     * @param capacity      the number of broadcasts queued before senders wait.
+     * @param timeoutMillis how long they wait.
+     * @return the outbox.
+     */
+    static Outbox blocking(int capacity, long timeoutMillis) {
+        return new Outbox(capacity, SlowConsumerPolicy.BLOCK, TimeUnit.MILLISECONDS.toNanos(timeoutMillis), 1, 0,
+                new FlushStats());
+    }
+
+    /**
+     * Offer a frame from a new virtual thread, as a session of the blocking server would.
+     *
+     * @param outbox the outbox.
+     * @param frame  the frame.
+     * @return the result of the offer, once it returns.
+     */
+    static CompletableFuture<Boolean> offerFromVirtualThread(Outbox outbox, ByteBuffer frame) {
+        CompletableFuture<Boolean> offered = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> offered.complete(outbox.offer(frame)));
+        return offered;
+    }
+
+    /**
+     * Build a one-byte frame.
+     *
+     * @param n the frame's byte.
+     * @return the frame.
+     */
+    static ByteBuffer frame(int n) {
+        return ByteBuffer.wrap(new byte[]{(byte) n});
+    }
+
+    /**
+     * Remove everything queued.
+     *
+     * @param outbox the outbox.
+     * @return the byte of each frame, or -1 for a file region, in the order they would be written.
+     */
+    static List<Integer> drain(Outbox outbox) {
+        List<Integer> drained = new ArrayList<>();
+        List<Object> batch = new ArrayList<>();
+        while (outbox.pollBatch(batch)) {
+            for (Object entry : batch) {
+                drained.add(entry instanceof ByteBuffer frame ? (int) frame.get(0) : -1);
+            }
+            batch.clear();
+        }
+        return drained;
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestBroadcastsInOrder() {
+        Outbox outbox = outbox(3, SlowConsumerPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 7; i++) {
+            assertTrue(outbox.offer(frame(i)));
+        }
+        assertEquals(List.of(5, 6, 7), drain(outbox));
+        assertTrue(outbox.offer(frame(8)));
+        assertEquals(List.of(8), drain(outbox));
+    }
+
+    @Test
+    void dropOldestNeverDropsFileRegions() {
+        Outbox outbox = outbox(1, SlowConsumerPolicy.DROP_OLDEST);
+        outbox.add(new FileRegion(frame(9), List.of()));
+        outbox.offer(frame(1));
+        outbox.offer(frame(2));
+        assertEquals(List.of(-1, 2), drain(outbox));
+    }
+
+    @Test
+    void dropOldestNeverDropsReplies() {
+        Outbox outbox = outbox(2, SlowConsumerPolicy.DROP_OLDEST);
+        outbox.add(frame(1));
+        assertTrue(outbox.offer(frame(2)));
+        outbox.add(frame(3));
+        assertTrue(outbox.offer(frame(4)));
+        assertTrue(outbox.offer(frame(5)));
+        outbox.add(frame(6));
+        assertTrue(outbox.offer(frame(7)));
+        assertEquals(List.of(1, 3, 5, 6, 7), drain(outbox));
+    }
+
+    @Test
+    void dropOldestMatchesBroadcastsByIdentity() {
+        Outbox outbox = outbox(1, SlowConsumerPolicy.DROP_OLDEST);
+        ByteBuffer reply = frame(1);
+        ByteBuffer broadcast = frame(1);
+        outbox.add(reply);
+        outbox.offer(broadcast);
+        outbox.offer(frame(2));
+        List<Object> batch = new ArrayList<>();
+        assertTrue(outbox.pollBatch(batch));
+        assertSame(reply, batch.getFirst());
+        assertEquals(List.of(2), drain(outbox));
+    }
+
+    @Test
+    void repliesDoNotCountTowardsCapacity() {
+        Outbox outbox = outbox(1, SlowConsumerPolicy.DISCONNECT);
+        for (int i = 0; i < 10; i++) {
+            outbox.add(frame(i));
+        }
+        assertTrue(outbox.offer(frame(10)));
+        assertFalse(outbox.offer(frame(11)));
+    }
+
+    @Test
+    void repliesAndRegionsBackLogTheOutboxUntilTaken() {
+        Outbox outbox = outbox(1, SlowConsumerPolicy.DROP_OLDEST);
+        outbox.add(new FileRegion(frame(0), List.of()));
+        for (int i = 1; i < Outbox.REPLY_LIMIT; i++) {
+            assertFalse(outbox.isBacklogged());
+            outbox.add(frame(i));
+            outbox.offer(frame(-i));
+        }
+        assertTrue(outbox.isBacklogged());
+        List<Object> batch = new ArrayList<>();
+        assertTrue(outbox.pollBatch(batch));
+        assertFalse(outbox.isBacklogged());
+        drain(outbox);
+        outbox.abort();
+        assertFalse(outbox.isBacklogged());
+    }
+
+    @Test
+    void awaitReplyRoomWaitsForTheWriter() throws Exception {
+        Outbox outbox = outbox(1, SlowConsumerPolicy.DROP_OLDEST);
+        for (int i = 0; i < Outbox.REPLY_LIMIT; i++) {
+            outbox.add(frame(i));
+        }
+        CompletableFuture<Void> room = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                outbox.awaitReplyRoom();
+                room.complete(null);
+            } catch (InterruptedException e) {
+                room.completeExceptionally(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(room.isDone());
+        assertTrue(outbox.pollBatch(new ArrayList<>()));
+        room.get(10, TimeUnit.SECONDS);
+
+        outbox.add(frame(0));
+        CompletableFuture<Void> released = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                outbox.awaitReplyRoom();
+                released.complete(null);
+            } catch (InterruptedException e) {
+                released.completeExceptionally(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(released.isDone());
+        outbox.close();
+        released.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void disconnectRefusesBroadcastsOnceFull() {
+        Outbox outbox = outbox(2, SlowConsumerPolicy.DISCONNECT);
+        assertTrue(outbox.offer(frame(1)));
+        assertTrue(outbox.offer(frame(2)));
+        assertFalse(outbox.offer(frame(3)));
+        assertEquals(List.of(1, 2), drain(outbox));
+        assertTrue(outbox.offer(frame(4)));
+        assertEquals(List.of(4), drain(outbox));
+    }
+
+    @Test
+    void blockNeverWaitsOnAPlatformThread() {
+        Outbox outbox = blocking(1, 60_000);
+        assertFalse(Thread.currentThread().isVirtual());
+        assertTrue(outbox.offer(frame(1)));
+        long start = System.nanoTime();
+        assertFalse(outbox.offer(frame(2)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertEquals(List.of(1), drain(outbox));
+    }
+
+    @Test
+    void blockGivesUpAfterItsTimeout() throws ExecutionException, InterruptedException {
+        Outbox outbox = blocking(1, 50);
+        assertTrue(outbox.offer(frame(1)));
+        long start = System.nanoTime();
+        assertFalse(offerFromVirtualThread(outbox, frame(2)).get());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(List.of(1), drain(outbox));
+    }
+
+    @Test
+    void blockWaitsForTheWriterToMakeRoom() throws Exception {
+        Outbox outbox = blocking(1, 60_000);
+        assertTrue(outbox.offer(frame(1)));
+        CompletableFuture<Boolean> offered = offerFromVirtualThread(outbox, frame(2));
+        Thread.sleep(50);
+        assertFalse(offered.isDone());
+        List<Object> batch = new ArrayList<>();
+        assertTrue(outbox.pollBatch(batch));
+        assertTrue(offered.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of(2), drain(outbox));
+    }
+
+    @Test
+    void closingReleasesBlockedSenders() throws Exception {
+        Outbox outbox = blocking(1, 60_000);
+        assertTrue(outbox.offer(frame(1)));
+        CompletableFuture<Boolean> offered = offerFromVirtualThread(outbox, frame(2));
+        Thread.sleep(50);
+        outbox.close();
+        assertTrue(offered.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of(1), drain(outbox));
+    }
+
+    @Test
+    void takeBatchDrainsThenEndsOnceClosed() throws InterruptedException {
+        Outbox outbox = new Outbox(8, SlowConsumerPolicy.DROP_OLDEST, 0, 2, 0, new FlushStats());
+        for (int i = 1; i <= 3; i++) {
+            outbox.offer(frame(i));
+        }
+        outbox.close();
+        outbox.add(frame(4));
+        assertTrue(outbox.offer(frame(5)));
+        List<Object> batch = new ArrayList<>();
+        assertTrue(outbox.takeBatch(batch));
+        assertEquals(2, batch.size());
+        batch.clear();
+        assertTrue(outbox.takeBatch(batch));
+        assertEquals(1, batch.size());
+        assertFalse(outbox.takeBatch(batch));
+    }
+
+    @Test
+    void abortDiscardsEverything() {
+        Outbox outbox = outbox(8, SlowConsumerPolicy.DROP_OLDEST);
+        outbox.add(frame(1));
+        outbox.offer(frame(2));
+        outbox.abort();
+        assertTrue(outbox.isEmpty());
+        assertTrue(outbox.offer(frame(3)));
+        assertTrue(outbox.isEmpty());
+    }
+}
@@ -0,0 +1,224 @@
+package sparta.clack.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sparta.clack.cipher.AesGcmCipher;
+import sparta.clack.cipher.CaesarCipher;
+import sparta.clack.cipher.CipherCache;
+import sparta.clack.cipher.KeyExchange;
+import sparta.clack.message.LoginMessage;
+import sparta.clack.message.Message;
+import sparta.clack.message.OptionEnum;
+import sparta.clack.message.OptionMessage;
+import sparta.clack.message.TextMessage;
+import sparta.clack.store.ContentStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionStateTest {
+
+    Path root;
+    ChatRoom room;
+    ChatRoomTest.Recorder member;
+    SessionState session;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("session-state-test");
+        room = new ChatRoom();
+        member = new ChatRoomTest.Recorder("al", null);
+        UploadRegistry uploads = new UploadRegistry(new ContentStore(root.resolve("store")), root.resolve("parts"));
+        session = new SessionState("server", room, uploads, new CipherCache(), member);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Log the session in as al.
+     */
+    void logIn() throws IOException {
+        Message reply = session.handle(new LoginMessage("al", "la"));
+        assertEquals("Login successful.", ((TextMessage) reply).getText());
+        assertEquals(SessionState.Phase.CMD_WAIT, session.getPhase());
+    }
+
+    /**
+     * Set an option, numbering the request.
+     *
+     * @param option the option.
+     * @param value  its new value.
+     * @return the reply.
+     */
+    Message set(OptionEnum option, String value) throws IOException {
+        OptionMessage request = new OptionMessage("al", option, value);
+        request.setRequestId(option.ordinal() + 7);
+        Message reply = session.handle(request);
+        assertEquals(option.ordinal() + 7, reply.getRequestId());
+        return reply;
+    }
+
+    /**
+     * Assert that a reply acknowledges an option.
+     *
+     * @param option the option set.
+     * @param value  the value the acknowledgement should give.
+     * @param reply  the reply.
+     */
+    static void assertAcknowledged(OptionEnum option, String value, Message reply) {
+        OptionMessage ack = assertInstanceOf(OptionMessage.class, reply);
+        assertEquals(option, ack.getOption());
+        assertEquals(value, ack.getValue());
+    }
+
+    /**
+     * Assert that a reply is an error message.
+     *
+     * @param start how the error should start.
+     * @param reply the reply.
+     */
+    static void assertRefused(String start, Message reply) {
+        TextMessage error = assertInstanceOf(TextMessage.class, reply);
+        assertTrue(error.getText().startsWith(start), error.getText());
+    }
+
+    /**
+     * Assert that a reply is an error message that also reports encryption disabled.
+     *
+     * @param start how the error should start.
+     * @param reply the reply.
+     */
+    static void assertDisabled(String start, Message reply) {
+        assertRefused(start, reply);
+        assertTrue(((TextMessage) reply).getText().contains("Encryption disabled"), ((TextMessage) reply).getText());
+    }
+
+    @Test
+    void optionsBeforeLoginAreAnsweredWithTheGreeting() throws IOException {
+        Message reply = session.handle(new OptionMessage("al", OptionEnum.CIPHER_ENABLE, "true"));
+        assertEquals(SessionState.GREETING, ((TextMessage) reply).getText());
+        assertEquals(SessionState.Phase.LOGIN_WAIT, session.getPhase());
+        assertNull(session.getActiveCipher());
+    }
+
+    @Test
+    void nameKeyThenEnableChoosesTheCipher() throws IOException {
+        logIn();
+        assertAcknowledged(OptionEnum.CIPHER_NAME, "caesar", set(OptionEnum.CIPHER_NAME, "caesar"));
+        assertNull(session.getActiveCipher());
+        assertAcknowledged(OptionEnum.CIPHER_KEY, null, set(OptionEnum.CIPHER_KEY, "D"));
+        assertNull(session.getActiveCipher());
+        assertAcknowledged(OptionEnum.CIPHER_ENABLE, "true", set(OptionEnum.CIPHER_ENABLE, "true"));
+        assertInstanceOf(CaesarCipher.class, session.getActiveCipher());
+        assertEquals("KHOOR", session.getActiveCipher().encipher("HELLO"));
+
+        assertAcknowledged(OptionEnum.CIPHER_ENABLE, "false", set(OptionEnum.CIPHER_ENABLE, "false"));
+        assertNull(session.getActiveCipher());
+    }
+
+    @Test
+    void enablingWithoutAValidCipherIsRefused() throws IOException {
+        logIn();
+        assertRefused("Cannot enable encryption", set(OptionEnum.CIPHER_ENABLE, "true"));
+        assertNull(session.getActiveCipher());
+
+        assertAcknowledged(OptionEnum.CIPHER_NAME, "caesar", set(OptionEnum.CIPHER_NAME, "caesar"));
+        assertRefused("Cannot enable encryption", set(OptionEnum.CIPHER_ENABLE, "true"));
+        // The refused enable is not remembered: a key alone does not turn encryption on.
+        assertAcknowledged(OptionEnum.CIPHER_KEY, null, set(OptionEnum.CIPHER_KEY, "D"));
+        assertNull(session.getActiveCipher());
+
+        assertAcknowledged(OptionEnum.CIPHER_ENABLE, "false", set(OptionEnum.CIPHER_ENABLE, "false"));
+        assertNull(session.getActiveCipher());
+    }
+
+    @Test
+    void invalidNamesAndKeysAreReported() throws IOException {
+        logIn();
+        assertAcknowledged(OptionEnum.CIPHER_KEY, null, set(OptionEnum.CIPHER_KEY, "LEMON"));
+        assertRefused("Unknown cipher 'rot13'", set(OptionEnum.CIPHER_NAME, "rot13"));
+        assertRefused("Cannot enable encryption", set(OptionEnum.CIPHER_ENABLE, "true"));
+
+        assertAcknowledged(OptionEnum.CIPHER_NAME, "vignere", set(OptionEnum.CIPHER_NAME, "vignere"));
+        assertAcknowledged(OptionEnum.CIPHER_ENABLE, "true", set(OptionEnum.CIPHER_ENABLE, "true"));
+        assertNotNull(session.getActiveCipher());
+
+        // A cipher the key does not suit takes the cipher away, says why, and disables encryption until re-enabled.
+        assertDisabled("AES_GCM needs a key exchange", set(OptionEnum.CIPHER_NAME, "aes_gcm"));
+        assertNull(session.getActiveCipher());
+        assertAcknowledged(OptionEnum.CIPHER_NAME, "vignere", set(OptionEnum.CIPHER_NAME, "vignere"));
+        assertNull(session.getActiveCipher());
+        assertAcknowledged(OptionEnum.CIPHER_ENABLE, "true", set(OptionEnum.CIPHER_ENABLE, "true"));
+        assertNotNull(session.getActiveCipher());
+    }
+
+    @Test
+    void unknownNameDisablesEncryption() throws IOException {
+        logIn();
+        set(OptionEnum.CIPHER_NAME, "caesar");
+        set(OptionEnum.CIPHER_KEY, "D");
+        assertAcknowledged(OptionEnum.CIPHER_ENABLE, "true", set(OptionEnum.CIPHER_ENABLE, "true"));
+        assertNotNull(session.getActiveCipher());
+
+        assertDisabled("Unknown cipher 'rot13'", set(OptionEnum.CIPHER_NAME, "rot13"));
+        assertNull(session.getActiveCipher());
+        // A valid name does not silently turn encryption back on.
+        assertAcknowledged(OptionEnum.CIPHER_NAME, "caesar", set(OptionEnum.CIPHER_NAME, "caesar"));
+        assertNull(session.getActiveCipher());
+    }
+
+    @Test
+    void aesKeyIsAgreedNotSent() throws IOException {
+        logIn();
+        assertAcknowledged(OptionEnum.CIPHER_NAME, "aes_gcm", set(OptionEnum.CIPHER_NAME, "aes_gcm"));
+        assertRefused("Cipher key not valid for AES_GCM", set(OptionEnum.CIPHER_KEY, AesGcmCipher.newKey()));
+        assertRefused("Cannot enable encryption", set(OptionEnum.CIPHER_ENABLE, "true"));
+
+        KeyExchange client = new KeyExchange();
+        OptionMessage ack = assertInstanceOf(OptionMessage.class, set(OptionEnum.CIPHER_KEY, client.publicKey()));
+        assertEquals(OptionEnum.CIPHER_KEY, ack.getOption());
+        assertNotEquals(client.publicKey(), ack.getValue());
+        AesGcmCipher agreed = new AesGcmCipher(client.agree(ack.getValue()));
+        assertAcknowledged(OptionEnum.CIPHER_ENABLE, "true", set(OptionEnum.CIPHER_ENABLE, "true"));
+        assertInstanceOf(AesGcmCipher.class, session.getActiveCipher());
+        assertEquals("Hello", agreed.decipher(session.getActiveCipher().encipher("Hello")));
+        assertEquals("Hello", session.getActiveCipher().decipher(agreed.encipher("Hello")));
+
+        // Leaving AES_GCM and coming back needs a new exchange: the public key is no key for another cipher.
+        assertDisabled("Cipher key not valid for VIGNERE", set(OptionEnum.CIPHER_NAME, "vignere"));
+        assertNull(session.getActiveCipher());
+        assertAcknowledged(OptionEnum.CIPHER_KEY, null, set(OptionEnum.CIPHER_KEY, "LEMON"));
+        assertNull(session.getActiveCipher());
+        assertAcknowledged(OptionEnum.CIPHER_ENABLE, "true", set(OptionEnum.CIPHER_ENABLE, "true"));
+        assertNotNull(session.getActiveCipher());
+        assertDisabled("AES_GCM needs a key exchange", set(OptionEnum.CIPHER_NAME, "aes_gcm"));
+        assertNull(session.getActiveCipher());
+    }
+
+    @Test
+    void textIsDecryptedBeforeItIsBroadcast() throws IOException {
+        logIn();
+        set(OptionEnum.CIPHER_NAME, "caesar");
+        set(OptionEnum.CIPHER_KEY, "D");
+        set(OptionEnum.CIPHER_ENABLE, "true");
+        TextMessage text = new TextMessage("al", "KHOOR");
+        text.setRequestId(3);
+        assertNull(session.handle(text));
+        assertEquals(List.of("HELLO"), member.texts());
+        assertEquals(0, room.getUsernames().indexOf("al"));
+    }
+}
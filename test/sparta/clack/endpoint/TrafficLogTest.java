@@ -0,0 +1,243 @@
+package sparta.clack.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sparta.clack.message.ListUsersMessage;
+import sparta.clack.message.LoginMessage;
+import sparta.clack.message.Message;
+import sparta.clack.message.TextMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrafficLogTest {
+
+    Path root;
+    Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("traffic-log-test");
+        file = root.resolve("logs").resolve("traffic.log");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Build a control message with a request ID.
+     *
+     * @param requestId the request ID.
+     * @return the message.
+     */
+    static Message login(long requestId) {
+        Message msg = new LoginMessage("al", "la");
+        msg.setRequestId(requestId);
+        return msg;
+    }
+
+    /**
+     * Read the lines written to the log file.
+     *
+     * @return the lines, in the order they were written.
+     * @throws IOException if the file cannot be read.
+     */
+    List<String> lines() throws IOException {
+        return Files.readAllLines(file);
+    }
+
+    /**
+     * Read the request IDs of the records in the log file.
+     *
+     * @param connection only records of this connection.
+     * @return the request IDs, in the order they were written.
+     * @throws IOException if the file cannot be read.
+     */
+    List<Long> requestIds(long connection) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        for (String line : lines()) {
+            if (line.contains(" #" + connection + " ")) {
+                int start = line.indexOf(" req=") + 5;
+                ids.add(Long.parseLong(line.substring(start, line.indexOf(' ', start))));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Wait until the log has written a number of records.
+     *
+     * @param log   the log.
+     * @param count the number of records.
+     */
+    static void awaitWritten(TrafficLog log, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (log.getWritten() < count) {
+            assertTrue(System.nanoTime() < deadline, "Only " + log.getWritten() + " of " + count + " written.");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void recordsAreWrittenOnePerLine() throws IOException {
+        TrafficLog log = new TrafficLog(file, 16, TrafficLog.DEFAULT_MAX_FILE_BYTES, 1);
+        log.start();
+        log.record(3, false, login(7), 41);
+        log.record(3, true, new ListUsersMessage("al"), 12);
+        log.close();
+
+        List<String> lines = lines();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).matches(
+                "\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z #3 <= LOGIN al req=7 41 B"), lines.get(0));
+        assertTrue(lines.get(1).endsWith(" #3 => LISTUSERS al 12 B"), lines.get(1));
+        assertEquals(2, log.getWritten());
+        assertEquals(0, log.getDropped());
+    }
+
+    @Test
+    void ringWrapsAroundAsItIsDrained() throws IOException, InterruptedException {
+        TrafficLog log = new TrafficLog(file, 4, TrafficLog.DEFAULT_MAX_FILE_BYTES, 1);
+        log.start();
+        for (int lap = 0; lap < 5; lap++) {
+            for (int i = 1; i <= 4; i++) {
+                log.record(1, false, login(lap * 4 + i), 10);
+            }
+            awaitWritten(log, (lap + 1) * 4L);
+        }
+        log.close();
+
+        List<Long> expected = new ArrayList<>();
+        for (long id = 1; id <= 20; id++) {
+            expected.add(id);
+        }
+        assertEquals(expected, requestIds(1));
+        assertEquals(0, log.getDropped());
+    }
+
+    @Test
+    void recordsBeyondAFullRingAreDroppedAndCounted() throws IOException {
+        TrafficLog log = new TrafficLog(file, 4, TrafficLog.DEFAULT_MAX_FILE_BYTES, 1);
+        // Nothing drains before start, so the first four fill the ring and the rest are dropped.
+        for (int i = 1; i <= 10; i++) {
+            log.record(1, false, login(i), 10);
+        }
+        assertEquals(6, log.getDropped());
+        log.start();
+        log.close();
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), requestIds(1));
+        assertTrue(lines().getLast().endsWith(" 6 records dropped, log ring full"), lines().getLast());
+        assertEquals(4, log.getWritten());
+    }
+
+    @Test
+    void levelAndSamplingFilterDataMessages() throws IOException {
+        TrafficLog log = new TrafficLog(file, 64, TrafficLog.DEFAULT_MAX_FILE_BYTES, 1);
+        assertEquals(TrafficLog.Level.ALL, log.getLevel());
+        assertThrows(IllegalArgumentException.class, () -> log.setSampleEvery(0));
+
+        log.setLevel(TrafficLog.Level.OFF);
+        log.record(1, false, login(1), 10);
+        log.record(1, false, new TextMessage("al", "off"), 10);
+
+        log.setLevel(TrafficLog.Level.CONTROL);
+        log.record(2, false, login(2), 10);
+        log.record(2, false, new TextMessage("al", "control"), 10);
+
+        log.setLevel(TrafficLog.Level.ALL);
+        log.setSampleEvery(Integer.MAX_VALUE);
+        for (int i = 0; i < 20; i++) {
+            log.record(3, false, new TextMessage("al", "rare"), 10);
+        }
+        log.record(3, false, login(3), 10);
+
+        log.setSampleEvery(1);
+        log.record(4, true, new TextMessage("al", "all"), 10);
+
+        log.start();
+        log.close();
+        List<String> lines = lines();
+        assertEquals(3, lines.size(), String.join("\n", lines));
+        assertTrue(lines.get(0).endsWith(" #2 <= LOGIN al req=2 10 B"), lines.get(0));
+        assertTrue(lines.get(1).endsWith(" #3 <= LOGIN al req=3 10 B"), lines.get(1));
+        assertTrue(lines.get(2).endsWith(" #4 => TEXT al 10 B"), lines.get(2));
+        assertEquals(0, log.getDropped());
+    }
+
+    @Test
+    void concurrentProducersLoseNothingAndCloseDrainsAll() throws IOException, InterruptedException {
+        int producers = 4;
+        int perProducer = 5_000;
+        TrafficLog log = new TrafficLog(file, 1 << 16, TrafficLog.DEFAULT_MAX_FILE_BYTES, 1);
+        log.start();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long connection = log.newConnectionId();
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 1; i <= perProducer; i++) {
+                    log.record(connection, false, login(i), 10);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        log.close();
+
+        assertEquals(0, log.getDropped());
+        assertEquals((long) producers * perProducer, log.getWritten());
+        assertEquals(producers * perProducer, lines().size());
+        List<Long> expected = new ArrayList<>();
+        for (long id = 1; id <= perProducer; id++) {
+            expected.add(id);
+        }
+        for (long connection = 1; connection <= producers; connection++) {
+            // Each producer's records keep their order, however they interleave with the others'.
+            assertEquals(expected, requestIds(connection));
+        }
+    }
+
+    @Test
+    void fullFilesAreRotated() throws IOException, InterruptedException {
+        TrafficLog log = new TrafficLog(file, 16, 100, 2);
+        log.start();
+        for (int i = 1; i <= 9; i++) {
+            log.record(1, false, login(i), 10);
+            awaitWritten(log, i); // One line per write, so each file holds what fits in 100 bytes.
+        }
+        log.close();
+
+        Path first = file.resolveSibling("traffic.log.1");
+        Path second = file.resolveSibling("traffic.log.2");
+        assertTrue(Files.exists(first));
+        assertTrue(Files.exists(second));
+        assertFalse(Files.exists(file.resolveSibling("traffic.log.3")));
+        for (Path path : List.of(file, first, second)) {
+            assertTrue(Files.size(path) <= 100, path + " is " + Files.size(path) + " bytes.");
+        }
+        assertEquals(List.of(9L), requestIds(1));
+    }
+
+    @Test
+    void invalidSettingsAreRefused() {
+        assertThrows(IllegalArgumentException.class, () -> new TrafficLog(file, 0, 100, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TrafficLog(file, 4, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TrafficLog(file, 4, 100, -1));
+    }
+}
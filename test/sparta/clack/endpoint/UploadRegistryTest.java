@@ -0,0 +1,307 @@
+package sparta.clack.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sparta.clack.message.ByteRange;
+import sparta.clack.message.FileChunkMessage;
+import sparta.clack.message.UploadStatusMessage;
+import sparta.clack.store.ContentStore;
+import sparta.clack.store.Manifest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadRegistryTest {
+
+    static final int CHUNK_SIZE = 4;
+    static final String ID = "upload-1";
+
+    Path root;
+    ContentStore store;
+    UploadRegistry uploads;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("upload-registry-test");
+        store = new ContentStore(root.resolve("store"), CHUNK_SIZE);
+        uploads = new UploadRegistry(store, root.resolve("parts"));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Build test contents: length bytes counting up from 1.
+     *
+     * @param length the number of bytes.
+     * @return the bytes.
+     */
+    static byte[] contents(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i + 1);
+        }
+        return bytes;
+    }
+
+    /**
+     * Ask for the status of an upload of {@code size} bytes in chunks of {@link #CHUNK_SIZE}.
+     *
+     * @param id       the upload's ID.
+     * @param fileName the name to save it as.
+     * @param size     the file's size.
+     * @return the reply.
+     * @throws IOException if the request is invalid or the file cannot be saved.
+     */
+    UploadStatusMessage status(String id, String fileName, long size) throws IOException {
+        return uploads.status("server", "al", new UploadStatusMessage("al", id, fileName, size, CHUNK_SIZE, null));
+    }
+
+    /**
+     * Build the chunk of a file at an offset.
+     *
+     * @param file   the file's contents.
+     * @param offset the chunk's offset.
+     * @return the chunk, for the upload {@link #ID}.
+     */
+    static FileChunkMessage chunk(byte[] file, int offset) {
+        byte[] data = Arrays.copyOfRange(file, offset, Math.min(offset + CHUNK_SIZE, file.length));
+        return new FileChunkMessage("al", ID, "data.bin", offset, data, offset + CHUNK_SIZE >= file.length);
+    }
+
+    /**
+     * Read a saved file back.
+     *
+     * @param name the name it was saved under.
+     * @return its contents.
+     * @throws IOException if it cannot be read.
+     */
+    byte[] saved(String name) throws IOException {
+        Manifest manifest = store.open(name);
+        ByteBuffer all = ByteBuffer.allocate((int) manifest.size());
+        for (ByteBuffer buffer : store.map(manifest, 0, manifest.size())) {
+            all.put(buffer);
+        }
+        return all.array();
+    }
+
+    /**
+     * Test that chunks arriving in any order are written at their own offsets, and that the status lists what is
+     * still missing, merged into ranges, until the file is saved.
+     */
+    @Test
+    void outOfOrderChunksCompleteTheFile() throws IOException {
+        byte[] file = contents(10);
+        assertEquals(List.of(new ByteRange(0, 10)), status(ID, "data.bin", 10).getMissing());
+        assertTrue(uploads.receive("al", chunk(file, 4)));
+        assertEquals(List.of(new ByteRange(0, 4), new ByteRange(8, 10)), status(ID, "data.bin", 10).getMissing());
+        assertTrue(uploads.receive("al", chunk(file, 8)));
+        assertEquals(List.of(new ByteRange(0, 4)), status(ID, "data.bin", 10).getMissing());
+        assertTrue(uploads.receive("al", chunk(file, 0)));
+
+        UploadStatusMessage done = status(ID, "data.bin", 10);
+        assertTrue(done.isComplete());
+        assertEquals("data.bin", done.getFileName());
+        assertArrayEquals(file, saved("data.bin"));
+        assertEquals(0, uploads.size());
+        try (Stream<Path> parts = Files.list(root.resolve("parts"))) {
+            assertEquals(0, parts.count());
+        }
+    }
+
+    /**
+     * Test that a chunk received twice is written twice, to the same place, and counted once.
+     */
+    @Test
+    void duplicateChunkIsHarmless() throws IOException {
+        byte[] file = contents(8);
+        status(ID, "data.bin", 8);
+        assertTrue(uploads.receive("al", chunk(file, 0)));
+        assertTrue(uploads.receive("al", chunk(file, 0)));
+        assertEquals(List.of(new ByteRange(4, 8)), status(ID, "data.bin", 8).getMissing());
+        assertTrue(uploads.receive("al", chunk(file, 4)));
+        assertTrue(uploads.receive("al", chunk(file, 4)));
+        assertTrue(status(ID, "data.bin", 8).isComplete());
+        assertArrayEquals(file, saved("data.bin"));
+    }
+
+    /**
+     * Test that a chunk whose bytes no longer match its checksum is dropped, and asked for again.
+     */
+    @Test
+    void corruptChunkIsDropped() throws IOException {
+        byte[] file = contents(8);
+        status(ID, "data.bin", 8);
+        FileChunkMessage corrupt = chunk(file, 4);
+        corrupt.getData()[1] ^= 1;
+        assertFalse(corrupt.isIntact());
+        assertFalse(uploads.receive("al", corrupt));
+        assertTrue(uploads.receive("al", chunk(file, 0)));
+        assertEquals(List.of(new ByteRange(4, 8)), status(ID, "data.bin", 8).getMissing());
+        assertTrue(uploads.receive("al", chunk(file, 4)));
+        assertTrue(status(ID, "data.bin", 8).isComplete());
+        assertArrayEquals(file, saved("data.bin"));
+    }
+
+    /**
+     * Test that chunks that do not fit the upload, or belong to no upload, are dropped.
+     */
+    @Test
+    void misfitChunksAreDropped() throws IOException {
+        byte[] file = contents(10);
+        assertFalse(uploads.receive("al", chunk(file, 0)));
+        status(ID, "data.bin", 10);
+        assertFalse(uploads.receive("al", new FileChunkMessage("al", ID, "data.bin", 2, new byte[4], false)));
+        assertFalse(uploads.receive("al", new FileChunkMessage("al", ID, "data.bin", 4, new byte[3], false)));
+        assertFalse(uploads.receive("al", new FileChunkMessage("al", ID, "data.bin", 8, new byte[4], true)));
+        assertFalse(uploads.receive("al", new FileChunkMessage("al", ID, "data.bin", 12, new byte[2], true)));
+        assertFalse(uploads.receive("al", new FileChunkMessage("al", "other", "data.bin", 0, new byte[4], false)));
+        assertEquals(List.of(new ByteRange(0, 10)), status(ID, "data.bin", 10).getMissing());
+    }
+
+    /**
+     * Test that an upload outlives the connection that started it: a status request with the same ID, from any
+     * session, picks it up where it stopped, while one that describes a different file starts it over.
+     */
+    @Test
+    void resumeAfterReconnect() throws IOException {
+        byte[] file = contents(12);
+        status(ID, "data.bin", 12);
+        assertTrue(uploads.receive("al", chunk(file, 0)));
+        assertTrue(uploads.receive("al", chunk(file, 8)));
+
+        // A new session asks again, as the client does after reconnecting.
+        assertEquals(List.of(new ByteRange(4, 8)), status(ID, "data.bin", 12).getMissing());
+        assertTrue(uploads.receive("al", chunk(file, 4)));
+        assertTrue(status(ID, "data.bin", 12).isComplete());
+        assertArrayEquals(file, saved("data.bin"));
+
+        status(ID, "data.bin", 12);
+        assertTrue(uploads.receive("al", chunk(file, 0)));
+        assertEquals(List.of(new ByteRange(0, 16)), status(ID, "data.bin", 16).getMissing());
+        assertEquals(List.of(new ByteRange(0, 16)), status(ID, "other.bin", 16).getMissing());
+        assertEquals(1, uploads.size());
+    }
+
+    /**
+     * Test that an empty file needs no chunks, and that a file saved under a name already taken gets a variant.
+     */
+    @Test
+    void emptyFileAndTakenName() throws IOException {
+        store.save("data.bin", contents(3));
+        UploadStatusMessage done = status(ID, "data.bin", 0);
+        assertTrue(done.isComplete());
+        assertEquals("data-1.bin", done.getFileName());
+        assertArrayEquals(new byte[0], saved("data-1.bin"));
+    }
+
+    /**
+     * Test that invalid IDs, sizes and chunk sizes are refused.
+     */
+    @Test
+    void invalidRequestsAreRefused() {
+        assertThrows(IOException.class, () -> status(null, "data.bin", 10));
+        assertThrows(IOException.class, () -> status("../up", "data.bin", 10));
+        assertThrows(IOException.class, () -> status("x".repeat(65), "data.bin", 10));
+        assertThrows(IOException.class, () -> status(ID, "data.bin", -1));
+        assertThrows(IOException.class, () -> uploads.status("server", "al",
+                new UploadStatusMessage("al", ID, "data.bin", 10, 0, null)));
+        assertThrows(IOException.class, () -> uploads.status("server", "al",
+                new UploadStatusMessage("al", ID, "data.bin", 10, UploadRegistry.MAX_CHUNK_SIZE + 1, null)));
+        assertThrows(IOException.class, () -> uploads.status("server", "al",
+                new UploadStatusMessage("al", ID, "data.bin", 1L << 31, 1, null)));
+        assertThrows(IOException.class, () -> status(ID, "data.bin",
+                (long) UploadRegistry.MAX_CHUNK_COUNT * CHUNK_SIZE + 1));
+        assertEquals(0, uploads.size());
+    }
+
+    /**
+     * Test that no new upload is started while the most allowed are in progress, but known ones still resume.
+     */
+    @Test
+    void unfinishedUploadsAreCapped() throws IOException {
+        for (int i = 0; i < UploadRegistry.MAX_UPLOADS; i++) {
+            status("upload-" + i, "data.bin", 10);
+        }
+        assertThrows(IOException.class, () -> status("one-more", "data.bin", 10));
+        assertEquals(List.of(new ByteRange(0, 10)), status("upload-0", "data.bin", 10).getMissing());
+        assertEquals(UploadRegistry.MAX_UPLOADS, uploads.size());
+    }
+
+    /**
+     * Test that only the user who started an upload can ask about it, restart it or send chunks for it.
+     */
+    @Test
+    void uploadsBelongToTheUserWhoStartedThem() throws IOException {
+        byte[] file = contents(8);
+        status(ID, "data.bin", 8);
+        assertTrue(uploads.receive("al", chunk(file, 0)));
+
+        assertThrows(IOException.class, () -> uploads.status("server", "bo",
+                new UploadStatusMessage("bo", ID, "data.bin", 8, CHUNK_SIZE, null)));
+        assertThrows(IOException.class, () -> uploads.status("server", "bo",
+                new UploadStatusMessage("al", ID, "other.bin", 16, CHUNK_SIZE, null)));
+        assertFalse(uploads.receive("bo", chunk(file, 4)));
+        assertFalse(uploads.receive("bo", new FileChunkMessage("al", ID, "data.bin", 0, new byte[4], false)));
+
+        assertEquals(List.of(new ByteRange(4, 8)), status(ID, "data.bin", 8).getMissing());
+        assertTrue(uploads.receive("al", chunk(file, 4)));
+        assertTrue(status(ID, "data.bin", 8).isComplete());
+        assertArrayEquals(file, saved("data.bin"));
+    }
+
+    /**
+     * Test that uploads left unused past the idle timeout are abandoned, with their part files, to make room for new
+     * ones.
+     */
+    @Test
+    void idleUploadsAreEvicted() throws Exception {
+        uploads = new UploadRegistry(store, root.resolve("parts"), 100);
+        byte[] file = contents(8);
+        for (int i = 0; i < UploadRegistry.MAX_UPLOADS; i++) {
+            status("upload-" + i, "data.bin", 8);
+        }
+        assertTrue(uploads.receive("al", new FileChunkMessage("al", "upload-0", "data.bin", 0,
+                Arrays.copyOf(file, CHUNK_SIZE), false)));
+        assertTrue(Files.exists(root.resolve("parts").resolve("upload-0.part")));
+        assertThrows(IOException.class, () -> status("one-more", "data.bin", 8));
+
+        Thread.sleep(200);
+        status("upload-1", "data.bin", 8); // Still known, so it is kept and its clock restarted.
+        assertEquals(List.of(new ByteRange(0, 8)), status("one-more", "data.bin", 8).getMissing());
+        assertEquals(2, uploads.size());
+        assertFalse(Files.exists(root.resolve("parts").resolve("upload-0.part")));
+        assertFalse(uploads.receive("al", new FileChunkMessage("al", "upload-0", "data.bin", 4,
+                Arrays.copyOfRange(file, CHUNK_SIZE, 8), true)));
+    }
+
+    /**
+     * Test that a requested name is cut down to its last path element, and that names with none are refused.
+     */
+    @Test
+    void fileNamesAreSanitised() throws IOException {
+        assertEquals("passwd", UploadRegistry.fileName("../../etc/passwd"));
+        assertEquals("a.txt", UploadRegistry.fileName("/tmp/dir/a.txt"));
+        assertEquals("a.txt", UploadRegistry.fileName("a.txt"));
+        for (String bad : new String[]{null, "", "/", "..", "dir/.."}) {
+            assertThrows(IOException.class, () -> UploadRegistry.fileName(bad), bad);
+        }
+        assertEquals("passwd", status(ID, "../../passwd", 0).getFileName());
+        assertFalse(Files.exists(root.resolve("passwd")));
+    }
+}
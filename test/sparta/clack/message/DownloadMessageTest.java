@@ -0,0 +1,55 @@
+package sparta.clack.message;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadMessageTest {
+
+    static final String USERNAME = "the user";
+    static final String FILE_NAME = "artifact.tar";
+
+    /**
+     * Test the request constructors: whole file and range, with the size unknown.
+     */
+    @Test
+    void testRequest() {
+        DownloadMessage whole = new DownloadMessage(USERNAME, FILE_NAME, null);
+        assertEquals(MsgType.DOWNLOAD, whole.getMsgType());
+        assertEquals(USERNAME, whole.getUsername());
+        assertEquals(FILE_NAME, whole.getFileName());
+        assertNull(whole.getRange());
+        assertEquals(-1, whole.getFileSize());
+
+        DownloadMessage part = new DownloadMessage(USERNAME, FILE_NAME, new ByteRange(10, 20));
+        assertEquals(new ByteRange(10, 20), part.getRange());
+        assertEquals(-1, part.getFileSize());
+    }
+
+    /**
+     * Test the reply constructor.
+     */
+    @Test
+    void testReply() {
+        DownloadMessage reply = new DownloadMessage(USERNAME, FILE_NAME, new ByteRange(10, 20), 100);
+        assertEquals(new ByteRange(10, 20), reply.getRange());
+        assertEquals(100, reply.getFileSize());
+    }
+
+    /**
+     * Test toString. Match all fields except for timestamp.
+     */
+    @Test
+    void testToString() {
+        DownloadMessage dm = new DownloadMessage(USERNAME, FILE_NAME, new ByteRange(10, 20), 100);
+        String expected = "DownloadMessage{Message{msgTypeEnum=DOWNLOAD"
+                + ", timestamp=omitted"
+                + ", username='" + USERNAME + "'}"
+                + ", fileName='" + FILE_NAME + "'"
+                + ", range=[10, 20), fileSize=100}";
+        String actual = dm.toString().replaceFirst(
+                "timestamp.*, username=",
+                "timestamp=omitted, username=");
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,194 @@
+package sparta.clack.message;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static java.time.Duration.between;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileChunkMessageTest {
+
+    static final String USERNAME = "the user";
+    static final String SAVE_AS_NAME = "clack_test_send_as.bin";
+
+    /* Initialized before each test (OS's temp dir) */
+    Path tempDir;
+    Path testFile;
+
+    /**
+     * Create a temporary directory and an empty test file in it.
+     *
+     * @throws IOException if directory or file creation fails.
+     */
+    @BeforeEach
+    void createTestFile() throws IOException {
+        tempDir = Files.createTempDirectory("clack2-").toRealPath();
+        testFile = Files.createTempFile(tempDir, "test-", null);
+    }
+
+    /**
+     * Delete the test file and the test directory.
+     *
+     * @throws IOException if file or directory deletion fails.
+     */
+    @AfterEach
+    void deleteTestFile() throws IOException {
+        Files.delete(testFile);
+        Files.delete(tempDir);
+    }
+
+    /**
+     * Write the test file, read it back in chunks, and check the chunks' offsets, sizes and last flags.
+     *
+     * @param length    the file length.
+     * @param chunkSize the chunk size.
+     * @return the file contents reassembled from the chunks.
+     * @throws IOException if the file can't be written or read.
+     */
+    byte[] readInChunks(int length, int chunkSize) throws IOException {
+        byte[] contents = new byte[length];
+        for (int i = 0; i < length; i++) {
+            contents[i] = (byte) (i * 31);
+        }
+        Files.write(testFile, contents);
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        try (FileChunkReader reader = new FileChunkReader(USERNAME, testFile.toString(),
+                tempDir.resolve(SAVE_AS_NAME).toString(), chunkSize)) {
+            assertEquals(length, reader.getSize());
+            int chunks = 0;
+            FileChunkMessage chunk;
+            while ((chunk = reader.next()) != null) {
+                assertEquals(reassembled.size(), chunk.getOffset());
+                assertEquals(SAVE_AS_NAME, chunk.getFileName());
+                assertEquals(USERNAME, chunk.getUsername());
+                assertTrue(chunk.getData().length <= chunkSize);
+                reassembled.write(chunk.getData());
+                assertEquals(reassembled.size() == length, chunk.isLast());
+                assertEquals(!chunk.isLast(), reader.hasNext());
+                chunks++;
+            }
+            assertEquals(Math.max(1, (length + chunkSize - 1) / chunkSize), chunks);
+            assertNull(reader.next());
+        }
+        assertArrayEquals(contents, reassembled.toByteArray());
+        return reassembled.toByteArray();
+    }
+
+    /**
+     * Test that files of various lengths are split into chunks and reassemble exactly, including an empty file
+     * (one empty last chunk) and lengths that are and aren't a multiple of the chunk size.
+     *
+     * @throws IOException if the test file can't be written or read.
+     */
+    @Test
+    void readerSplitsFiles() throws IOException {
+        readInChunks(0, 16);
+        readInChunks(1, 16);
+        readInChunks(16, 16);
+        readInChunks(100, 16);
+        readInChunks(FileChunkMessage.DEFAULT_CHUNK_SIZE * 2 + 3, FileChunkMessage.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Test that chunks read at arbitrary positions for a resumable upload carry the upload ID and match the file,
+     * and that the upload ID changes with the file.
+     *
+     * @throws IOException if the test file can't be written or read.
+     */
+    @Test
+    void readerChunkAt() throws IOException {
+        byte[] contents = readInChunks(100, 16);
+        String firstId;
+        try (FileChunkReader reader = new FileChunkReader(USERNAME, testFile.toString(), SAVE_AS_NAME, 16)) {
+            firstId = reader.getUploadId();
+            assertNotNull(firstId);
+            FileChunkMessage chunk = reader.chunkAt(96);
+            assertEquals(firstId, chunk.getUploadId());
+            assertEquals(96, chunk.getOffset());
+            assertArrayEquals(Arrays.copyOfRange(contents, 96, 100), chunk.getData());
+            assertTrue(chunk.isLast());
+            assertFalse(reader.chunkAt(32).isLast());
+            assertThrows(IllegalArgumentException.class, () -> reader.chunkAt(8));
+            assertThrows(IllegalArgumentException.class, () -> reader.chunkAt(112));
+            // chunkAt does not disturb in-order reading.
+            assertEquals(0, reader.next().getOffset());
+        }
+        try (FileChunkReader reader = new FileChunkReader(USERNAME, testFile.toString(), SAVE_AS_NAME, 16)) {
+            assertEquals(firstId, reader.getUploadId());
+        }
+        Files.write(testFile, new byte[101]);
+        try (FileChunkReader reader = new FileChunkReader(USERNAME, testFile.toString(), SAVE_AS_NAME, 16)) {
+            assertNotEquals(firstId, reader.getUploadId());
+        }
+    }
+
+    /**
+     * Test that the checksum detects a changed chunk.
+     */
+    @Test
+    void testChecksum() {
+        byte[] data = "some chunk data".getBytes();
+        FileChunkMessage fcm = new FileChunkMessage(USERNAME, SAVE_AS_NAME, 0, data, true);
+        assertEquals(FileChunkMessage.checksum(data), fcm.getChecksum());
+        assertTrue(fcm.isIntact());
+        data[3] ^= 1;
+        assertFalse(fcm.isIntact());
+    }
+
+    /**
+     * Test that the reader rejects missing files and bad chunk sizes.
+     */
+    @Test
+    void readerRejectsBadArguments() {
+        assertThrows(IOException.class,
+                () -> new FileChunkReader(USERNAME, tempDir.resolve("NOT_HERE.txt").toString()));
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileChunkReader(USERNAME, testFile.toString(), SAVE_AS_NAME, 0));
+    }
+
+    /**
+     * Test getters, getMsgType and getTimestamp.
+     */
+    @Test
+    void testGetters() {
+        byte[] data = {1, 2, 3};
+        FileChunkMessage fcm = new FileChunkMessage(USERNAME, SAVE_AS_NAME, 42, data, false);
+        assertEquals(MsgType.FILECHUNK, fcm.getMsgType());
+        assertEquals(USERNAME, fcm.getUsername());
+        assertEquals(SAVE_AS_NAME, fcm.getFileName());
+        assertEquals(42, fcm.getOffset());
+        assertSame(data, fcm.getData());
+        assertFalse(fcm.isLast());
+        assertNull(fcm.getUploadId());
+        assertEquals("upload-1",
+                new FileChunkMessage(USERNAME, "upload-1", SAVE_AS_NAME, 0, data, true).getUploadId());
+        Duration duration = between(fcm.getTimestamp(), Instant.now());
+        assertTrue(Math.abs(duration.toSeconds()) <= 1);
+    }
+
+    /**
+     * Test toString. Match all fields except for timestamp.
+     */
+    @Test
+    void testToString() {
+        FileChunkMessage fcm = new FileChunkMessage(USERNAME, SAVE_AS_NAME, 42, new byte[3], true);
+        String expected = "FileChunkMessage{Message{msgTypeEnum=FILECHUNK"
+                + ", timestamp=omitted"
+                + ", username='" + USERNAME + "'}"
+                + ", fileName='" + SAVE_AS_NAME + "'"
+                + ", offset=42, length=3, last=true}";
+        String actual = fcm.toString().replaceFirst(
+                "timestamp.*, username=",
+                "timestamp=omitted, username=");
+        assertEquals(expected, actual);
+    }
+}
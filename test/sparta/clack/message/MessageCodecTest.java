@@ -0,0 +1,158 @@
+package sparta.clack.message;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+
+    static final String USERNAME = "the user";
+    static final Instant TIMESTAMP = Instant.parse("2024-02-29T12:34:56.123456789Z");
+    static final List<MessageCodec> CODECS = List.of(MessageCodec.BINARY, MessageCodec.SERIAL);
+
+    /**
+     * Build one message of every type, all with a fixed timestamp.
+     *
+     * @return the messages.
+     */
+    static List<Message> sampleMessages() {
+        byte[] fileBytes = new byte[300];
+        for (int i = 0; i < fileBytes.length; i++) {
+            fileBytes[i] = (byte) i;
+        }
+        return List.of(
+                new DownloadMessage(USERNAME, "data.bin", new ByteRange(5, 1L << 40), 1L << 41, TIMESTAMP),
+                new FileMessage(USERNAME, "data.bin", fileBytes, TIMESTAMP),
+                new FileChunkMessage(USERNAME, "upload-1", "data.bin", 1L << 40, fileBytes, true,
+                        FileChunkMessage.checksum(fileBytes), TIMESTAMP),
+                new HelpMessage(USERNAME, TIMESTAMP),
+                new ListUsersMessage(USERNAME, TIMESTAMP),
+                new LoginMessage(USERNAME, "resu eht", TIMESTAMP),
+                new LogoutMessage(USERNAME, TIMESTAMP),
+                new OptionMessage(USERNAME, OptionEnum.CIPHER_NAME, "PLAYFAIR", TIMESTAMP),
+                new TextMessage(USERNAME, "Hello, wörld 😀", TIMESTAMP),
+                new UploadStatusMessage(USERNAME, "upload-1", "data.bin", 1L << 40, 65536,
+                        List.of(new ByteRange(0, 65536), new ByteRange(1L << 39, 1L << 40)), TIMESTAMP)
+        );
+    }
+
+    /**
+     * Encode a message and decode it again, checking that the headroom is left free.
+     *
+     * @param codec the codec to use.
+     * @param msg   the message.
+     * @return the decoded copy.
+     * @throws IOException if encoding or decoding fails.
+     */
+    static Message roundTrip(MessageCodec codec, Message msg) throws IOException {
+        ByteBuffer encoded = codec.encode(msg, 4);
+        assertEquals(0, encoded.position());
+        return codec.decode(encoded.position(4).slice());
+    }
+
+    /**
+     * Test that every message type survives a round trip through each codec, timestamp included.
+     */
+    @Test
+    void roundTripEveryType() throws IOException {
+        for (MessageCodec codec : CODECS) {
+            for (Message msg : sampleMessages()) {
+                Message copy = roundTrip(codec, msg);
+                assertEquals(msg.getClass(), copy.getClass());
+                assertEquals(msg.getMsgType(), copy.getMsgType());
+                assertEquals(TIMESTAMP, copy.getTimestamp());
+                assertEquals(msg.toString(), copy.toString());
+                if (msg instanceof FileMessage fileMessage) {
+                    assertArrayEquals(fileMessage.getFileBytes(), ((FileMessage) copy).getFileBytes());
+                } else if (msg instanceof FileChunkMessage chunk) {
+                    assertArrayEquals(chunk.getData(), ((FileChunkMessage) copy).getData());
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that request IDs survive a round trip through each codec, including IDs that need every bit.
+     */
+    @Test
+    void roundTripRequestIds() throws IOException {
+        for (MessageCodec codec : CODECS) {
+            for (long requestId : new long[]{0, 1, 300, Long.MAX_VALUE, -1}) {
+                for (Message msg : sampleMessages()) {
+                    msg.setRequestId(requestId);
+                    Message copy = roundTrip(codec, msg);
+                    assertEquals(requestId, copy.getRequestId());
+                    assertEquals(msg.toString(), copy.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that null fields and timestamps before the epoch survive a round trip through the binary codec.
+     */
+    @Test
+    void roundTripNullsAndOldTimestamps() throws IOException {
+        Instant before = Instant.ofEpochSecond(-86_400L * 365, 5);
+        List<Message> messages = List.of(
+                new TextMessage(null, null, before),
+                new OptionMessage(USERNAME, OptionEnum.CIPHER_KEY, null, before),
+                new FileChunkMessage(USERNAME, "empty", 0, new byte[0], true),
+                new DownloadMessage(USERNAME, null, null),
+                new UploadStatusMessage(USERNAME, null, null, 0, 0, null, before),
+                new UploadStatusMessage(USERNAME, "upload-1", "empty", 0, 1, List.of(), before),
+                new FileMessage(USERNAME, "empty", new byte[0], before)
+        );
+        for (Message msg : messages) {
+            Message copy = roundTrip(MessageCodec.BINARY, msg);
+            assertEquals(msg.getTimestamp(), copy.getTimestamp());
+            assertEquals(msg.toString(), copy.toString());
+        }
+        LoginMessage login = (LoginMessage) roundTrip(MessageCodec.BINARY, new LoginMessage(USERNAME, null, before));
+        assertNull(login.getPassword());
+    }
+
+    /**
+     * Test that the binary encoding is much smaller than serialization.
+     */
+    @Test
+    void binaryIsSmaller() throws IOException {
+        Message msg = new TextMessage(USERNAME, "hi", TIMESTAMP);
+        int binary = MessageCodec.BINARY.encode(msg, 0).remaining();
+        int serial = MessageCodec.SERIAL.encode(msg, 0).remaining();
+        assertTrue(binary * 4 < serial, binary + " vs " + serial);
+    }
+
+    /**
+     * Test that truncated, padded and unknown encodings are rejected with an IOException.
+     */
+    @Test
+    void malformedInputThrows() throws IOException {
+        for (Message msg : sampleMessages()) {
+            ByteBuffer encoded = MessageCodec.BINARY.encode(msg, 0);
+            byte[] bytes = Arrays.copyOf(encoded.array(), encoded.remaining());
+            for (int length = 0; length < bytes.length; length++) {
+                ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, length);
+                assertThrows(IOException.class, () -> MessageCodec.BINARY.decode(truncated));
+            }
+            ByteBuffer padded = ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length + 1));
+            assertThrows(IOException.class, () -> MessageCodec.BINARY.decode(padded));
+        }
+        assertThrows(IOException.class, () -> MessageCodec.BINARY.decode(ByteBuffer.wrap(new byte[]{99, 0, 0, 0})));
+        // OPTION with option code 0, which no option has.
+        assertThrows(IOException.class,
+                () -> MessageCodec.BINARY.decode(ByteBuffer.wrap(new byte[]{6, 0, 0, 0, 0, 0, 0})));
+        // HELP timestamped Long.MAX_VALUE seconds and a billion nanos, which overflows a long.
+        assertThrows(IOException.class, () -> MessageCodec.BINARY.decode(ByteBuffer.wrap(
+                new byte[]{2, -2, -1, -1, -1, -1, -1, -1, -1, -1, 1, -128, -108, -21, -36, 3, 0, 0})));
+        assertThrows(IOException.class,
+                () -> MessageCodec.BINARY.encode(new OptionMessage(USERNAME, null, "x", TIMESTAMP), 0));
+        assertThrows(IOException.class, () -> MessageCodec.SERIAL.decode(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+    }
+}
@@ -38,6 +38,14 @@ class TextMessageTest {
         assertEquals(USERNAME, msg.getUsername());
     }
 
+    @Test
+    void getRequestId() {
+        assertEquals(0, msg.getRequestId());
+        msg.setRequestId(42);
+        assertEquals(42, msg.getRequestId());
+        assertTrue(msg.toString().contains(", requestId=42}"));
+    }
+
     @Test
     void getText() {
         TextMessage hm = new TextMessage("user", "this is the text");
@@ -0,0 +1,76 @@
+package sparta.clack.message;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadStatusMessageTest {
+
+    static final String USERNAME = "the user";
+    static final String UPLOAD_ID = "2f0b6c1e-upload";
+    static final String FILE_NAME = "artifact.tar";
+
+    /**
+     * Test getters, getMsgType, and that the missing list is copied and unmodifiable.
+     */
+    @Test
+    void testGetters() {
+        List<ByteRange> ranges = new ArrayList<>(List.of(new ByteRange(0, 10), new ByteRange(20, 25)));
+        UploadStatusMessage usm = new UploadStatusMessage(USERNAME, UPLOAD_ID, FILE_NAME, 25, 10, ranges);
+        ranges.clear();
+        assertEquals(MsgType.UPLOADSTATUS, usm.getMsgType());
+        assertEquals(USERNAME, usm.getUsername());
+        assertEquals(UPLOAD_ID, usm.getUploadId());
+        assertEquals(FILE_NAME, usm.getFileName());
+        assertEquals(25, usm.getSize());
+        assertEquals(10, usm.getChunkSize());
+        assertEquals(List.of(new ByteRange(0, 10), new ByteRange(20, 25)), usm.getMissing());
+        assertThrows(UnsupportedOperationException.class, () -> usm.getMissing().clear());
+        assertFalse(usm.isComplete());
+    }
+
+    /**
+     * Test isComplete for a question (no list) and a reply with nothing missing.
+     */
+    @Test
+    void testIsComplete() {
+        assertFalse(new UploadStatusMessage(USERNAME, UPLOAD_ID, FILE_NAME, 25, 10, null).isComplete());
+        assertNull(new UploadStatusMessage(USERNAME, UPLOAD_ID, FILE_NAME, 25, 10, null).getMissing());
+        assertTrue(new UploadStatusMessage(USERNAME, UPLOAD_ID, FILE_NAME, 25, 10, List.of()).isComplete());
+    }
+
+    /**
+     * Test ByteRange validation, length and toString.
+     */
+    @Test
+    void testByteRange() {
+        ByteRange range = new ByteRange(20, 25);
+        assertEquals(5, range.length());
+        assertEquals("[20, 25)", range.toString());
+        assertEquals(0, new ByteRange(7, 7).length());
+        assertThrows(IllegalArgumentException.class, () -> new ByteRange(-1, 5));
+        assertThrows(IllegalArgumentException.class, () -> new ByteRange(5, 4));
+    }
+
+    /**
+     * Test toString. Match all fields except for timestamp.
+     */
+    @Test
+    void testToString() {
+        UploadStatusMessage usm = new UploadStatusMessage(USERNAME, UPLOAD_ID, FILE_NAME, 25, 10,
+                List.of(new ByteRange(20, 25)));
+        String expected = "UploadStatusMessage{Message{msgTypeEnum=UPLOADSTATUS"
+                + ", timestamp=omitted"
+                + ", username='" + USERNAME + "'}"
+                + ", uploadId='" + UPLOAD_ID + "'"
+                + ", fileName='" + FILE_NAME + "'"
+                + ", size=25, chunkSize=10, missing=[[20, 25)]}";
+        String actual = usm.toString().replaceFirst(
+                "timestamp.*, username=",
+                "timestamp=omitted, username=");
+        assertEquals(expected, actual);
+    }
+}
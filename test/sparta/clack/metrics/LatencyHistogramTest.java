@@ -0,0 +1,100 @@
+package sparta.clack.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsAreContiguous() {
+        for (int index = 0; index < LatencyHistogram.BUCKETS - 1; index++) {
+            long upper = LatencyHistogram.upperBound(index);
+            assertEquals(index, LatencyHistogram.bucket(upper));
+            assertEquals(index + 1, LatencyHistogram.bucket(upper + 1));
+        }
+    }
+
+    @Test
+    void longDurationsGoInLastBucket() {
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.percentileNanos(0.99));
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0.0, histogram.getMeanMicros());
+    }
+
+    @Test
+    void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos * 1_000);
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000, histogram.getMaxNanos());
+        assertEquals(50_000.5, histogram.getMeanMicros(), 0.001);
+        for (double fraction : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            double expected = fraction * 100_000_000;
+            long actual = histogram.percentileNanos(fraction);
+            assertTrue(actual >= expected && actual <= expected * 1.125, fraction + ": " + actual);
+        }
+        assertEquals(100_000_000, histogram.percentileNanos(1));
+    }
+
+    @Test
+    void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getSumNanos());
+    }
+
+    @Test
+    void fractionOutOfRange() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentileNanos(1.5));
+        assertThrows(IllegalArgumentException.class, () -> histogram.percentileNanos(Double.NaN));
+    }
+
+    @Test
+    void addMergesCountsSumAndMax() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(100);
+        first.record(200);
+        second.record(5_000);
+        first.add(second);
+        assertEquals(3, first.getCount());
+        assertEquals(5_300, first.getSumNanos());
+        assertEquals(5_000, first.getMaxNanos());
+        assertEquals(1, second.getCount());
+    }
+
+    @Test
+    void concurrentRecordingLosesNothing() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 1; i <= 10_000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, histogram.getCount());
+        assertEquals(8 * 10_000L * 10_001 / 2, histogram.getSumNanos());
+        assertEquals(10_000, histogram.getMaxNanos());
+    }
+}
@@ -0,0 +1,208 @@
+package sparta.clack.store;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentStoreTest {
+
+    static final int CHUNK_SIZE = 16;
+
+    Path root;
+    ContentStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("content-store-test");
+        store = new ContentStore(root, CHUNK_SIZE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Build test contents: length bytes counting up from first.
+     *
+     * @param length the number of bytes.
+     * @param first  the first byte's value.
+     * @return the bytes.
+     */
+    static byte[] bytes(int length, int first) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (first + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Read a range of a stored file back through memory-mapped buffers.
+     *
+     * @param manifest the file.
+     * @param start    the first position.
+     * @param end      the position after the last.
+     * @return the bytes.
+     * @throws IOException if mapping fails.
+     */
+    byte[] read(Manifest manifest, long start, long end) throws IOException {
+        ByteBuffer all = ByteBuffer.allocate((int) (end - start));
+        for (ByteBuffer buffer : store.map(manifest, start, end)) {
+            all.put(buffer);
+        }
+        assertFalse(all.hasRemaining());
+        return all.array();
+    }
+
+    /**
+     * Count the chunk files stored.
+     *
+     * @return the number of chunks.
+     * @throws IOException if the store cannot be listed.
+     */
+    long chunkCount() throws IOException {
+        try (Stream<Path> paths = Files.walk(root.resolve("chunks"))) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+
+    /**
+     * Test that a saved file reads back whole and in ranges, including ranges that cross chunk boundaries.
+     */
+    @Test
+    void saveAndRead() throws IOException {
+        byte[] contents = bytes(50, 0);
+        Manifest saved = store.save("data.bin", contents);
+        assertEquals("data.bin", saved.name());
+        assertEquals(50, saved.size());
+        assertEquals(4, saved.chunks().size());
+
+        Manifest opened = store.open("data.bin");
+        assertEquals(saved, opened);
+        assertArrayEquals(contents, read(opened, 0, 50));
+        assertArrayEquals(bytes(20, 10), read(opened, 10, 30));
+        assertArrayEquals(new byte[0], read(opened, 50, 50));
+
+        List<Segment> segments = store.segments(opened, 10, 30);
+        assertEquals(2, segments.size());
+        assertEquals(10, segments.get(0).position());
+        assertEquals(6, segments.get(0).count());
+        assertEquals(0, segments.get(1).position());
+        assertEquals(14, segments.get(1).count());
+        assertThrows(IndexOutOfBoundsException.class, () -> store.segments(opened, 10, 51));
+    }
+
+    /**
+     * Test that identical chunks are stored once, within a file and across files.
+     */
+    @Test
+    void identicalChunksStoredOnce() throws IOException {
+        byte[] repeated = new byte[CHUNK_SIZE * 3];
+        store.save("zeros.bin", repeated);
+        assertEquals(1, chunkCount());
+
+        byte[] shared = bytes(CHUNK_SIZE * 2, 7);
+        store.save("first.bin", shared);
+        assertEquals(3, chunkCount());
+        byte[] extended = bytes(CHUNK_SIZE * 3, 7);
+        store.save("second.bin", extended);
+        assertEquals(4, chunkCount());
+        assertArrayEquals(extended, read(store.open("second.bin"), 0, extended.length));
+    }
+
+    /**
+     * Test that a name already taken is numbered rather than overwritten, and that saving the same content again
+     * reuses the existing name.
+     */
+    @Test
+    void namesAreNeverOverwritten() throws IOException {
+        byte[] first = bytes(20, 0);
+        byte[] second = bytes(20, 1);
+        assertEquals("report.pdf", store.save("report.pdf", first).name());
+        assertEquals("report-1.pdf", store.save("report.pdf", second).name());
+        assertEquals("report.pdf", store.save("report.pdf", first).name());
+        assertEquals("report-1.pdf", store.save("report.pdf", second).name());
+        assertEquals("report-2.pdf", store.save("report.pdf", new byte[0]).name());
+        assertArrayEquals(first, read(store.open("report.pdf"), 0, 20));
+        assertArrayEquals(second, read(store.open("report-1.pdf"), 0, 20));
+    }
+
+    /**
+     * Test that a writer fed uneven pieces, and a file imported from disk, save the same chunks as the bytes saved
+     * at once.
+     */
+    @Test
+    void writerAndFileImportMatchSave() throws IOException {
+        byte[] contents = bytes(77, 3);
+        Manifest whole = store.save("whole.bin", contents);
+
+        ContentStore.Writer writer = store.newWriter();
+        int position = 0;
+        for (int piece = 1; position < contents.length; piece += 5) {
+            int length = Math.min(piece, contents.length - position);
+            writer.write(ByteBuffer.wrap(contents, position, length));
+            position += length;
+        }
+        assertEquals(contents.length, writer.size());
+        Manifest written = writer.commit("written.bin");
+        assertTrue(whole.sameContent(written));
+        assertThrows(IllegalStateException.class, () -> writer.write(ByteBuffer.allocate(1)));
+
+        Path file = Files.createTempFile(root, "import", ".bin");
+        Files.write(file, contents);
+        Manifest imported = store.save("imported.bin", file);
+        assertTrue(whole.sameContent(imported));
+        assertEquals(5, chunkCount());
+    }
+
+    /**
+     * Test that an empty file is saved with no chunks.
+     */
+    @Test
+    void emptyFile() throws IOException {
+        Manifest saved = store.save("empty", new byte[0]);
+        assertEquals(0, saved.size());
+        assertTrue(saved.chunks().isEmpty());
+        assertEquals(saved, store.open("empty"));
+        assertTrue(store.map(saved, 0, 0).isEmpty());
+    }
+
+    /**
+     * Test that names that are not a single path element, and unknown names, are rejected.
+     */
+    @Test
+    void badNamesThrow() {
+        for (String name : List.of("", ".", "..", "../escape", "sub/file")) {
+            assertThrows(IOException.class, () -> store.save(name, new byte[1]), name);
+            assertThrows(IOException.class, () -> store.open(name), name);
+        }
+        assertThrows(NoSuchFileException.class, () -> store.open("missing"));
+    }
+
+    /**
+     * Test that numbered variants go before the extension, if there is one.
+     */
+    @Test
+    void numberedNames() {
+        assertEquals("report-1.pdf", ContentStore.numbered("report.pdf", 1));
+        assertEquals("archive.tar-2.gz", ContentStore.numbered("archive.tar.gz", 2));
+        assertEquals("README-3", ContentStore.numbered("README", 3));
+        assertEquals(".bashrc-1", ContentStore.numbered(".bashrc", 1));
+    }
+}